@@ -0,0 +1,62 @@
+package com.webrtc.srs.benchmark;
+
+import com.webrtc.srs.audio.AudioLevelMeter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One 10 ms chunk of 48 kHz PCM per op, the size the ADM hands to SamplesReadyCallback on the
+ * audio record thread. Chunks alternate between a voiced tone and low noise so the speech
+ * state machine and both floor branches run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AudioLevelMeterBenchmark {
+    private static final int RATE = 48000;
+    private static final int CHUNK = RATE / 100;
+    private static final int CHUNKS = 64;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    private AudioLevelMeter meter;
+    private byte[][] chunks;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        meter = new AudioLevelMeter();
+        chunks = new byte[CHUNKS][];
+        Random random = new Random(10);
+        for (int c = 0; c < CHUNKS; c++) {
+            byte[] pcm = new byte[CHUNK * channels * 2];
+            boolean voiced = (c / 16) % 2 == 0;
+            for (int i = 0; i < CHUNK * channels; i++) {
+                double t = (double) (c * CHUNK + i / channels) / RATE;
+                double value = voiced ? 3000 * Math.sin(2 * Math.PI * 150 * t) : 30 * (2 * random.nextDouble() - 1);
+                short sample = (short) Math.round(value);
+                pcm[2 * i] = (byte) sample;
+                pcm[2 * i + 1] = (byte) (sample >> 8);
+            }
+            chunks[c] = pcm;
+        }
+    }
+
+    @Benchmark
+    public boolean process() {
+        byte[] pcm = chunks[next];
+        next = (next + 1) & (CHUNKS - 1);
+        return meter.process(pcm, 0, pcm.length, channels);
+    }
+}
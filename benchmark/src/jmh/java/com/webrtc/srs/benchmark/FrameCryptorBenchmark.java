@@ -0,0 +1,90 @@
+package com.webrtc.srs.benchmark;
+
+import com.webrtc.srs.crypto.FrameCryptor;
+import com.webrtc.srs.crypto.FrameKeyRing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypts and decrypts one frame per op at 720p sizes: 8000 B is a delta frame and 60000 B a
+ * key frame at about 2 Mbps / 30 fps. A frame period is 33 ms, so the budget per frame is what
+ * both sides add to the send and receive paths. H264 frames are one Annex-B slice, so the
+ * layout scan and RBSP escaping show up against VP8's fixed header.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameCryptorBenchmark {
+    @Param({"VP8", "H264"})
+    public FrameCryptor.Codec codec;
+
+    @Param({"8000", "60000"})
+    public int frameBytes;
+
+    private FrameCryptor sender;
+    private FrameCryptor receiver;
+    private ByteBuffer frame;
+    private ByteBuffer sealed;
+    private ByteBuffer encryptOut;
+    private ByteBuffer decryptOut;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        Random random = new Random(720);
+        byte[] key = new byte[16];
+        random.nextBytes(key);
+        FrameKeyRing senderRing = new FrameKeyRing();
+        senderRing.setKey(0, key);
+        senderRing.setCurrentEpoch(0);
+        FrameKeyRing receiverRing = new FrameKeyRing();
+        receiverRing.setKey(0, key);
+        sender = new FrameCryptor(senderRing, codec);
+        receiver = new FrameCryptor(receiverRing, codec);
+
+        byte[] bytes = new byte[frameBytes];
+        random.nextBytes(bytes);
+        if (codec == FrameCryptor.Codec.H264) {
+            // Start code and IDR slice header; an encoder's payload never emulates a start code.
+            for (int i = 5; i < bytes.length; i++) {
+                if (bytes[i] == 0) {
+                    bytes[i] = 1;
+                }
+            }
+            bytes[0] = 0;
+            bytes[1] = 0;
+            bytes[2] = 0;
+            bytes[3] = 1;
+            bytes[4] = 0x65;
+        }
+        frame = ByteBuffer.wrap(bytes);
+        encryptOut = ByteBuffer.allocate(sender.getMaxCiphertextByteSize(frameBytes));
+        sealed = ByteBuffer.allocate(encryptOut.capacity());
+        sender.encrypt(frame.duplicate(), sealed);
+        sealed.flip();
+        decryptOut = ByteBuffer.allocate(receiver.getMaxPlaintextByteSize(sealed.remaining()));
+    }
+
+    @Benchmark
+    public int encrypt() throws GeneralSecurityException {
+        encryptOut.clear();
+        return sender.encrypt(frame.duplicate(), encryptOut);
+    }
+
+    @Benchmark
+    public int decrypt() throws GeneralSecurityException {
+        decryptOut.clear();
+        return receiver.decrypt(sealed.duplicate(), decryptOut);
+    }
+}
@@ -0,0 +1,72 @@
+package com.webrtc.srs.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.webrtc.srs.api.SdpBeanTypeAdapter;
+import com.webrtc.srs.bean.SdpBean;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes one SRS /rtc/v1 answer body the way the converter hands it over (a JsonReader on
+ * the body's char stream). {@code legacy} is the old path: reflective decode, then
+ * re-serialize, regex-strip newlines and parse again in onResponse. {@code streaming} is the
+ * SdpBeanTypeAdapter registered on SignalClient's Gson. Run with -prof gc for bytes per op.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SdpBeanDecodeBenchmark {
+    private byte[] body;
+    private Gson reflective;
+    private TypeAdapter<SdpBean> reflectiveAdapter;
+    private TypeAdapter<SdpBean> streamingAdapter;
+
+    @Setup
+    public void setUp() throws IOException {
+        body = SrsAnswer.JSON.getBytes(StandardCharsets.UTF_8);
+        reflective = new GsonBuilder().setLenient().disableHtmlEscaping().create();
+        reflectiveAdapter = reflective.getAdapter(SdpBean.class);
+        Gson streaming = new GsonBuilder()
+                .setLenient()
+                .disableHtmlEscaping()
+                .registerTypeAdapter(SdpBean.class, new SdpBeanTypeAdapter())
+                .create();
+        streamingAdapter = streaming.getAdapter(SdpBean.class);
+        if (!legacy().getSdp().equals(streaming().getSdp())) {
+            throw new IllegalStateException("decoded answers differ");
+        }
+    }
+
+    private JsonReader reader() {
+        return new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public SdpBean legacy() throws IOException {
+        SdpBean decoded = reflectiveAdapter.read(reader());
+        Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+        String s = gson.toJson(decoded);
+        s = s.replaceAll("\n", "");
+        return gson.fromJson(s, SdpBean.class);
+    }
+
+    @Benchmark
+    public SdpBean streaming() throws IOException {
+        return streamingAdapter.read(reader());
+    }
+}
@@ -0,0 +1,48 @@
+package com.webrtc.srs.benchmark;
+
+import com.webrtc.srs.sdp.SdpMediaSection;
+import com.webrtc.srs.sdp.SdpSession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves H264 to the front of the video m-line of an SRS answer, once with the old
+ * split/regex/join code and once through SdpSession. Run with -prof gc for allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SdpBenchmark {
+    private String sdp;
+
+    @Setup
+    public void setUp() {
+        sdp = SrsAnswer.SDP;
+        if (!legacy().equals(model())) {
+            throw new IllegalStateException("legacy and SdpSession output differ");
+        }
+    }
+
+    @Benchmark
+    public String legacy() {
+        return LegacySdp.preferCodec(sdp, "H264", false);
+    }
+
+    @Benchmark
+    public String model() {
+        final SdpSession session = SdpSession.parse(sdp);
+        final SdpMediaSection media = session.findMedia("video");
+        if (media == null || !media.preferCodec("H264")) {
+            return sdp;
+        }
+        return session.toSdp();
+    }
+}
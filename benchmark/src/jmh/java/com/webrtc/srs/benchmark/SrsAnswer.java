@@ -0,0 +1,50 @@
+package com.webrtc.srs.benchmark;
+
+/**
+ * A play answer as returned by SRS 4 for /rtc/v1/play/, see the SdpBean javadoc.
+ */
+final class SrsAnswer {
+    static final String SDP = "v=0\r\n"
+            + "o=SRS/4.0.89(Leo) 54934496 2 IN IP4 0.0.0.0\r\n"
+            + "s=SRSPlaySession\r\n"
+            + "t=0 0\r\n"
+            + "a=ice-lite\r\n"
+            + "a=group:BUNDLE 0 1\r\n"
+            + "a=msid-semantic: WMS live/36147_1010\r\n"
+            + "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\n"
+            + "c=IN IP4 0.0.0.0\r\n"
+            + "a=ice-ufrag:85beu046\r\n"
+            + "a=ice-pwd:7cc955e059om1u6g089764598h0e96d2\r\n"
+            + "a=fingerprint:sha-256 8F:C4:D7:B1:CA:3E:62:57:A1:14:8C:B3:5F:EA:46:2D:32:B0:BB:B7:70:45:F1:3C:0E:AA:AF:17:CD:9F:37:56\r\n"
+            + "a=setup:passive\r\n"
+            + "a=mid:0\r\n"
+            + "a=sendonly\r\n"
+            + "a=rtcp-mux\r\n"
+            + "a=rtcp-rsize\r\n"
+            + "a=rtpmap:111 opus/48000/2\r\n"
+            + "a=ssrc:44606871 cname:56l22i98346r576j\r\n"
+            + "a=ssrc:44606871 label:audio-6v46lg11\r\n"
+            + "a=candidate:0 1 udp 2130706431 47.105.215.67 40500 typ host generation 0\r\n"
+            + "m=video 9 UDP/TLS/RTP/SAVPF 125 126\r\n"
+            + "c=IN IP4 0.0.0.0\r\n"
+            + "a=ice-ufrag:85beu046\r\n"
+            + "a=ice-pwd:7cc955e059om1u6g089764598h0e96d2\r\n"
+            + "a=fingerprint:sha-256 8F:C4:D7:B1:CA:3E:62:57:A1:14:8C:B3:5F:EA:46:2D:32:B0:BB:B7:70:45:F1:3C:0E:AA:AF:17:CD:9F:37:56\r\n"
+            + "a=setup:passive\r\n"
+            + "a=mid:1\r\n"
+            + "a=sendonly\r\n"
+            + "a=rtcp-mux\r\n"
+            + "a=rtcp-rsize\r\n"
+            + "a=rtpmap:126 VP8/90000\r\n"
+            + "a=rtpmap:125 H264/90000\r\n"
+            + "a=fmtp:125 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n"
+            + "a=ssrc:44606872 cname:56l22i98346r576j\r\n"
+            + "a=ssrc:44606872 label:video-6179ht01\r\n"
+            + "a=candidate:0 1 udp 2130706431 47.105.215.67 40500 typ host generation 0\r\n";
+
+    static final String JSON = "{\"code\":0,\"server\":\"vid-4416-674\",\"sdp\":\""
+            + SDP.replace("\r\n", "\\r\\n") + "\",\"sessionid\":\"85beu046:Rlqi\"}";
+
+    private SrsAnswer() {
+    }
+}
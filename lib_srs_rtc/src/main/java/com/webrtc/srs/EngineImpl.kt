@@ -1,36 +1,52 @@
 package com.webrtc.srs
 
-import android.annotation.SuppressLint
 import android.app.Activity
 import android.content.Context
 import android.media.AudioManager
 import android.text.TextUtils
 import android.util.Log
-import com.google.gson.GsonBuilder
-import com.webrtc.srs.api.ApiInterface
+import com.webrtc.srs.abr.PublishAbrController
+import com.webrtc.srs.api.SignalClient
+import com.webrtc.srs.api.SignalBackend
+import com.webrtc.srs.api.SrsSignalBackend
+import com.webrtc.srs.api.WhipSignalBackend
+import com.webrtc.srs.audio.AudioLevelMonitor
 import com.webrtc.srs.bean.ChannelType
-import com.webrtc.srs.bean.PlayBodyBean
-import com.webrtc.srs.bean.SdpBean
+import com.webrtc.srs.bean.SignalProtocol
 import com.webrtc.srs.bean.StreamType
 import com.webrtc.srs.bean.VideoPeer
+import com.webrtc.srs.iinterface.IEncryptionCallback
 import com.webrtc.srs.iinterface.IRTCEngine
 import com.webrtc.srs.iinterface.RTCConfig
-import com.webrtc.srs.util.StringUtil
+import com.webrtc.srs.iinterface.SignalPolicy
+import com.webrtc.srs.metrics.FirstFrameProbe
+import com.webrtc.srs.metrics.SessionTimeline
+import com.webrtc.srs.pool.SubscribePool
+import com.webrtc.srs.record.LocalRecorder
+import com.webrtc.srs.recovery.RecoveryMetrics
+import com.webrtc.srs.recovery.SessionRecovery
+import com.webrtc.srs.session.SessionRegistry
+import com.webrtc.srs.stats.StatsDigester
+import com.webrtc.srs.stats.StatsScheduler
+import com.webrtc.srs.util.SimpleSdpObserver
+import com.webrtc.srs.video.VideoFanOut
 import com.webrtc.srs.wrap.WebRtcMediaStreamStack
 import com.webrtc.srs.wrap.WebRtcPeerConnectionFactoryStack
-import okhttp3.OkHttpClient
-import okhttp3.logging.HttpLoggingInterceptor
+import org.webrtc.CryptoOptions
 import org.webrtc.DataChannel
+import org.webrtc.EglRenderer
 import org.webrtc.IceCandidate
 import org.webrtc.MediaConstraints
 import org.webrtc.MediaStream
 import org.webrtc.MediaStreamTrack
 import org.webrtc.PeerConnection
 import org.webrtc.PeerConnection.IceConnectionState
+import org.webrtc.PeerConnection.PeerConnectionState
 import org.webrtc.PeerConnection.IceGatheringState
 import org.webrtc.PeerConnection.RTCConfiguration
 import org.webrtc.PeerConnection.SignalingState
 import org.webrtc.PeerConnectionFactory
+import org.webrtc.RTCStatsCollectorCallback
 import org.webrtc.RendererCommon
 import org.webrtc.RtpReceiver
 import org.webrtc.RtpTransceiver
@@ -38,109 +54,533 @@ import org.webrtc.RtpTransceiver.RtpTransceiverInit
 import org.webrtc.SdpObserver
 import org.webrtc.SessionDescription
 import org.webrtc.SurfaceViewRenderer
+import org.webrtc.VideoSink
 import org.webrtc.VideoTrack
 import org.webrtc.voiceengine.WebRtcAudioUtils
-import retrofit2.Call
-import retrofit2.Callback
-import retrofit2.Response
-import retrofit2.Retrofit
-import retrofit2.converter.gson.GsonConverterFactory
+import java.io.File
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Created by shen on 2023/7/28
  */
 class EngineImpl private constructor() : IRTCEngine {
 
+    @Volatile
     private var mPeerConnectionFactory: PeerConnectionFactory? = null
+
+    // 只在推流会话（mUid）的执行器上读写
     private var mLocalStream: WebRtcMediaStreamStack? = null
     private var isMirror = true
     private var mContext: Context? = null
+
+    @Volatile
     private var mUid: String? = null
-    private val mPeerMap = ConcurrentHashMap<String, VideoPeer>()
+
+    @Volatile
     private var mRtcConfig: RTCConfig = RTCConfig()
 
+    /**
+     * 每个会话一个串行执行器，共用一个线程池：同一会话的状态变化按顺序执行，不同会话并行
+     */
+    private val mSessionPool: ExecutorService = Executors.newFixedThreadPool(SESSION_THREADS) { runnable ->
+        Thread(runnable, "RtcSession").apply { isDaemon = true }
+    }
+    private val mSessions = SessionRegistry(mSessionPool) { closeSession(it) }
+
+    @Volatile
+    private var mShutdown: CountDownLatch? = null
+    private val mSignalClient by lazy { SignalClient() }
+    private var mSignalPolicy: SignalPolicy = SignalPolicy()
+    private var mPublishStats: StatsScheduler.Registration? = null
+    private var mPublishAbr: PublishAbrController? = null
+    private val mSrsBackend by lazy { SrsSignalBackend(mSignalClient) { mSignalPolicy } }
+    private val mWhipBackend by lazy { WhipSignalBackend(mSignalClient) { mSignalPolicy } }
+    private val mSubscribePool by lazy { SubscribePool(this::createPooledPeer) }
+    private val mTimelineAggregate = SessionTimeline.Aggregate()
+    private var mTimelineListener: SessionTimeline.Listener? = null
+    private var mRecoveryPolicy = SessionRecovery.Policy()
+    private var mRecoveryListener: SessionRecovery.Listener? = null
+    private val mRecoveryMetrics = RecoveryMetrics()
+
+    @Volatile
+    private var mEncryptionCallback: IEncryptionCallback? = null
+    private val mRecorders = ConcurrentHashMap<String, LocalRecorder>()
+    private var mAudioLevelMonitor: AudioLevelMonitor? = null
+
     override fun init(context: Context, uid: String) {
+        // 上一次 unInit 的释放还没完成时等它结束，避免新建的 factory 被释放
+        mShutdown?.await(SHUTDOWN_WAIT_MS, TimeUnit.MILLISECONDS)
+        mShutdown = null
         mUid = uid
         mContext = context
-        WebRtcPeerConnectionFactoryStack.init(context)
+        WebRtcPeerConnectionFactoryStack.init(context, mRtcConfig.micSamplesCallback)
         mPeerConnectionFactory = WebRtcPeerConnectionFactoryStack.getInstance().peerConnectionFactroy
+        mSubscribePool.configure(mRtcConfig.subscribePoolSize, mRtcConfig.subscribePoolTtlMs)
+        mSessions.maxSessions = mRtcConfig.maxSessions
+        mSessions.idleTimeoutMs = mRtcConfig.sessionIdleTimeoutMs
     }
 
+    /**
+     * 不阻塞：每个会话在自己的执行器上释放，最后一个会话释放完后销毁 factory
+     */
     override fun unInit() {
         stopPush()
+        val shutdown = CountDownLatch(1)
+        mShutdown = shutdown
+        val sessions = mSessions.uids()
+        val remaining = AtomicInteger(sessions.size)
+        val onReleased = {
+            if (remaining.decrementAndGet() == 0) {
+                disposeEngine()
+                shutdown.countDown()
+            }
+        }
+        if (sessions.isEmpty()) {
+            mSessionPool.execute {
+                disposeEngine()
+                shutdown.countDown()
+            }
+            return
+        }
+        for (uid in sessions) {
+            mSessions.executor(uid).execute {
+                doStopRecording(uid)
+                if (uid == mUid) {
+                    stopPublishAbr()
+                }
+                mSessions.close(uid)?.apply {
+                    release()
+                    surfaceViewRenderer?.release()
+                }
+                onReleased()
+            }
+        }
+    }
+
+    private fun disposeEngine() {
+        mSubscribePool.shutdown()
         mPeerConnectionFactory?.dispose()
         mPeerConnectionFactory = null
-        while (mPeerMap.elements().hasMoreElements()) {
-            mPeerMap.elements().nextElement().surfaceViewRenderer?.release()
-        }
-        mPeerMap.clear()
+        mSessions.clear()
+        mSignalClient.evictConnections()
         WebRtcPeerConnectionFactoryStack.dispose()
         PeerConnectionFactory.stopInternalTracingCapture()
         PeerConnectionFactory.shutdownInternalTracer()
     }
 
+    private fun session(uid: String): Executor = mSessions.executor(uid)
+
+    /**
+     * 本地流属于推流会话，相关操作都在推流会话的执行器上执行
+     */
+    private fun publishSession(task: () -> Unit) {
+        val uid = mUid ?: return
+        session(uid).execute { task() }
+    }
+
     override fun startPublish(uid: String, streamType: StreamType, videoPeer: VideoPeer) {
-        mPeerMap[uid] = videoPeer
+        session(uid).execute { doStartPublish(uid, streamType, videoPeer) }
+    }
+
+    private fun doStartPublish(uid: String, streamType: StreamType, videoPeer: VideoPeer) {
+        if (mSessions[uid] != null) {
+            // 再 open 会替换会话里的 VideoPeer、多建一个 PeerConnection，一次 stopPush 也停不掉
+            Log.w(TAG, "startPublish: $uid is already publishing, ignored")
+            return
+        }
+        mSessions.open(uid, videoPeer)
+        videoPeer.streamType = streamType
+        videoPeer.timeline = SessionTimeline(uid, SessionTimeline.Phase.DTLS_CONNECTED, mTimelineListener, mTimelineAggregate)
+        videoPeer.recovery = createRecovery(uid)
 
         if (mLocalStream == null) {
             mLocalStream = videoPeer.surfaceViewRenderer?.let { createLocalStream(it, streamType) }
         }
+        connectPublish(uid, streamType)
+    }
+
+    private fun connectPublish(uid: String, streamType: StreamType) {
         val peerConnection = createPeerConnection(uid)
         peerConnection?.let {
             initPublish(it, streamType)
+            val encryption = mEncryptionCallback
             mLocalStream?.apply {
-                it.addTrack(audioTrack)
+                val senders = mutableListOf(it.addTrack(audioTrack))
                 if (videoTrack != null && streamType == StreamType.VIDEO) {
-                    it.addTrack(videoTrack)
+                    senders.add(it.addTrack(videoTrack))
+                }
+                encryption?.let { callback ->
+                    senders.forEach { sender -> sender?.setFrameEncryptor(callback.encrypt()) }
                 }
             }
 
             val mediaConstraints = MediaConstraints()
             it.createOffer(InnerSdpObserver(uid), mediaConstraints)
-            mPeerMap[uid]?.apply {
+            mSessions[uid]?.apply {
                 this.peerConnection = it
             }
+            if (streamType == StreamType.VIDEO && mRtcConfig.adaptiveBitrate) {
+                startPublishAbr(it)
+            }
         }
     }
 
+    /**
+     * 推流自适应：定时读取发送端统计，按档位调整采集分辨率、帧率和码率
+     */
+    private fun startPublishAbr(peerConnection: PeerConnection) {
+        val controller = PublishAbrController(
+            PublishAbrController.defaultRungs(mRtcConfig.videoWidth, mRtcConfig.videoHeight, mRtcConfig.fps),
+            0,
+            PublishAbrController.Parameters(),
+            object : PublishAbrController.Actuator {
+                override fun changeCaptureFormat(width: Int, height: Int, fps: Int) {
+                    publishSession { mLocalStream?.changeCaptureFormat(width, height, fps) }
+                }
+
+                override fun setBitrate(minBps: Int, startBps: Int, maxBps: Int) {
+                    peerConnection.setBitrate(minBps, startBps, maxBps)
+                }
+            })
+        val digester = StatsDigester(PUBLISH_STATS_HISTORY)
+        stopPublishAbr()
+        mPublishAbr = controller
+        mPublishStats = StatsScheduler.getInstance().register({
+            controller.requestStats {
+                peerConnection.getStats(RTCStatsCollectorCallback { report ->
+                    controller.onStats(digester.digest(report))
+                })
+            }
+        }, PUBLISH_STATS_PERIOD_MS)
+        controller.start()
+    }
+
+    /**
+     * 在释放或替换推流 PeerConnection 之前调用，之后在途的统计回调也不会再改码率
+     */
+    private fun stopPublishAbr() {
+        mPublishStats?.cancel()
+        mPublishStats = null
+        mPublishAbr?.close()
+        mPublishAbr = null
+    }
+
     override fun stopPush() {
-        mLocalStream?.dispose()
-        mLocalStream = null
-        mPeerMap[mUid]?.release()
-//        if (mPeerMap.contains(mUid)) {
-//            mPeerMap.remove(mUid)
-//        }
+        val uid = mUid ?: return
+        session(uid).execute {
+            if (mSessions.leaveOwner(uid)) {
+                closeSession(uid)
+            }
+        }
     }
 
+    /**
+     * 同一路流（streamUrl + StreamType）已经在拉时不再建连，只把渲染器挂到已有的远端 track 上
+     */
     override fun startSubscribe(uid: String, streamType: StreamType, videoPeer: VideoPeer) {
-        mPeerMap[videoPeer.userId] = videoPeer
+        if (mSessions.member(uid) != null) {
+            Log.w(TAG, "startSubscribe: $uid is already subscribing, ignored")
+            return
+        }
+        val key = shareKey(videoPeer, streamType)
+        val owner = key?.let { mSessions.claimShare(it, uid) }
+        if (owner == null || owner == uid) {
+            // 自己登记的共用键，重复订阅被拒绝时要还回去
+            val claimed = if (owner == null) key else null
+            session(uid).execute { doStartSubscribe(uid, streamType, videoPeer, claimed) }
+            return
+        }
+        val member = mSessions.addMember(uid, owner, videoPeer)
+        session(owner).execute { joinSubscribe(member, streamType) }
+    }
 
-        val peerConnection = createPeerConnection(uid)
+    private fun shareKey(videoPeer: VideoPeer, streamType: StreamType): String? {
+        val url = videoPeer.streamUrl.ifEmpty { videoPeer.playUrl }
+        return if (url.isEmpty()) null else "$url#$streamType"
+    }
+
+    /**
+     * 在被共用会话的执行器上执行
+     */
+    private fun joinSubscribe(member: SessionRegistry.Member, streamType: StreamType) {
+        if (mSessions.member(member.uid) !== member) {
+            // 加入前已经停止
+            return
+        }
+        val videoPeer = member.peer
+        if (!mSessions.join(member)) {
+            // 共用的会话刚好关闭，自己重新建连
+            startSubscribe(member.uid, streamType, videoPeer)
+            return
+        }
+        videoPeer.streamType = streamType
+        val fanOut = mSessions[member.sessionUid]?.videoFanOut
+        videoPeer.surfaceViewRenderer?.let { fanOut?.addRenderer(it) }
+    }
+
+    private fun doStartSubscribe(uid: String, streamType: StreamType, videoPeer: VideoPeer, claimedShare: String?) {
+        val current = mSessions[uid]
+        if (current != null) {
+            // 没新登记共用键说明是自己建的那路流：停止后还留给成员用的会话，重新挂上渲染器
+            if (claimedShare == null && mSessions.rejoinOwner(uid)) {
+                videoPeer.surfaceViewRenderer?.let { renderer ->
+                    current.surfaceViewRenderer = renderer
+                    current.videoFanOut?.addRenderer(renderer)
+                }
+                return
+            }
+            Log.w(TAG, "startSubscribe: $uid is already subscribing, ignored")
+            claimedShare?.let { mSessions.releaseShare(it, uid) }
+            return
+        }
+        mSessions.open(uid, videoPeer)
+        videoPeer.streamType = streamType
+        videoPeer.setupStartNs = System.nanoTime()
+        // 纯音频没有渲染帧，DTLS 连上后音频就开始收
+        val endPhase = if (streamType == StreamType.VIDEO) SessionTimeline.Phase.FIRST_RENDERED_FRAME else SessionTimeline.Phase.DTLS_CONNECTED
+        videoPeer.timeline = SessionTimeline(uid, endPhase, mTimelineListener, mTimelineAggregate)
+        videoPeer.recovery = createRecovery(uid)
+        connectSubscribe(uid, streamType, videoPeer, mSubscribePool.acquire(streamType))
+    }
+
+    private fun connectSubscribe(uid: String, streamType: StreamType, videoPeer: VideoPeer, pooled: SubscribePool.PooledPeer?) {
+        val peerConnection = pooled?.peerConnection ?: createPeerConnection(uid)
+        videoPeer.fromPool = pooled != null
         peerConnection?.let {
-            initSubScribe(it, streamType)
+            if (pooled == null) {
+                initSubScribe(it, streamType)
+            }
 
+            val encryption = mEncryptionCallback
             for (transceiver in it.transceivers) {
                 val receiver = transceiver.receiver
+                encryption?.let { callback -> receiver.setFrameDecryptor(callback.decrypt()) }
                 val track = receiver.track()
                 if (track is VideoTrack) {
-                    track.addSink(videoPeer.surfaceViewRenderer)
+                    // 重建连接时沿用原来的分发器，外部加的消费者不用重新注册
+                    val fanOut = videoPeer.videoFanOut ?: VideoFanOut(videoPeer.surfaceViewRenderer)
+                    videoPeer.videoFanOut = fanOut
+                    track.addSink(fanOut)
+                    videoPeer.timeline?.let { timeline ->
+                        val probe = FirstFrameProbe(timeline)
+                        track.addSink(probe)
+                        videoPeer.firstFrameProbe = probe
+                    }
+                    videoPeer.videoTrack = track
                 }
             }
+            videoPeer.timeline?.let { timeline ->
+                // scale 为 0 时不回读像素，只在第一帧绘制完成后回调一次
+                videoPeer.surfaceViewRenderer?.addFrameListener(EglRenderer.FrameListener {
+                    timeline.mark(SessionTimeline.Phase.FIRST_RENDERED_FRAME)
+                }, 0f)
+            }
 
-            val mediaConstraints = MediaConstraints()
-            it.createOffer(InnerSdpObserver(uid), mediaConstraints)
-            mPeerMap[uid]?.apply {
+            mSessions[uid]?.apply {
                 this.peerConnection = it
             }
+            val offer = pooled?.offer
+            if (pooled != null && offer != null) {
+                // 预热连接已经完成 setLocalDescription，直接请求信令
+                pooled.bind(uid)
+                // 预热期间收集到的候选只在当前的本地描述里
+                openWebRtc(it.localDescription?.description ?: offer.description, uid)
+            } else {
+                val mediaConstraints = MediaConstraints()
+                it.createOffer(InnerSdpObserver(uid), mediaConstraints)
+            }
         }
     }
 
     override fun stopSubscribe(uid: String) {
-        mPeerMap[uid]?.release()
+        val member = mSessions.member(uid)
+        if (member != null) {
+            session(member.sessionUid).execute { leaveSubscribe(member) }
+            return
+        }
+        session(uid).execute {
+            if (!mSessions.isOwnerJoined(uid)) {
+                // 重复停止，或者会话已经关闭
+                return@execute
+            }
+            if (mSessions.leaveOwner(uid)) {
+                closeSession(uid)
+                return@execute
+            }
+            // 还有其他订阅者在用这路流，只摘掉自己的渲染器，会话留给它们；之后再订阅会重新挂上
+            doStopRecording(uid)
+            mSessions[uid]?.let { peer ->
+                peer.surfaceViewRenderer?.let { renderer ->
+                    peer.videoFanOut?.removeRenderer(renderer)
+                    renderer.clearImage()
+                }
+                peer.surfaceViewRenderer = null
+            }
+        }
+    }
+
+    private fun leaveSubscribe(member: SessionRegistry.Member) {
+        if (mSessions.leave(member.uid) !== member || !member.joined) {
+            return
+        }
+        doStopRecording(member.uid)
+        member.peer.surfaceViewRenderer?.let { renderer ->
+            mSessions[member.sessionUid]?.videoFanOut?.removeRenderer(renderer)
+            renderer.clearImage()
+        }
+        if (mSessions.release(member.sessionUid)) {
+            closeSession(member.sessionUid)
+        }
+    }
+
+    /**
+     * 关闭会话：从会话表移除并释放 PeerConnection 和 sink 绑定，推流会话同时释放本地流。
+     * 在会话执行器上执行，停止和淘汰都走这里
+     */
+    private fun closeSession(uid: String) {
+        doStopRecording(uid)
+        for (member in mSessions.members(uid)) {
+            doStopRecording(member.uid)
+            member.peer.surfaceViewRenderer?.clearImage()
+        }
+        val peer = mSessions.close(uid) ?: return
+        if (uid == mUid) {
+            // 统计回调和码率调整都要在 PeerConnection 释放之前停掉
+            stopPublishAbr()
+        }
+        peer.release()
+        if (uid == mUid) {
+            mLocalStream?.dispose()
+            mLocalStream = null
+        }
+    }
+
+    /**
+     * 会话数、各会话持有的 native 对象数和估算内存
+     */
+    fun getSessionStats(): SessionRegistry.Stats = mSessions.stats()
+
+    private fun createRecovery(uid: String): SessionRecovery? {
+        if (!mRtcConfig.autoRecovery) {
+            return null
+        }
+        return SessionRecovery(uid, mRecoveryPolicy, object : SessionRecovery.Actions {
+            override fun canRestartIce(): Boolean =
+                (mSessions[uid]?.signalBackend ?: signalBackend()).supportsIceRestart
+
+            override fun restartIce(onResult: (Boolean) -> Unit) {
+                session(uid).execute { this@EngineImpl.restartIce(uid, onResult) }
+            }
+
+            override fun rebuild() {
+                session(uid).execute { rebuildSession(uid) }
+            }
+        }, mRecoveryMetrics, mRecoveryListener)
+    }
+
+    /**
+     * ICE restart：同一个 PeerConnection 重新生成 ice-ufrag/ice-pwd，通过信令后端换回新的 answer
+     */
+    private fun restartIce(uid: String, onResult: (Boolean) -> Unit) {
+        val peer = mSessions[uid]
+        val peerConnection = peer?.peerConnection
+        if (peer == null || peerConnection == null) {
+            onResult(false)
+            return
+        }
+        if (!(peer.signalBackend ?: signalBackend()).supportsIceRestart) {
+            // 不先改本地 ufrag，失败后直接重建
+            onResult(false)
+            return
+        }
+        val mediaConstraints = MediaConstraints()
+        mediaConstraints.mandatory.add(MediaConstraints.KeyValuePair("IceRestart", "true"))
+        peerConnection.createOffer(object : SimpleSdpObserver() {
+            override fun onCreateSuccess(sessionDescription: SessionDescription) {
+                peerConnection.setLocalDescription(object : SimpleSdpObserver() {
+                    override fun onSetSuccess() {
+                        session(uid).execute { sendIceRestart(peer, peerConnection, sessionDescription.description, onResult) }
+                    }
+
+                    override fun onSetFailure(s: String) {
+                        Log.w(TAG, "ice restart setLocalDescription failed: $s")
+                        onResult(false)
+                    }
+                }, sessionDescription)
+            }
+
+            override fun onCreateFailure(s: String) {
+                Log.w(TAG, "ice restart createOffer failed: $s")
+                onResult(false)
+            }
+        }, mediaConstraints)
+    }
+
+    private fun sendIceRestart(peer: VideoPeer, peerConnection: PeerConnection, sdp: String, onResult: (Boolean) -> Unit) {
+        val backend = peer.signalBackend ?: signalBackend()
+        peer.signalBackend = backend
+        val request = backend.restartIce(peer, sdp, object : SignalBackend.Listener {
+            override fun onAnswer(sdp: String) {
+                val answer = SessionDescription(SessionDescription.Type.ANSWER, sdp)
+                peerConnection.setRemoteDescription(object : SimpleSdpObserver() {
+                    override fun onSetSuccess() {
+                        onResult(true)
+                    }
+
+                    override fun onSetFailure(s: String) {
+                        Log.w(TAG, "ice restart setRemoteDescription failed: $s")
+                        onResult(false)
+                    }
+                }, answer)
+            }
+
+            override fun onFailure(throwable: Throwable) {
+                Log.w(TAG, "ice restart signal failed: ${throwable.message}")
+                onResult(false)
+            }
+        })
+        peer.signalRequest?.cancel()
+        peer.signalRequest = request
+        request.start()
+    }
+
+    /**
+     * ICE restart 无法恢复时，释放旧连接和服务端会话，按原参数重新推拉流。在会话执行器上执行
+     */
+    private fun rebuildSession(uid: String) {
+        val peer = mSessions[uid] ?: return
+        if (peer.recovery == null) {
+            return
+        }
+        peer.signalRequest?.cancel()
+        peer.signalRequest = null
+        peer.signalBackend?.teardown(peer)
+        peer.firstFrameProbe?.let { peer.videoTrack?.removeSink(it) }
+        peer.firstFrameProbe = null
+        peer.videoFanOut?.let { peer.videoTrack?.removeSink(it) }
+        if (uid == mUid) {
+            stopPublishAbr()
+        }
+        peer.peerConnection?.dispose()
+        peer.peerConnection = null
+        if (peer.channelType == ChannelType.PUBLISH) {
+            connectPublish(uid, peer.streamType)
+        } else {
+            connectSubscribe(uid, peer.streamType, peer, null)
+        }
     }
 
+    /**
+     * 断线恢复次数和平均恢复时长
+     */
+    fun getRecoveryMetrics(): RecoveryMetrics.Snapshot = mRecoveryMetrics.snapshot()
+
     private fun createLocalStream(surfaceViewRenderer: SurfaceViewRenderer, streamType: StreamType): WebRtcMediaStreamStack {
         val parameters = WebRtcMediaStreamStack.MediaStreamParameters(
             mUid,
@@ -160,7 +600,7 @@ class EngineImpl private constructor() : IRTCEngine {
         ).also {
             it.startMediaStream()
             it.videoTrack?.addSink(surfaceViewRenderer)
-            mPeerMap[mUid]?.apply {
+            mSessions[mUid]?.apply {
                 videoTrack = it.videoTrack
                 audioTrack = it.audioTrack
             }
@@ -168,33 +608,164 @@ class EngineImpl private constructor() : IRTCEngine {
         return localStream
     }
 
-    private fun createPeerConnection(uid: String?): PeerConnection? {
-        val peerConnection = mPeerConnectionFactory?.createPeerConnection(config, object : PeerConnection.Observer {
-            override fun onSignalingChange(signalingState: SignalingState) {}
-            override fun onIceConnectionChange(iceConnectionState: IceConnectionState) {}
-            override fun onIceConnectionReceivingChange(b: Boolean) {}
-            override fun onIceGatheringChange(iceGatheringState: IceGatheringState) {}
-            override fun onIceCandidate(iceCandidate: IceCandidate) {
-                mPeerMap[uid]?.peerConnection?.addIceCandidate(iceCandidate)
+    private fun createPeerConnection(uid: String?, observer: PeerObserver = PeerObserver(uid)): PeerConnection? {
+        return mPeerConnectionFactory?.createPeerConnection(config, observer)
+    }
+
+    /**
+     * uid 可以在创建后再绑定，预热池里的连接被取走时才知道属于哪个 uid
+     */
+    internal inner class PeerObserver(@Volatile var uid: String?) : PeerConnection.Observer {
+        override fun onSignalingChange(signalingState: SignalingState) {
+            Log.d(TAG, "$uid onSignalingChange: $signalingState")
+        }
+
+        override fun onIceConnectionChange(iceConnectionState: IceConnectionState) {
+            Log.d(TAG, "$uid onIceConnectionChange: $iceConnectionState")
+            val peer = uid?.let { mSessions[it] } ?: return
+            peer.recovery?.onIceConnectionChange(iceConnectionState)
+            val timeline = peer.timeline ?: return
+            when (iceConnectionState) {
+                IceConnectionState.CHECKING -> timeline.mark(SessionTimeline.Phase.ICE_CHECKING)
+                IceConnectionState.CONNECTED, IceConnectionState.COMPLETED -> timeline.mark(SessionTimeline.Phase.ICE_CONNECTED)
+                else -> {}
             }
+        }
 
-            override fun onIceCandidatesRemoved(iceCandidates: Array<IceCandidate>) {
-                mPeerMap[uid]?.peerConnection?.removeIceCandidates(iceCandidates)
+        override fun onConnectionChange(newState: PeerConnectionState) {
+            when (newState) {
+                PeerConnectionState.CONNECTED -> uid?.let { mSessions.setState(it, SessionRegistry.State.CONNECTED) }
+                PeerConnectionState.DISCONNECTED, PeerConnectionState.FAILED -> uid?.let { mSessions.setState(it, SessionRegistry.State.DISCONNECTED) }
+                else -> {}
             }
+            uid?.let { mSessions[it]?.recovery }?.onConnectionChange(newState)
+            // ICE 和 DTLS 都连上才是 CONNECTED
+            if (newState == PeerConnectionState.CONNECTED) {
+                uid?.let { mSessions[it]?.timeline }?.mark(SessionTimeline.Phase.DTLS_CONNECTED)
+            }
+        }
 
-            override fun onAddStream(mediaStream: MediaStream) {
+        override fun onIceConnectionReceivingChange(b: Boolean) {}
+        override fun onIceGatheringChange(iceGatheringState: IceGatheringState) {
+            Log.d(TAG, "$uid onIceGatheringChange: $iceGatheringState")
+        }
 
-            }
+        override fun onIceCandidate(iceCandidate: IceCandidate) {
+            val id = uid ?: return
+            mSessions[id]?.apply { signalBackend?.trickle(this, iceCandidate) }
+        }
+
+        override fun onIceCandidatesRemoved(iceCandidates: Array<IceCandidate>) {
+            val id = uid ?: return
+            mSessions[id]?.peerConnection?.removeIceCandidates(iceCandidates)
+        }
+
+        override fun onAddStream(mediaStream: MediaStream) {
+
+        }
+
+        override fun onRemoveStream(mediaStream: MediaStream) {}
+        override fun onDataChannel(dataChannel: DataChannel) {}
+        override fun onRenegotiationNeeded() {}
+        override fun onAddTrack(rtpReceiver: RtpReceiver, mediaStreams: Array<MediaStream>) {
+
+        }
+    }
 
-            override fun onRemoveStream(mediaStream: MediaStream) {}
-            override fun onDataChannel(dataChannel: DataChannel) {}
-            override fun onRenegotiationNeeded() {}
-            override fun onAddTrack(rtpReceiver: RtpReceiver, mediaStreams: Array<MediaStream>) {
+    private fun createPooledPeer(streamType: StreamType): SubscribePool.PooledPeer? {
+        val observer = PeerObserver(null)
+        val peerConnection = createPeerConnection(null, observer) ?: return null
+        initSubScribe(peerConnection, streamType)
+        return SubscribePool.PooledPeer(peerConnection, streamType) { uid -> observer.uid = uid }
+    }
+
+    /**
+     * 给拉流画面增加一个消费者（录制、分析等），在独立线程上投递，处理慢只会丢自己的帧，不影响渲染。
+     * 消费者收到的是 I420 拷贝，解码器的纹理帧在投递前已释放。maxFps 为 0 时不限帧率
+     */
+    fun addRemoteVideoSink(uid: String, sink: VideoSink, maxFps: Int = 0) {
+        session(uid).execute {
+            mSessions[uid]?.videoFanOut?.addConsumer(sink.javaClass.simpleName, sink, maxFps)
+        }
+    }
+
+    fun removeRemoteVideoSink(uid: String, sink: VideoSink) {
+        session(uid).execute {
+            mSessions[uid]?.videoFanOut?.removeConsumer(sink)
+        }
+    }
 
+    /**
+     * 各消费者的投递、丢帧和限帧计数
+     */
+    fun getRemoteVideoSinkStats(uid: String): List<VideoFanOut.ConsumerStats> =
+        mSessions[uid]?.videoFanOut?.stats ?: emptyList()
+
+    /**
+     * 录制到 dir/<uid>.y4m 和 dir/<uid>.wav。推流会话录本地画面和麦克风；拉流会话只录远端画面，
+     * ADM 只提供采集端的 PCM，拿不到远端声音，且需要 [RTCConfig.micSamplesCallback]。
+     * 写盘跟不上时丢帧，不阻塞采集、解码和音频线程。y4m 是恒定帧率，帧率为 maxFps，为 0 时用 [RTCConfig.fps]，
+     * 按时间戳补重复帧或跳过多余的帧，和 wav 保持同步
+     */
+    fun startRecording(uid: String, dir: File, maxFps: Int = 0) {
+        val target = mSessions.member(uid)?.sessionUid ?: uid
+        session(target).execute {
+            if (mRecorders.containsKey(uid)) {
+                return@execute
             }
-        })
+            val peer = mSessions[target] ?: return@execute
+            val fps = if (maxFps > 0) maxFps else mRtcConfig.fps
+            if (uid == mUid) {
+                val recordAudio = WebRtcPeerConnectionFactoryStack.isSamplesCallbackEnabled()
+                if (!recordAudio) {
+                    Log.w(TAG, "startRecording: micSamplesCallback is off, recording $uid without audio")
+                }
+                val recorder = LocalRecorder(dir, uid, fps, recordAudio)
+                mLocalStream?.videoTrack?.let { recorder.attach(it, maxFps) }
+                recorder.audio?.let { WebRtcPeerConnectionFactoryStack.addSamplesReadyCallback(it) }
+                mRecorders[uid] = recorder
+            } else {
+                val fanOut = peer.videoFanOut ?: return@execute
+                val recorder = LocalRecorder(dir, uid, fps, false)
+                recorder.attach(fanOut, maxFps)
+                mRecorders[uid] = recorder
+            }
+        }
+    }
+
+    /**
+     * 停止录制，剩余数据在后台写完后关闭文件。和 startRecording 排在同一个会话执行器上，不会漏停刚开始的录制
+     */
+    fun stopRecording(uid: String) {
+        val target = mSessions.member(uid)?.sessionUid ?: uid
+        session(target).execute { doStopRecording(uid) }
+    }
+
+    private fun doStopRecording(uid: String) {
+        val recorder = mRecorders.remove(uid) ?: return
+        recorder.audio?.let { WebRtcPeerConnectionFactoryStack.removeSamplesReadyCallback(it) }
+        recorder.detach()
+        // 写盘最多阻塞 2 × CLOSE_TIMEOUT_MS，单独开线程，不占用会话线程池
+        Thread({ recorder.close() }, "RecorderClose-$uid").start()
+    }
+
+    /**
+     * 录制的写盘吞吐、排队字节和丢帧数
+     */
+    fun getRecordingMetrics(uid: String): LocalRecorder.Metrics? = mRecorders[uid]?.metrics
 
-        return peerConnection
+    /**
+     * 拉流预热池的命中率和切换耗时
+     */
+    fun getSubscribePoolMetrics(): SubscribePool.Metrics = mSubscribePool.getMetrics()
+
+    /**
+     * 多次推拉流各建连阶段的耗时分位统计
+     */
+    fun getSessionTimelineAggregate(): SessionTimeline.Aggregate = mTimelineAggregate
+
+    override fun setSessionTimelineListener(listener: SessionTimeline.Listener?) {
+        mTimelineListener = listener
     }
 
     fun initViewAttribute(renderer: SurfaceViewRenderer) {
@@ -204,90 +775,71 @@ class EngineImpl private constructor() : IRTCEngine {
         renderer.setZOrderMediaOverlay(true)
     }
 
-    private fun getOkHttpClient(): OkHttpClient {
-        val builder: OkHttpClient.Builder = OkHttpClient.Builder()
-            .readTimeout(10, TimeUnit.SECONDS) //设置读取超时时间
-            .writeTimeout(10, TimeUnit.SECONDS) //设置写的超时时间
-            .connectTimeout(10, TimeUnit.SECONDS)
-        if (BuildConfig.DEBUG) {
-            val httpLoggingInterceptor = HttpLoggingInterceptor()
-            builder.addInterceptor(httpLoggingInterceptor.apply {
-                httpLoggingInterceptor.level = HttpLoggingInterceptor.Level.BODY
-            })
-        }
-        return builder.build()
-    }
-
-    @SuppressLint("CheckResult")
     fun openWebRtc(sdp: String, uid: String) {
-        val playBodyBean = PlayBodyBean()
-        var pushOrPlayUrl: String? = null
-        mPeerMap[uid]?.apply {
-            pushOrPlayUrl = if (channelType == ChannelType.PUBLISH) pushUrl else playUrl
-            playBodyBean.api = pushOrPlayUrl
-            playBodyBean.clientip = StringUtil.getIpAddressString()
-            playBodyBean.streamurl = streamUrl
-            playBodyBean.sdp = sdp
-        }
-
-        val gson = GsonBuilder()
-            .setLenient()
-            .create()
-        val retrofit = Retrofit.Builder()
-            .baseUrl("https://wsx.bctec01.shop/")
-            .client(getOkHttpClient())
-            .addConverterFactory(GsonConverterFactory.create(gson)) //设置使用Gson解析(记得加入依赖)
-            .build()
-
-        Log.e(TAG, "gson: " + gson.toJson(playBodyBean))
-
-        val request = retrofit.create(ApiInterface::class.java)
-        val call = request.webrtcPlay(pushOrPlayUrl ?: "", playBodyBean)
-        call.enqueue(object : Callback<SdpBean> {
-            override fun onResponse(call: Call<SdpBean>, response: Response<SdpBean>) {
-                val gson = GsonBuilder().disableHtmlEscaping().create()
-                var s = gson.toJson(response.body())
-                s = s.replace("\n".toRegex(), "")
-                Log.e(TAG, "s: $s")
-                if (!TextUtils.isEmpty(s)) {
-                    val sdpBean = gson.fromJson(s, SdpBean::class.java)
-                    if (sdpBean.code == 400) {
-//                        openWebRtc(sdp, uid)
-                        return
-                    }
-                    if (!TextUtils.isEmpty(sdpBean.sdp)) {
-                        setRemoteSdp(sdpBean.sdp, uid)
-                    }
-                }
+        val peer = mSessions[uid] ?: return
+        val backend = signalBackend()
+        peer.signalBackend = backend
+        val request = backend.offer(peer, sdp, object : SignalBackend.Listener {
+            override fun onAnswer(sdp: String) {
+                mSessions[uid]?.timeline?.mark(SessionTimeline.Phase.HTTP_RECEIVE)
+                session(uid).execute { setRemoteSdp(sdp, uid) }
             }
 
-            override fun onFailure(call: Call<SdpBean>, throwable: Throwable) {
+            override fun onFailure(throwable: Throwable) {
+                Log.e(TAG, "openWebRtc failed: ${throwable.message}")
             }
         })
+        peer.signalRequest?.cancel()
+        peer.signalRequest = request
+        peer.timeline?.mark(SessionTimeline.Phase.HTTP_SEND)
+        request.start()
+    }
+
+    private fun signalBackend(): SignalBackend {
+        return if (mRtcConfig.signalProtocol == SignalProtocol.WHIP) mWhipBackend else mSrsBackend
     }
 
     private fun setRemoteSdp(sdp: String, uid: String) {
 //        Log.e(TAG, "setRemoteSdp: ");
-        val peerConnection = mPeerMap[uid]?.peerConnection
+        val peerConnection = mSessions[uid]?.peerConnection
         if (peerConnection != null) {
             val remoteSpd = SessionDescription(SessionDescription.Type.ANSWER, sdp)
 //            Log.e(TAG, "setRemoteDescription: ");
-            peerConnection.setRemoteDescription(InnerSdpObserver(uid), remoteSpd)
+            peerConnection.setRemoteDescription(InnerSdpObserver(uid, true), remoteSpd)
         }
     }
 
-    internal inner class InnerSdpObserver(var uid: String) : SdpObserver {
+    internal inner class InnerSdpObserver(var uid: String, private val isRemote: Boolean = false) : SdpObserver {
         override fun onCreateSuccess(sessionDescription: SessionDescription) {
             if (sessionDescription.type == SessionDescription.Type.OFFER) {
-                //设置setLocalDescription offer返回sdp
-                mPeerMap[uid]?.peerConnection?.setLocalDescription(this, sessionDescription)
-                if (!TextUtils.isEmpty(sessionDescription.description)) {
-                    openWebRtc(sessionDescription.description, uid)
+                mSessions[uid]?.timeline?.mark(SessionTimeline.Phase.CREATE_OFFER)
+                // 回调在 signaling 线程，会话状态的修改交给会话执行器
+                session(uid).execute {
+                    //设置setLocalDescription offer返回sdp
+                    mSessions[uid]?.peerConnection?.setLocalDescription(this, sessionDescription)
+                    if (!TextUtils.isEmpty(sessionDescription.description)) {
+                        openWebRtc(sessionDescription.description, uid)
+                    }
+                }
+            }
+        }
+
+        override fun onSetSuccess() {
+            if (!isRemote) {
+                mSessions[uid]?.timeline?.mark(SessionTimeline.Phase.SET_LOCAL_DESCRIPTION)
+                return
+            }
+            mSessions[uid]?.timeline?.mark(SessionTimeline.Phase.SET_REMOTE_DESCRIPTION)
+            session(uid).execute {
+                mSessions[uid]?.apply {
+                    if (channelType == ChannelType.SUBSCRIBE && setupStartNs > 0) {
+                        mSubscribePool.recordSwitchLatency(fromPool, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - setupStartNs))
+                        setupStartNs = 0
+                    }
                 }
             }
         }
 
-        override fun onSetSuccess() {}
         override fun onCreateFailure(s: String) {}
         override fun onSetFailure(s: String) {}
     }
@@ -332,7 +884,9 @@ class EngineImpl private constructor() : IRTCEngine {
     private val config: RTCConfiguration
         get() {
             val rtcConfig = RTCConfiguration(ArrayList())
-//            rtcConfig.cryptoOptions = CryptoOptions.builder().setRequireFrameEncryption(true).createCryptoOptions()
+            if (mEncryptionCallback != null) {
+                rtcConfig.cryptoOptions = CryptoOptions.builder().setRequireFrameEncryption(true).createCryptoOptions()
+            }
             //关闭分辨率变换
             rtcConfig.enableCpuOveruseDetection = false
             //修改模式 PlanB无法使用仅接收音视频的配置
@@ -341,17 +895,19 @@ class EngineImpl private constructor() : IRTCEngine {
         }
 
     override fun switchCamera(surfaceViewRenderer: SurfaceViewRenderer) {
-        mLocalStream?.switchCamera()
-        isMirror = !isMirror
-        surfaceViewRenderer.setMirror(isMirror)
+        publishSession {
+            mLocalStream?.switchCamera()
+            isMirror = !isMirror
+            surfaceViewRenderer.setMirror(isMirror)
+        }
     }
 
     override fun muteSelfAudio(isMute: Boolean) {
-        mLocalStream?.muteAudio(isMute)
+        publishSession { mLocalStream?.muteAudio(isMute) }
     }
 
     override fun muteSelfVideo(isMute: Boolean) {
-        mLocalStream?.muteVideo(isMute)
+        publishSession { mLocalStream?.muteVideo(isMute) }
     }
 
     override fun enableSpeakerPhone(enable: Boolean) {
@@ -365,19 +921,64 @@ class EngineImpl private constructor() : IRTCEngine {
         audioManager.isSpeakerphoneOn = enable
     }
 
+    override fun warmUpSignal(apiUrl: String) {
+        mSignalClient.warmUp(apiUrl)
+    }
+
+    override fun setSignalTimingListener(listener: SignalClient.TimingListener?) {
+        mSignalClient.timingListener = listener
+    }
+
+    override fun setSignalPolicy(policy: SignalPolicy) {
+        mSignalPolicy = policy
+    }
+
+    override fun setRecoveryPolicy(policy: SessionRecovery.Policy) {
+        mRecoveryPolicy = policy
+    }
+
+    override fun setRecoveryListener(listener: SessionRecovery.Listener?) {
+        mRecoveryListener = listener
+    }
+
+    @Synchronized
+    override fun setAudioLevelListener(listener: AudioLevelMonitor.Listener?) {
+        mAudioLevelMonitor?.let { WebRtcPeerConnectionFactoryStack.removeSamplesReadyCallback(it) }
+        mAudioLevelMonitor = listener?.let { AudioLevelMonitor(it) }
+        if (listener != null && mPeerConnectionFactory != null && !WebRtcPeerConnectionFactoryStack.isSamplesCallbackEnabled()) {
+            Log.w(TAG, "setAudioLevelListener: micSamplesCallback is off, no levels will be reported")
+        }
+        mAudioLevelMonitor?.let { WebRtcPeerConnectionFactoryStack.addSamplesReadyCallback(it) }
+    }
+
+    override fun setEncryptionCallback(encryptionCallback: IEncryptionCallback?) {
+        mEncryptionCallback = encryptionCallback
+    }
+
     override fun setRTCConfig(rtcConfig: RTCConfig) {
         mRtcConfig = rtcConfig
+        if (mPeerConnectionFactory != null) {
+            mSubscribePool.configure(rtcConfig.subscribePoolSize, rtcConfig.subscribePoolTtlMs)
+        }
+        mSessions.maxSessions = rtcConfig.maxSessions
+        mSessions.idleTimeoutMs = rtcConfig.sessionIdleTimeoutMs
     }
 
     override fun changeCaptureFormat(rtcConfig: RTCConfig) {
-        mLocalStream?.videoCapturer?.also {
-            mRtcConfig = rtcConfig
-            it.changeCaptureFormat(rtcConfig.videoWidth, rtcConfig.videoHeight, rtcConfig.fps)
+        publishSession {
+            mLocalStream?.videoCapturer?.also {
+                mRtcConfig = rtcConfig
+                it.changeCaptureFormat(rtcConfig.videoWidth, rtcConfig.videoHeight, rtcConfig.fps)
+            }
         }
     }
 
     companion object {
         const val TAG = "EngineImpl"
+        private const val PUBLISH_STATS_PERIOD_MS = 1000
+        private const val PUBLISH_STATS_HISTORY = 30
+        private val SESSION_THREADS = Runtime.getRuntime().availableProcessors().coerceIn(2, 4)
+        private const val SHUTDOWN_WAIT_MS = 3_000L
 
         val instance by lazy(LazyThreadSafetyMode.SYNCHRONIZED) {
             EngineImpl()
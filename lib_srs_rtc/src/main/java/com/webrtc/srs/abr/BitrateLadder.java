@@ -0,0 +1,237 @@
+package com.webrtc.srs.abr;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bitrate ladder keyed by codec, content type and frame-rate band. Each table is a sorted
+ * array of pixel-rate thresholds (width * height * fps) with the min/max kbps that apply from
+ * that threshold up; lookups are a binary search and return a shared {@link Range}.
+ * <p>
+ * Config lines are "codec content band WxHxFPS minKbps maxKbps", "*" matches any codec or
+ * content, and a threshold of 0 sets the floor used below the first rung. A table missing
+ * for a codec/content falls back to the CAMERA table of the codec, then to "* *".
+ */
+public final class BitrateLadder {
+
+    public enum Codec {
+        H264_HW,
+        H264_SW,
+        VP8
+    }
+
+    public enum Content {
+        CAMERA,
+        SCREEN
+    }
+
+    public enum FpsBand {
+        LOW,
+        HIGH
+    }
+
+    /**
+     * Frame rates above this use the HIGH band.
+     */
+    public static final int LOW_FPS_MAX = 15;
+
+    public static final class Range {
+        public final int minKbps;
+        public final int startKbps;
+        public final int maxKbps;
+
+        public Range(int minKbps, int maxKbps) {
+            this.minKbps = minKbps;
+            this.maxKbps = maxKbps;
+            this.startKbps = minKbps + (maxKbps - minKbps) / 2;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + minKbps + ", " + startKbps + ", " + maxKbps + "]kbps";
+        }
+    }
+
+    private static final class Table {
+        final long[] pixels;
+        final Range[] ranges;
+
+        Table(long[] pixels, Range[] ranges) {
+            this.pixels = pixels;
+            this.ranges = ranges;
+        }
+
+        int indexOf(long pixelRate) {
+            int index = Arrays.binarySearch(pixels, pixelRate);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+
+    // The ladder WebRtcPeerConnectionStack.getBitrate used to hard-code.
+    static final String DEFAULT_CONFIG = ""
+            + "* * HIGH 0x0x0 100 200\n"
+            + "* * HIGH 320x180x25 100 300\n"
+            + "* * HIGH 320x240x25 100 350\n"
+            + "* * HIGH 480x360x25 200 450\n"
+            + "* * HIGH 640x360x25 200 500\n"
+            + "* * HIGH 640x480x25 300 800\n"
+            + "* * HIGH 720x540x25 400 900\n"
+            + "* * HIGH 960x540x25 400 950\n"
+            + "* * HIGH 960x720x25 500 1300\n"
+            + "* * HIGH 1280x720x25 600 1450\n"
+            + "* * HIGH 1440x1080x25 600 1750\n"
+            + "* * HIGH 1920x1080x25 600 2000\n"
+            + "* * LOW 0x0x0 100 200\n"
+            + "* * LOW 320x240x15 100 200\n"
+            + "* * LOW 480x360x15 100 350\n"
+            + "* * LOW 570x432x15 200 400\n"
+            + "* * LOW 640x480x15 300 600\n"
+            + "* * LOW 720x540x15 300 700\n"
+            + "* * LOW 960x540x15 300 800\n"
+            + "* * LOW 960x720x15 100 1050\n"
+            + "* * LOW 1280x720x15 100 1200\n"
+            + "* * LOW 1440x1080x15 100 1500\n"
+            + "* * LOW 1920x1080x15 100 1700\n";
+
+    private static volatile BitrateLadder defaultLadder;
+
+    // [codec + 1][content + 1][band]; index 0 holds the "*" tables.
+    private final Table[][][] tables = new Table[Codec.values().length + 1][Content.values().length + 1][FpsBand.values().length];
+
+    private BitrateLadder() {
+    }
+
+    public static BitrateLadder getDefault() {
+        if (defaultLadder == null) {
+            synchronized (BitrateLadder.class) {
+                if (defaultLadder == null) {
+                    defaultLadder = parse(DEFAULT_CONFIG);
+                }
+            }
+        }
+        return defaultLadder;
+    }
+
+    /**
+     * Replaces the ladder used by getBitrate and the publisher ABR, e.g. one loaded from config.
+     */
+    public static void setDefault(BitrateLadder ladder) {
+        defaultLadder = ladder;
+    }
+
+    public static FpsBand bandOf(int fps) {
+        return fps > LOW_FPS_MAX ? FpsBand.HIGH : FpsBand.LOW;
+    }
+
+    /**
+     * Step lookup: the range of the highest rung at or below the pixel rate.
+     */
+    public Range lookup(Codec codec, Content content, int width, int height, int fps) {
+        Table table = tableFor(codec, content, bandOf(fps));
+        return table.ranges[Math.max(0, table.indexOf((long) width * height * fps))];
+    }
+
+    /**
+     * Like {@link #lookup} but interpolates linearly between the surrounding rungs.
+     */
+    public Range interpolate(Codec codec, Content content, int width, int height, int fps) {
+        Table table = tableFor(codec, content, bandOf(fps));
+        long pixelRate = (long) width * height * fps;
+        int index = Math.max(0, table.indexOf(pixelRate));
+        if (index >= table.pixels.length - 1 || pixelRate <= table.pixels[index]) {
+            return table.ranges[index];
+        }
+        Range low = table.ranges[index];
+        Range high = table.ranges[index + 1];
+        double t = (double) (pixelRate - table.pixels[index]) / (table.pixels[index + 1] - table.pixels[index]);
+        return new Range((int) Math.round(low.minKbps + (high.minKbps - low.minKbps) * t),
+                (int) Math.round(low.maxKbps + (high.maxKbps - low.maxKbps) * t));
+    }
+
+    private Table tableFor(Codec codec, Content content, FpsBand band) {
+        Table table = tables[codec.ordinal() + 1][content.ordinal() + 1][band.ordinal()];
+        if (table == null) {
+            table = tables[codec.ordinal() + 1][Content.CAMERA.ordinal() + 1][band.ordinal()];
+        }
+        if (table == null) {
+            table = tables[0][content.ordinal() + 1][band.ordinal()];
+        }
+        if (table == null) {
+            table = tables[0][0][band.ordinal()];
+        }
+        if (table == null) {
+            throw new IllegalStateException("no ladder for " + codec + " " + content + " " + band);
+        }
+        return table;
+    }
+
+    /**
+     * Parses a ladder config, see the class comment for the line format. Lines starting with
+     * '#' and blank lines are ignored.
+     *
+     * @throws IllegalArgumentException on a malformed line
+     */
+    public static BitrateLadder parse(String config) {
+        final int codecs = Codec.values().length + 1;
+        final int contents = Content.values().length + 1;
+        final int bands = FpsBand.values().length;
+        @SuppressWarnings("unchecked")
+        List<long[]>[][][] rows = new List[codecs][contents][bands];
+
+        for (String rawLine : config.split("\n")) {
+            String line = rawLine.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 6) {
+                throw new IllegalArgumentException("bad ladder line: " + line);
+            }
+            int codec = fields[0].equals("*") ? 0 : Codec.valueOf(fields[0]).ordinal() + 1;
+            int content = fields[1].equals("*") ? 0 : Content.valueOf(fields[1]).ordinal() + 1;
+            int band = FpsBand.valueOf(fields[2]).ordinal();
+            String[] dims = fields[3].split("x");
+            if (dims.length != 3) {
+                throw new IllegalArgumentException("bad ladder rung: " + line);
+            }
+            long pixels = Long.parseLong(dims[0]) * Long.parseLong(dims[1]) * Long.parseLong(dims[2]);
+            long[] row = {pixels, Integer.parseInt(fields[4]), Integer.parseInt(fields[5])};
+            if (rows[codec][content][band] == null) {
+                rows[codec][content][band] = new ArrayList<>();
+            }
+            rows[codec][content][band].add(row);
+        }
+
+        BitrateLadder ladder = new BitrateLadder();
+        for (int codec = 0; codec < codecs; codec++) {
+            for (int content = 0; content < contents; content++) {
+                for (int band = 0; band < bands; band++) {
+                    ladder.tables[codec][content][band] = buildTable(rows[codec][content][band]);
+                }
+            }
+        }
+        return ladder;
+    }
+
+    private static @Nullable Table buildTable(@Nullable List<long[]> rows) {
+        if (rows == null) {
+            return null;
+        }
+        rows.sort((a, b) -> Long.compare(a[0], b[0]));
+        if (rows.get(0)[0] != 0) {
+            // No explicit floor: reuse the first rung below it.
+            rows.add(0, new long[]{0, rows.get(0)[1], rows.get(0)[2]});
+        }
+        long[] pixels = new long[rows.size()];
+        Range[] ranges = new Range[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            long[] row = rows.get(i);
+            pixels[i] = row[0];
+            ranges[i] = new Range((int) row[1], (int) row[2]);
+        }
+        return new Table(pixels, ranges);
+    }
+}
@@ -0,0 +1,206 @@
+package com.webrtc.srs.abr;
+
+import android.util.Log;
+
+import com.webrtc.srs.stats.StatsSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Closed-loop publisher ABR. Each digested stats sample is classified as congested, good or
+ * neutral from the available outgoing bitrate, RTT, loss and quality limitation reason; a run
+ * of congested samples steps the capture format one rung down, a longer run of good samples
+ * steps it back up. Every step also moves the encoder bitrate bounds to the rung's range.
+ * <p>
+ * {@link #close()} must be called before the peer connection is released or replaced; after it
+ * returns the actuator is never called again, even by a stats callback already in flight.
+ */
+public class PublishAbrController {
+    private static final String TAG = "PublishAbrController";
+
+    public interface Actuator {
+        void changeCaptureFormat(int width, int height, int fps);
+
+        void setBitrate(int minBps, int startBps, int maxBps);
+    }
+
+    public static class Rung {
+        public final int width;
+        public final int height;
+        public final int fps;
+
+        public Rung(int width, int height, int fps) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + fps;
+        }
+    }
+
+    public static class Parameters {
+        public double downLossRate = 0.08;
+        public double upLossRate = 0.02;
+        public double downRttMs = 450;
+        public double upRttMs = 250;
+        /**
+         * Consecutive congested samples before stepping down.
+         */
+        public int downSamples = 2;
+        /**
+         * Consecutive good samples before stepping up.
+         */
+        public int upSamples = 6;
+        /**
+         * Minimum time on a rung before stepping up again.
+         */
+        public long upHoldMs = 10_000;
+        public long downHoldMs = 2_000;
+        /**
+         * The estimate must exceed the next rung's max bitrate by this factor to step up.
+         */
+        public double upHeadroom = 1.2;
+        public BitrateLadder.Codec codec = BitrateLadder.Codec.H264_HW;
+        public BitrateLadder.Content content = BitrateLadder.Content.CAMERA;
+    }
+
+    private final List<Rung> rungs;
+    private final Parameters parameters;
+    private final Actuator actuator;
+
+    private int index;
+    private int congestedCount;
+    private int goodCount;
+    private long lastChangeMs;
+    private boolean closed;
+
+    /**
+     * @param rungs ordered from the highest quality to the lowest
+     */
+    public PublishAbrController(List<Rung> rungs, int startIndex, Parameters parameters, Actuator actuator) {
+        if (rungs.isEmpty()) {
+            throw new IllegalArgumentException("rungs is empty");
+        }
+        this.rungs = Collections.unmodifiableList(new ArrayList<>(rungs));
+        this.index = Math.max(0, Math.min(startIndex, rungs.size() - 1));
+        this.parameters = parameters;
+        this.actuator = actuator;
+    }
+
+    /**
+     * Builds a ladder below the configured capture format, keeping its aspect ratio.
+     */
+    public static List<Rung> defaultRungs(int width, int height, int fps) {
+        final double[] scales = {1.0, 0.75, 0.5, 0.375, 0.25};
+        final int[] fpsCaps = {30, 25, 20, 15, 15};
+        List<Rung> rungs = new ArrayList<>(scales.length);
+        for (int i = 0; i < scales.length; i++) {
+            // Even dimensions keep the I420 planes aligned.
+            int w = ((int) (width * scales[i])) & ~1;
+            int h = ((int) (height * scales[i])) & ~1;
+            if (w < 160 || h < 90) {
+                break;
+            }
+            rungs.add(new Rung(w, h, Math.min(fps, fpsCaps[i])));
+        }
+        if (rungs.isEmpty()) {
+            rungs.add(new Rung(width, height, fps));
+        }
+        return rungs;
+    }
+
+    public synchronized void start() {
+        if (closed) {
+            return;
+        }
+        apply(0, rungs.get(index));
+    }
+
+    /**
+     * Stops driving the actuator. Waits for a running {@link #onStats} or
+     * {@link #requestStats} to return.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Runs a stats request unless closed, so none is issued on a peer connection released after
+     * {@link #close()}.
+     */
+    public synchronized void requestStats(Runnable request) {
+        if (!closed) {
+            request.run();
+        }
+    }
+
+    public synchronized int getCurrentIndex() {
+        return index;
+    }
+
+    public synchronized Rung getCurrentRung() {
+        return rungs.get(index);
+    }
+
+    public synchronized void onStats(StatsSnapshot snapshot) {
+        if (closed) {
+            return;
+        }
+        final long nowMs = snapshot.timestampUs / 1000;
+        final Rung rung = rungs.get(index);
+        final BitrateLadder.Range range = rangeOf(rung);
+
+        final boolean limited = "bandwidth".equals(snapshot.qualityLimitationReason)
+                || "cpu".equals(snapshot.qualityLimitationReason);
+        final long available = snapshot.availableOutgoingBitrateBps;
+        final boolean congested = snapshot.outLossRate > parameters.downLossRate
+                || snapshot.rttMs > parameters.downRttMs
+                || (available > 0 && available < range.minKbps * 1000L)
+                || limited;
+
+        boolean good = false;
+        if (!congested && index > 0) {
+            BitrateLadder.Range upper = rangeOf(rungs.get(index - 1));
+            good = snapshot.outLossRate < parameters.upLossRate
+                    && snapshot.rttMs < parameters.upRttMs
+                    && available > upper.maxKbps * 1000L * parameters.upHeadroom;
+        }
+
+        congestedCount = congested ? congestedCount + 1 : 0;
+        goodCount = good ? goodCount + 1 : 0;
+
+        if (congestedCount >= parameters.downSamples && index < rungs.size() - 1
+                && nowMs - lastChangeMs >= parameters.downHoldMs) {
+            index++;
+            Log.d(TAG, "step down to " + rungs.get(index) + ": " + snapshot);
+            apply(nowMs, rungs.get(index));
+        } else if (goodCount >= parameters.upSamples && index > 0
+                && nowMs - lastChangeMs >= parameters.upHoldMs) {
+            index--;
+            Log.d(TAG, "step up to " + rungs.get(index) + ": " + snapshot);
+            apply(nowMs, rungs.get(index));
+        }
+    }
+
+    private void apply(long nowMs, Rung rung) {
+        congestedCount = 0;
+        goodCount = 0;
+        lastChangeMs = nowMs;
+        BitrateLadder.Range range = rangeOf(rung);
+        actuator.changeCaptureFormat(rung.width, rung.height, rung.fps);
+        actuator.setBitrate(range.minKbps * 1000, range.startKbps * 1000, range.maxKbps * 1000);
+    }
+
+    private BitrateLadder.Range rangeOf(Rung rung) {
+        return BitrateLadder.getDefault().lookup(parameters.codec, parameters.content, rung.width, rung.height, rung.fps);
+    }
+}
@@ -2,9 +2,14 @@ package com.webrtc.srs.api
 
 import com.webrtc.srs.bean.PlayBodyBean
 import com.webrtc.srs.bean.SdpBean
+import okhttp3.RequestBody
+import okhttp3.ResponseBody
 import retrofit2.Call
 import retrofit2.http.Body
+import retrofit2.http.DELETE
+import retrofit2.http.Header
 import retrofit2.http.Headers
+import retrofit2.http.PATCH
 import retrofit2.http.POST
 import retrofit2.http.Url
 
@@ -17,4 +22,20 @@ interface ApiInterface {
     @Headers("Content-Type: application/json")//,"Accept: application/json"
     fun webrtcPlay(@Url url: String?, @Body gsonStr: PlayBodyBean?): Call<SdpBean>
 
+    /**
+     * WHIP/WHEP：body 为 application/sdp 的 offer，201 返回 answer 和 Location
+     */
+    @POST
+    @Headers("Accept: application/sdp")
+    fun whipOffer(@Url url: String, @Body sdp: RequestBody): Call<ResponseBody>
+
+    /**
+     * trickle 或 ICE restart，body 为 application/trickle-ice-sdpfrag
+     */
+    @PATCH
+    fun whipPatch(@Url url: String, @Header("If-Match") ifMatch: String?, @Body fragment: RequestBody): Call<ResponseBody>
+
+    @DELETE
+    fun whipDelete(@Url url: String): Call<ResponseBody>
+
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package com.webrtc.srs.api
+
+/**
+ * 最近 N 次信令请求耗时的环形缓冲，用于计算对冲请求的触发时间
+ */
+class LatencyTracker(capacity: Int = 64) {
+    private val samples = LongArray(capacity)
+    private val sorted = LongArray(capacity)
+    private var count = 0
+    private var next = 0
+
+    @Synchronized
+    fun record(latencyMs: Long) {
+        samples[next] = latencyMs
+        next = (next + 1) % samples.size
+        if (count < samples.size) {
+            count++
+        }
+    }
+
+    /**
+     * 返回分位耗时，没有样本时返回 defaultMs
+     */
+    @Synchronized
+    fun percentile(p: Double, defaultMs: Long): Long {
+        if (count == 0) {
+            return defaultMs
+        }
+        System.arraycopy(samples, 0, sorted, 0, count)
+        sorted.sort(0, count)
+        val index = ((count - 1) * p.coerceIn(0.0, 1.0)).toInt()
+        return sorted[index]
+    }
+
+    /**
+     * 返回平均耗时，没有样本时返回 defaultMs
+     */
+    @Synchronized
+    fun mean(defaultMs: Long): Long {
+        if (count == 0) {
+            return defaultMs
+        }
+        var sum = 0L
+        for (i in 0 until count) {
+            sum += samples[i]
+        }
+        return sum / count
+    }
+}
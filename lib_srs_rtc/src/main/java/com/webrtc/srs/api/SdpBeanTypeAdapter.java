@@ -0,0 +1,66 @@
+package com.webrtc.srs.api;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.webrtc.srs.bean.SdpBean;
+
+import java.io.IOException;
+
+/**
+ * Streaming decoder for the SRS /rtc/v1 answer: reads code, server, sdp and sessionid in
+ * one pass over the response body and skips everything else without building a tree.
+ */
+public class SdpBeanTypeAdapter extends TypeAdapter<SdpBean> {
+
+    @Override
+    public void write(JsonWriter out, SdpBean value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("code").value(value.getCode());
+        out.name("server").value(value.getServer());
+        out.name("sdp").value(value.getSdp());
+        out.name("sessionid").value(value.getSessionid());
+        out.endObject();
+    }
+
+    @Override
+    public SdpBean read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        SdpBean bean = new SdpBean();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "code":
+                    bean.setCode(in.nextInt());
+                    break;
+                case "server":
+                    bean.setServer(in.nextString());
+                    break;
+                case "sdp":
+                    bean.setSdp(in.nextString());
+                    break;
+                case "sessionid":
+                    bean.setSessionid(in.nextString());
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return bean;
+    }
+}
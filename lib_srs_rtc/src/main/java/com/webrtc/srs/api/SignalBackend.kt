@@ -0,0 +1,43 @@
+package com.webrtc.srs.api
+
+import com.webrtc.srs.bean.VideoPeer
+import org.webrtc.IceCandidate
+
+/**
+ * 信令后端：把本地 offer 发给服务端换回 answer，并负责会话的 trickle、ICE restart 和拆除。
+ * [SrsSignalBackend] 走 SRS 的 /rtc/v1 json 接口，[WhipSignalBackend] 走 WHIP/WHEP
+ */
+interface SignalBackend {
+
+    interface Listener {
+        fun onAnswer(sdp: String)
+
+        fun onFailure(throwable: Throwable)
+    }
+
+    /**
+     * 发送本地 offer，返回的请求由调用方挂到 VideoPeer 上再 start，释放时取消
+     */
+    fun offer(peer: VideoPeer, sdp: String, listener: Listener): SignalRequest<*>
+
+    /**
+     * 能否在原服务端会话上做 ICE restart。不能时断线恢复跳过 restart，直接整体重建
+     */
+    val supportsIceRestart: Boolean
+        get() = true
+
+    /**
+     * ICE restart：用带新 ice-ufrag/ice-pwd 的 offer 换回新的 answer，[supportsIceRestart] 为 false 时不会调用
+     */
+    fun restartIce(peer: VideoPeer, sdp: String, listener: Listener): SignalRequest<*>
+
+    /**
+     * 本地收集到的候选，不支持 trickle 的后端直接忽略
+     */
+    fun trickle(peer: VideoPeer, candidate: IceCandidate)
+
+    /**
+     * 拆除服务端会话，VideoPeer 释放时调用
+     */
+    fun teardown(peer: VideoPeer)
+}
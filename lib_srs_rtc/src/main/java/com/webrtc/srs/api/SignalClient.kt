@@ -0,0 +1,187 @@
+package com.webrtc.srs.api
+
+import android.util.Log
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import com.webrtc.srs.BuildConfig
+import com.webrtc.srs.bean.SdpBean
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.ConnectionPool
+import okhttp3.EventListener
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.logging.HttpLoggingInterceptor
+import retrofit2.Retrofit
+import retrofit2.converter.gson.GsonConverterFactory
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * 信令 http 客户端，每个引擎持有一份，OkHttp 连接池、Gson 和 Retrofit 代理只创建一次，
+ * 推拉流请求复用到 SRS api 的长连接
+ */
+class SignalClient(debug: Boolean = BuildConfig.DEBUG) {
+
+    /**
+     * 单次请求的耗时，单位毫秒，未发生的阶段为 -1
+     */
+    data class RequestTiming(
+        val url: String,
+        val dnsMs: Long,
+        val connectMs: Long,
+        val firstByteMs: Long,
+        val totalMs: Long,
+        val connectionReused: Boolean,
+        val success: Boolean
+    )
+
+    fun interface TimingListener {
+        fun onRequestTiming(timing: RequestTiming)
+    }
+
+    @Volatile
+    var timingListener: TimingListener? = null
+
+    val gson: Gson = GsonBuilder()
+        .setLenient()
+        .disableHtmlEscaping()
+        .registerTypeAdapter(SdpBean::class.java, SdpBeanTypeAdapter())
+        .create()
+
+    val okHttpClient: OkHttpClient
+
+    val api: ApiInterface
+
+    /**
+     * 信令重试、对冲、超时用的定时器
+     */
+    val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+        Thread(runnable, "SignalScheduler").apply { isDaemon = true }
+    }
+
+    val latencyTracker = LatencyTracker()
+
+    init {
+        val builder = OkHttpClient.Builder()
+            .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .retryOnConnectionFailure(true)
+            .readTimeout(10, TimeUnit.SECONDS) //设置读取超时时间
+            .writeTimeout(10, TimeUnit.SECONDS) //设置写的超时时间
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .eventListenerFactory { call -> TimingEventListener(call.request().url.toString()) }
+        if (debug) {
+            builder.addInterceptor(HttpLoggingInterceptor().apply {
+                level = HttpLoggingInterceptor.Level.BODY
+            })
+        }
+        okHttpClient = builder.build()
+        api = Retrofit.Builder()
+            .baseUrl(BASE_URL)
+            .client(okHttpClient)
+            .addConverterFactory(GsonConverterFactory.create(gson)) //设置使用Gson解析(记得加入依赖)
+            .build()
+            .create(ApiInterface::class.java)
+    }
+
+    /**
+     * 预热：在推拉流之前先和 SRS api 建立连接，之后的信令请求直接复用
+     */
+    fun warmUp(apiUrl: String) {
+        val url = apiUrl.toHttpUrlOrNull()?.newBuilder()
+            ?.encodedPath(WARM_UP_PATH)
+            ?.query(null)
+            ?.build()
+        if (url == null) {
+            Log.w(TAG, "warmUp invalid url: $apiUrl")
+            return
+        }
+        val request = Request.Builder().url(url).get().build()
+        okHttpClient.newCall(request).enqueue(object : Callback {
+            override fun onResponse(call: Call, response: Response) {
+                response.close()
+            }
+
+            override fun onFailure(call: Call, e: IOException) {
+                Log.w(TAG, "warmUp failed: ${e.message}")
+            }
+        })
+    }
+
+    /**
+     * 关闭空闲连接，引擎销毁时调用
+     */
+    fun evictConnections() {
+        okHttpClient.dispatcher.cancelAll()
+        okHttpClient.connectionPool.evictAll()
+    }
+
+    private inner class TimingEventListener(private val url: String) : EventListener() {
+        private var callStart = 0L
+        private var dnsStart = -1L
+        private var dnsMs = -1L
+        private var connectStart = -1L
+        private var connectMs = -1L
+        private var firstByteMs = -1L
+
+        override fun callStart(call: Call) {
+            callStart = System.nanoTime()
+        }
+
+        override fun dnsStart(call: Call, domainName: String) {
+            dnsStart = System.nanoTime()
+        }
+
+        override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+            dnsMs = elapsedMs(dnsStart)
+        }
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            connectStart = System.nanoTime()
+        }
+
+        override fun connectEnd(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy, protocol: Protocol?) {
+            connectMs = elapsedMs(connectStart)
+        }
+
+        override fun responseHeadersStart(call: Call) {
+            firstByteMs = elapsedMs(callStart)
+        }
+
+        override fun callEnd(call: Call) {
+            report(true)
+        }
+
+        override fun callFailed(call: Call, ioe: IOException) {
+            report(false)
+        }
+
+        private fun report(success: Boolean) {
+            val timing = RequestTiming(
+                url, dnsMs, connectMs, firstByteMs, elapsedMs(callStart), connectStart < 0, success
+            )
+            Log.d(TAG, "request timing: $timing")
+            timingListener?.onRequestTiming(timing)
+        }
+
+        private fun elapsedMs(startNs: Long): Long {
+            return if (startNs < 0) -1 else TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs)
+        }
+    }
+
+    companion object {
+        const val TAG = "SignalClient"
+        private const val BASE_URL = "https://wsx.bctec01.shop/"
+        private const val WARM_UP_PATH = "/api/v1/versions"
+        private const val MAX_IDLE_CONNECTIONS = 4
+        private const val KEEP_ALIVE_MINUTES = 5L
+    }
+}
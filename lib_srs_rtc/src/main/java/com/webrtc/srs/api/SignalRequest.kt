@@ -0,0 +1,185 @@
+package com.webrtc.srs.api
+
+import android.util.Log
+import com.webrtc.srs.iinterface.SignalPolicy
+import retrofit2.Call
+import retrofit2.Callback
+import retrofit2.Response
+import java.io.IOException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import kotlin.math.pow
+
+/**
+ * 按 [SignalPolicy] 执行一次信令请求：总时限内指数退避重试，可选对冲请求，
+ * 先成功的请求生效，其余请求取消。随 VideoPeer 释放调用 [cancel]
+ *
+ * 推拉流的 POST 不是幂等的，每个成功的请求都会在服务端建一个会话。只有传了 [discard]
+ * 的请求才会对冲，这时已发出的请求不再取消，而是等它返回，没被采用的成功应答
+ * （对冲输掉的、超时或 [cancel] 之后才到的）交给 [discard] 拆掉服务端会话
+ */
+class SignalRequest<T>(
+    private val scheduler: ScheduledExecutorService,
+    private val policy: SignalPolicy,
+    private val latencyTracker: LatencyTracker,
+    private val callFactory: () -> Call<T>,
+    private val isRetryable: (Response<T>) -> Boolean,
+    private val listener: Listener<T>,
+    private val discard: ((Response<T>) -> Unit)? = null
+) {
+
+    interface Listener<T> {
+        fun onSuccess(response: Response<T>)
+
+        fun onFailure(throwable: Throwable)
+    }
+
+    private val inFlight = ArrayList<Call<T>>(2)
+    private val timers = ArrayList<ScheduledFuture<*>>(3)
+    private var attempts = 0
+    private var deadlineAtNs = 0L
+    private var finished = false
+    private var lastError: Throwable? = null
+
+    fun start() {
+        synchronized(this) {
+            deadlineAtNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(policy.setupDeadlineMs)
+            schedule(policy.setupDeadlineMs) {
+                finish(null, TimeoutException("signal deadline ${policy.setupDeadlineMs}ms exceeded, last error: ${lastError?.message}"))
+            }
+        }
+        launchAttempt()
+    }
+
+    fun cancel() {
+        val calls: List<Call<T>>
+        synchronized(this) {
+            if (finished) {
+                return
+            }
+            finished = true
+            calls = releaseLocked()
+        }
+        calls.forEach { it.cancel() }
+    }
+
+    @get:Synchronized
+    val isFinished: Boolean
+        get() = finished
+
+    private fun launchAttempt() {
+        val call: Call<T>
+        val attempt: Int
+        synchronized(this) {
+            if (finished || attempts >= policy.maxAttempts) {
+                return
+            }
+            attempts++
+            attempt = attempts
+            call = callFactory()
+            inFlight.add(call)
+            if (policy.hedgeEnabled && discard != null && attempts < policy.maxAttempts) {
+                val hedgeDelayMs = latencyTracker.percentile(policy.hedgePercentile, policy.minHedgeDelayMs)
+                    .coerceAtLeast(policy.minHedgeDelayMs)
+                schedule(hedgeDelayMs) {
+                    val stillWaiting = synchronized(this) { !finished && inFlight.contains(call) && inFlight.size == 1 }
+                    if (stillWaiting) {
+                        Log.d(TAG, "hedge after ${hedgeDelayMs}ms, attempt $attempt still pending")
+                        launchAttempt()
+                    }
+                }
+            }
+        }
+
+        val startNs = System.nanoTime()
+        call.enqueue(object : Callback<T> {
+            override fun onResponse(call: Call<T>, response: Response<T>) {
+                if (response.isSuccessful && !isRetryable(response)) {
+                    synchronized(this@SignalRequest) { inFlight.remove(call) }
+                    latencyTracker.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs))
+                    if (!finish(response, null)) {
+                        discard?.let {
+                            Log.d(TAG, "discard answer of attempt $attempt")
+                            it(response)
+                        }
+                    }
+                } else {
+                    onAttemptFailed(call, IOException("attempt $attempt: http ${response.code()}"))
+                }
+            }
+
+            override fun onFailure(call: Call<T>, throwable: Throwable) {
+                if (!call.isCanceled) {
+                    onAttemptFailed(call, throwable)
+                }
+            }
+        })
+    }
+
+    private fun onAttemptFailed(call: Call<T>, throwable: Throwable) {
+        Log.w(TAG, "signal attempt failed: ${throwable.message}")
+        var backoffMs = -1L
+        synchronized(this) {
+            lastError = throwable
+            inFlight.remove(call)
+            if (finished || inFlight.isNotEmpty()) {
+                // 还有对冲请求在途，等它的结果
+                return
+            }
+            if (attempts < policy.maxAttempts) {
+                val exp = policy.initialBackoffMs * policy.backoffMultiplier.pow(attempts - 1)
+                val jitter = 1.0 + policy.jitterRatio * (ThreadLocalRandom.current().nextDouble() * 2 - 1)
+                backoffMs = (exp.coerceAtMost(policy.maxBackoffMs.toDouble()) * jitter).toLong().coerceAtLeast(0)
+                val remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineAtNs - System.nanoTime())
+                if (backoffMs < remainingMs) {
+                    schedule(backoffMs) { launchAttempt() }
+                    return
+                }
+            }
+        }
+        finish(null, if (backoffMs < 0) throwable else TimeoutException("no time left for retry: ${throwable.message}"))
+    }
+
+    /**
+     * 返回 false 表示请求已经结束，这次结果没有被采用
+     */
+    private fun finish(response: Response<T>?, throwable: Throwable?): Boolean {
+        val calls: List<Call<T>>
+        synchronized(this) {
+            if (finished) {
+                return false
+            }
+            finished = true
+            calls = releaseLocked()
+        }
+        calls.forEach { it.cancel() }
+        if (response != null) {
+            listener.onSuccess(response)
+        } else {
+            listener.onFailure(throwable ?: IOException("signal failed"))
+        }
+        return true
+    }
+
+    /**
+     * 返回要取消的请求。有 [discard] 时不取消：请求可能已经到了服务端，要等应答回来才能拆掉会话
+     */
+    private fun releaseLocked(): List<Call<T>> {
+        timers.forEach { it.cancel(false) }
+        timers.clear()
+        val calls = if (discard == null) ArrayList(inFlight) else emptyList()
+        inFlight.clear()
+        return calls
+    }
+
+    private fun schedule(delayMs: Long, task: () -> Unit) {
+        timers.add(scheduler.schedule(Runnable { task() }, delayMs, TimeUnit.MILLISECONDS))
+    }
+
+    companion object {
+        const val TAG = "SignalRequest"
+    }
+}
@@ -0,0 +1,76 @@
+package com.webrtc.srs.api
+
+import android.text.TextUtils
+import android.util.Log
+import com.webrtc.srs.bean.ChannelType
+import com.webrtc.srs.bean.PlayBodyBean
+import com.webrtc.srs.bean.SdpBean
+import com.webrtc.srs.bean.VideoPeer
+import com.webrtc.srs.iinterface.SignalPolicy
+import com.webrtc.srs.util.StringUtil
+import org.webrtc.IceCandidate
+import retrofit2.Response
+import java.io.IOException
+
+/**
+ * SRS 的 /rtc/v1/publish、/rtc/v1/play json 接口。SRS 是 ice-lite，候选都在 answer 里，
+ * 不需要 trickle；接口没有拆除，会话靠超时回收。
+ *
+ * 也没有 ICE restart：重发 offer 会在 SRS 上新建一个会话，本地指纹没变，libwebrtc 沿用原来的
+ * DTLS，不会和新会话握手，ICE 能连上但 SRTP 发给了没有密钥的会话，旧会话也泄漏。
+ * 所以 [restartIce] 直接失败，断线恢复走整体重建
+ */
+class SrsSignalBackend(
+    private val client: SignalClient,
+    private val policy: () -> SignalPolicy
+) : SignalBackend {
+
+    override fun offer(peer: VideoPeer, sdp: String, listener: SignalBackend.Listener): SignalRequest<*> {
+        val pushOrPlayUrl = if (peer.channelType == ChannelType.PUBLISH) peer.pushUrl else peer.playUrl
+        val playBodyBean = PlayBodyBean()
+        playBodyBean.api = pushOrPlayUrl
+        playBodyBean.clientip = StringUtil.getIpAddressString()
+        playBodyBean.streamurl = peer.streamUrl
+        playBodyBean.sdp = sdp
+
+        return SignalRequest(
+            client.scheduler,
+            policy(),
+            client.latencyTracker,
+            { client.api.webrtcPlay(pushOrPlayUrl, playBodyBean) },
+            { it.body() == null || it.body()?.code == 400 },
+            object : SignalRequest.Listener<SdpBean> {
+                override fun onSuccess(response: Response<SdpBean>) {
+                    val sdpBean = response.body() ?: return
+                    Log.d(TAG, "code: ${sdpBean.code} server: ${sdpBean.server} sessionid: ${sdpBean.sessionid}")
+                    peer.server = sdpBean.server
+                    peer.sessionId = sdpBean.sessionid
+                    if (TextUtils.isEmpty(sdpBean.sdp)) {
+                        listener.onFailure(IOException("empty answer, code ${sdpBean.code}"))
+                        return
+                    }
+                    peer.remoteSdp = sdpBean.sdp
+                    listener.onAnswer(sdpBean.sdp)
+                }
+
+                override fun onFailure(throwable: Throwable) {
+                    listener.onFailure(throwable)
+                }
+            })
+    }
+
+    override val supportsIceRestart: Boolean
+        get() = false
+
+    override fun restartIce(peer: VideoPeer, sdp: String, listener: SignalBackend.Listener): SignalRequest<*> {
+        throw UnsupportedOperationException("SRS /rtc/v1 has no ICE restart, rebuild the session instead")
+    }
+
+    override fun trickle(peer: VideoPeer, candidate: IceCandidate) {}
+
+    override fun teardown(peer: VideoPeer) {}
+
+    companion object {
+        const val TAG = "SrsSignalBackend"
+    }
+}
@@ -0,0 +1,304 @@
+package com.webrtc.srs.api
+
+import android.util.Log
+import com.webrtc.srs.bean.ChannelType
+import com.webrtc.srs.bean.VideoPeer
+import com.webrtc.srs.iinterface.SignalPolicy
+import com.webrtc.srs.sdp.SdpMediaSection
+import com.webrtc.srs.sdp.SdpSession
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.ResponseBody
+import org.webrtc.IceCandidate
+import retrofit2.Call
+import retrofit2.Callback
+import retrofit2.Response
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * WHIP（推流）/ WHEP（拉流）：POST 原始 application/sdp 换 answer，Location 指向服务端资源，
+ * trickle 和 ICE restart 用 PATCH application/trickle-ice-sdpfrag，停止时 DELETE 资源。
+ *
+ * pushUrl / playUrl 可以直接是 WHIP/WHEP 地址，也可以是 SRS 的 /rtc/v1/publish/、/rtc/v1/play/
+ * 地址，后者按 streamUrl 换成同一服务上的 /rtc/v1/whip/、/rtc/v1/whep/
+ */
+class WhipSignalBackend(
+    private val client: SignalClient,
+    private val policy: () -> SignalPolicy
+) : SignalBackend {
+
+    /**
+     * 一个会话的 trickle 状态。资源地址返回前收集到的候选先缓存，拿到 Location 后一次发出
+     */
+    private class TrickleState(
+        @Volatile var offer: SdpSession,
+        @Volatile var ufrag: String?,
+        @Volatile var pwd: String?
+    ) {
+        val pending = ArrayList<IceCandidate>()
+        var supported = true
+    }
+
+    private val sessions = ConcurrentHashMap<VideoPeer, TrickleState>()
+
+    override fun offer(peer: VideoPeer, sdp: String, listener: SignalBackend.Listener): SignalRequest<*> {
+        val endpoint = endpointOf(peer)
+        val offer = SdpSession.parse(sdp)
+        sessions[peer] = TrickleState(offer, iceAttribute(offer, ICE_UFRAG), iceAttribute(offer, ICE_PWD))
+        peer.resourceUrl = null
+        peer.etag = null
+        // 字节形式的 body 不会被 OkHttp 加上 charset，WHIP 要求 Content-Type 就是 application/sdp
+        val body = sdp.toByteArray().toRequestBody(SDP)
+
+        return SignalRequest(
+            client.scheduler,
+            policy(),
+            client.latencyTracker,
+            { client.api.whipOffer(endpoint, body) },
+            { it.body() == null },
+            object : SignalRequest.Listener<ResponseBody> {
+                override fun onSuccess(response: Response<ResponseBody>) {
+                    val answer = response.body()?.use { it.string() }
+                    if (answer.isNullOrEmpty()) {
+                        listener.onFailure(IOException("empty answer from $endpoint"))
+                        return
+                    }
+                    val location = response.headers()[LOCATION]
+                    peer.resourceUrl = location?.let { response.raw().request.url.resolve(it)?.toString() }
+                    peer.etag = response.headers()[ETAG]
+                    peer.remoteSdp = answer
+                    Log.d(TAG, "resource: ${peer.resourceUrl} etag: ${peer.etag}")
+                    listener.onAnswer(answer)
+                    flushCandidates(peer)
+                }
+
+                override fun onFailure(throwable: Throwable) {
+                    listener.onFailure(throwable)
+                }
+            },
+            { response ->
+                // 对冲输掉或释放后才到的应答，删掉它建的资源
+                response.body()?.close()
+                response.headers()[LOCATION]
+                    ?.let { response.raw().request.url.resolve(it)?.toString() }
+                    ?.let { deleteResource(it) }
+            })
+    }
+
+    override fun restartIce(peer: VideoPeer, sdp: String, listener: SignalBackend.Listener): SignalRequest<*> {
+        val resource = peer.resourceUrl
+        val remote = peer.remoteSdp
+        val state = sessions[peer]
+        if (resource == null || remote == null || state == null) {
+            return offer(peer, sdp, listener)
+        }
+        val offer = SdpSession.parse(sdp)
+        synchronized(state) {
+            state.offer = offer
+            state.ufrag = iceAttribute(offer, ICE_UFRAG)
+            state.pwd = iceAttribute(offer, ICE_PWD)
+            state.pending.clear()
+        }
+        val body = buildFragment(state, emptyList()).toByteArray().toRequestBody(TRICKLE_ICE)
+
+        return SignalRequest(
+            client.scheduler,
+            policy(),
+            client.latencyTracker,
+            // If-Match: * 表示 ICE restart，服务端返回新的 ice-ufrag/ice-pwd 和候选
+            { client.api.whipPatch(resource, "*", body) },
+            { it.code() != 200 || it.body() == null },
+            object : SignalRequest.Listener<ResponseBody> {
+                override fun onSuccess(response: Response<ResponseBody>) {
+                    val fragment = response.body()?.use { it.string() }
+                    if (fragment.isNullOrEmpty()) {
+                        listener.onFailure(IOException("empty ice restart fragment"))
+                        return
+                    }
+                    val answer = applyFragment(remote, fragment)
+                    response.headers()[ETAG]?.let { peer.etag = it }
+                    peer.remoteSdp = answer
+                    listener.onAnswer(answer)
+                }
+
+                override fun onFailure(throwable: Throwable) {
+                    listener.onFailure(throwable)
+                }
+            })
+    }
+
+    override fun trickle(peer: VideoPeer, candidate: IceCandidate) {
+        val state = sessions[peer] ?: return
+        val resource: String
+        synchronized(state) {
+            if (!state.supported) {
+                return
+            }
+            val url = peer.resourceUrl
+            if (url == null) {
+                state.pending.add(candidate)
+                return
+            }
+            resource = url
+        }
+        patchCandidates(peer, state, resource, listOf(candidate))
+    }
+
+    override fun teardown(peer: VideoPeer) {
+        sessions.remove(peer)
+        val resource = peer.resourceUrl ?: return
+        peer.resourceUrl = null
+        peer.etag = null
+        deleteResource(resource)
+    }
+
+    private fun deleteResource(resource: String) {
+        client.api.whipDelete(resource).enqueue(object : Callback<ResponseBody> {
+            override fun onResponse(call: Call<ResponseBody>, response: Response<ResponseBody>) {
+                response.body()?.close()
+            }
+
+            override fun onFailure(call: Call<ResponseBody>, throwable: Throwable) {
+                Log.w(TAG, "delete $resource failed: ${throwable.message}")
+            }
+        })
+    }
+
+    private fun flushCandidates(peer: VideoPeer) {
+        val state = sessions[peer] ?: return
+        val resource = peer.resourceUrl
+        val candidates: List<IceCandidate>
+        synchronized(state) {
+            if (resource == null) {
+                // 服务端没有返回 Location，无法 trickle
+                state.supported = false
+            }
+            candidates = ArrayList(state.pending)
+            state.pending.clear()
+        }
+        if (resource != null && candidates.isNotEmpty()) {
+            patchCandidates(peer, state, resource, candidates)
+        }
+    }
+
+    private fun patchCandidates(peer: VideoPeer, state: TrickleState, resource: String, candidates: List<IceCandidate>) {
+        val body = buildFragment(state, candidates).toByteArray().toRequestBody(TRICKLE_ICE)
+        client.api.whipPatch(resource, peer.etag, body).enqueue(object : Callback<ResponseBody> {
+            override fun onResponse(call: Call<ResponseBody>, response: Response<ResponseBody>) {
+                response.body()?.close()
+                when (response.code()) {
+                    204, 200 -> {}
+                    405, 501 -> {
+                        // 服务端不支持 trickle（例如 SRS），候选只能靠 answer 里的 ice-lite 候选
+                        Log.d(TAG, "trickle not supported by $resource")
+                        synchronized(state) { state.supported = false }
+                    }
+                    else -> Log.w(TAG, "trickle failed: http ${response.code()}")
+                }
+            }
+
+            override fun onFailure(call: Call<ResponseBody>, throwable: Throwable) {
+                Log.w(TAG, "trickle failed: ${throwable.message}")
+            }
+        })
+    }
+
+    /**
+     * RFC 8840 的 sdpfrag：本地 ice-ufrag/ice-pwd，加上每个 m 段的 mid 和属于它的候选
+     */
+    private fun buildFragment(state: TrickleState, candidates: List<IceCandidate>): String {
+        val builder = StringBuilder(256)
+        synchronized(state) {
+            state.ufrag?.let { builder.append(ICE_UFRAG).append(it).append(CRLF) }
+            state.pwd?.let { builder.append(ICE_PWD).append(it).append(CRLF) }
+            for (media in state.offer.mediaSections) {
+                val mid = media.mid ?: continue
+                val own = candidates.filter { it.sdpMid == mid }
+                if (candidates.isNotEmpty() && own.isEmpty()) {
+                    continue
+                }
+                builder.append("m=").append(media.media).append(" 9 ").append(media.proto)
+                media.payloadTypes.forEach { builder.append(' ').append(it) }
+                builder.append(CRLF).append(MID).append(mid).append(CRLF)
+                own.forEach { builder.append("a=").append(it.sdp).append(CRLF) }
+            }
+        }
+        return builder.toString()
+    }
+
+    private fun endpointOf(peer: VideoPeer): String {
+        val publish = peer.channelType == ChannelType.PUBLISH
+        val apiUrl = if (publish) peer.pushUrl else peer.playUrl
+        val url = apiUrl.toHttpUrlOrNull() ?: return apiUrl
+        val path = url.encodedPath
+        if (!path.startsWith(SRS_PUBLISH_PATH) && !path.startsWith(SRS_PLAY_PATH)) {
+            return apiUrl
+        }
+        // webrtc://host/app/stream
+        val appStream = peer.streamUrl.substringAfter("://").substringAfter('/').substringBefore('?')
+        return url.newBuilder()
+            .encodedPath(if (publish) SRS_WHIP_PATH else SRS_WHEP_PATH)
+            .query(null)
+            .addQueryParameter("app", appStream.substringBeforeLast('/'))
+            .addQueryParameter("stream", appStream.substringAfterLast('/'))
+            .build()
+            .toString()
+    }
+
+    companion object {
+        const val TAG = "WhipSignalBackend"
+        private val SDP = "application/sdp".toMediaType()
+        private val TRICKLE_ICE = "application/trickle-ice-sdpfrag".toMediaType()
+        private const val LOCATION = "Location"
+        private const val ETAG = "ETag"
+        private const val CRLF = "\r\n"
+        private const val ICE_UFRAG = "a=ice-ufrag:"
+        private const val ICE_PWD = "a=ice-pwd:"
+        private const val MID = "a=mid:"
+        private const val CANDIDATE = "a=candidate:"
+        private const val SRS_PUBLISH_PATH = "/rtc/v1/publish"
+        private const val SRS_PLAY_PATH = "/rtc/v1/play"
+        private const val SRS_WHIP_PATH = "/rtc/v1/whip/"
+        private const val SRS_WHEP_PATH = "/rtc/v1/whep/"
+
+        private fun iceAttribute(session: SdpSession, prefix: String): String? {
+            session.sessionLines.firstOrNull { it.startsWith(prefix) }?.let { return it.substring(prefix.length) }
+            return session.mediaSections.firstNotNullOfOrNull { it.findAttribute(prefix) }
+        }
+
+        /**
+         * 把 ICE restart 返回的新 ice-ufrag/ice-pwd 和候选写回上一次的 answer，得到新的远端描述
+         */
+        internal fun applyFragment(remoteSdp: String, fragment: String): String {
+            val answer = SdpSession.parse(remoteSdp)
+            val patch = SdpSession.parse(fragment)
+            val ufrag = iceAttribute(patch, ICE_UFRAG)
+            val pwd = iceAttribute(patch, ICE_PWD)
+            replaceIce(answer.sessionLines, ufrag, pwd)
+            for (media in answer.mediaSections) {
+                replaceIce(media.lines, ufrag, pwd)
+                val source: SdpMediaSection? = media.mid?.let { patch.findMediaByMid(it) }
+                val candidates = (source ?: patch.mediaSections.firstOrNull())
+                    ?.lines?.filter { it.startsWith(CANDIDATE) }
+                if (!candidates.isNullOrEmpty()) {
+                    media.removeLines(CANDIDATE)
+                    media.lines.addAll(candidates)
+                }
+            }
+            return answer.toSdp()
+        }
+
+        private fun replaceIce(lines: MutableList<String>, ufrag: String?, pwd: String?) {
+            for (i in lines.indices) {
+                val line = lines[i]
+                if (ufrag != null && line.startsWith(ICE_UFRAG)) {
+                    lines[i] = ICE_UFRAG + ufrag
+                } else if (pwd != null && line.startsWith(ICE_PWD)) {
+                    lines[i] = ICE_PWD + pwd
+                }
+            }
+        }
+    }
+}
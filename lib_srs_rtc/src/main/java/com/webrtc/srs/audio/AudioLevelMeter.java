@@ -0,0 +1,214 @@
+package com.webrtc.srs.audio;
+
+/**
+ * Streaming level meter and voice activity detector over 16-bit little-endian PCM, one call per
+ * 10 ms chunk. Reads the caller's array in place and keeps only a few scalars, so it allocates
+ * nothing per chunk and has no Android dependency.
+ * <p>
+ * A chunk counts as speech when its RMS level is {@code marginDb} above a tracked noise floor
+ * and above {@code minSpeechDbfs}, and its zero-crossing rate is below {@code maxZeroCrossingRate}
+ * (broadband hiss crosses zero on about every other sample, voiced speech far less often).
+ * Speech starts after {@code onsetFrames} speech chunks in a row and ends after
+ * {@code hangoverFrames} chunks without speech.
+ * <p>
+ * The floor falls quickly to any quieter chunk and creeps up on chunks that are not speech.
+ * During speech candidates it follows the minimum level of the last
+ * {@code floorWindows * floorWindowFrames} chunks instead: talking has pauses that keep that
+ * minimum down, while steady noise with a low zero-crossing rate (fan, mains hum) does not, so
+ * the floor climbs to it and the noise stops counting as speech.
+ */
+public final class AudioLevelMeter {
+    public static final float SILENCE_DBFS = -127f;
+
+    public static class Parameters {
+        public float marginDb = 10f;
+        public float minSpeechDbfs = -55f;
+        public float maxZeroCrossingRate = 0.4f;
+        public int onsetFrames = 2;
+        public int hangoverFrames = 30;
+        /**
+         * How fast the noise floor follows a louder level, per chunk; it drops faster.
+         */
+        public float floorRiseDb = 0.05f;
+        public float floorFallFactor = 0.2f;
+        public float initialFloorDbfs = -60f;
+        /**
+         * Minimum-statistics history: the minimum is kept per window of chunks, over this many
+         * windows (1.6 s by default).
+         */
+        public int floorWindowFrames = 40;
+        public int floorWindows = 4;
+    }
+
+    private final Parameters parameters;
+
+    private float rmsDbfs = SILENCE_DBFS;
+    private float peakDbfs = SILENCE_DBFS;
+    private float zeroCrossingRate;
+    private float noiseFloorDbfs;
+    private boolean speech;
+    private int speechRun;
+    private int silenceRun;
+    private long frames;
+
+    // Per-window minimum levels, a ring of floorWindows entries.
+    private final float[] windowMins;
+    private int windowIndex;
+    private int windowsFilled;
+    private int windowFrames;
+    private float currentMin = Float.MAX_VALUE;
+
+    public AudioLevelMeter() {
+        this(new Parameters());
+    }
+
+    public AudioLevelMeter(Parameters parameters) {
+        this.parameters = parameters;
+        this.noiseFloorDbfs = parameters.initialFloorDbfs;
+        this.windowMins = new float[Math.max(1, parameters.floorWindows)];
+    }
+
+    /**
+     * Measures one chunk of interleaved samples.
+     *
+     * @return whether speech is active after this chunk
+     */
+    public boolean process(byte[] pcm, int offset, int length, int channels) {
+        final int samples = length / 2;
+        if (samples == 0 || channels <= 0) {
+            return speech;
+        }
+        long sumSquares = 0;
+        int peak = 0;
+        int crossings = 0;
+        int previous = 0;
+        int channel = 0;
+        final int end = offset + samples * 2;
+        // Energy and peak over all channels, zero crossings on the first one.
+        for (int i = offset; i < end; i += 2) {
+            final int sample = (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8));
+            sumSquares += (long) sample * sample;
+            final int magnitude = sample < 0 ? -sample : sample;
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+            if (channel == 0) {
+                if (i != offset && (sample ^ previous) < 0) {
+                    crossings++;
+                }
+                previous = sample;
+            }
+            if (++channel == channels) {
+                channel = 0;
+            }
+        }
+        final int channelFrames = samples / channels;
+        rmsDbfs = toDbfs(Math.sqrt((double) sumSquares / samples));
+        peakDbfs = toDbfs(peak);
+        zeroCrossingRate = channelFrames > 1 ? (float) crossings / (channelFrames - 1) : 0f;
+        frames++;
+
+        final boolean candidate = rmsDbfs > noiseFloorDbfs + parameters.marginDb
+                && rmsDbfs > parameters.minSpeechDbfs
+                && zeroCrossingRate < parameters.maxZeroCrossingRate;
+        if (candidate) {
+            speechRun++;
+            silenceRun = 0;
+            if (!speech && speechRun >= parameters.onsetFrames) {
+                speech = true;
+            }
+        } else {
+            silenceRun++;
+            speechRun = 0;
+            if (speech && silenceRun >= parameters.hangoverFrames) {
+                speech = false;
+            }
+        }
+        final float minimum = trackMinimum(rmsDbfs);
+        if (rmsDbfs < noiseFloorDbfs) {
+            noiseFloorDbfs += (rmsDbfs - noiseFloorDbfs) * parameters.floorFallFactor;
+        } else if (!candidate) {
+            noiseFloorDbfs += parameters.floorRiseDb;
+        } else if (minimum > noiseFloorDbfs) {
+            // Candidates only raise the floor when nothing quieter showed up for the whole history.
+            noiseFloorDbfs += Math.min(parameters.floorRiseDb, minimum - noiseFloorDbfs);
+        }
+        return speech;
+    }
+
+    /**
+     * Adds a chunk level to the history.
+     *
+     * @return the minimum level over the full history, or {@link #SILENCE_DBFS} until it is full
+     */
+    private float trackMinimum(float level) {
+        if (level < currentMin) {
+            currentMin = level;
+        }
+        if (++windowFrames >= parameters.floorWindowFrames) {
+            windowMins[windowIndex] = currentMin;
+            windowIndex = (windowIndex + 1) % windowMins.length;
+            if (windowsFilled < windowMins.length) {
+                windowsFilled++;
+            }
+            windowFrames = 0;
+            currentMin = Float.MAX_VALUE;
+        }
+        if (windowsFilled < windowMins.length) {
+            return SILENCE_DBFS;
+        }
+        float minimum = currentMin;
+        for (float windowMin : windowMins) {
+            if (windowMin < minimum) {
+                minimum = windowMin;
+            }
+        }
+        return minimum;
+    }
+
+    private static float toDbfs(double amplitude) {
+        if (amplitude <= 0) {
+            return SILENCE_DBFS;
+        }
+        return (float) Math.max(SILENCE_DBFS, 20 * Math.log10(amplitude / 32768.0));
+    }
+
+    public float getRmsDbfs() {
+        return rmsDbfs;
+    }
+
+    public float getPeakDbfs() {
+        return peakDbfs;
+    }
+
+    public float getZeroCrossingRate() {
+        return zeroCrossingRate;
+    }
+
+    public float getNoiseFloorDbfs() {
+        return noiseFloorDbfs;
+    }
+
+    public boolean isSpeech() {
+        return speech;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public void reset() {
+        rmsDbfs = SILENCE_DBFS;
+        peakDbfs = SILENCE_DBFS;
+        zeroCrossingRate = 0f;
+        noiseFloorDbfs = parameters.initialFloorDbfs;
+        speech = false;
+        speechRun = 0;
+        silenceRun = 0;
+        frames = 0;
+        windowIndex = 0;
+        windowsFilled = 0;
+        windowFrames = 0;
+        currentMin = Float.MAX_VALUE;
+    }
+}
@@ -0,0 +1,89 @@
+package com.webrtc.srs.audio;
+
+import android.media.AudioFormat;
+
+import org.webrtc.audio.JavaAudioDeviceModule;
+
+/**
+ * Runs an {@link AudioLevelMeter} on the microphone samples of the audio device module and
+ * reports the level at most once per {@code intervalMs} (loudest peak and mean energy of the
+ * interval) plus every speech start and end as it happens. Listeners are called on the audio
+ * record thread and must return quickly.
+ */
+public final class AudioLevelMonitor implements JavaAudioDeviceModule.SamplesReadyCallback {
+    public static final int DEFAULT_INTERVAL_MS = 100;
+
+    public interface Listener {
+        void onAudioLevel(float rmsDbfs, float peakDbfs, boolean speech);
+
+        void onSpeechChanged(boolean speech);
+    }
+
+    private final AudioLevelMeter meter;
+    private final Listener listener;
+    private final long intervalNs;
+
+    // Only touched on the audio record thread.
+    private long intervalStartNs;
+    private double intervalEnergy;
+    private int intervalFrames;
+    private float intervalPeakDbfs = AudioLevelMeter.SILENCE_DBFS;
+    private boolean speech;
+
+    private volatile long frames;
+    private volatile long processNs;
+
+    public AudioLevelMonitor(Listener listener) {
+        this(listener, DEFAULT_INTERVAL_MS, new AudioLevelMeter());
+    }
+
+    public AudioLevelMonitor(Listener listener, int intervalMs, AudioLevelMeter meter) {
+        this.listener = listener;
+        this.intervalNs = intervalMs * 1_000_000L;
+        this.meter = meter;
+    }
+
+    @Override
+    public void onWebRtcAudioRecordSamplesReady(JavaAudioDeviceModule.AudioSamples samples) {
+        if (samples.getAudioFormat() != AudioFormat.ENCODING_PCM_16BIT) {
+            return;
+        }
+        final long start = System.nanoTime();
+        final byte[] data = samples.getData();
+        final boolean active = meter.process(data, 0, data.length, samples.getChannelCount());
+        final float rmsDbfs = meter.getRmsDbfs();
+        intervalEnergy += Math.pow(10, rmsDbfs / 10);
+        intervalFrames++;
+        intervalPeakDbfs = Math.max(intervalPeakDbfs, meter.getPeakDbfs());
+        frames++;
+        processNs += System.nanoTime() - start;
+
+        if (active != speech) {
+            speech = active;
+            listener.onSpeechChanged(active);
+        }
+        if (intervalStartNs == 0) {
+            intervalStartNs = start;
+        } else if (start - intervalStartNs >= intervalNs) {
+            final float meanDbfs = (float) Math.max(AudioLevelMeter.SILENCE_DBFS,
+                    10 * Math.log10(intervalEnergy / intervalFrames));
+            listener.onAudioLevel(meanDbfs, intervalPeakDbfs, speech);
+            intervalStartNs = start;
+            intervalEnergy = 0;
+            intervalFrames = 0;
+            intervalPeakDbfs = AudioLevelMeter.SILENCE_DBFS;
+        }
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Mean time spent measuring one chunk.
+     */
+    public long getMeanProcessNs() {
+        final long count = frames;
+        return count > 0 ? processNs / count : 0;
+    }
+}
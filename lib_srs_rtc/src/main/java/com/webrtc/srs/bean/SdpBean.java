@@ -63,7 +63,31 @@ public class SdpBean {
         return code;
     }
 
+    public void setCode(int code) {
+        this.code = code;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public void setServer(String server) {
+        this.server = server;
+    }
+
     public String getSdp() {
         return sdp;
     }
+
+    public void setSdp(String sdp) {
+        this.sdp = sdp;
+    }
+
+    public String getSessionid() {
+        return sessionid;
+    }
+
+    public void setSessionid(String sessionid) {
+        this.sessionid = sessionid;
+    }
 }
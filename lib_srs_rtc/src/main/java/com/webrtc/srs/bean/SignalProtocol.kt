@@ -0,0 +1,9 @@
+package com.webrtc.srs.bean
+
+/**
+ * 信令协议
+ */
+enum class SignalProtocol {
+    SRS, // SRS 的 /rtc/v1/publish、/rtc/v1/play json 接口
+    WHIP; // WHIP 推流 / WHEP 拉流，原始 sdp
+}
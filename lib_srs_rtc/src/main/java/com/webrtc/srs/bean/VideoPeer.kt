@@ -1,5 +1,11 @@
 package com.webrtc.srs.bean
 
+import com.webrtc.srs.api.SignalBackend
+import com.webrtc.srs.api.SignalRequest
+import com.webrtc.srs.metrics.FirstFrameProbe
+import com.webrtc.srs.metrics.SessionTimeline
+import com.webrtc.srs.recovery.SessionRecovery
+import com.webrtc.srs.video.VideoFanOut
 import org.webrtc.AudioTrack
 import org.webrtc.PeerConnection
 import org.webrtc.SurfaceViewRenderer
@@ -11,18 +17,72 @@ class VideoPeer {
     var playUrl: String = ""
     var streamUrl: String = ""
     var channelType: ChannelType = ChannelType.PUBLISH
+    var streamType: StreamType = StreamType.VIDEO
+    var server: String? = null
+    var sessionId: String? = null
+    var signalBackend: SignalBackend? = null
+
+    /**
+     * WHIP/WHEP 服务端资源地址和 ETag
+     */
+    var resourceUrl: String? = null
+    var etag: String? = null
+
+    /**
+     * 最近一次设置的远端 answer，ICE restart 时在它的基础上更新
+     */
+    var remoteSdp: String? = null
+    var signalRequest: SignalRequest<*>? = null
+    var setupStartNs = 0L
+    var fromPool = false
+    var timeline: SessionTimeline? = null
+    var firstFrameProbe: FirstFrameProbe? = null
+    var recovery: SessionRecovery? = null
     var peerConnection: PeerConnection? = null
     var surfaceViewRenderer: SurfaceViewRenderer? = null
     var videoTrack: VideoTrack? = null
     var audioTrack: AudioTrack? = null
 
+    /**
+     * 拉流时远端 track 上唯一的 sink，渲染器在解码线程直接调用，其他消费者各自一个投递线程
+     */
+    var videoFanOut: VideoFanOut? = null
+
     fun release() {
         userId = ""
+        recovery?.stop()
+        recovery = null
+        signalRequest?.cancel()
+        signalRequest = null
+        signalBackend?.teardown(this)
+        signalBackend = null
+        remoteSdp = null
+        server = null
+        sessionId = null
+        timeline = null
+        // 远端 track 属于 PeerConnection，本地 track 属于本地流，这里只解绑，不 dispose
+        firstFrameProbe?.let { videoTrack?.removeSink(it) }
+        firstFrameProbe = null
+        videoFanOut?.let {
+            videoTrack?.removeSink(it)
+            it.release()
+        }
+        videoFanOut = null
+        surfaceViewRenderer?.let {
+            videoTrack?.removeSink(it)
+            it.clearImage()
+        }
+        videoTrack = null
+        audioTrack = null
         peerConnection?.dispose()
         peerConnection = null
-//        surfaceViewRenderer?.release()
-//        surfaceViewRenderer?.clearImage()
-//        videoTrack?.dispose()
-//        audioTrack?.dispose()
     }
+
+    /**
+     * 当前持有的 native 对象数，给会话统计用
+     */
+    fun trackCount(): Int = (if (videoTrack != null) 1 else 0) + (if (audioTrack != null) 1 else 0)
+
+    fun sinkCount(): Int = (if (videoTrack != null && surfaceViewRenderer != null) 1 else 0) + (if (firstFrameProbe != null) 1 else 0) +
+            (videoFanOut?.consumerCount ?: 0)
 }
\ No newline at end of file
@@ -0,0 +1,176 @@
+package com.webrtc.srs.crypto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Annex-B helpers for the H.264 mode of {@link FrameCryptor}: finding the coded slice payloads
+ * of a frame and the emulation prevention (RBSP escaping) that keeps ciphertext from looking
+ * like a start code to the packetizer.
+ */
+final class AnnexB {
+    /**
+     * Ends every escaped payload, like rbsp_stop_one_bit: the payload never ends in a zero
+     * that a following start code would swallow.
+     */
+    static final byte STOP = (byte) 0x80;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    // Slice payloads of the last scan as absolute [start, end) pairs.
+    private int[] ranges = new int[16];
+    private int count;
+
+    /**
+     * Finds the payload of every coded slice (NAL types 1 to 5), the bytes after its one-byte
+     * header. Start codes, slice headers and all other NAL units (SPS, PPS, SEI, AUD) stay in
+     * the clear; zeros before a start code or at the end of the frame count as part of it.
+     *
+     * @return the number of slices
+     */
+    int scan(ByteBuffer frame, int begin, int end) {
+        count = 0;
+        int startCode = find(frame, begin, end);
+        while (startCode >= 0) {
+            final int header = startCode + 3;
+            final int next = find(frame, header, end);
+            int nalEnd = next >= 0 ? next : end;
+            while (nalEnd > header && frame.get(nalEnd - 1) == 0) {
+                nalEnd--;
+            }
+            if (nalEnd > header + 1 && isSlice(frame.get(header))) {
+                if (2 * count + 2 > ranges.length) {
+                    int[] grown = new int[ranges.length * 2];
+                    System.arraycopy(ranges, 0, grown, 0, 2 * count);
+                    ranges = grown;
+                }
+                ranges[2 * count] = header + 1;
+                ranges[2 * count + 1] = nalEnd;
+                count++;
+            }
+            startCode = next;
+        }
+        return count;
+    }
+
+    int start(int slice) {
+        return ranges[2 * slice];
+    }
+
+    int end(int slice) {
+        return ranges[2 * slice + 1];
+    }
+
+    private static boolean isSlice(byte header) {
+        final int type = header & 0x1f;
+        return type >= 1 && type <= 5;
+    }
+
+    /**
+     * Index of the next {@code 00 00 01} in [from, end), or -1.
+     */
+    private static int find(ByteBuffer frame, int from, int end) {
+        int i = from;
+        while (true) {
+            final int zero = nextZero(frame, i, end);
+            if (zero + 2 >= end) {
+                return -1;
+            }
+            if (frame.get(zero + 1) == 0 && frame.get(zero + 2) == 1) {
+                return zero;
+            }
+            i = zero + 1;
+        }
+    }
+
+    /**
+     * Index of the first zero byte in [from, end), or end. Tests eight bytes per step, since
+     * encoded slices and ciphertext have few zeros; pass native-order buffers to avoid swaps.
+     */
+    private static int nextZero(ByteBuffer buffer, int from, int end) {
+        int i = from;
+        for (; i + 8 <= end; i += 8) {
+            final long word = buffer.getLong(i);
+            if (((word - ONES) & ~word & HIGHS) != 0) {
+                break;
+            }
+        }
+        for (; i < end; i++) {
+            if (buffer.get(i) == 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Copies [from, to) of the array-backed {@code src} into {@code out}, inserting 0x03 after
+     * every two zeros that are followed by a byte up to 0x03, then appends {@link #STOP}. Runs
+     * between insertions are copied in bulk.
+     */
+    static void escape(ByteBuffer src, int from, int to, ByteBuffer out) {
+        final byte[] array = src.array();
+        final int base = src.arrayOffset();
+        int run = from;
+        int i = from;
+        while (true) {
+            final int zero = nextZero(src, i, to);
+            if (zero + 2 >= to) {
+                break;
+            }
+            if (src.get(zero + 1) != 0) {
+                i = zero + 2;
+            } else if ((src.get(zero + 2) & 0xff) <= 3) {
+                out.put(array, base + run, zero + 2 - run).put((byte) 3);
+                // The zero count starts over at the byte after the inserted 0x03.
+                run = zero + 2;
+                i = zero + 2;
+            } else {
+                i = zero + 3;
+            }
+        }
+        out.put(array, base + run, to - run).put(STOP);
+    }
+
+    /**
+     * Reverses {@link #escape} for [from, to) of {@code frame}, which must end with
+     * {@link #STOP}, appending to the array-backed {@code out} at {@code offset}: a bulk copy,
+     * then the escape bytes are squeezed out in place, so {@code out} needs room for the
+     * escaped length.
+     *
+     * @return bytes appended, or -1 when the stop byte is missing
+     */
+    static int unescape(ByteBuffer frame, int from, int to, ByteBuffer out, int offset) {
+        if (to <= from || frame.get(to - 1) != STOP) {
+            return -1;
+        }
+        final byte[] array = out.array();
+        final int base = out.arrayOffset();
+        final int end = offset + to - 1 - from;
+        ByteBuffer escaped = frame.duplicate();
+        escaped.limit(to - 1).position(from);
+        escaped.get(array, base + offset, end - offset);
+        int written = offset;
+        int run = offset;
+        int i = offset;
+        while (true) {
+            final int zero = nextZero(out, i, end);
+            if (zero + 2 >= end) {
+                break;
+            }
+            if (out.get(zero + 1) != 0) {
+                i = zero + 2;
+            } else if (out.get(zero + 2) == 3) {
+                System.arraycopy(array, base + run, array, base + written, zero + 2 - run);
+                written += zero + 2 - run;
+                run = zero + 3;
+                i = zero + 3;
+            } else {
+                i = zero + 1;
+            }
+        }
+        System.arraycopy(array, base + run, array, base + written, end - run);
+        written += end - run;
+        return written - offset;
+    }
+}
@@ -0,0 +1,393 @@
+package com.webrtc.srs.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-GCM transform of encoded frames. The leading codec header stays in the clear and is
+ * authenticated as AAD together with the epoch byte, so an SFU like SRS can still packetize and
+ * forward the frame but nobody can move it to another key:
+ * <pre>
+ * [clear header][ciphertext][GCM tag 16][IV 12][epoch u8]
+ * </pre>
+ * The IV is a random 32-bit sender id plus a 64-bit frame counter, unique per key as long as
+ * sender ids do not collide. The API follows the native FrameEncryptor/FrameDecryptor
+ * contract (max output size, write into a caller buffer) so a JNI bridge can forward to it;
+ * the cipher, IV array and counters are reused, the caller preallocates the output. One
+ * instance per sender or receiver: it is not thread-safe.
+ * <p>
+ * H.264 frames are Annex-B: start codes, every NAL header and the non-slice NAL units stay in
+ * the clear and only slice payloads are encrypted, as one GCM message whose AAD also binds the
+ * payload lengths. Each encrypted payload is RBSP-escaped and ends with a 0x80 stop byte so
+ * ciphertext never emulates a start code; the trailer rides at the end of the last slice:
+ * <pre>
+ * [00 00 01][NAL hdr][escape(ciphertext)][80] ... [00 00 01][NAL hdr][escape(ciphertext|tag|IV|epoch)][80]
+ * </pre>
+ */
+public final class FrameCryptor {
+    public static final int TAG_BYTES = 16;
+    public static final int IV_BYTES = 12;
+    public static final int TRAILER_BYTES = TAG_BYTES + IV_BYTES + 1;
+
+    public enum Codec {
+        /**
+         * Opus TOC byte.
+         */
+        OPUS,
+        /**
+         * VP8 payload header: 10 bytes on key frames, 3 on delta frames.
+         */
+        VP8,
+        /**
+         * Annex-B H.264: only coded slice payloads are encrypted, see the class comment.
+         */
+        H264,
+        /**
+         * Nothing in the clear, for SFUs that never look into the payload.
+         */
+        RAW;
+
+        int clearBytes(ByteBuffer frame) {
+            if (!frame.hasRemaining()) {
+                return 0;
+            }
+            switch (this) {
+                case OPUS:
+                    return 1;
+                case VP8:
+                    // Bit 0 of the first byte is the inverse key frame flag.
+                    return (frame.get(frame.position()) & 1) == 0 ? 10 : 3;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    public static final class Stats {
+        public final long encrypted;
+        public final long decrypted;
+        public final long failures;
+        public final long unknownKeys;
+
+        Stats(long encrypted, long decrypted, long failures, long unknownKeys) {
+            this.encrypted = encrypted;
+            this.decrypted = decrypted;
+            this.failures = failures;
+            this.unknownKeys = unknownKeys;
+        }
+
+        @Override
+        public String toString() {
+            return "encrypted " + encrypted + ", decrypted " + decrypted + ", failures " + failures
+                    + ", unknown keys " + unknownKeys;
+        }
+    }
+
+    private final FrameKeyRing keyRing;
+    private final Codec codec;
+    private final Cipher cipher;
+    private final byte[] iv = new byte[IV_BYTES];
+    private final byte[] epochAad = new byte[1];
+    private final int senderId;
+    // H.264 only: slice layout and contiguous payload/ciphertext scratch, grown as needed.
+    private final AnnexB annexB = new AnnexB();
+    private final byte[] lengthAad = new byte[4];
+    private int[] sliceLengths = new int[8];
+    private byte[] plainScratch = new byte[0];
+    private ByteBuffer sealedScratch = ByteBuffer.allocate(0).order(ByteOrder.nativeOrder());
+    private long counter;
+    private volatile long encrypted;
+    private volatile long decrypted;
+    private volatile long failures;
+    private volatile long unknownKeys;
+
+    public FrameCryptor(FrameKeyRing keyRing, Codec codec) throws GeneralSecurityException {
+        this.keyRing = keyRing;
+        this.codec = codec;
+        this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        this.senderId = new SecureRandom().nextInt();
+    }
+
+    public int getMaxCiphertextByteSize(int frameSize) {
+        if (codec == Codec.H264) {
+            // Escaping adds at most one byte per two, stop bytes one per slice of at least four.
+            return frameSize + TRAILER_BYTES + (frameSize + TRAILER_BYTES) / 2 + frameSize / 4 + 1;
+        }
+        return frameSize + TRAILER_BYTES;
+    }
+
+    public int getMaxPlaintextByteSize(int encryptedFrameSize) {
+        return Math.max(0, encryptedFrameSize - TRAILER_BYTES);
+    }
+
+    /**
+     * Encrypts the frame's remaining bytes into {@code out} at its position.
+     *
+     * @return bytes written
+     */
+    public int encrypt(ByteBuffer frame, ByteBuffer out) throws GeneralSecurityException {
+        final int epoch = keyRing.getCurrentEpoch();
+        // The epoch stays installed while in use, even if the ring rotates concurrently.
+        final SecretKeySpec key = epoch >= 0 ? keyRing.key(epoch) : null;
+        if (key == null) {
+            unknownKeys++;
+            throw new GeneralSecurityException("no current frame key");
+        }
+        final int start = out.position();
+        final int clear = Math.min(codec.clearBytes(frame), frame.remaining());
+        final long count = counter++;
+        iv[0] = (byte) (senderId >>> 24);
+        iv[1] = (byte) (senderId >>> 16);
+        iv[2] = (byte) (senderId >>> 8);
+        iv[3] = (byte) senderId;
+        for (int i = 0; i < 8; i++) {
+            iv[4 + i] = (byte) (count >>> (56 - 8 * i));
+        }
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BYTES * 8, iv));
+            epochAad[0] = (byte) epoch;
+            if (codec == Codec.H264) {
+                sealAnnexB(frame, out);
+            } else {
+                ByteBuffer header = frame.duplicate();
+                header.limit(header.position() + clear);
+                cipher.updateAAD(header.duplicate());
+                cipher.updateAAD(epochAad);
+                out.put(header);
+                ByteBuffer payload = frame.duplicate();
+                payload.position(payload.position() + clear);
+                cipher.doFinal(payload, out);
+                out.put(iv).put((byte) epoch);
+            }
+        } catch (GeneralSecurityException | RuntimeException e) {
+            failures++;
+            out.position(start);
+            throw e;
+        }
+        encrypted++;
+        return out.position() - start;
+    }
+
+    /**
+     * Decrypts the frame's remaining bytes into {@code out} at its position.
+     *
+     * @return bytes written
+     * @throws AEADBadTagException when the frame was tampered with or the key is wrong
+     */
+    public int decrypt(ByteBuffer frame, ByteBuffer out) throws GeneralSecurityException {
+        if (codec == Codec.H264) {
+            return openAnnexB(frame, out);
+        }
+        final int begin = frame.position();
+        final int end = frame.limit();
+        final int clear = Math.min(codec.clearBytes(frame), frame.remaining());
+        if (end - begin < clear + TRAILER_BYTES) {
+            failures++;
+            throw new GeneralSecurityException("frame too short: " + (end - begin));
+        }
+        final int epoch = frame.get(end - 1) & 0xff;
+        SecretKeySpec key = keyRing.key(epoch);
+        // A ratcheted key joins the ring only after it authenticated this frame.
+        final FrameKeyRing.Candidate candidate = key == null ? candidate(epoch) : null;
+        if (candidate != null) {
+            key = candidate.key;
+        }
+        for (int i = 0; i < IV_BYTES; i++) {
+            iv[i] = frame.get(end - 1 - IV_BYTES + i);
+        }
+        final int start = out.position();
+        try {
+            ByteBuffer header = frame.duplicate();
+            header.limit(begin + clear);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BYTES * 8, iv));
+            cipher.updateAAD(header.duplicate());
+            epochAad[0] = (byte) epoch;
+            cipher.updateAAD(epochAad);
+            out.put(header);
+            ByteBuffer sealed = frame.duplicate();
+            sealed.limit(end - 1 - IV_BYTES).position(begin + clear);
+            cipher.doFinal(sealed, out);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            failures++;
+            out.position(start);
+            if (candidate != null) {
+                FrameKeyRing.discard(candidate);
+            }
+            throw e;
+        }
+        if (candidate != null) {
+            keyRing.commit(candidate);
+        }
+        decrypted++;
+        return out.position() - start;
+    }
+
+    /**
+     * Derives keys for an epoch that is not installed, or throws when it is out of reach.
+     */
+    private FrameKeyRing.Candidate candidate(int epoch) throws GeneralSecurityException {
+        FrameKeyRing.Candidate candidate = keyRing.candidate(epoch);
+        if (candidate == null) {
+            unknownKeys++;
+            throw new GeneralSecurityException("no key for epoch " + epoch);
+        }
+        return candidate;
+    }
+
+    /**
+     * Encrypts the slice payloads of an Annex-B frame with the initialized cipher.
+     */
+    private void sealAnnexB(ByteBuffer frame, ByteBuffer out) throws GeneralSecurityException {
+        final int begin = frame.position();
+        final int end = frame.limit();
+        // Native order lets the zero search read whole words without swapping bytes.
+        final int slices = annexB.scan(frame.duplicate().order(ByteOrder.nativeOrder()), begin, end);
+        if (slices == 0) {
+            throw new GeneralSecurityException("no H.264 slice to encrypt");
+        }
+        if (sliceLengths.length < slices) {
+            sliceLengths = new int[Math.max(slices, 2 * sliceLengths.length)];
+        }
+        int total = 0;
+        for (int i = 0; i < slices; i++) {
+            sliceLengths[i] = annexB.end(i) - annexB.start(i);
+            total += sliceLengths[i];
+        }
+        if (plainScratch.length < total) {
+            plainScratch = new byte[total];
+        }
+        if (sealedScratch.capacity() < total + TRAILER_BYTES) {
+            sealedScratch = ByteBuffer.allocate(total + TRAILER_BYTES).order(ByteOrder.nativeOrder());
+        }
+        int offset = 0;
+        for (int i = 0; i < slices; i++) {
+            ByteBuffer payload = frame.duplicate();
+            payload.limit(annexB.end(i)).position(annexB.start(i));
+            final int length = payload.remaining();
+            payload.get(plainScratch, offset, length);
+            offset += length;
+        }
+        authenticateLayout(frame, begin, end, slices);
+        int sealedBytes = cipher.doFinal(plainScratch, 0, total, sealedScratch.array(), 0);
+        System.arraycopy(iv, 0, sealedScratch.array(), sealedBytes, IV_BYTES);
+        sealedBytes += IV_BYTES;
+        sealedScratch.put(sealedBytes++, epochAad[0]);
+
+        int clearFrom = begin;
+        offset = 0;
+        for (int i = 0; i < slices; i++) {
+            putClear(frame, clearFrom, annexB.start(i), out);
+            final int length = i == slices - 1 ? sealedBytes - offset : sliceLengths[i];
+            AnnexB.escape(sealedScratch, offset, offset + length, out);
+            offset += length;
+            clearFrom = annexB.end(i);
+        }
+        putClear(frame, clearFrom, end, out);
+    }
+
+    private int openAnnexB(ByteBuffer frame, ByteBuffer out) throws GeneralSecurityException {
+        final int begin = frame.position();
+        final int end = frame.limit();
+        final ByteBuffer view = frame.duplicate().order(ByteOrder.nativeOrder());
+        final int slices = annexB.scan(view, begin, end);
+        if (sealedScratch.capacity() < end - begin) {
+            sealedScratch = ByteBuffer.allocate(end - begin).order(ByteOrder.nativeOrder());
+        }
+        if (sliceLengths.length < slices) {
+            sliceLengths = new int[Math.max(slices, 2 * sliceLengths.length)];
+        }
+        int total = 0;
+        int last = 0;
+        for (int i = 0; i < slices && last >= 0; i++) {
+            last = AnnexB.unescape(view, annexB.start(i), annexB.end(i), sealedScratch, total);
+            sliceLengths[i] = last;
+            total += last;
+        }
+        if (slices == 0 || last < TRAILER_BYTES) {
+            failures++;
+            throw new GeneralSecurityException("no encrypted H.264 slice with a trailer");
+        }
+        sliceLengths[slices - 1] -= TRAILER_BYTES;
+        final int epoch = sealedScratch.get(total - 1) & 0xff;
+        SecretKeySpec key = keyRing.key(epoch);
+        final FrameKeyRing.Candidate candidate = key == null ? candidate(epoch) : null;
+        if (candidate != null) {
+            key = candidate.key;
+        }
+        System.arraycopy(sealedScratch.array(), total - 1 - IV_BYTES, iv, 0, IV_BYTES);
+        final int start = out.position();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BYTES * 8, iv));
+            epochAad[0] = (byte) epoch;
+            authenticateLayout(frame, begin, end, slices);
+            if (plainScratch.length < total) {
+                plainScratch = new byte[total];
+            }
+            cipher.doFinal(sealedScratch.array(), 0, total - 1 - IV_BYTES, plainScratch, 0);
+            int clearFrom = begin;
+            int offset = 0;
+            for (int i = 0; i < slices; i++) {
+                putClear(frame, clearFrom, annexB.start(i), out);
+                out.put(plainScratch, offset, sliceLengths[i]);
+                offset += sliceLengths[i];
+                clearFrom = annexB.end(i);
+            }
+            putClear(frame, clearFrom, end, out);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            failures++;
+            out.position(start);
+            if (candidate != null) {
+                FrameKeyRing.discard(candidate);
+            }
+            throw e;
+        }
+        if (candidate != null) {
+            keyRing.commit(candidate);
+        }
+        decrypted++;
+        return out.position() - start;
+    }
+
+    /**
+     * Feeds the clear bytes, the plaintext length of every slice and the epoch as AAD, so the
+     * ciphertext cannot be moved between slices or next to other headers.
+     */
+    private void authenticateLayout(ByteBuffer frame, int begin, int end, int slices) {
+        int clearFrom = begin;
+        for (int i = 0; i < slices; i++) {
+            ByteBuffer clear = frame.duplicate();
+            clear.limit(annexB.start(i)).position(clearFrom);
+            cipher.updateAAD(clear);
+            clearFrom = annexB.end(i);
+        }
+        ByteBuffer tail = frame.duplicate();
+        tail.limit(end).position(clearFrom);
+        cipher.updateAAD(tail);
+        for (int i = 0; i < slices; i++) {
+            final int length = sliceLengths[i];
+            lengthAad[0] = (byte) (length >>> 24);
+            lengthAad[1] = (byte) (length >>> 16);
+            lengthAad[2] = (byte) (length >>> 8);
+            lengthAad[3] = (byte) length;
+            cipher.updateAAD(lengthAad);
+        }
+        cipher.updateAAD(epochAad);
+    }
+
+    private static void putClear(ByteBuffer frame, int from, int to, ByteBuffer out) {
+        ByteBuffer clear = frame.duplicate();
+        clear.limit(to).position(from);
+        out.put(clear);
+    }
+
+    public Stats getStats() {
+        return new Stats(encrypted, decrypted, failures, unknownKeys);
+    }
+}
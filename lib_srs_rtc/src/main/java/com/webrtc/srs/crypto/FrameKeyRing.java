@@ -0,0 +1,223 @@
+package com.webrtc.srs.crypto;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES keys indexed by an 8-bit epoch carried in every encrypted frame. Rotation without frame
+ * loss: install the new key on the receivers first ({@link #setKey}), then switch the sender
+ * with {@link #setCurrentEpoch}; frames still in flight decrypt with the previous epoch, which
+ * stays installed until {@link #retire} or until more than {@code retainedKeys} newer keys were
+ * installed. {@link #ratchet()} derives the next key from the current one, and a receiver that
+ * sees an epoch up to {@code ratchetWindow} ahead of its newest key derives it the same way;
+ * derived keys are only installed once a frame decrypted with them, so a forged epoch byte
+ * cannot push real keys out of the ring.
+ */
+public final class FrameKeyRing {
+    public static final int EPOCHS = 256;
+    public static final int DEFAULT_RETAINED_KEYS = 4;
+    public static final int DEFAULT_RATCHET_WINDOW = 8;
+    private static final byte[] RATCHET_INFO = "srs-frame-ratchet".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecretKeySpec[] keys = new SecretKeySpec[EPOCHS];
+    private final byte[][] material = new byte[EPOCHS][];
+    // Installed epochs, oldest first.
+    private final ArrayDeque<Integer> installed = new ArrayDeque<>();
+    private final int retainedKeys;
+    private final int ratchetWindow;
+    @Nullable
+    private Mac mac;
+    private volatile int currentEpoch = -1;
+    private int latestEpoch = -1;
+
+    /**
+     * Keys derived for an epoch ahead of the newest one, held outside the ring until
+     * {@link #commit} or {@link #discard}.
+     */
+    static final class Candidate {
+        final int baseEpoch;
+        final byte[][] chain;
+        final SecretKeySpec key;
+
+        Candidate(int baseEpoch, byte[][] chain) {
+            this.baseEpoch = baseEpoch;
+            this.chain = chain;
+            this.key = new SecretKeySpec(chain[chain.length - 1], "AES");
+        }
+    }
+
+    public FrameKeyRing() {
+        this(DEFAULT_RETAINED_KEYS, DEFAULT_RATCHET_WINDOW);
+    }
+
+    /**
+     * @param ratchetWindow how far ahead a receiver derives unknown epochs, 0 to disable
+     */
+    public FrameKeyRing(int retainedKeys, int ratchetWindow) {
+        this.retainedKeys = Math.max(2, retainedKeys);
+        this.ratchetWindow = Math.max(0, ratchetWindow);
+    }
+
+    /**
+     * Installs a 16 or 32 byte AES key for the epoch; the sender keeps using its current epoch.
+     */
+    public synchronized void setKey(int epoch, byte[] key) {
+        checkEpoch(epoch);
+        if (key.length != 16 && key.length != 32) {
+            throw new IllegalArgumentException("AES key must be 16 or 32 bytes, got " + key.length);
+        }
+        install(epoch, key.clone());
+    }
+
+    /**
+     * Switches the epoch new frames are encrypted with.
+     */
+    public synchronized void setCurrentEpoch(int epoch) {
+        checkEpoch(epoch);
+        if (keys[epoch] == null) {
+            throw new IllegalStateException("no key for epoch " + epoch);
+        }
+        currentEpoch = epoch;
+    }
+
+    public int getCurrentEpoch() {
+        return currentEpoch;
+    }
+
+    /**
+     * Installs the key at the epoch after the newest one and switches to it.
+     *
+     * @return the new epoch
+     */
+    public synchronized int rotate(byte[] key) {
+        int epoch = (latestEpoch + 1) & (EPOCHS - 1);
+        setKey(epoch, key);
+        currentEpoch = epoch;
+        return epoch;
+    }
+
+    /**
+     * Derives the next key from the current one and switches to it; receivers follow without a
+     * key exchange.
+     *
+     * @return the new epoch
+     */
+    public synchronized int ratchet() throws GeneralSecurityException {
+        if (currentEpoch < 0) {
+            throw new IllegalStateException("no current key");
+        }
+        int epoch = (currentEpoch + 1) & (EPOCHS - 1);
+        install(epoch, derive(material[currentEpoch]));
+        currentEpoch = epoch;
+        return epoch;
+    }
+
+    public synchronized void retire(int epoch) {
+        checkEpoch(epoch);
+        if (epoch != currentEpoch) {
+            remove(epoch);
+            installed.remove(epoch);
+        }
+    }
+
+    /**
+     * Installed key for the epoch, or null.
+     */
+    @Nullable
+    synchronized SecretKeySpec key(int epoch) {
+        return keys[epoch];
+    }
+
+    /**
+     * Derives the keys from the newest one up to an epoch within the ratchet window ahead,
+     * without installing them; null when the epoch is outside the window.
+     */
+    @Nullable
+    synchronized Candidate candidate(int epoch) throws GeneralSecurityException {
+        if (keys[epoch] != null || latestEpoch < 0 || ratchetWindow == 0) {
+            return null;
+        }
+        int ahead = (epoch - latestEpoch) & (EPOCHS - 1);
+        if (ahead > ratchetWindow) {
+            return null;
+        }
+        byte[][] chain = new byte[ahead][];
+        byte[] next = material[latestEpoch];
+        for (int i = 0; i < ahead; i++) {
+            next = derive(next);
+            chain[i] = next;
+        }
+        return new Candidate(latestEpoch, chain);
+    }
+
+    /**
+     * Installs a candidate whose key decrypted a frame, unless the ring moved on meanwhile.
+     */
+    synchronized void commit(Candidate candidate) {
+        if (latestEpoch != candidate.baseEpoch || material[candidate.baseEpoch] == null) {
+            discard(candidate);
+            return;
+        }
+        for (int i = 0; i < candidate.chain.length; i++) {
+            install((candidate.baseEpoch + 1 + i) & (EPOCHS - 1), candidate.chain[i]);
+        }
+    }
+
+    static void discard(Candidate candidate) {
+        for (byte[] key : candidate.chain) {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    private void install(int epoch, byte[] key) {
+        if (keys[epoch] != null) {
+            installed.remove(epoch);
+            remove(epoch);
+        }
+        material[epoch] = key;
+        keys[epoch] = new SecretKeySpec(key, "AES");
+        installed.addLast(epoch);
+        latestEpoch = epoch;
+        while (installed.size() > retainedKeys) {
+            Integer oldest = installed.peekFirst();
+            if (oldest == currentEpoch) {
+                // Never drop the key the sender is still using; drop the next oldest.
+                installed.pollFirst();
+                Integer next = installed.pollFirst();
+                remove(next);
+                installed.addFirst(oldest);
+            } else {
+                remove(installed.pollFirst());
+            }
+        }
+    }
+
+    private void remove(int epoch) {
+        if (material[epoch] != null) {
+            Arrays.fill(material[epoch], (byte) 0);
+        }
+        material[epoch] = null;
+        keys[epoch] = null;
+    }
+
+    private byte[] derive(byte[] key) throws GeneralSecurityException {
+        if (mac == null) {
+            mac = Mac.getInstance("HmacSHA256");
+        }
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return Arrays.copyOf(mac.doFinal(RATCHET_INFO), key.length);
+    }
+
+    private static void checkEpoch(int epoch) {
+        if (epoch < 0 || epoch >= EPOCHS) {
+            throw new IllegalArgumentException("epoch " + epoch);
+        }
+    }
+}
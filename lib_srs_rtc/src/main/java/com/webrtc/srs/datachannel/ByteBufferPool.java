@@ -0,0 +1,88 @@
+package com.webrtc.srs.datachannel;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Arena of heap ByteBuffers in power-of-two size classes. Buffers larger than the biggest
+ * class are allocated on demand and dropped on release; each class keeps at most
+ * {@code maxPerClass} idle buffers so a burst cannot pin memory forever.
+ */
+public final class ByteBufferPool {
+    private static final int MIN_SHIFT = 8;  // 256 B
+    private static final int MAX_SHIFT = 18; // 256 KiB, the largest SCTP message we accept by default
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] classes;
+    private final AtomicInteger[] idleCounts;
+    private final int maxPerClass;
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public ByteBufferPool(int maxPerClass) {
+        this.maxPerClass = maxPerClass;
+        int count = MAX_SHIFT - MIN_SHIFT + 1;
+        classes = new ConcurrentLinkedQueue[count];
+        idleCounts = new AtomicInteger[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+            idleCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Returns a cleared buffer with at least {@code size} bytes remaining and its limit set to
+     * {@code size}.
+     */
+    public ByteBuffer acquire(int size) {
+        int index = classIndex(size);
+        ByteBuffer buffer = null;
+        if (index >= 0) {
+            buffer = classes[index].poll();
+            if (buffer != null) {
+                idleCounts[index].decrementAndGet();
+                reuses.incrementAndGet();
+            }
+        }
+        if (buffer == null) {
+            allocations.incrementAndGet();
+            buffer = ByteBuffer.allocate(index >= 0 ? 1 << (index + MIN_SHIFT) : size);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        int index = classIndex(capacity);
+        if (index < 0 || idleCounts[index].incrementAndGet() > maxPerClass) {
+            if (index >= 0) {
+                idleCounts[index].decrementAndGet();
+            }
+            return;
+        }
+        classes[index].offer(buffer);
+    }
+
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    public long getReuses() {
+        return reuses.get();
+    }
+
+    private static int classIndex(int size) {
+        if (size > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1));
+        return shift - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,72 @@
+package com.webrtc.srs.datachannel;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message and byte totals of one data channel. {@link #sample()} turns the totals into
+ * per-second rates over the time since the previous sample.
+ */
+public final class ChannelCounters {
+    private final String label;
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private long lastSampleNs = System.nanoTime();
+    private long lastMessages;
+    private long lastBytes;
+
+    public static final class Sample {
+        public final String label;
+        public final long messages;
+        public final long bytes;
+        public final long dropped;
+        public final double messagesPerSecond;
+        public final double bytesPerSecond;
+
+        Sample(String label, long messages, long bytes, long dropped, double messagesPerSecond, double bytesPerSecond) {
+            this.label = label;
+            this.messages = messages;
+            this.bytes = bytes;
+            this.dropped = dropped;
+            this.messagesPerSecond = messagesPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return label + ": " + messages + " msgs, " + bytes + " B, " + dropped + " dropped, "
+                    + Math.round(messagesPerSecond) + " msg/s, " + Math.round(bytesPerSecond) + " B/s";
+        }
+    }
+
+    public ChannelCounters(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    void onMessage(int size) {
+        messages.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    void onDropped() {
+        dropped.incrementAndGet();
+    }
+
+    public synchronized Sample sample() {
+        long now = System.nanoTime();
+        long totalMessages = messages.get();
+        long totalBytes = bytes.get();
+        double seconds = Math.max(1e-3, (now - lastSampleNs) / 1e9);
+        Sample sample = new Sample(label, totalMessages, totalBytes, dropped.get(),
+                (totalMessages - lastMessages) / seconds, (totalBytes - lastBytes) / seconds);
+        lastSampleNs = now;
+        lastMessages = totalMessages;
+        lastBytes = totalBytes;
+        return sample;
+    }
+}
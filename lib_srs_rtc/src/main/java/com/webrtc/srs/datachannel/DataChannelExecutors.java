@@ -0,0 +1,31 @@
+package com.webrtc.srs.datachannel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Daemon pool shared by the data channel receivers and senders; each channel runs on its own
+ * SerialExecutor over it so work stays ordered per channel.
+ */
+final class DataChannelExecutors {
+    private static final int THREADS = 2;
+    private static volatile ExecutorService shared;
+
+    private DataChannelExecutors() {
+    }
+
+    static ExecutorService shared() {
+        if (shared == null) {
+            synchronized (DataChannelExecutors.class) {
+                if (shared == null) {
+                    shared = Executors.newFixedThreadPool(THREADS, runnable -> {
+                        Thread thread = new Thread(runnable, "DataChannelDispatch");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,79 @@
+package com.webrtc.srs.datachannel;
+
+import org.webrtc.DataChannel;
+
+/**
+ * One negotiated data channel with its own reliability and send priority. Both peers open the
+ * same lanes with the same ids, so no in-band DCEP handshake is needed.
+ */
+public final class DataChannelLane {
+    public static final int PRIORITY_CONTROL = 0;
+    public static final int PRIORITY_REALTIME = 1;
+    public static final int PRIORITY_BULK = 2;
+
+    public final String label;
+    public final int id;
+    public final boolean ordered;
+    public final int maxRetransmitTimeMs;
+    public final int maxRetransmits;
+    public final String protocol;
+    /**
+     * Lower runs first: a lane only sends while every lane with a lower value has nothing queued.
+     */
+    public final int priority;
+    public final long lowWatermark;
+    public final long highWatermark;
+
+    public DataChannelLane(String label, int id, boolean ordered, int maxRetransmitTimeMs, int maxRetransmits,
+                           String protocol, int priority, long lowWatermark, long highWatermark) {
+        if (maxRetransmitTimeMs >= 0 && maxRetransmits >= 0) {
+            throw new IllegalArgumentException(label + ": maxRetransmitTimeMs and maxRetransmits are exclusive");
+        }
+        this.label = label;
+        this.id = id;
+        this.ordered = ordered;
+        this.maxRetransmitTimeMs = maxRetransmitTimeMs;
+        this.maxRetransmits = maxRetransmits;
+        this.protocol = protocol;
+        this.priority = priority;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Reliable and ordered, for commands and signaling that must not be lost or reordered.
+     */
+    public static DataChannelLane control(int id) {
+        return new DataChannelLane("control", id, true, -1, -1, "", PRIORITY_CONTROL,
+                16 * 1024, 64 * 1024);
+    }
+
+    /**
+     * Unordered and never retransmitted, for telemetry and cursor positions where only the
+     * latest value matters.
+     */
+    public static DataChannelLane telemetry(int id) {
+        return new DataChannelLane("telemetry", id, false, -1, 0, "", PRIORITY_REALTIME,
+                16 * 1024, 64 * 1024);
+    }
+
+    /**
+     * Reliable and ordered with a small SCTP budget, so large transfers leave room for the
+     * other lanes on the shared association.
+     */
+    public static DataChannelLane bulk(int id) {
+        return new DataChannelLane("bulk", id, true, -1, -1, "", PRIORITY_BULK,
+                64 * 1024, 256 * 1024);
+    }
+
+    public DataChannel.Init toInit() {
+        DataChannel.Init init = new DataChannel.Init();
+        init.ordered = ordered;
+        init.maxRetransmitTimeMs = maxRetransmitTimeMs;
+        init.maxRetransmits = maxRetransmits;
+        init.protocol = protocol;
+        init.negotiated = true;
+        init.id = id;
+        return init;
+    }
+}
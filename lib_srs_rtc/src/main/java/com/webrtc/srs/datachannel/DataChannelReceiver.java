@@ -0,0 +1,253 @@
+package com.webrtc.srs.datachannel;
+
+import android.util.Log;
+
+import com.webrtc.srs.util.SerialExecutor;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.DataChannel;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Receive side of the data channels of one connection. Messages are handed to registered
+ * handlers without the per-message byte[] copy and String decode the observer used to do:
+ * inline handlers get a read-only view of the native buffer on the network thread, the others
+ * get a copy in a pooled buffer on a per-channel serial executor, so each channel keeps its
+ * order while the network thread returns immediately.
+ * <p>
+ * Buffers and decoded text passed to handlers are only valid during the call.
+ */
+public final class DataChannelReceiver {
+    private static final String TAG = "DataChannelReceiver";
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 256 * 1024;
+
+    public interface MessageHandler {
+        void onMessage(String label, ByteBuffer data, boolean binary);
+    }
+
+    public interface TextHandler {
+        /**
+         * Called for non-binary messages only; keep {@code text.toString()} if it must outlive
+         * the call.
+         */
+        void onText(String label, CharSequence text);
+    }
+
+    public static final class Registration {
+        @Nullable
+        final String label;
+        @Nullable
+        final MessageHandler messageHandler;
+        @Nullable
+        final TextHandler textHandler;
+        final boolean inline;
+
+        Registration(@Nullable String label, @Nullable MessageHandler messageHandler,
+                     @Nullable TextHandler textHandler, boolean inline) {
+            this.label = label;
+            this.messageHandler = messageHandler;
+            this.textHandler = textHandler;
+            this.inline = inline;
+        }
+
+        boolean matches(String channel) {
+            return label == null || label.equals(channel);
+        }
+    }
+
+    private static final class Channel {
+        final ChannelCounters counters;
+        final SerialExecutor executor;
+
+        Channel(String label, Executor dispatch) {
+            counters = new ChannelCounters(label);
+            executor = new SerialExecutor("dc-" + label, dispatch);
+        }
+    }
+
+    /**
+     * One per thread: decoders and the output CharBuffer are reused across messages.
+     */
+    private static final class Utf8Decoder {
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(1024);
+
+        CharBuffer decode(ByteBuffer bytes) {
+            // UTF-8 never yields more chars than bytes.
+            if (chars.capacity() < bytes.remaining()) {
+                chars = CharBuffer.allocate(Integer.highestOneBit(bytes.remaining()) << 1);
+            }
+            chars.clear();
+            decoder.reset();
+            decoder.decode(bytes, chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            return chars;
+        }
+    }
+
+    private static final ThreadLocal<Utf8Decoder> DECODERS = new ThreadLocal<Utf8Decoder>() {
+        @Override
+        protected Utf8Decoder initialValue() {
+            return new Utf8Decoder();
+        }
+    };
+
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+    private final Executor dispatchExecutor;
+    private final ByteBufferPool bufferPool;
+    private volatile int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+
+    public DataChannelReceiver() {
+        this(DataChannelExecutors.shared(), new ByteBufferPool(32));
+    }
+
+    public DataChannelReceiver(Executor dispatchExecutor, ByteBufferPool bufferPool) {
+        this.dispatchExecutor = dispatchExecutor;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @param label  channel to listen on, null for every channel
+     * @param inline deliver on the WebRTC network thread without copying; the handler must
+     *               return quickly
+     */
+    public Registration addHandler(@Nullable String label, MessageHandler handler, boolean inline) {
+        Registration registration = new Registration(label, handler, null, inline);
+        registrations.add(registration);
+        return registration;
+    }
+
+    public Registration addTextHandler(@Nullable String label, TextHandler handler, boolean inline) {
+        Registration registration = new Registration(label, null, handler, inline);
+        registrations.add(registration);
+        return registration;
+    }
+
+    public void removeHandler(Registration registration) {
+        registrations.remove(registration);
+    }
+
+    /**
+     * Messages above this size are counted as dropped instead of being delivered.
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public ByteBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Called from {@link DataChannel.Observer#onMessage} on the network thread.
+     */
+    public void onMessage(String label, DataChannel.Buffer buffer) {
+        final Channel channel = channel(label);
+        final ByteBuffer data = buffer.data;
+        final int size = data.remaining();
+        channel.counters.onMessage(size);
+        if (size > maxMessageSize) {
+            channel.counters.onDropped();
+            Log.w(TAG, label + ": dropped " + size + " byte message");
+            return;
+        }
+
+        boolean dispatch = false;
+        ByteBuffer view = null;
+        CharBuffer text = null;
+        for (Registration registration : registrations) {
+            if (!registration.matches(label)) {
+                continue;
+            }
+            if (!registration.inline) {
+                dispatch = true;
+                continue;
+            }
+            if (view == null) {
+                view = data.asReadOnlyBuffer();
+            }
+            text = deliver(registration, label, view, buffer.binary, text);
+        }
+
+        if (dispatch) {
+            final ByteBuffer copy = bufferPool.acquire(size);
+            copy.put(data.duplicate());
+            copy.flip();
+            final boolean binary = buffer.binary;
+            channel.executor.execute(() -> dispatch(label, copy, binary));
+        }
+    }
+
+    private void dispatch(String label, ByteBuffer copy, boolean binary) {
+        try {
+            ByteBuffer view = copy.asReadOnlyBuffer();
+            CharBuffer text = null;
+            for (Registration registration : registrations) {
+                if (!registration.inline && registration.matches(label)) {
+                    text = deliver(registration, label, view, binary, text);
+                }
+            }
+        } finally {
+            bufferPool.release(copy);
+        }
+    }
+
+    /**
+     * Returns the decoded text so later text handlers of the same message reuse it.
+     */
+    private static @Nullable CharBuffer deliver(Registration registration, String label, ByteBuffer view,
+                                                boolean binary, @Nullable CharBuffer text) {
+        final int start = view.position();
+        try {
+            if (registration.messageHandler != null) {
+                registration.messageHandler.onMessage(label, view, binary);
+            } else if (registration.textHandler != null && !binary) {
+                if (text == null) {
+                    text = DECODERS.get().decode(view);
+                } else {
+                    text.rewind();
+                }
+                registration.textHandler.onText(label, text);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, label + ": handler failed", e);
+        } finally {
+            view.position(start);
+        }
+        return text;
+    }
+
+    private Channel channel(String label) {
+        Channel channel = channels.get(label);
+        if (channel == null) {
+            channel = channels.computeIfAbsent(label, key -> new Channel(key, dispatchExecutor));
+        }
+        return channel;
+    }
+
+    public void removeChannel(String label) {
+        channels.remove(label);
+    }
+
+    public List<ChannelCounters.Sample> sampleCounters() {
+        List<ChannelCounters.Sample> samples = new ArrayList<>(channels.size());
+        for (Channel channel : channels.values()) {
+            samples.add(channel.counters.sample());
+        }
+        return samples;
+    }
+}
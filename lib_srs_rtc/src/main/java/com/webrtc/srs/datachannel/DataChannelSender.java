@@ -0,0 +1,503 @@
+package com.webrtc.srs.datachannel;
+
+import android.util.Log;
+
+import com.webrtc.srs.util.SerialExecutor;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.DataChannel;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Outbound queue of one data channel. Messages are handed to SCTP while
+ * {@link DataChannel#bufferedAmount()} stays below the high watermark; above it the queue
+ * stalls until {@link #onBufferedAmountChange()} sees the buffer drain to the low watermark.
+ * <p>
+ * DataChannel calls are proxied to the signaling thread, which also delivers the observer
+ * callbacks, so they are never made while holding the queue lock. Instead each one is
+ * bracketed by {@link #enter()}/{@link #exit()}, which refuses calls once closed and lets
+ * {@link #close()} wait for the call in flight before the owner disposes the channel.
+ */
+public final class DataChannelSender {
+    private static final String TAG = "DataChannelSender";
+    public static final long DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+    public static final long DEFAULT_LOW_WATERMARK = 256 * 1024;
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 16L * 1024 * 1024;
+
+    public static final class Metrics {
+        public final String label;
+        public final int queueDepth;
+        public final long queuedBytes;
+        public final int maxQueueDepth;
+        public final long sentMessages;
+        public final long sentBytes;
+        public final long batches;
+        public final long rejected;
+        public final long failed;
+        public final long stalls;
+        public final long stallTimeMs;
+
+        Metrics(String label, int queueDepth, long queuedBytes, int maxQueueDepth, long sentMessages, long sentBytes,
+                long batches, long rejected, long failed, long stalls, long stallTimeMs) {
+            this.label = label;
+            this.queueDepth = queueDepth;
+            this.queuedBytes = queuedBytes;
+            this.maxQueueDepth = maxQueueDepth;
+            this.sentMessages = sentMessages;
+            this.sentBytes = sentBytes;
+            this.batches = batches;
+            this.rejected = rejected;
+            this.failed = failed;
+            this.stalls = stalls;
+            this.stallTimeMs = stallTimeMs;
+        }
+
+        @Override
+        public String toString() {
+            return label + ": depth " + queueDepth + " (" + queuedBytes + " B, max " + maxQueueDepth + "), sent "
+                    + sentMessages + " msgs / " + sentBytes + " B in " + batches + " batches, rejected " + rejected
+                    + ", failed " + failed + ", " + stalls + " stalls / " + stallTimeMs + " ms";
+        }
+    }
+
+    /**
+     * Decides whether a sender may hand its next message to SCTP, checked before every message.
+     * A sender held back by the gate waits for {@link #kick()}.
+     */
+    public interface Gate {
+        boolean mayDrain(DataChannelSender sender);
+    }
+
+    private static final class Pending {
+        final ByteBuffer data;
+        final boolean binary;
+        final CompletableFuture<Boolean> future;
+
+        Pending(ByteBuffer data, boolean binary, CompletableFuture<Boolean> future) {
+            this.data = data;
+            this.binary = binary;
+            this.future = future;
+        }
+    }
+
+    private final DataChannel channel;
+    private final String label;
+    private final SerialExecutor executor;
+    private final ByteBufferPool bufferPool;
+    private final Runnable drain = this::drain;
+    private final Object lock = new Object();
+
+    // Guarded by lock.
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private long queuedBytes;
+    private int maxQueueDepth;
+    private boolean drainScheduled;
+    private boolean closed;
+    private int inFlight;
+    private long stallStartNs;
+    private long stallTimeNs;
+    private long stalls;
+    private long sentMessages;
+    private long sentBytes;
+    private long batches;
+    private long rejected;
+    private long failed;
+
+    private volatile long highWatermark = DEFAULT_HIGH_WATERMARK;
+    private volatile long lowWatermark = DEFAULT_LOW_WATERMARK;
+    private volatile long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private volatile int coalesceBytes;
+    @Nullable
+    private volatile Gate gate;
+    @Nullable
+    private volatile Runnable idleListener;
+
+    public DataChannelSender(DataChannel channel) {
+        this(channel, DataChannelExecutors.shared(), new ByteBufferPool(8));
+    }
+
+    public DataChannelSender(DataChannel channel, Executor executor, ByteBufferPool bufferPool) {
+        this.channel = channel;
+        this.label = channel.label();
+        this.executor = new SerialExecutor("dc-send-" + label, executor);
+        this.bufferPool = bufferPool;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public void setWatermarks(long lowWatermark, long highWatermark) {
+        if (lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("low " + lowWatermark + " > high " + highWatermark);
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Offers beyond this many queued bytes are rejected instead of growing the queue.
+     */
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * Packs consecutive binary messages into {@link MessageBatch} frames of up to this size;
+     * 0 disables. The receiving side has to unpack with {@link MessageBatch#unpacking}.
+     */
+    public void setCoalesceBytes(int coalesceBytes) {
+        this.coalesceBytes = coalesceBytes;
+    }
+
+    public void setGate(@Nullable Gate gate) {
+        this.gate = gate;
+    }
+
+    /**
+     * Called whenever the queue runs empty on the drain thread, and from {@link #close()}.
+     */
+    public void setIdleListener(@Nullable Runnable idleListener) {
+        this.idleListener = idleListener;
+    }
+
+    public boolean hasQueued() {
+        synchronized (lock) {
+            return !queue.isEmpty();
+        }
+    }
+
+    /**
+     * Retries sending after the gate opened again.
+     */
+    public void kick() {
+        scheduleDrain();
+    }
+
+    /**
+     * Queues a message without blocking. The buffer's remaining bytes must not change until the
+     * future completes: true once SCTP accepted it, false if the send failed, exceptionally when
+     * the queue is full or the channel closed.
+     */
+    public CompletableFuture<Boolean> offer(ByteBuffer data, boolean binary) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        int size = data.remaining();
+        boolean schedule = false;
+        RuntimeException error = null;
+        synchronized (lock) {
+            if (closed) {
+                error = new IllegalStateException(label + " is closed");
+            } else if (queuedBytes + size > maxQueuedBytes) {
+                rejected++;
+                error = new RejectedExecutionException(label + " queue full: " + queuedBytes + " B");
+            } else {
+                queue.add(new Pending(data, binary, future));
+                queuedBytes += size;
+                maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+                schedule = stallStartNs == 0 && !drainScheduled;
+                drainScheduled |= schedule;
+            }
+        }
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else if (schedule) {
+            executor.execute(drain);
+        }
+        return future;
+    }
+
+    /**
+     * Called from {@link DataChannel.Observer#onBufferedAmountChange} on the signaling thread.
+     */
+    public void onBufferedAmountChange() {
+        if (!enter()) {
+            return;
+        }
+        long buffered;
+        try {
+            buffered = channel.bufferedAmount();
+        } finally {
+            exit();
+        }
+        if (buffered <= lowWatermark && resume()) {
+            executor.execute(drain);
+        }
+    }
+
+    /**
+     * Called from {@link DataChannel.Observer#onStateChange}.
+     */
+    public void onStateChange() {
+        if (!enter()) {
+            return;
+        }
+        DataChannel.State state;
+        try {
+            state = channel.state();
+        } finally {
+            exit();
+        }
+        if (state == DataChannel.State.OPEN) {
+            scheduleDrain();
+        } else if (state == DataChannel.State.CLOSED) {
+            // On the signaling thread: a drain blocked in a proxied call waits for this thread,
+            // so don't wait for it here.
+            close(false);
+        }
+    }
+
+    /**
+     * Fails everything still queued; later offers fail immediately. Returns once no drain is
+     * inside a DataChannel call, so the channel can be disposed right after. Must not be
+     * called on the signaling thread.
+     */
+    public void close() {
+        close(true);
+    }
+
+    private void close(boolean await) {
+        List<Pending> dropped;
+        boolean interrupted = false;
+        synchronized (lock) {
+            closed = true;
+            resumeLocked();
+            dropped = new ArrayList<>(queue);
+            queue.clear();
+            queuedBytes = 0;
+            while (await && inFlight > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (Pending pending : dropped) {
+            pending.future.completeExceptionally(new IllegalStateException(label + " is closed"));
+        }
+        notifyIdle();
+    }
+
+    public Metrics getMetrics() {
+        synchronized (lock) {
+            long stallNs = stallTimeNs + (stallStartNs != 0 ? System.nanoTime() - stallStartNs : 0);
+            return new Metrics(label, queue.size(), queuedBytes, maxQueueDepth, sentMessages, sentBytes, batches,
+                    rejected, failed, stalls, stallNs / 1_000_000);
+        }
+    }
+
+    private void scheduleDrain() {
+        synchronized (lock) {
+            if (drainScheduled || closed || stallStartNs != 0) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        executor.execute(drain);
+    }
+
+    private boolean resume() {
+        synchronized (lock) {
+            if (stallStartNs == 0) {
+                return false;
+            }
+            resumeLocked();
+            if (drainScheduled || closed) {
+                return false;
+            }
+            drainScheduled = true;
+            return true;
+        }
+    }
+
+    private void resumeLocked() {
+        if (stallStartNs != 0) {
+            stallTimeNs += System.nanoTime() - stallStartNs;
+            stallStartNs = 0;
+        }
+    }
+
+    /**
+     * Marks a DataChannel call in flight; false once closed, when the channel may be disposed.
+     */
+    private boolean enter() {
+        synchronized (lock) {
+            if (closed) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+    }
+
+    private void exit() {
+        synchronized (lock) {
+            if (--inFlight == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private boolean isOpen() {
+        if (!enter()) {
+            return false;
+        }
+        try {
+            return channel.state() == DataChannel.State.OPEN;
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Returns the buffered amount, or -1 once closed.
+     */
+    private long bufferedAmount() {
+        if (!enter()) {
+            return -1;
+        }
+        try {
+            return channel.bufferedAmount();
+        } finally {
+            exit();
+        }
+    }
+
+    private void drain() {
+        synchronized (lock) {
+            drainScheduled = false;
+        }
+        final List<Pending> batch = new ArrayList<>();
+        while (isOpen()) {
+            long buffered = bufferedAmount();
+            if (buffered < 0) {
+                return;
+            }
+            if (buffered >= highWatermark) {
+                synchronized (lock) {
+                    if (stallStartNs == 0) {
+                        stallStartNs = System.nanoTime();
+                        stalls++;
+                    }
+                }
+                // The buffer may have drained before the stall was recorded, in which case no
+                // further onBufferedAmountChange arrives to resume us.
+                buffered = bufferedAmount();
+                if (buffered < 0 || buffered > lowWatermark) {
+                    return;
+                }
+                synchronized (lock) {
+                    resumeLocked();
+                }
+                continue;
+            }
+            Gate gate = this.gate;
+            if (gate != null && !gate.mayDrain(this)) {
+                return;
+            }
+            batch.clear();
+            int batchBytes = take(batch);
+            if (batch.isEmpty()) {
+                notifyIdle();
+                return;
+            }
+            send(batch, batchBytes);
+        }
+    }
+
+    private void notifyIdle() {
+        Runnable listener = idleListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Takes the next message, or a run of binary messages fitting the coalesce size. Returns
+     * the encoded batch size, or -1 when the message is sent as-is.
+     */
+    private int take(List<Pending> batch) {
+        final int limit = coalesceBytes;
+        synchronized (lock) {
+            Pending head = queue.poll();
+            if (head == null) {
+                return -1;
+            }
+            batch.add(head);
+            queuedBytes -= head.data.remaining();
+            if (limit <= 0 || !head.binary) {
+                return -1;
+            }
+            int bytes = MessageBatch.encodedSize(head.data.remaining());
+            Pending next;
+            while ((next = queue.peek()) != null && next.binary
+                    && bytes + MessageBatch.encodedSize(next.data.remaining()) <= limit) {
+                queue.poll();
+                queuedBytes -= next.data.remaining();
+                bytes += MessageBatch.encodedSize(next.data.remaining());
+                batch.add(next);
+            }
+            return bytes;
+        }
+    }
+
+    private void send(List<Pending> batch, int batchBytes) {
+        int payloadBytes = 0;
+        for (Pending pending : batch) {
+            payloadBytes += pending.data.remaining();
+        }
+        boolean ok;
+        if (batchBytes < 0) {
+            Pending pending = batch.get(0);
+            // A view, so the caller's position and limit stay as offered.
+            ok = sendToChannel(new DataChannel.Buffer(pending.data.duplicate(), pending.binary));
+        } else {
+            ByteBuffer frame = bufferPool.acquire(batchBytes);
+            try {
+                for (Pending pending : batch) {
+                    MessageBatch.put(frame, pending.data);
+                }
+                frame.flip();
+                ok = sendToChannel(new DataChannel.Buffer(frame, true));
+            } finally {
+                bufferPool.release(frame);
+            }
+        }
+        synchronized (lock) {
+            if (ok) {
+                sentMessages += batch.size();
+                sentBytes += payloadBytes;
+                batches++;
+            } else {
+                failed += batch.size();
+            }
+        }
+        if (!ok) {
+            Log.w(TAG, label + ": send failed, " + batch.size() + " messages / " + payloadBytes + " B");
+        }
+        for (Pending pending : batch) {
+            pending.future.complete(ok);
+        }
+    }
+
+    private boolean sendToChannel(DataChannel.Buffer buffer) {
+        if (!enter()) {
+            return false;
+        }
+        try {
+            return channel.send(buffer);
+        } finally {
+            exit();
+        }
+    }
+}
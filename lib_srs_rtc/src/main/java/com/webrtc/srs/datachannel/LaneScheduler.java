@@ -0,0 +1,121 @@
+package com.webrtc.srs.datachannel;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.DataChannel;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Strict-priority scheduling across the lanes of one connection. All lanes share one SCTP
+ * association, so a lane only hands a message to SCTP while no more urgent lane has anything
+ * queued; when that lane runs empty the waiting lanes are kicked. Together with the small
+ * watermarks of the bulk lane this bounds how long a control message waits behind bulk data
+ * already inside SCTP.
+ */
+public final class LaneScheduler implements DataChannelSender.Gate {
+    private static final class Entry {
+        final DataChannelLane lane;
+        final DataChannelSender sender;
+
+        Entry(DataChannelLane lane, DataChannelSender sender) {
+            this.lane = lane;
+            this.sender = sender;
+        }
+    }
+
+    // Sorted by priority.
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<>();
+
+    /**
+     * Attaches an opened lane channel; the returned sender still has to be fed the channel's
+     * observer callbacks.
+     */
+    public synchronized DataChannelSender add(DataChannelLane lane, DataChannel channel) {
+        final DataChannelSender sender = new DataChannelSender(channel);
+        sender.setWatermarks(lane.lowWatermark, lane.highWatermark);
+        sender.setGate(this);
+        sender.setIdleListener(() -> onIdle(lane.priority));
+        int index = 0;
+        while (index < entries.size() && entries.get(index).lane.priority <= lane.priority) {
+            index++;
+        }
+        entries.add(index, new Entry(lane, sender));
+        return sender;
+    }
+
+    @Nullable
+    public DataChannelSender sender(String label) {
+        for (Entry entry : entries) {
+            if (entry.lane.label.equals(label)) {
+                return entry.sender;
+            }
+        }
+        return null;
+    }
+
+    public CompletableFuture<Boolean> offer(String label, ByteBuffer data, boolean binary) {
+        DataChannelSender sender = sender(label);
+        if (sender == null) {
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalArgumentException("no lane " + label));
+            return future;
+        }
+        return sender.offer(data, binary);
+    }
+
+    @Override
+    public boolean mayDrain(DataChannelSender sender) {
+        int priority = Integer.MAX_VALUE;
+        for (Entry entry : entries) {
+            if (entry.sender == sender) {
+                priority = entry.lane.priority;
+                break;
+            }
+        }
+        for (Entry entry : entries) {
+            if (entry.lane.priority >= priority) {
+                break;
+            }
+            if (entry.sender.hasQueued()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Kicks the most urgent waiting lanes below the one that just ran empty; they gate
+     * everything after them.
+     */
+    private void onIdle(int priority) {
+        int next = -1;
+        for (Entry entry : entries) {
+            if (entry.lane.priority <= priority || (next >= 0 && entry.lane.priority != next)) {
+                continue;
+            }
+            if (entry.sender.hasQueued()) {
+                next = entry.lane.priority;
+                entry.sender.kick();
+            }
+        }
+    }
+
+    public List<DataChannelSender.Metrics> getMetrics() {
+        List<DataChannelSender.Metrics> metrics = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            metrics.add(entry.sender.getMetrics());
+        }
+        return metrics;
+    }
+
+    public synchronized void close() {
+        for (Entry entry : entries) {
+            entry.sender.close();
+        }
+        entries.clear();
+    }
+}
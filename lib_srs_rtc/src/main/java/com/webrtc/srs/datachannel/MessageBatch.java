@@ -0,0 +1,49 @@
+package com.webrtc.srs.datachannel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Framing used when a {@link DataChannelSender} coalesces binary messages: a batch is a run of
+ * {@code [int32 length][payload]} records. Both peers must enable it for the same channel.
+ */
+public final class MessageBatch {
+    static final int HEADER = 4;
+
+    private MessageBatch() {
+    }
+
+    static int encodedSize(int payload) {
+        return HEADER + payload;
+    }
+
+    static void put(ByteBuffer batch, ByteBuffer payload) {
+        batch.putInt(payload.remaining());
+        batch.put(payload.duplicate());
+    }
+
+    /**
+     * Wraps a handler so each record of a binary batch is delivered as its own message. Records
+     * are views into the batch, valid only during the call; text messages pass through.
+     */
+    public static DataChannelReceiver.MessageHandler unpacking(final DataChannelReceiver.MessageHandler handler) {
+        return (label, data, binary) -> {
+            if (!binary) {
+                handler.onMessage(label, data, false);
+                return;
+            }
+            final ByteBuffer record = data.duplicate();
+            int position = data.position();
+            final int end = data.limit();
+            while (end - position >= HEADER) {
+                int length = data.getInt(position);
+                position += HEADER;
+                if (length < 0 || length > end - position) {
+                    throw new IllegalArgumentException(label + ": malformed batch record " + length);
+                }
+                record.limit(position + length).position(position);
+                handler.onMessage(label, record, true);
+                position += length;
+            }
+        };
+    }
+}
@@ -1,8 +1,12 @@
 package com.webrtc.srs.iinterface
 
 import android.content.Context
+import com.webrtc.srs.api.SignalClient
+import com.webrtc.srs.audio.AudioLevelMonitor
 import com.webrtc.srs.bean.StreamType
 import com.webrtc.srs.bean.VideoPeer
+import com.webrtc.srs.metrics.SessionTimeline
+import com.webrtc.srs.recovery.SessionRecovery
 import org.webrtc.SurfaceViewRenderer
 
 /**
@@ -20,7 +24,7 @@ interface IRTCEngine {
     fun unInit()
 
     /**
-     *开始推流，根据type区分音视频类型
+     *开始推流，根据type区分音视频类型。uid 已经在推流时忽略，先 stopPush
      */
     fun startPublish(uid: String, streamType: StreamType, videoPeer: VideoPeer)
 
@@ -30,7 +34,8 @@ interface IRTCEngine {
     fun stopPush()
 
     /**
-     *开始拉流，根据type区分音视频类型
+     *开始拉流，根据type区分音视频类型。同一路流（streamUrl + type）已经在拉时共用已有连接，
+     *最后一个订阅者停止时才断开。uid 已经在拉流时忽略，先 stopSubscribe
      */
     fun startSubscribe(uid: String, streamType: StreamType, videoPeer: VideoPeer)
 
@@ -60,9 +65,46 @@ interface IRTCEngine {
     fun enableSpeakerPhone(enable: Boolean)
 
     /**
-     * 设置加解密
+     * 设置端到端帧加解密，之后建立的推拉流连接生效，传 null 关闭。
+     * 设置后连接要求帧加密，加解密器需要是 native 实现，纯 Java 的 AES-GCM 核心见 crypto 包
      */
-//    fun setEncryptionCallback(encryptionCallback: IEncryptionCallback)
+    fun setEncryptionCallback(encryptionCallback: IEncryptionCallback?)
+
+    /**
+     * 预热信令连接，在点击推拉流之前调用，apiUrl 为 SRS 的 api 地址
+     */
+    fun warmUpSignal(apiUrl: String)
+
+    /**
+     * 设置信令请求耗时回调，传 null 取消
+     */
+    fun setSignalTimingListener(listener: SignalClient.TimingListener?)
+
+    /**
+     * 设置信令请求的超时、重试和对冲策略
+     */
+    fun setSignalPolicy(policy: SignalPolicy)
+
+    /**
+     * 设置建连各阶段耗时回调，对之后开始的推拉流生效，传 null 取消
+     */
+    fun setSessionTimelineListener(listener: SessionTimeline.Listener?)
+
+    /**
+     * 设置断线恢复策略，对之后开始的推拉流生效
+     */
+    fun setRecoveryPolicy(policy: SessionRecovery.Policy)
+
+    /**
+     * 设置断线恢复状态回调，传 null 取消
+     */
+    fun setRecoveryListener(listener: SessionRecovery.Listener?)
+
+    /**
+     * 设置麦克风音量和说话状态回调，音量按固定间隔回调，说话开始和结束立即回调，都在音频采集线程上。传 null 取消。
+     * 需要在 init 之前打开 [RTCConfig.micSamplesCallback]
+     */
+    fun setAudioLevelListener(listener: AudioLevelMonitor.Listener?)
 
     /**
      * 设置开始推流时的分辨率，必须在开始视频推流前设置
@@ -1,5 +1,7 @@
 package com.webrtc.srs.iinterface
 
+import com.webrtc.srs.bean.SignalProtocol
+
 /**
  * @author gyn
  * @date 2023/6/28
@@ -8,4 +10,45 @@ class RTCConfig {
     var videoWidth = 1080
     var videoHeight = 720
     var fps = 25
+
+    /**
+     * 推流时根据网络状况自动调整分辨率、帧率和码率
+     */
+    var adaptiveBitrate = true
+
+    /**
+     * 拉流预热池大小，每种流类型预先建好的仅接收连接数，0 表示不预热
+     */
+    var subscribePoolSize = 0
+
+    /**
+     * 预热连接 offer 的有效期，超时丢弃重建，开启预热时至少 2ms
+     */
+    var subscribePoolTtlMs = 30_000L
+
+    /**
+     * 信令协议，SRS 的 json 接口或 WHIP/WHEP
+     */
+    var signalProtocol = SignalProtocol.SRS
+
+    /**
+     * 断线后自动 ICE restart，失败再整体重建连接
+     */
+    var autoRecovery = true
+
+    /**
+     * 同时存在的推拉流会话上限，超过时淘汰长时间未连接的会话
+     */
+    var maxSessions = 16
+
+    /**
+     * 会话未连接超过该时长视为空闲，可以被淘汰
+     */
+    var sessionIdleTimeoutMs = 60_000L
+
+    /**
+     * 让 ADM 把每 10ms 的麦克风 PCM 回调到 Java 层，录制本地声音和音量回调都依赖它。
+     * 创建 PeerConnectionFactory 时读取，需在 init 之前设置
+     */
+    var micSamplesCallback = false
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.webrtc.srs.iinterface
+
+/**
+ * 信令请求策略：整体超时、指数退避重试、对冲请求
+ */
+class SignalPolicy {
+    /**
+     * 一次推拉流信令的总时限，超过后放弃
+     */
+    var setupDeadlineMs = 10_000L
+
+    /**
+     * 最大请求次数，包含第一次和对冲请求
+     */
+    var maxAttempts = 4
+    var initialBackoffMs = 200L
+    var maxBackoffMs = 2_000L
+    var backoffMultiplier = 2.0
+
+    /**
+     * 退避时间的随机抖动比例，0.2 表示 ±20%
+     */
+    var jitterRatio = 0.2
+
+    /**
+     * 第一个请求超过历史耗时的 hedgePercentile 分位仍未返回时，再发一个并行请求，先返回的生效。
+     *
+     * 推拉流请求不是幂等的，对冲的每个请求都会在服务端建会话，所以只对能拆掉多余会话的
+     * 请求生效：WHIP/WHEP 的 offer 对冲，输掉的一方按它的 Location 发 DELETE。SRS 的
+     * /rtc/v1 接口没有拆除接口，多出的会话只能等超时，ICE restart 的 PATCH 也会改变服务端
+     * 状态，这两种请求即使打开也不对冲，只按退避重试
+     */
+    var hedgeEnabled = false
+    var hedgePercentile = 0.95
+    var minHedgeDelayMs = 150L
+}
@@ -0,0 +1,21 @@
+package com.webrtc.srs.metrics
+
+import org.webrtc.VideoFrame
+import org.webrtc.VideoSink
+
+/**
+ * 挂在远端 VideoTrack 上，收到第一帧解码数据时记录 [SessionTimeline.Phase.FIRST_DECODED_FRAME]，
+ * 之后只做一次布尔判断
+ */
+class FirstFrameProbe(private val timeline: SessionTimeline) : VideoSink {
+    @Volatile
+    private var fired = false
+
+    override fun onFrame(frame: VideoFrame) {
+        if (fired) {
+            return
+        }
+        fired = true
+        timeline.mark(SessionTimeline.Phase.FIRST_DECODED_FRAME)
+    }
+}
@@ -0,0 +1,112 @@
+package com.webrtc.srs.metrics
+
+import android.util.Log
+import com.webrtc.srs.api.LatencyTracker
+import java.util.EnumMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 一次推拉流建连的时间线，每个阶段只记录第一次到达的单调时间戳。
+ * 到达 [Phase.FIRST_RENDERED_FRAME]（拉视频流）或 [Phase.DTLS_CONNECTED]（推流、拉纯音频流）后计入 [Aggregate]
+ */
+class SessionTimeline(
+    val uid: String,
+    private val endPhase: Phase,
+    private val listener: Listener?,
+    private val aggregate: Aggregate
+) {
+
+    enum class Phase {
+        CREATE_OFFER,
+        SET_LOCAL_DESCRIPTION,
+        HTTP_SEND,
+        HTTP_RECEIVE,
+        SET_REMOTE_DESCRIPTION,
+        ICE_CHECKING,
+        ICE_CONNECTED,
+        DTLS_CONNECTED,
+        FIRST_DECODED_FRAME,
+        FIRST_RENDERED_FRAME
+    }
+
+    fun interface Listener {
+        /**
+         * @param sinceStartMs 从开始推拉流到该阶段的耗时
+         */
+        fun onPhase(uid: String, phase: Phase, sinceStartMs: Long)
+    }
+
+    private val startNs = System.nanoTime()
+    private val marks = LongArray(PHASES.size)
+    private var completed = false
+
+    /**
+     * 记录阶段到达，重复调用只保留第一次
+     */
+    fun mark(phase: Phase) {
+        var sinceStartMs = 0L
+        var finish = false
+        synchronized(this) {
+            if (marks[phase.ordinal] != 0L) {
+                return
+            }
+            marks[phase.ordinal] = System.nanoTime()
+            sinceStartMs = TimeUnit.NANOSECONDS.toMillis(marks[phase.ordinal] - startNs)
+            if (phase == endPhase && !completed) {
+                completed = true
+                finish = true
+            }
+        }
+        Log.d(TAG, "$uid $phase +${sinceStartMs}ms")
+        listener?.onPhase(uid, phase, sinceStartMs)
+        if (finish) {
+            aggregate.add(this)
+        }
+    }
+
+    /**
+     * 阶段相对开始的耗时，未到达返回 -1
+     */
+    @Synchronized
+    fun sinceStartMs(phase: Phase): Long {
+        val mark = marks[phase.ordinal]
+        return if (mark == 0L) -1 else TimeUnit.NANOSECONDS.toMillis(mark - startNs)
+    }
+
+    /**
+     * 多次会话各阶段耗时的分位统计
+     */
+    class Aggregate(capacity: Int = 128) {
+        private val trackers = EnumMap<Phase, LatencyTracker>(Phase::class.java).apply {
+            PHASES.forEach { put(it, LatencyTracker(capacity)) }
+        }
+
+        private val completed = AtomicInteger()
+
+        val sessions: Int
+            get() = completed.get()
+
+        internal fun add(timeline: SessionTimeline) {
+            for (phase in PHASES) {
+                val ms = timeline.sinceStartMs(phase)
+                if (ms >= 0) {
+                    trackers[phase]?.record(ms)
+                }
+            }
+            completed.incrementAndGet()
+        }
+
+        /**
+         * 阶段耗时的分位值，例如 p = 0.9，没有样本返回 -1
+         */
+        fun percentileMs(phase: Phase, p: Double): Long {
+            return trackers[phase]?.percentile(p, -1) ?: -1
+        }
+    }
+
+    companion object {
+        const val TAG = "SessionTimeline"
+        private val PHASES = Phase.values()
+    }
+}
@@ -0,0 +1,286 @@
+package com.webrtc.srs.pool
+
+import android.util.Log
+import com.webrtc.srs.api.LatencyTracker
+import com.webrtc.srs.bean.StreamType
+import com.webrtc.srs.util.SimpleSdpObserver
+import org.webrtc.MediaConstraints
+import org.webrtc.PeerConnection
+import org.webrtc.SessionDescription
+import java.util.ArrayDeque
+import java.util.EnumMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 拉流 PeerConnection 预热池：提前创建好仅接收的 PeerConnection，添加 transceiver 并完成
+ * createOffer / setLocalDescription，开始拉流时直接拿 offer 去请求信令，省掉建连前的本地耗时。
+ * offer 超过 ttl 未被使用则丢弃重建
+ */
+class SubscribePool(private val creator: (StreamType) -> PooledPeer?) {
+
+    /**
+     * 池中的一个连接，[bind] 在被取走时把连接的回调绑定到对应的 uid
+     */
+    class PooledPeer(
+        val peerConnection: PeerConnection,
+        val streamType: StreamType,
+        val bind: (String) -> Unit
+    ) {
+        var offer: SessionDescription? = null
+            internal set
+        internal var readyAtMs = 0L
+    }
+
+    data class Metrics(
+        val hits: Long,
+        val misses: Long,
+        val evicted: Long,
+        val idle: Int,
+        val pooledSwitchP50Ms: Long,
+        val coldSwitchP50Ms: Long
+    ) {
+        val hitRate: Double
+            get() = if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+    }
+
+    private val idle = EnumMap<StreamType, ArrayDeque<PooledPeer>>(StreamType::class.java)
+    private val pending = EnumMap<StreamType, Int>(StreamType::class.java)
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evicted = AtomicLong()
+    private val pooledSwitch = LatencyTracker()
+    private val coldSwitch = LatencyTracker()
+
+    /**
+     * 创建和释放连接都在这个线程上执行，[shutdown] 时停掉并等它执行完，之后再 configure 会重建
+     */
+    private var scheduler: ScheduledExecutorService? = null
+    private var sweepFuture: ScheduledFuture<*>? = null
+
+    @Volatile
+    private var size = 0
+
+    @Volatile
+    private var ttlMs = DEFAULT_TTL_MS
+
+    private var closed = false
+
+    /**
+     * shutdown 时还有连接在异步 createOffer / setLocalDescription，最后一个回调回来时放行
+     */
+    private var drained: CountDownLatch? = null
+
+    /**
+     * 设置每种流类型保留的空闲连接数和 offer 有效期，size 为 0 时清空并关闭预热。
+     * 每 ttl/2 检查一次过期，ttl 至少 [MIN_TTL_MS]
+     */
+    @Synchronized
+    fun configure(size: Int, ttlMs: Long) {
+        require(size <= 0 || ttlMs >= MIN_TTL_MS) { "subscribe pool ttl must be at least $MIN_TTL_MS ms: $ttlMs" }
+        this.size = size
+        this.ttlMs = ttlMs
+        closed = false
+        sweepFuture?.cancel(false)
+        sweepFuture = null
+        if (size <= 0) {
+            clear()
+            return
+        }
+        val executor = scheduler ?: Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "SubscribePool").apply { isDaemon = true }
+        }
+        scheduler = executor
+        sweepFuture = executor.scheduleWithFixedDelay({ fill() }, ttlMs / 2, ttlMs / 2, TimeUnit.MILLISECONDS)
+        executor.execute { fill() }
+    }
+
+    /**
+     * 取一个可用的预热连接，没有则返回 null，由调用方走完整建连流程
+     */
+    fun acquire(streamType: StreamType): PooledPeer? {
+        val expired = ArrayList<PooledPeer>()
+        var peer: PooledPeer? = null
+        synchronized(this) {
+            val queue = idle[streamType]
+            val now = System.currentTimeMillis()
+            while (queue != null && queue.isNotEmpty()) {
+                val candidate = queue.pollFirst() ?: break
+                if (now - candidate.readyAtMs > ttlMs) {
+                    expired.add(candidate)
+                } else {
+                    peer = candidate
+                    break
+                }
+            }
+        }
+        expired.forEach { dispose(it) }
+        if (peer != null) hits.incrementAndGet() else misses.incrementAndGet()
+        if (size > 0) {
+            post { fill() }
+        }
+        return peer
+    }
+
+    /**
+     * 记录从开始拉流到设置远端 sdp 成功的耗时
+     */
+    fun recordSwitchLatency(pooled: Boolean, latencyMs: Long) {
+        (if (pooled) pooledSwitch else coldSwitch).record(latencyMs)
+    }
+
+    fun getMetrics(): Metrics {
+        val idleCount = synchronized(this) { idle.values.sumOf { it.size } }
+        return Metrics(
+            hits.get(), misses.get(), evicted.get(), idleCount,
+            pooledSwitch.percentile(0.5, -1), coldSwitch.percentile(0.5, -1)
+        )
+    }
+
+    /**
+     * 释放所有空闲连接，必须在 PeerConnectionFactory 销毁前调用
+     */
+    fun clear() {
+        val peers = ArrayList<PooledPeer>()
+        synchronized(this) {
+            idle.values.forEach { peers.addAll(it) }
+            idle.clear()
+        }
+        peers.forEach { it.peerConnection.dispose() }
+    }
+
+    /**
+     * 停止预热并释放所有连接，返回时不再有连接在创建或释放，之后才能销毁 PeerConnectionFactory。
+     * 还在异步 createOffer 的连接最多等 [SHUTDOWN_WAIT_MS]，超时的不再释放，避免在 factory 销毁后 dispose
+     */
+    fun shutdown() {
+        val latch: CountDownLatch?
+        synchronized(this) {
+            closed = true
+            size = 0
+            sweepFuture?.cancel(false)
+            sweepFuture = null
+            latch = if (pending.values.sum() > 0) CountDownLatch(1) else null
+            drained = latch
+        }
+        if (latch != null && !latch.await(SHUTDOWN_WAIT_MS, TimeUnit.MILLISECONDS)) {
+            Log.w(TAG, "pooled peers still preparing after ${SHUTDOWN_WAIT_MS}ms, leaking them")
+        }
+        val executor = synchronized(this) {
+            drained = null
+            scheduler.also { scheduler = null }
+        }
+        executor?.shutdown()
+        if (executor != null && !executor.awaitTermination(SHUTDOWN_WAIT_MS, TimeUnit.MILLISECONDS)) {
+            Log.w(TAG, "pool thread still busy after ${SHUTDOWN_WAIT_MS}ms")
+        }
+        clear()
+    }
+
+    /**
+     * 投递到池线程，shutdown 后直接丢弃
+     */
+    @Synchronized
+    private fun post(task: () -> Unit): Boolean {
+        val executor = scheduler ?: return false
+        executor.execute(task)
+        return true
+    }
+
+    private fun fill() {
+        val expired = ArrayList<PooledPeer>()
+        val toCreate = ArrayList<StreamType>()
+        synchronized(this) {
+            if (closed || size <= 0) {
+                return
+            }
+            val now = System.currentTimeMillis()
+            for (type in StreamType.values()) {
+                val queue = idle.getOrPut(type) { ArrayDeque() }
+                val iterator = queue.iterator()
+                while (iterator.hasNext()) {
+                    val peer = iterator.next()
+                    if (now - peer.readyAtMs > ttlMs) {
+                        iterator.remove()
+                        expired.add(peer)
+                    }
+                }
+                val missing = size - queue.size - (pending[type] ?: 0)
+                repeat(missing.coerceAtLeast(0)) { toCreate.add(type) }
+                pending[type] = (pending[type] ?: 0) + missing.coerceAtLeast(0)
+            }
+        }
+        expired.forEach { dispose(it) }
+        toCreate.forEach { prepare(it) }
+    }
+
+    private fun prepare(streamType: StreamType) {
+        val peer = creator(streamType)
+        if (peer == null) {
+            onPrepared(streamType, null)
+            return
+        }
+        val pc = peer.peerConnection
+        pc.createOffer(object : SimpleSdpObserver() {
+            override fun onCreateSuccess(sessionDescription: SessionDescription) {
+                pc.setLocalDescription(object : SimpleSdpObserver() {
+                    override fun onSetSuccess() {
+                        peer.offer = sessionDescription
+                        peer.readyAtMs = System.currentTimeMillis()
+                        onPrepared(streamType, peer)
+                    }
+
+                    override fun onSetFailure(s: String) {
+                        Log.w(TAG, "pooled setLocalDescription failed: $s")
+                        post { pc.dispose() }
+                        onPrepared(streamType, null)
+                    }
+                }, sessionDescription)
+            }
+
+            override fun onCreateFailure(s: String) {
+                Log.w(TAG, "pooled createOffer failed: $s")
+                post { pc.dispose() }
+                onPrepared(streamType, null)
+            }
+        }, MediaConstraints())
+    }
+
+    private fun onPrepared(streamType: StreamType, peer: PooledPeer?) {
+        var discard = false
+        synchronized(this) {
+            pending[streamType] = ((pending[streamType] ?: 1) - 1).coerceAtLeast(0)
+            if (peer != null) {
+                val queue = idle.getOrPut(streamType) { ArrayDeque() }
+                if (closed || queue.size >= size) {
+                    discard = true
+                } else {
+                    queue.addLast(peer)
+                }
+            }
+            if (discard && peer != null) {
+                // 回调在 signaling 线程，不能在这里直接 dispose；先于 drained 投递，shutdown 会等它执行完
+                post { peer.peerConnection.dispose() }
+            }
+            if (pending.values.sum() == 0) {
+                drained?.countDown()
+            }
+        }
+    }
+
+    private fun dispose(peer: PooledPeer) {
+        evicted.incrementAndGet()
+        peer.peerConnection.dispose()
+    }
+
+    companion object {
+        const val TAG = "SubscribePool"
+        const val DEFAULT_TTL_MS = 30_000L
+        const val MIN_TTL_MS = 2L
+        const val SHUTDOWN_WAIT_MS = 3_000L
+    }
+}
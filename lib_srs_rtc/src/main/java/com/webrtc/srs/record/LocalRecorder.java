@@ -0,0 +1,127 @@
+package com.webrtc.srs.record;
+
+import com.webrtc.srs.video.VideoFanOut;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.VideoTrack;
+
+import java.io.File;
+
+/**
+ * Records one stream to {@code <name>.y4m} and, when audio is enabled, {@code <name>.wav}.
+ * Video reaches the recorder through a {@link VideoFanOut} consumer, so the conversion and copy
+ * run on the fan-out's threads and a recorder that falls behind only drops its own frames. The
+ * camera track gets its own fan-out too, so a slow disk never holds the camera's texture frames.
+ */
+public final class LocalRecorder {
+    public static final long CLOSE_TIMEOUT_MS = 3000;
+
+    public static final class Metrics {
+        @Nullable
+        public final RecordingWriter.Metrics video;
+        @Nullable
+        public final RecordingWriter.Metrics audio;
+        @Nullable
+        public final VideoFanOut.ConsumerStats delivery;
+        public final long skippedFrames;
+        /**
+         * Frames skipped or repeated to keep the Y4M on its constant frame rate.
+         */
+        public final long skippedEarlyFrames;
+        public final long repeatedFrames;
+        public final long skippedSamples;
+
+        Metrics(@Nullable RecordingWriter.Metrics video, @Nullable RecordingWriter.Metrics audio,
+                @Nullable VideoFanOut.ConsumerStats delivery, long skippedFrames, long skippedEarlyFrames,
+                long repeatedFrames, long skippedSamples) {
+            this.video = video;
+            this.audio = audio;
+            this.delivery = delivery;
+            this.skippedFrames = skippedFrames;
+            this.skippedEarlyFrames = skippedEarlyFrames;
+            this.repeatedFrames = repeatedFrames;
+            this.skippedSamples = skippedSamples;
+        }
+
+        @Override
+        public String toString() {
+            return "video " + video + " (" + delivery + ", " + skippedFrames + " skipped, " + skippedEarlyFrames
+                    + " early, " + repeatedFrames + " repeated), audio " + audio
+                    + " (" + skippedSamples + " skipped)";
+        }
+    }
+
+    private final Y4mRecorder video;
+    @Nullable
+    private final WavRecorder audio;
+    @Nullable
+    private VideoFanOut fanOut;
+    @Nullable
+    private VideoFanOut.Consumer consumer;
+    @Nullable
+    private VideoTrack track;
+
+    public LocalRecorder(File dir, String name, int fps, boolean recordAudio) {
+        this.video = new Y4mRecorder(new File(dir, name + ".y4m"), fps);
+        this.audio = recordAudio ? new WavRecorder(new File(dir, name + ".wav")) : null;
+    }
+
+    /**
+     * Records frames of a stream that already has a fan-out, e.g. a subscription.
+     */
+    public synchronized void attach(VideoFanOut fanOut, int maxFps) {
+        detach();
+        this.fanOut = fanOut;
+        this.consumer = fanOut.addConsumer("recorder", video, maxFps);
+    }
+
+    /**
+     * Records frames of a track without a fan-out, e.g. the local camera track.
+     */
+    public synchronized void attach(VideoTrack track, int maxFps) {
+        detach();
+        VideoFanOut own = new VideoFanOut(null);
+        this.track = track;
+        this.fanOut = own;
+        this.consumer = own.addConsumer("recorder", video, maxFps);
+        track.addSink(own);
+    }
+
+    public synchronized void detach() {
+        if (track != null && fanOut != null) {
+            track.removeSink(fanOut);
+            fanOut.release();
+        } else if (fanOut != null && consumer != null) {
+            fanOut.removeConsumer(consumer);
+        }
+        track = null;
+        fanOut = null;
+        consumer = null;
+    }
+
+    /**
+     * Microphone callback to register with the audio device module, null without audio.
+     */
+    @Nullable
+    public WavRecorder getAudio() {
+        return audio;
+    }
+
+    /**
+     * Detaches and drains both files to disk; blocks up to {@link #CLOSE_TIMEOUT_MS} per file.
+     */
+    public void close() {
+        detach();
+        video.close(CLOSE_TIMEOUT_MS);
+        if (audio != null) {
+            audio.close(CLOSE_TIMEOUT_MS);
+        }
+    }
+
+    public synchronized Metrics getMetrics() {
+        VideoFanOut.ConsumerStats delivery = consumer != null ? consumer.getStats() : null;
+        return new Metrics(video.getMetrics(), audio != null ? audio.getMetrics() : null, delivery,
+                video.getSkippedSize(), video.getSkippedEarly(), video.getRepeated(),
+                audio != null ? audio.getSkippedFormat() : 0);
+    }
+}
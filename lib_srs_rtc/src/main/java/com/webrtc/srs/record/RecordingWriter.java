@@ -0,0 +1,269 @@
+package com.webrtc.srs.record;
+
+import android.util.Log;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Appends media chunks to a file from a dedicated thread. Producers (capture, decoder and audio
+ * threads) never block: {@link #acquire} hands out a pooled direct buffer or returns null when
+ * more than {@code maxQueuedBytes} are waiting for the disk, and the caller drops the chunk.
+ * The writer coalesces small chunks in a staging buffer so the disk sees large sequential
+ * writes; chunks larger than the staging buffer are written straight from their buffer.
+ */
+public final class RecordingWriter {
+    private static final String TAG = "RecordingWriter";
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 32 * 1024 * 1024;
+    public static final int STAGING_BYTES = 1024 * 1024;
+    private static final int MAX_IDLE_BUFFERS = 8;
+
+    /**
+     * Rewrites the file header once all data is on disk, e.g. the WAV chunk sizes.
+     */
+    public interface HeaderPatch {
+        /**
+         * @return bytes to write at offset 0, or null to leave the header alone
+         */
+        @Nullable
+        ByteBuffer header(long fileBytes);
+    }
+
+    public static final class Metrics {
+        public final String file;
+        public final long chunks;
+        public final long bytesWritten;
+        public final long writes;
+        public final long dropped;
+        public final long queuedBytes;
+        public final long bytesPerSecond;
+        public final boolean failed;
+
+        Metrics(String file, long chunks, long bytesWritten, long writes, long dropped, long queuedBytes,
+                long bytesPerSecond, boolean failed) {
+            this.file = file;
+            this.chunks = chunks;
+            this.bytesWritten = bytesWritten;
+            this.writes = writes;
+            this.dropped = dropped;
+            this.queuedBytes = queuedBytes;
+            this.bytesPerSecond = bytesPerSecond;
+            this.failed = failed;
+        }
+
+        @Override
+        public String toString() {
+            return file + ": " + chunks + " chunks, " + bytesWritten + " bytes in " + writes + " writes, "
+                    + bytesPerSecond + " B/s, " + dropped + " dropped, " + queuedBytes + " queued" + (failed ? ", failed" : "");
+        }
+    }
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final File file;
+    private final FileChannel channel;
+    private final int maxQueuedBytes;
+    @Nullable
+    private final HeaderPatch headerPatch;
+    private final LinkedBlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>();
+    private final ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_BYTES);
+    private final Thread thread;
+
+    // Guarded by this.
+    private final ArrayDeque<ByteBuffer> idle = new ArrayDeque<>();
+    private long queuedBytes;
+    private boolean closed;
+
+    private volatile long chunks;
+    private volatile long bytesWritten;
+    private volatile long writes;
+    private volatile long dropped;
+    private volatile boolean failed;
+    private volatile long startNs;
+    private volatile long lastWriteNs;
+
+    public RecordingWriter(File file, int maxQueuedBytes, @Nullable HeaderPatch headerPatch) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.headerPatch = headerPatch;
+        this.thread = new Thread(this::loop, "RecordingWriter-" + file.getName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * A cleared buffer of at least {@code size} bytes, or null when the queue is full or the
+     * writer is closed. Fill it and pass it to {@link #submit}, or give it back with
+     * {@link #recycle}.
+     */
+    @Nullable
+    public ByteBuffer acquire(int size) {
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            if (closed || failed || queuedBytes + size > maxQueuedBytes) {
+                dropped++;
+                return null;
+            }
+            while (buffer == null && !idle.isEmpty()) {
+                ByteBuffer candidate = idle.pollFirst();
+                // Smaller buffers are left from a previous frame size; let them go.
+                if (candidate.capacity() >= size) {
+                    buffer = candidate;
+                }
+            }
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(size);
+            }
+            queuedBytes += buffer.capacity();
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Queues the buffer's remaining bytes; the buffer belongs to the writer afterwards.
+     */
+    public void submit(ByteBuffer buffer) {
+        queue.add(buffer);
+    }
+
+    public void recycle(ByteBuffer buffer) {
+        synchronized (this) {
+            queuedBytes -= buffer.capacity();
+            if (idle.size() < MAX_IDLE_BUFFERS) {
+                idle.addLast(buffer);
+            }
+        }
+    }
+
+    /**
+     * Counts a chunk the caller dropped without acquiring a buffer.
+     */
+    public synchronized void countDrop() {
+        dropped++;
+    }
+
+    private void loop() {
+        try {
+            while (true) {
+                ByteBuffer chunk = queue.poll();
+                if (chunk == null) {
+                    flushStaging();
+                    chunk = queue.take();
+                }
+                if (chunk == END) {
+                    flushStaging();
+                    return;
+                }
+                append(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.e(TAG, "recording to " + file + " failed", e);
+            failed = true;
+            ByteBuffer chunk;
+            while ((chunk = queue.poll()) != null && chunk != END) {
+                recycle(chunk);
+            }
+        }
+    }
+
+    private void append(ByteBuffer chunk) throws IOException {
+        try {
+            if (chunk.remaining() > staging.remaining()) {
+                flushStaging();
+            }
+            if (chunk.remaining() > staging.remaining()) {
+                write(chunk);
+            } else {
+                staging.put(chunk);
+            }
+            chunks++;
+        } finally {
+            recycle(chunk);
+        }
+    }
+
+    private void flushStaging() throws IOException {
+        if (staging.position() == 0) {
+            return;
+        }
+        staging.flip();
+        write(staging);
+        staging.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        if (startNs == 0) {
+            startNs = System.nanoTime();
+        }
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+            writes++;
+        }
+        lastWriteNs = System.nanoTime();
+    }
+
+    /**
+     * Writes everything queued, patches the header and closes the file. Blocks up to
+     * {@code timeoutMs} for the queue to drain.
+     */
+    public void close(long timeoutMs) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        queue.add(END);
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            Log.w(TAG, "writer for " + file + " did not drain in " + timeoutMs + "ms");
+            thread.interrupt();
+        }
+        try {
+            if (headerPatch != null && !failed) {
+                ByteBuffer header = headerPatch.header(channel.size());
+                if (header != null) {
+                    channel.write(header, 0);
+                }
+            }
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "closing " + file + " failed", e);
+        }
+        synchronized (this) {
+            idle.clear();
+        }
+    }
+
+    public Metrics getMetrics() {
+        long queued;
+        synchronized (this) {
+            queued = queuedBytes;
+        }
+        final long start = startNs;
+        final long elapsedNs = start == 0 ? 0 : lastWriteNs - start;
+        final long bytes = bytesWritten;
+        final long rate = elapsedNs > 0 ? (long) (bytes * 1e9 / elapsedNs) : 0;
+        return new Metrics(file.getName(), chunks, bytes, writes, dropped, queued, rate, failed);
+    }
+}
@@ -0,0 +1,128 @@
+package com.webrtc.srs.record;
+
+import android.media.AudioFormat;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.audio.JavaAudioDeviceModule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes the microphone PCM the audio device module hands out to a WAV file. The format is
+ * fixed by the first callback; the RIFF sizes are patched when the recorder closes. The
+ * callback runs on the audio record thread and only copies the 10 ms chunk into a pooled buffer.
+ */
+public final class WavRecorder implements JavaAudioDeviceModule.SamplesReadyCallback {
+    private static final int HEADER_BYTES = 44;
+
+    private final File file;
+    private final int maxQueuedBytes;
+    @Nullable
+    private RecordingWriter writer;
+    private int sampleRate;
+    private int channels;
+    private volatile long skippedFormat;
+    private boolean closed;
+
+    public WavRecorder(File file) {
+        this(file, RecordingWriter.DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    public WavRecorder(File file, int maxQueuedBytes) {
+        this.file = file;
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    @Override
+    public synchronized void onWebRtcAudioRecordSamplesReady(JavaAudioDeviceModule.AudioSamples samples) {
+        if (closed) {
+            return;
+        }
+        if (samples.getAudioFormat() != AudioFormat.ENCODING_PCM_16BIT) {
+            skippedFormat++;
+            return;
+        }
+        if (writer == null && !open(samples)) {
+            return;
+        }
+        if (samples.getSampleRate() != sampleRate || samples.getChannelCount() != channels) {
+            skippedFormat++;
+            writer.countDrop();
+            return;
+        }
+        byte[] data = samples.getData();
+        ByteBuffer out = writer.acquire(data.length);
+        if (out == null) {
+            return;
+        }
+        out.put(data).flip();
+        writer.submit(out);
+    }
+
+    private boolean open(JavaAudioDeviceModule.AudioSamples samples) {
+        sampleRate = samples.getSampleRate();
+        channels = samples.getChannelCount();
+        try {
+            writer = new RecordingWriter(file, maxQueuedBytes, this::header);
+        } catch (IOException e) {
+            closed = true;
+            return false;
+        }
+        ByteBuffer out = writer.acquire(HEADER_BYTES);
+        if (out != null) {
+            out.put(header(HEADER_BYTES)).flip();
+            writer.submit(out);
+        }
+        return true;
+    }
+
+    private ByteBuffer header(long fileBytes) {
+        final long dataBytes = Math.max(0, fileBytes - HEADER_BYTES);
+        final int blockAlign = channels * 2;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        header.putInt((int) Math.min(0xffffffffL, dataBytes + HEADER_BYTES - 8));
+        header.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        header.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        header.putInt(16);
+        header.putShort((short) 1);
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) 16);
+        header.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        header.putInt((int) Math.min(0xffffffffL, dataBytes));
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Stops taking samples and drains the queue to disk, waiting up to {@code timeoutMs}.
+     */
+    public void close(long timeoutMs) {
+        RecordingWriter current;
+        synchronized (this) {
+            closed = true;
+            current = writer;
+        }
+        if (current != null) {
+            current.close(timeoutMs);
+        }
+    }
+
+    /**
+     * Null until the first samples opened the file.
+     */
+    @Nullable
+    public synchronized RecordingWriter.Metrics getMetrics() {
+        return writer != null ? writer.getMetrics() : null;
+    }
+
+    public long getSkippedFormat() {
+        return skippedFormat;
+    }
+}
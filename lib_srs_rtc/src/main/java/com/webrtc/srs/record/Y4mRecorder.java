@@ -0,0 +1,206 @@
+package com.webrtc.srs.record;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes decoded frames as raw I420 to a Y4M file. The size is fixed by the first frame; frames
+ * of another size (after a resolution switch) are counted and skipped. The copy runs on the
+ * calling thread, so attach it through a {@link com.webrtc.srs.video.VideoFanOut} consumer rather
+ * than directly on a track; the fan-out hands it an I420 copy and has already released the
+ * decoder's or camera's texture frame.
+ * <p>
+ * Y4M has one frame rate for the whole file, so frames are placed on a constant {@code fps}
+ * grid by their timestamps: slots nothing arrived for (a slower stream, throttling, frames
+ * dropped upstream or by the writer) repeat the previous frame, and a second frame for the same
+ * slot is skipped. Playback then keeps wall-clock time and stays in step with the WAV.
+ */
+public final class Y4mRecorder implements VideoSink {
+    private static final byte[] FRAME_HEADER = "FRAME\n".getBytes(StandardCharsets.US_ASCII);
+    private static final long SECOND_NS = 1_000_000_000L;
+
+    private final File file;
+    private final int fps;
+    private final int maxQueuedBytes;
+    @Nullable
+    private RecordingWriter writer;
+    private int width;
+    private int height;
+    private volatile long skippedSize;
+    private volatile long skippedEarly;
+    private volatile long repeated;
+    private boolean closed;
+
+    // Timestamp of slot 0 and the next slot to write.
+    private long firstNs;
+    private long nextSlot;
+    // The last written frame, repeated over empty slots.
+    @Nullable
+    private VideoFrame.I420Buffer last;
+
+    public Y4mRecorder(File file, int fps) {
+        this(file, fps, RecordingWriter.DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    public Y4mRecorder(File file, int fps, int maxQueuedBytes) {
+        this.file = file;
+        this.fps = Math.max(1, fps);
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    @Override
+    public synchronized void onFrame(VideoFrame frame) {
+        if (closed) {
+            return;
+        }
+        VideoFrame.Buffer buffer = frame.getBuffer();
+        if (writer == null) {
+            if (!open(buffer.getWidth(), buffer.getHeight())) {
+                return;
+            }
+            firstNs = frame.getTimestampNs();
+        }
+        if (buffer.getWidth() != width || buffer.getHeight() != height) {
+            skippedSize++;
+            writer.countDrop();
+            return;
+        }
+        long slot = slotOf(frame.getTimestampNs());
+        if (slot < nextSlot - fps) {
+            // The clock went back by more than a second (e.g. a new capturer): start the grid over.
+            firstNs = frame.getTimestampNs() - nextSlot * SECOND_NS / fps;
+            slot = nextSlot;
+        }
+        if (slot < nextSlot) {
+            skippedEarly++;
+            return;
+        }
+        while (nextSlot < slot && last != null) {
+            ByteBuffer out = acquireFrame();
+            if (out == null) {
+                // The writer is behind; the next frame retries the gap.
+                writer.countDrop();
+                return;
+            }
+            put(last, out);
+            repeated++;
+            nextSlot++;
+        }
+        ByteBuffer out = acquireFrame();
+        if (out == null) {
+            return;
+        }
+        VideoFrame.I420Buffer i420 = buffer.toI420();
+        put(i420, out);
+        if (last != null) {
+            last.release();
+        }
+        last = i420;
+        nextSlot = slot + 1;
+    }
+
+    private long slotOf(long timestampNs) {
+        return ((timestampNs - firstNs) * fps + SECOND_NS / 2) / SECOND_NS;
+    }
+
+    @Nullable
+    private ByteBuffer acquireFrame() {
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        return writer.acquire(FRAME_HEADER.length + width * height + 2 * chromaWidth * chromaHeight);
+    }
+
+    private void put(VideoFrame.I420Buffer i420, ByteBuffer out) {
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        out.put(FRAME_HEADER);
+        copyPlane(i420.getDataY(), i420.getStrideY(), width, height, out);
+        copyPlane(i420.getDataU(), i420.getStrideU(), chromaWidth, chromaHeight, out);
+        copyPlane(i420.getDataV(), i420.getStrideV(), chromaWidth, chromaHeight, out);
+        out.flip();
+        writer.submit(out);
+    }
+
+    private boolean open(int frameWidth, int frameHeight) {
+        try {
+            writer = new RecordingWriter(file, maxQueuedBytes, null);
+        } catch (IOException e) {
+            closed = true;
+            return false;
+        }
+        width = frameWidth;
+        height = frameHeight;
+        byte[] header = ("YUV4MPEG2 W" + width + " H" + height + " F" + fps + ":1 Ip A1:1 C420mpeg2\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer out = writer.acquire(header.length);
+        if (out != null) {
+            out.put(header).flip();
+            writer.submit(out);
+        }
+        return true;
+    }
+
+    private static void copyPlane(ByteBuffer plane, int stride, int rowBytes, int rows, ByteBuffer out) {
+        ByteBuffer src = plane.duplicate();
+        final int base = src.position();
+        if (stride == rowBytes) {
+            src.limit(base + rowBytes * rows);
+            out.put(src);
+            return;
+        }
+        for (int row = 0; row < rows; row++) {
+            src.limit(base + row * stride + rowBytes).position(base + row * stride);
+            out.put(src);
+        }
+    }
+
+    /**
+     * Stops taking frames and drains the queue to disk, waiting up to {@code timeoutMs}.
+     */
+    public void close(long timeoutMs) {
+        RecordingWriter current;
+        synchronized (this) {
+            closed = true;
+            current = writer;
+            if (last != null) {
+                last.release();
+                last = null;
+            }
+        }
+        if (current != null) {
+            current.close(timeoutMs);
+        }
+    }
+
+    /**
+     * Null until the first frame opened the file.
+     */
+    @Nullable
+    public synchronized RecordingWriter.Metrics getMetrics() {
+        return writer != null ? writer.getMetrics() : null;
+    }
+
+    public long getSkippedSize() {
+        return skippedSize;
+    }
+
+    /**
+     * Frames that arrived for a slot already written, i.e. faster than the file's frame rate.
+     */
+    public long getSkippedEarly() {
+        return skippedEarly;
+    }
+
+    /**
+     * Slots filled with a copy of the previous frame.
+     */
+    public long getRepeated() {
+        return repeated;
+    }
+}
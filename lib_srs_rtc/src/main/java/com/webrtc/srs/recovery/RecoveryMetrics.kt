@@ -0,0 +1,45 @@
+package com.webrtc.srs.recovery
+
+import com.webrtc.srs.api.LatencyTracker
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 所有会话的断线恢复统计，用于计算平均恢复时长（MTTR）
+ */
+class RecoveryMetrics {
+
+    data class Snapshot(
+        val outages: Long,
+        val restartRecoveries: Long,
+        val rebuildRecoveries: Long,
+        val failures: Long,
+        val meanDowntimeMs: Long,
+        val p90DowntimeMs: Long
+    )
+
+    private val outages = AtomicLong()
+    private val restartRecoveries = AtomicLong()
+    private val rebuildRecoveries = AtomicLong()
+    private val failures = AtomicLong()
+    private val downtime = LatencyTracker(128)
+
+    internal fun onOutage() {
+        outages.incrementAndGet()
+    }
+
+    internal fun onRecovered(downtimeMs: Long, rebuilt: Boolean) {
+        (if (rebuilt) rebuildRecoveries else restartRecoveries).incrementAndGet()
+        downtime.record(downtimeMs)
+    }
+
+    internal fun onFailed() {
+        failures.incrementAndGet()
+    }
+
+    fun snapshot(): Snapshot {
+        return Snapshot(
+            outages.get(), restartRecoveries.get(), rebuildRecoveries.get(), failures.get(),
+            downtime.mean(-1), downtime.percentile(0.9, -1)
+        )
+    }
+}
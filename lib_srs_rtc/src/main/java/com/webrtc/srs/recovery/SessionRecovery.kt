@@ -0,0 +1,260 @@
+package com.webrtc.srs.recovery
+
+import android.util.Log
+import org.webrtc.PeerConnection.IceConnectionState
+import org.webrtc.PeerConnection.PeerConnectionState
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+/**
+ * 单个推拉流会话的断线恢复状态机：
+ * DISCONNECTED 超过宽限期或 FAILED 后先做 ICE restart，restart 次数用完（或信令不支持）再整体重建连接，
+ * 每次失败按指数退避等待，重建次数也用完则放弃。PeerConnectionState 到 CONNECTED（ICE 和 DTLS 都连上）
+ * 才算恢复，只有 ICE 连上不算。所有状态变化都在同一个线程上执行
+ */
+class SessionRecovery(
+    private val uid: String,
+    private val policy: Policy,
+    private val actions: Actions,
+    private val metrics: RecoveryMetrics,
+    private val listener: Listener?
+) {
+
+    enum class State {
+        CONNECTING,
+        CONNECTED,
+        DISCONNECTED,
+        RESTARTING,
+        REBUILDING,
+        BACKOFF,
+        FAILED
+    }
+
+    class Policy {
+        /**
+         * DISCONNECTED 可能自己恢复，超过宽限期才开始处理
+         */
+        var disconnectGraceMs = 2_000L
+        var maxIceRestarts = 2
+        var maxRebuilds = 3
+
+        /**
+         * 单次 restart / 重建等待连上的时限
+         */
+        var attemptTimeoutMs = 8_000L
+        var initialBackoffMs = 500L
+        var maxBackoffMs = 8_000L
+        var jitterRatio = 0.2
+    }
+
+    interface Actions {
+        /**
+         * 信令后端能否 ICE restart，不能时直接重建
+         */
+        fun canRestartIce(): Boolean = true
+
+        /**
+         * 用带 IceRestart 的新 offer 重新协商，设置远端 answer 成功或失败后回调 [onResult]
+         */
+        fun restartIce(onResult: (Boolean) -> Unit)
+
+        /**
+         * 释放旧连接，按原参数重新推拉流
+         */
+        fun rebuild()
+    }
+
+    interface Listener {
+        fun onRecoveryStateChanged(uid: String, state: State)
+
+        /**
+         * 恢复成功，[downtimeMs] 为从断开到重新连上的时长
+         */
+        fun onRecovered(uid: String, downtimeMs: Long, rebuilt: Boolean)
+
+        fun onRecoveryFailed(uid: String)
+    }
+
+    private var state = State.CONNECTING
+    private var outageStartNs = 0L
+    private var restarts = 0
+    private var rebuilds = 0
+    private var attempt = 0
+    private var timer: ScheduledFuture<*>? = null
+    private var stopped = false
+
+    fun onIceConnectionChange(newState: IceConnectionState) {
+        executor.execute {
+            when (newState) {
+                // ICE 连上时 DTLS 不一定可用，恢复以 PeerConnectionState.CONNECTED 为准
+                IceConnectionState.DISCONNECTED -> onDisconnected()
+                IceConnectionState.FAILED -> onFailed("ice failed")
+                else -> {}
+            }
+        }
+    }
+
+    fun onConnectionChange(newState: PeerConnectionState) {
+        when (newState) {
+            PeerConnectionState.CONNECTED -> executor.execute { onConnected() }
+            // ICE 正常但 DTLS 失败也会走到这里
+            PeerConnectionState.FAILED -> executor.execute { onFailed("connection failed") }
+            else -> {}
+        }
+    }
+
+    /**
+     * 会话释放时调用，之后的事件全部忽略
+     */
+    fun stop() {
+        executor.execute {
+            stopped = true
+            cancelTimer()
+        }
+    }
+
+    private fun onConnected() {
+        if (stopped) {
+            return
+        }
+        cancelTimer()
+        if (outageStartNs != 0L) {
+            val downtimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - outageStartNs)
+            val rebuilt = rebuilds > 0
+            Log.d(TAG, "$uid recovered in ${downtimeMs}ms, restarts $restarts rebuilds $rebuilds")
+            metrics.onRecovered(downtimeMs, rebuilt)
+            listener?.onRecovered(uid, downtimeMs, rebuilt)
+        }
+        outageStartNs = 0L
+        restarts = 0
+        rebuilds = 0
+        setState(State.CONNECTED)
+    }
+
+    private fun onDisconnected() {
+        if (stopped || state != State.CONNECTED) {
+            return
+        }
+        beginOutage()
+        setState(State.DISCONNECTED)
+        val current = attempt
+        schedule(policy.disconnectGraceMs) {
+            if (attempt == current && state == State.DISCONNECTED) {
+                escalate()
+            }
+        }
+    }
+
+    private fun onFailed(reason: String) {
+        if (stopped) {
+            return
+        }
+        Log.w(TAG, "$uid $reason in $state")
+        when (state) {
+            State.CONNECTING, State.CONNECTED, State.DISCONNECTED -> {
+                beginOutage()
+                escalate()
+            }
+            State.RESTARTING, State.REBUILDING -> onAttemptFailed()
+            State.BACKOFF, State.FAILED -> {}
+        }
+    }
+
+    private fun beginOutage() {
+        if (outageStartNs == 0L) {
+            outageStartNs = System.nanoTime()
+            metrics.onOutage()
+        }
+    }
+
+    private fun escalate() {
+        if (stopped) {
+            return
+        }
+        cancelTimer()
+        val current = ++attempt
+        when {
+            restarts < policy.maxIceRestarts && actions.canRestartIce() -> {
+                restarts++
+                setState(State.RESTARTING)
+                Log.d(TAG, "$uid ice restart $restarts/${policy.maxIceRestarts}")
+                actions.restartIce { ok ->
+                    if (!ok) {
+                        executor.execute {
+                            if (attempt == current && state == State.RESTARTING) {
+                                onAttemptFailed()
+                            }
+                        }
+                    }
+                }
+            }
+            rebuilds < policy.maxRebuilds -> {
+                rebuilds++
+                setState(State.REBUILDING)
+                Log.d(TAG, "$uid rebuild $rebuilds/${policy.maxRebuilds}")
+                actions.rebuild()
+            }
+            else -> {
+                Log.w(TAG, "$uid recovery failed")
+                outageStartNs = 0L
+                metrics.onFailed()
+                setState(State.FAILED)
+                listener?.onRecoveryFailed(uid)
+                return
+            }
+        }
+        schedule(policy.attemptTimeoutMs) {
+            if (attempt == current && (state == State.RESTARTING || state == State.REBUILDING)) {
+                Log.w(TAG, "$uid $state timed out")
+                onAttemptFailed()
+            }
+        }
+    }
+
+    private fun onAttemptFailed() {
+        cancelTimer()
+        setState(State.BACKOFF)
+        val tries = restarts + rebuilds
+        val exp = policy.initialBackoffMs * (1L shl (tries - 1).coerceIn(0, 16))
+        val jitter = 1.0 + policy.jitterRatio * (ThreadLocalRandom.current().nextDouble() * 2 - 1)
+        val backoffMs = (exp.coerceAtMost(policy.maxBackoffMs) * jitter).toLong()
+        val current = attempt
+        schedule(backoffMs) {
+            if (attempt == current && state == State.BACKOFF) {
+                escalate()
+            }
+        }
+    }
+
+    private fun setState(newState: State) {
+        if (state == newState) {
+            return
+        }
+        state = newState
+        listener?.onRecoveryStateChanged(uid, newState)
+    }
+
+    private fun schedule(delayMs: Long, task: () -> Unit) {
+        cancelTimer()
+        timer = executor.schedule(Runnable { if (!stopped) task() }, delayMs, TimeUnit.MILLISECONDS)
+    }
+
+    private fun cancelTimer() {
+        timer?.cancel(false)
+        timer = null
+    }
+
+    companion object {
+        const val TAG = "SessionRecovery"
+
+        /**
+         * 所有会话共用一个线程，恢复动作里的 PeerConnection 释放也在这里执行，不占用 signaling 线程
+         */
+        internal val executor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "SessionRecovery").apply { isDaemon = true }
+        }
+    }
+}
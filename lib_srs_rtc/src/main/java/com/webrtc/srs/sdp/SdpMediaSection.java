@@ -0,0 +1,381 @@
+package com.webrtc.srs.sdp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One "m=" section of a {@link SdpSession}. The m-line is kept split into its fields and
+ * every other line is kept verbatim, so a section that is not edited is written back as-is.
+ */
+public final class SdpMediaSection {
+    private static final String RTPMAP = "a=rtpmap:";
+    private static final String FMTP = "a=fmtp:";
+    private static final String RTCP_FB = "a=rtcp-fb:";
+    private static final String EXTMAP = "a=extmap:";
+    private static final String MID = "a=mid:";
+
+    private final String media;
+    private final String port;
+    private final String proto;
+    private final List<String> payloadTypes;
+    private final List<String> lines = new ArrayList<>();
+
+    private SdpMediaSection(String media, String port, String proto, List<String> payloadTypes) {
+        this.media = media;
+        this.port = port;
+        this.proto = proto;
+        this.payloadTypes = payloadTypes;
+    }
+
+    /**
+     * Parses "m=<media> <port> <proto> <fmt> ...", returns null if the line is malformed.
+     */
+    static @Nullable SdpMediaSection fromMediaLine(String mLine) {
+        int mediaEnd = mLine.indexOf(' ', 2);
+        if (mediaEnd < 0) {
+            return null;
+        }
+        int portEnd = mLine.indexOf(' ', mediaEnd + 1);
+        if (portEnd < 0) {
+            return null;
+        }
+        int protoEnd = mLine.indexOf(' ', portEnd + 1);
+        List<String> payloadTypes = new ArrayList<>();
+        String proto;
+        if (protoEnd < 0) {
+            proto = mLine.substring(portEnd + 1);
+        } else {
+            proto = mLine.substring(portEnd + 1, protoEnd);
+            int start = protoEnd + 1;
+            while (start < mLine.length()) {
+                int end = mLine.indexOf(' ', start);
+                if (end < 0) {
+                    end = mLine.length();
+                }
+                if (end > start) {
+                    payloadTypes.add(mLine.substring(start, end));
+                }
+                start = end + 1;
+            }
+        }
+        return new SdpMediaSection(mLine.substring(2, mediaEnd), mLine.substring(mediaEnd + 1, portEnd), proto, payloadTypes);
+    }
+
+    void addLine(String line) {
+        lines.add(line);
+    }
+
+    public String getMedia() {
+        return media;
+    }
+
+    public String getPort() {
+        return port;
+    }
+
+    public String getProto() {
+        return proto;
+    }
+
+    public List<String> getPayloadTypes() {
+        return Collections.unmodifiableList(payloadTypes);
+    }
+
+    /**
+     * Lines of this section other than the m-line, in order. The list may be edited directly.
+     */
+    public List<String> getLines() {
+        return lines;
+    }
+
+    public @Nullable String getMid() {
+        return findAttribute(MID);
+    }
+
+    /**
+     * Returns the value after the given prefix (e.g. "a=setup:") of the first matching line.
+     */
+    public @Nullable String findAttribute(String prefix) {
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith(prefix)) {
+                return line.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    public boolean hasLine(String line) {
+        return lines.contains(line);
+    }
+
+    /**
+     * Returns the encoding name from "a=rtpmap:<pt> <name>/<clock>" for the payload type.
+     */
+    public @Nullable String getCodecName(String payloadType) {
+        int index = indexOfPayloadLine(RTPMAP, payloadType);
+        if (index < 0) {
+            return null;
+        }
+        String line = lines.get(index);
+        int nameStart = RTPMAP.length() + payloadType.length() + 1;
+        int nameEnd = line.indexOf('/', nameStart);
+        return nameEnd < 0 ? line.substring(nameStart) : line.substring(nameStart, nameEnd);
+    }
+
+    /**
+     * All payload types whose rtpmap encoding name equals `codec`, ignoring case, in m-line order.
+     */
+    public List<String> findPayloadTypes(String codec) {
+        List<String> result = new ArrayList<>(2);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (!line.startsWith(RTPMAP)) {
+                continue;
+            }
+            int ptEnd = line.indexOf(' ', RTPMAP.length());
+            if (ptEnd < 0) {
+                continue;
+            }
+            int nameStart = ptEnd + 1;
+            if (line.regionMatches(true, nameStart, codec, 0, codec.length())
+                    && (line.length() == nameStart + codec.length() || line.charAt(nameStart + codec.length()) == '/')) {
+                result.add(line.substring(RTPMAP.length(), ptEnd));
+            }
+        }
+        return result;
+    }
+
+    public @Nullable String getFmtp(String payloadType) {
+        int index = indexOfPayloadLine(FMTP, payloadType);
+        if (index < 0) {
+            return null;
+        }
+        return lines.get(index).substring(FMTP.length() + payloadType.length() + 1);
+    }
+
+    /**
+     * Replaces the fmtp parameters of the payload type, or adds the line after its rtpmap.
+     */
+    public void setFmtp(String payloadType, String parameters) {
+        String line = FMTP + payloadType + ' ' + parameters;
+        int index = indexOfPayloadLine(FMTP, payloadType);
+        if (index >= 0) {
+            lines.set(index, line);
+            return;
+        }
+        int rtpmap = indexOfPayloadLine(RTPMAP, payloadType);
+        if (rtpmap >= 0) {
+            lines.add(rtpmap + 1, line);
+        } else {
+            lines.add(line);
+        }
+    }
+
+    /**
+     * Moves the given payload types to the front of the m-line, keeping their relative order.
+     *
+     * @return false if none of them is offered in this section
+     */
+    public boolean movePayloadTypesToFront(List<String> preferred) {
+        List<String> front = new ArrayList<>(preferred.size());
+        for (int i = 0; i < preferred.size(); i++) {
+            String pt = preferred.get(i);
+            if (payloadTypes.contains(pt) && !front.contains(pt)) {
+                front.add(pt);
+            }
+        }
+        if (front.isEmpty()) {
+            return false;
+        }
+        payloadTypes.removeAll(front);
+        payloadTypes.addAll(0, front);
+        return true;
+    }
+
+    /**
+     * Moves every payload type of `codec` to the front of the m-line.
+     */
+    public boolean preferCodec(String codec) {
+        return movePayloadTypesToFront(findPayloadTypes(codec));
+    }
+
+    /**
+     * Removes the payload types from the m-line together with their rtpmap, fmtp and rtcp-fb lines.
+     */
+    public void removePayloadTypes(Collection<String> removed) {
+        if (removed.isEmpty()) {
+            return;
+        }
+        payloadTypes.removeAll(removed);
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            String line = lines.get(i);
+            String pt = payloadTypeOf(line);
+            if (pt != null && removed.contains(pt)) {
+                lines.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Keeps only the named codecs plus the rtx/red/ulpfec payloads that point at them ("apt=").
+     *
+     * @return the number of payload types removed
+     */
+    public int retainCodecs(Collection<String> codecs) {
+        Set<String> kept = new HashSet<>();
+        for (String codec : codecs) {
+            kept.addAll(findPayloadTypes(codec));
+        }
+        if (kept.isEmpty()) {
+            return 0;
+        }
+        for (int i = 0; i < payloadTypes.size(); i++) {
+            String pt = payloadTypes.get(i);
+            String fmtp = getFmtp(pt);
+            if (fmtp == null) {
+                continue;
+            }
+            int apt = fmtp.indexOf("apt=");
+            if (apt >= 0) {
+                int end = fmtp.indexOf(';', apt);
+                String associated = end < 0 ? fmtp.substring(apt + 4) : fmtp.substring(apt + 4, end);
+                if (kept.contains(associated.trim())) {
+                    kept.add(pt);
+                }
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < payloadTypes.size(); i++) {
+            String pt = payloadTypes.get(i);
+            if (!kept.contains(pt)) {
+                removed.add(pt);
+            }
+        }
+        removePayloadTypes(removed);
+        return removed.size();
+    }
+
+    /**
+     * Returns the value of every extmap line, e.g. "3 http://...transport-wide-cc-extensions-01".
+     */
+    public List<String> getExtmaps() {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith(EXTMAP)) {
+                result.add(line.substring(EXTMAP.length()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds "a=extmap:<id> <uri>" after the last extmap line unless the uri is already mapped.
+     *
+     * @return false if the uri or the id is already in use
+     */
+    public boolean addExtmap(int id, String uri) {
+        int last = -1;
+        String idPrefix = EXTMAP + id;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (!line.startsWith(EXTMAP)) {
+                continue;
+            }
+            last = i;
+            if (uri.equals(extmapUri(line))) {
+                return false;
+            }
+            if (line.startsWith(idPrefix) && line.length() > idPrefix.length()
+                    && (line.charAt(idPrefix.length()) == ' ' || line.charAt(idPrefix.length()) == '/')) {
+                return false;
+            }
+        }
+        lines.add(last < 0 ? lines.size() : last + 1, idPrefix + ' ' + uri);
+        return true;
+    }
+
+    public boolean removeExtmap(String uri) {
+        boolean removed = false;
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            String line = lines.get(i);
+            if (line.startsWith(EXTMAP) && uri.equals(extmapUri(line))) {
+                lines.remove(i);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * The uri of "a=extmap:<id>[/<direction>] <uri> [<attributes>]", null if there is none.
+     */
+    private static @Nullable String extmapUri(String line) {
+        int start = line.indexOf(' ', EXTMAP.length());
+        if (start < 0) {
+            return null;
+        }
+        start++;
+        int end = line.indexOf(' ', start);
+        return line.substring(start, end < 0 ? line.length() : end);
+    }
+
+    /**
+     * Removes every line starting with the prefix, e.g. "a=ssrc-group:".
+     */
+    public int removeLines(String prefix) {
+        int count = 0;
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            if (lines.get(i).startsWith(prefix)) {
+                lines.remove(i);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    void write(StringBuilder builder) {
+        builder.append("m=").append(media).append(' ').append(port).append(' ').append(proto);
+        for (int i = 0; i < payloadTypes.size(); i++) {
+            builder.append(' ').append(payloadTypes.get(i));
+        }
+        builder.append(SdpSession.CRLF);
+        for (int i = 0; i < lines.size(); i++) {
+            builder.append(lines.get(i)).append(SdpSession.CRLF);
+        }
+    }
+
+    private int indexOfPayloadLine(String prefix, String payloadType) {
+        final int ptEnd = prefix.length() + payloadType.length();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.length() > ptEnd && line.startsWith(prefix)
+                    && line.startsWith(payloadType, prefix.length()) && line.charAt(ptEnd) == ' ') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static @Nullable String payloadTypeOf(String line) {
+        String prefix;
+        if (line.startsWith(RTPMAP)) {
+            prefix = RTPMAP;
+        } else if (line.startsWith(FMTP)) {
+            prefix = FMTP;
+        } else if (line.startsWith(RTCP_FB)) {
+            prefix = RTCP_FB;
+        } else {
+            return null;
+        }
+        int end = line.indexOf(' ', prefix.length());
+        return end < 0 ? null : line.substring(prefix.length(), end);
+    }
+}
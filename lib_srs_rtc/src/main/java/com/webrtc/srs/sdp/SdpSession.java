@@ -0,0 +1,108 @@
+package com.webrtc.srs.sdp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parsed form of a session description: the session-level lines followed by one
+ * {@link SdpMediaSection} per "m=" line. The sdp is scanned once, without regex, and
+ * written back with {@link #toSdp()} using "\r\n" line endings.
+ */
+public final class SdpSession {
+    static final String CRLF = "\r\n";
+
+    private final List<String> sessionLines = new ArrayList<>();
+    private final List<SdpMediaSection> mediaSections = new ArrayList<>(2);
+    private int sizeHint;
+
+    private SdpSession() {
+    }
+
+    public static SdpSession parse(String sdp) {
+        SdpSession session = new SdpSession();
+        session.sizeHint = sdp.length() + 64;
+        SdpMediaSection current = null;
+        final int length = sdp.length();
+        int start = 0;
+        while (start < length) {
+            int end = sdp.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            int lineEnd = end;
+            if (lineEnd > start && sdp.charAt(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > start) {
+                String line = sdp.substring(start, lineEnd);
+                if (line.startsWith("m=")) {
+                    SdpMediaSection media = SdpMediaSection.fromMediaLine(line);
+                    if (media != null) {
+                        current = media;
+                        session.mediaSections.add(media);
+                    } else if (current != null) {
+                        current.addLine(line);
+                    } else {
+                        session.sessionLines.add(line);
+                    }
+                } else if (current != null) {
+                    current.addLine(line);
+                } else {
+                    session.sessionLines.add(line);
+                }
+            }
+            start = end + 1;
+        }
+        return session;
+    }
+
+    public List<String> getSessionLines() {
+        return sessionLines;
+    }
+
+    public List<SdpMediaSection> getMediaSections() {
+        return Collections.unmodifiableList(mediaSections);
+    }
+
+    /**
+     * Returns the first media section of the given type ("audio", "video", "application").
+     */
+    public @Nullable SdpMediaSection findMedia(String media) {
+        for (int i = 0; i < mediaSections.size(); i++) {
+            SdpMediaSection section = mediaSections.get(i);
+            if (section.getMedia().equals(media)) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    public @Nullable SdpMediaSection findMediaByMid(String mid) {
+        for (int i = 0; i < mediaSections.size(); i++) {
+            SdpMediaSection section = mediaSections.get(i);
+            if (mid.equals(section.getMid())) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    public String toSdp() {
+        StringBuilder builder = new StringBuilder(sizeHint);
+        for (int i = 0; i < sessionLines.size(); i++) {
+            builder.append(sessionLines.get(i)).append(CRLF);
+        }
+        for (int i = 0; i < mediaSections.size(); i++) {
+            mediaSections.get(i).write(builder);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toSdp();
+    }
+}
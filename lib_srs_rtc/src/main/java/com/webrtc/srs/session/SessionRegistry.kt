@@ -0,0 +1,433 @@
+package com.webrtc.srs.session
+
+import android.util.Log
+import com.webrtc.srs.bean.ChannelType
+import com.webrtc.srs.bean.StreamType
+import com.webrtc.srs.bean.VideoPeer
+import com.webrtc.srs.util.SerialExecutor
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 推拉流会话表：每个 uid 一个会话，记录状态、引用计数、串行执行器和持有的 native 对象。
+ * 引用计数归零的会话立即关闭并从表中移除；活跃会话数超过 [maxSessions] 时，
+ * 按空闲时间从长到短淘汰未连接且超过 [idleTimeoutMs] 的会话。
+ * 拉同一路流（streamUrl + StreamType）的多个订阅者共用第一个订阅者的会话，后来者只作为成员加一个引用
+ */
+class SessionRegistry(private val pool: Executor, private val evictor: (String) -> Unit) {
+
+    enum class State {
+        STARTING,
+        CONNECTED,
+        DISCONNECTED,
+        CLOSED
+    }
+
+    class Session internal constructor(val uid: String, val executor: SerialExecutor) {
+        @Volatile
+        var peer: VideoPeer? = null
+            internal set
+
+        @Volatile
+        var state = State.STARTING
+            internal set
+
+        @Volatile
+        var stateSinceMs = System.currentTimeMillis()
+            internal set
+
+        internal val refs = AtomicInteger()
+
+        // 只在会话执行器上读写
+        internal var removalQueued = false
+
+        // 建会话的订阅者（或推流者）自己的那个引用还在，和成员的 joined 一样保证只释放一次。只在会话执行器上读写
+        internal var ownerJoined = false
+
+        val refCount: Int
+            get() = refs.get()
+    }
+
+    /**
+     * 加入别人会话的订阅者，[peer] 是订阅者自己传入的 VideoPeer，只用到它的渲染器
+     */
+    class Member internal constructor(val uid: String, val sessionUid: String, val peer: VideoPeer) {
+        /**
+         * 已经在会话上加了引用，离开时要释放
+         */
+        @Volatile
+        var joined = false
+            internal set
+    }
+
+    data class SessionInfo(
+        val uid: String,
+        val state: State,
+        val refCount: Int,
+        val members: Int,
+        val peerConnections: Int,
+        val tracks: Int,
+        val sinks: Int,
+        val rendererBound: Boolean,
+        val estimatedBytes: Long
+    )
+
+    data class Stats(
+        val sessions: List<SessionInfo>,
+        val peerConnections: Int,
+        val tracks: Int,
+        val sinks: Int,
+        val renderers: Int,
+        val estimatedBytes: Long,
+        val opened: Long,
+        val closed: Long,
+        val evicted: Long,
+        /**
+         * 当前共用会话的订阅者数，也就是省下的 PeerConnection 数
+         */
+        val sharedSubscribers: Int,
+        /**
+         * 共用会话省下的估算内存
+         */
+        val savedBytes: Long,
+        /**
+         * 累计复用已有会话的订阅次数
+         */
+        val dedupJoins: Long
+    )
+
+    private val sessions = ConcurrentHashMap<String, Session>()
+    // 共用键 -> 会话 uid
+    private val shares = ConcurrentHashMap<String, String>()
+    // 订阅者 uid -> 成员
+    private val members = ConcurrentHashMap<String, Member>()
+    private val dedupJoins = AtomicLong()
+    private val opened = AtomicLong()
+    private val closed = AtomicLong()
+    private val evicted = AtomicLong()
+
+    /**
+     * 活跃会话上限，超过时淘汰空闲会话
+     */
+    @Volatile
+    var maxSessions = DEFAULT_MAX_SESSIONS
+
+    /**
+     * 未连接状态持续超过该时长的会话视为空闲，可以被淘汰
+     */
+    @Volatile
+    var idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS
+
+    operator fun get(uid: String?): VideoPeer? {
+        return uid?.let { sessions[it]?.peer }
+    }
+
+    /**
+     * 排到会话串行执行器上的入口。每次 execute 时才查找会话，会话不存在时先建一个空会话占位
+     */
+    fun executor(uid: String): Executor = Executor { execute(uid, it) }
+
+    /**
+     * 把任务排到会话的串行执行器上。和 [removeWhenDrained] 的移除互斥，
+     * 任务不会排到一个刚从表中移除的执行器上，同一 uid 的任务始终在同一个执行器上按顺序执行。
+     * 为任务新建的占位在任务之后排一次移除，任务没有 open 时排空后移除，停一个不存在的 uid 不会留下占位
+     */
+    fun execute(uid: String, task: Runnable) {
+        synchronized(sessions) {
+            var placeholder: Session? = null
+            val session = sessions.computeIfAbsent(uid) {
+                Session(it, SerialExecutor(it, pool)).apply { state = State.CLOSED }.also { created -> placeholder = created }
+            }
+            session.executor.execute(task)
+            placeholder?.let { created -> created.executor.execute { removeWhenDrained(created) } }
+        }
+    }
+
+    /**
+     * 开始一个会话，引用计数加一。需要在该会话的执行器上调用
+     */
+    fun open(uid: String, peer: VideoPeer): Session {
+        val session = sessions.computeIfAbsent(uid) { Session(it, SerialExecutor(it, pool)) }
+        session.peer = peer
+        session.refs.incrementAndGet()
+        session.ownerJoined = true
+        setState(session, State.STARTING)
+        opened.incrementAndGet()
+        trim()
+        return session
+    }
+
+    /**
+     * 增加一个使用者，会话不存在或已关闭返回 false
+     */
+    fun retain(uid: String): Boolean {
+        val session = sessions[uid] ?: return false
+        if (session.peer == null) {
+            return false
+        }
+        session.refs.incrementAndGet()
+        return true
+    }
+
+    /**
+     * 减少一个使用者，归零时返回 true，调用方应随后 [close]
+     */
+    fun release(uid: String): Boolean {
+        val session = sessions[uid] ?: return false
+        if (session.peer == null) {
+            return false
+        }
+        return session.refs.decrementAndGet() <= 0
+    }
+
+    /**
+     * 建会话的 uid 是否还在用它；停止后会话可能因为还有成员而继续存在
+     */
+    fun isOwnerJoined(uid: String): Boolean {
+        val session = sessions[uid] ?: return false
+        return session.peer != null && session.ownerJoined
+    }
+
+    /**
+     * 建会话的 uid 停止，释放它自己的引用，重复调用不再释放。归零时返回 true，调用方应随后 [close]。
+     * 需要在该会话的执行器上调用
+     */
+    fun leaveOwner(uid: String): Boolean {
+        val session = sessions[uid] ?: return false
+        if (session.peer == null || !session.ownerJoined) {
+            return false
+        }
+        session.ownerJoined = false
+        return session.refs.decrementAndGet() <= 0
+    }
+
+    /**
+     * 建会话的 uid 停止后会话还被成员用着，又重新订阅时加回它的引用；已经在用或会话已关闭返回 false。
+     * 需要在该会话的执行器上调用
+     */
+    fun rejoinOwner(uid: String): Boolean {
+        val session = sessions[uid] ?: return false
+        if (session.peer == null || session.ownerJoined) {
+            return false
+        }
+        session.ownerJoined = true
+        session.refs.incrementAndGet()
+        return true
+    }
+
+    /**
+     * 占用共用键：已有会话拉这路流时返回它的 uid，否则登记 [uid] 并返回 null。
+     * 在调用线程上同步执行，同一路流并发订阅时只有一个会建连
+     */
+    fun claimShare(key: String, uid: String): String? {
+        return shares.putIfAbsent(key, uid)
+    }
+
+    fun releaseShare(key: String, uid: String) {
+        shares.remove(key, uid)
+    }
+
+    /**
+     * 登记要加入 [sessionUid] 会话的订阅者，在调用线程上同步执行，之后的停止请求会转到该会话的执行器
+     */
+    fun addMember(uid: String, sessionUid: String, peer: VideoPeer): Member {
+        val member = Member(uid, sessionUid, peer)
+        members[uid] = member
+        return member
+    }
+
+    /**
+     * 成员加入会话，引用计数加一。需要在该会话的执行器上调用；成员已离开或会话已关闭时返回 false
+     */
+    fun join(member: Member): Boolean {
+        if (members[member.uid] !== member) {
+            return false
+        }
+        if (!retain(member.sessionUid)) {
+            members.remove(member.uid, member)
+            return false
+        }
+        member.joined = true
+        dedupJoins.incrementAndGet()
+        return true
+    }
+
+    /**
+     * 订阅者离开，返回它加入的成员记录；[uid] 不是成员时返回 null
+     */
+    fun leave(uid: String): Member? = members.remove(uid)
+
+    fun member(uid: String): Member? = members[uid]
+
+    fun members(sessionUid: String): List<Member> = members.values.filter { it.sessionUid == sessionUid }
+
+    fun setState(uid: String, state: State) {
+        sessions[uid]?.let { setState(it, state) }
+    }
+
+    /**
+     * 关闭会话并移除，返回会话持有的 VideoPeer 由调用方释放。需要在该会话的执行器上调用
+     */
+    fun close(uid: String): VideoPeer? {
+        val session = sessions[uid] ?: return null
+        val peer = session.peer
+        session.peer = null
+        session.refs.set(0)
+        session.ownerJoined = false
+        shares.values.removeIf { it == uid }
+        members.values.removeIf { it.sessionUid == uid && it.joined }
+        setState(session, State.CLOSED)
+        if (peer != null) {
+            closed.incrementAndGet()
+        }
+        removeWhenDrained(session)
+        return peer
+    }
+
+    /**
+     * 执行器里还有排队任务时保留占位，保证同一 uid 后续任务的顺序，排空后再从表中移除。
+     * 同一会话只排一个移除任务，反复开关时不会有多个移除任务互相等待
+     */
+    private fun removeWhenDrained(session: Session) {
+        if (session.removalQueued) {
+            return
+        }
+        session.removalQueued = true
+        queueRemoval(session)
+    }
+
+    private fun queueRemoval(session: Session) {
+        session.executor.execute {
+            if (session.peer != null) {
+                session.removalQueued = false
+                return@execute
+            }
+            synchronized(sessions) {
+                if (session.executor.hasQueued()) {
+                    queueRemoval(session)
+                } else {
+                    session.removalQueued = false
+                    sessions.remove(session.uid, session)
+                }
+            }
+        }
+    }
+
+    fun peers(): List<VideoPeer> = sessions.values.mapNotNull { it.peer }
+
+    fun uids(): Set<String> = HashSet(sessions.keys)
+
+    fun clear() {
+        sessions.clear()
+        shares.clear()
+        members.clear()
+    }
+
+    fun stats(): Stats {
+        val infos = ArrayList<SessionInfo>(sessions.size)
+        var peerConnections = 0
+        var tracks = 0
+        var sinks = 0
+        var renderers = 0
+        var bytes = 0L
+        var shared = 0
+        var savedBytes = 0L
+        val memberCounts = HashMap<String, Int>()
+        for (member in members.values) {
+            if (!member.joined) {
+                continue
+            }
+            memberCounts[member.sessionUid] = (memberCounts[member.sessionUid] ?: 0) + 1
+        }
+        for (session in sessions.values) {
+            val peer = session.peer ?: continue
+            val memberCount = memberCounts[session.uid] ?: 0
+            val info = SessionInfo(
+                session.uid,
+                session.state,
+                session.refCount,
+                memberCount,
+                if (peer.peerConnection != null) 1 else 0,
+                peer.trackCount(),
+                peer.sinkCount(),
+                peer.surfaceViewRenderer != null,
+                estimateBytes(peer)
+            )
+            infos.add(info)
+            peerConnections += info.peerConnections
+            tracks += info.tracks
+            sinks += info.sinks
+            renderers += if (info.rendererBound) 1 else 0
+            bytes += info.estimatedBytes
+            shared += memberCount
+            savedBytes += memberCount * info.estimatedBytes
+        }
+        return Stats(infos, peerConnections, tracks, sinks, renderers, bytes, opened.get(), closed.get(), evicted.get(),
+            shared, savedBytes, dedupJoins.get())
+    }
+
+    private fun setState(session: Session, state: State) {
+        if (session.state != state) {
+            session.state = state
+            session.stateSinceMs = System.currentTimeMillis()
+        }
+    }
+
+    /**
+     * 超过上限时淘汰空闲最久的会话，淘汰动作在对应会话的执行器上执行
+     */
+    private fun trim() {
+        val live = sessions.values.filter { it.peer != null }
+        var excess = live.size - maxSessions
+        if (excess <= 0) {
+            return
+        }
+        val now = System.currentTimeMillis()
+        val idle = live.filter { it.state != State.CONNECTED && now - it.stateSinceMs > idleTimeoutMs }
+            .sortedBy { it.stateSinceMs }
+        for (session in idle) {
+            if (excess-- <= 0) {
+                break
+            }
+            Log.w(TAG, "evict ${session.uid} ${session.state} for ${now - session.stateSinceMs}ms")
+            evicted.incrementAndGet()
+            session.executor.execute {
+                // 排队期间会话可能已经关闭，uid 也可能被新的会话占用
+                if (sessions[session.uid] === session && session.peer != null) {
+                    evictor(session.uid)
+                }
+            }
+        }
+        if (excess > 0) {
+            Log.w(TAG, "${live.size} sessions over cap $maxSessions, nothing idle to evict")
+        }
+    }
+
+    companion object {
+        const val TAG = "SessionRegistry"
+        const val DEFAULT_MAX_SESSIONS = 16
+        const val DEFAULT_IDLE_TIMEOUT_MS = 60_000L
+
+        // 粗略估计：PeerConnection 自身的传输和缓冲，加上每路视频按 1.5 字节/像素的解码缓冲池
+        private const val PEER_CONNECTION_BYTES = 512 * 1024L
+        private const val AUDIO_TRACK_BYTES = 64 * 1024L
+        private const val VIDEO_BUFFER_FRAMES = 8
+        private const val DEFAULT_VIDEO_PIXELS = 1280 * 720L
+
+        private fun estimateBytes(peer: VideoPeer): Long {
+            var bytes = if (peer.peerConnection != null) PEER_CONNECTION_BYTES else 0L
+            if (peer.audioTrack != null) {
+                bytes += AUDIO_TRACK_BYTES
+            }
+            if (peer.videoTrack != null && peer.streamType == StreamType.VIDEO) {
+                // 推流的帧缓冲在采集端，已经算在本地流里
+                if (peer.channelType == ChannelType.SUBSCRIBE) {
+                    bytes += DEFAULT_VIDEO_PIXELS * 3 / 2 * VIDEO_BUFFER_FRAMES
+                }
+            }
+            return bytes
+        }
+    }
+}
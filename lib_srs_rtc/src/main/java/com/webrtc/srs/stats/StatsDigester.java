@@ -0,0 +1,275 @@
+package com.webrtc.srs.stats;
+
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns raw {@link RTCStatsReport}s of one peer into a {@link StatsSnapshot} with rates
+ * computed from the previous report, and appends every result to a {@link StatsHistory}.
+ * <p>
+ * A report that only covers some of the sections (e.g. from a per-sender getStats) leaves the
+ * other sections of the snapshot untouched, so selector-based polls can be mixed freely. The
+ * per-track reports of one poll should be {@link #merge merged} first: each digest appends a
+ * history sample and is one tick for consumers of the snapshot.
+ */
+public final class StatsDigester {
+    private static final int SECTION_OUT_VIDEO = 1;
+    private static final int SECTION_OUT_AUDIO = 1 << 1;
+    private static final int SECTION_REMOTE_IN = 1 << 2;
+    private static final int SECTION_IN_VIDEO = 1 << 3;
+    private static final int SECTION_IN_AUDIO = 1 << 4;
+    private static final int SECTION_PAIR = 1 << 5;
+
+    private final StatsSnapshot current = new StatsSnapshot();
+    private final StatsSnapshot raw = new StatsSnapshot();
+    private final StatsHistory history;
+
+    private long outVideoUs;
+    private long outAudioUs;
+    private long remoteInUs;
+    private long inVideoUs;
+    private long inAudioUs;
+
+    public StatsDigester(int historySize) {
+        history = new StatsHistory(historySize);
+    }
+
+    public StatsHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * The latest snapshot; it is overwritten by the next {@link #digest(RTCStatsReport)}.
+     */
+    public StatsSnapshot getSnapshot() {
+        return current;
+    }
+
+    public synchronized StatsSnapshot digest(RTCStatsReport report) {
+        final long nowUs = report.getTimestampUs();
+        final StatsSnapshot r = raw;
+        r.outVideoBytes = r.outVideoPackets = r.outVideoFrames = 0;
+        r.outVideoWidth = r.outVideoHeight = 0;
+        r.outVideoFps = -1;
+        r.qualityLimitationReason = current.qualityLimitationReason;
+        r.outAudioBytes = r.outAudioPackets = 0;
+        r.outPacketsLost = 0;
+        r.outLossRate = 0;
+        r.remoteRttMs = 0;
+        r.inVideoBytes = r.inVideoPackets = r.inVideoPacketsLost = r.inVideoFramesDecoded = r.inVideoFramesDropped = 0;
+        r.inVideoWidth = r.inVideoHeight = 0;
+        r.inVideoFps = -1;
+        r.inVideoJitterMs = 0;
+        r.inAudioBytes = r.inAudioPackets = r.inAudioPacketsLost = 0;
+        r.inAudioJitterMs = 0;
+        r.rttMs = 0;
+        r.availableOutgoingBitrateBps = r.availableIncomingBitrateBps = 0;
+
+        int sections = 0;
+        for (RTCStats stats : report.getStatsMap().values()) {
+            final Map<String, Object> m = stats.getMembers();
+            switch (stats.getType()) {
+                case "outbound-rtp":
+                    if (isVideo(m)) {
+                        sections |= SECTION_OUT_VIDEO;
+                        r.outVideoBytes += getLong(m, "bytesSent");
+                        r.outVideoPackets += getLong(m, "packetsSent");
+                        r.outVideoFrames += getLong(m, "framesEncoded");
+                        r.outVideoWidth = Math.max(r.outVideoWidth, (int) getLong(m, "frameWidth"));
+                        r.outVideoHeight = Math.max(r.outVideoHeight, (int) getLong(m, "frameHeight"));
+                        double fps = getDouble(m, "framesPerSecond", -1);
+                        if (fps >= 0) {
+                            r.outVideoFps = Math.max(r.outVideoFps, fps);
+                        }
+                        Object reason = m.get("qualityLimitationReason");
+                        if (reason != null) {
+                            r.qualityLimitationReason = reason.toString();
+                        }
+                    } else {
+                        sections |= SECTION_OUT_AUDIO;
+                        r.outAudioBytes += getLong(m, "bytesSent");
+                        r.outAudioPackets += getLong(m, "packetsSent");
+                    }
+                    break;
+                case "remote-inbound-rtp":
+                    sections |= SECTION_REMOTE_IN;
+                    r.outPacketsLost += getLong(m, "packetsLost");
+                    r.outLossRate = Math.max(r.outLossRate, getDouble(m, "fractionLost", 0));
+                    r.remoteRttMs = Math.max(r.remoteRttMs, getDouble(m, "roundTripTime", 0) * 1000);
+                    break;
+                case "inbound-rtp":
+                    if (isVideo(m)) {
+                        sections |= SECTION_IN_VIDEO;
+                        r.inVideoBytes += getLong(m, "bytesReceived");
+                        r.inVideoPackets += getLong(m, "packetsReceived");
+                        r.inVideoPacketsLost += getLong(m, "packetsLost");
+                        r.inVideoFramesDecoded += getLong(m, "framesDecoded");
+                        r.inVideoFramesDropped += getLong(m, "framesDropped");
+                        r.inVideoWidth = Math.max(r.inVideoWidth, (int) getLong(m, "frameWidth"));
+                        r.inVideoHeight = Math.max(r.inVideoHeight, (int) getLong(m, "frameHeight"));
+                        double fps = getDouble(m, "framesPerSecond", -1);
+                        if (fps >= 0) {
+                            r.inVideoFps = Math.max(r.inVideoFps, fps);
+                        }
+                        r.inVideoJitterMs = Math.max(r.inVideoJitterMs, getDouble(m, "jitter", 0) * 1000);
+                    } else {
+                        sections |= SECTION_IN_AUDIO;
+                        r.inAudioBytes += getLong(m, "bytesReceived");
+                        r.inAudioPackets += getLong(m, "packetsReceived");
+                        r.inAudioPacketsLost += getLong(m, "packetsLost");
+                        r.inAudioJitterMs = Math.max(r.inAudioJitterMs, getDouble(m, "jitter", 0) * 1000);
+                    }
+                    break;
+                case "track":
+                    // Older builds only report resolution and dropped frames on the track.
+                    if (isVideo(m) && Boolean.TRUE.equals(m.get("remoteSource"))) {
+                        r.inVideoWidth = Math.max(r.inVideoWidth, (int) getLong(m, "frameWidth"));
+                        r.inVideoHeight = Math.max(r.inVideoHeight, (int) getLong(m, "frameHeight"));
+                        r.inVideoFramesDropped = Math.max(r.inVideoFramesDropped, getLong(m, "framesDropped"));
+                    } else if (isVideo(m)) {
+                        r.outVideoWidth = Math.max(r.outVideoWidth, (int) getLong(m, "frameWidth"));
+                        r.outVideoHeight = Math.max(r.outVideoHeight, (int) getLong(m, "frameHeight"));
+                    }
+                    break;
+                case "candidate-pair":
+                    if (Boolean.TRUE.equals(m.get("nominated")) && "succeeded".equals(m.get("state"))) {
+                        sections |= SECTION_PAIR;
+                        r.rttMs = getDouble(m, "currentRoundTripTime", 0) * 1000;
+                        r.availableOutgoingBitrateBps = (long) getDouble(m, "availableOutgoingBitrate", 0);
+                        r.availableIncomingBitrateBps = (long) getDouble(m, "availableIncomingBitrate", 0);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        final StatsSnapshot c = current;
+        c.timestampUs = nowUs;
+        if ((sections & SECTION_OUT_VIDEO) != 0) {
+            long dtUs = nowUs - outVideoUs;
+            c.outVideoBitrateBps = rate(r.outVideoBytes * 8, c.outVideoBytes * 8, dtUs, outVideoUs);
+            c.outVideoFps = r.outVideoFps >= 0 ? r.outVideoFps : rate(r.outVideoFrames, c.outVideoFrames, dtUs, outVideoUs);
+            c.outVideoBytes = r.outVideoBytes;
+            c.outVideoPackets = r.outVideoPackets;
+            c.outVideoFrames = r.outVideoFrames;
+            c.outVideoWidth = r.outVideoWidth;
+            c.outVideoHeight = r.outVideoHeight;
+            c.qualityLimitationReason = r.qualityLimitationReason;
+            outVideoUs = nowUs;
+        }
+        if ((sections & SECTION_OUT_AUDIO) != 0) {
+            c.outAudioBitrateBps = rate(r.outAudioBytes * 8, c.outAudioBytes * 8, nowUs - outAudioUs, outAudioUs);
+            c.outAudioBytes = r.outAudioBytes;
+            c.outAudioPackets = r.outAudioPackets;
+            outAudioUs = nowUs;
+        }
+        if ((sections & SECTION_REMOTE_IN) != 0) {
+            c.outPacketsLost = r.outPacketsLost;
+            c.outLossRate = r.outLossRate;
+            c.remoteRttMs = r.remoteRttMs;
+            remoteInUs = nowUs;
+        }
+        if ((sections & SECTION_IN_VIDEO) != 0) {
+            long dtUs = nowUs - inVideoUs;
+            c.inVideoBitrateBps = rate(r.inVideoBytes * 8, c.inVideoBytes * 8, dtUs, inVideoUs);
+            c.inVideoFps = r.inVideoFps >= 0 ? r.inVideoFps : rate(r.inVideoFramesDecoded, c.inVideoFramesDecoded, dtUs, inVideoUs);
+            c.inVideoLossRate = lossRate(r.inVideoPacketsLost - c.inVideoPacketsLost, r.inVideoPackets - c.inVideoPackets);
+            c.inVideoBytes = r.inVideoBytes;
+            c.inVideoPackets = r.inVideoPackets;
+            c.inVideoPacketsLost = r.inVideoPacketsLost;
+            c.inVideoFramesDecoded = r.inVideoFramesDecoded;
+            c.inVideoFramesDropped = r.inVideoFramesDropped;
+            c.inVideoWidth = r.inVideoWidth;
+            c.inVideoHeight = r.inVideoHeight;
+            c.inVideoJitterMs = r.inVideoJitterMs;
+            inVideoUs = nowUs;
+        }
+        if ((sections & SECTION_IN_AUDIO) != 0) {
+            c.inAudioBitrateBps = rate(r.inAudioBytes * 8, c.inAudioBytes * 8, nowUs - inAudioUs, inAudioUs);
+            c.inAudioLossRate = lossRate(r.inAudioPacketsLost - c.inAudioPacketsLost, r.inAudioPackets - c.inAudioPackets);
+            c.inAudioBytes = r.inAudioBytes;
+            c.inAudioPackets = r.inAudioPackets;
+            c.inAudioPacketsLost = r.inAudioPacketsLost;
+            c.inAudioJitterMs = r.inAudioJitterMs;
+            inAudioUs = nowUs;
+        }
+        if ((sections & SECTION_PAIR) != 0) {
+            c.rttMs = r.rttMs;
+            c.availableOutgoingBitrateBps = r.availableOutgoingBitrateBps;
+            c.availableIncomingBitrateBps = r.availableIncomingBitrateBps;
+        }
+        if (c.rttMs == 0 && remoteInUs != 0) {
+            c.rttMs = c.remoteRttMs;
+        }
+        history.append(c);
+        return c;
+    }
+
+    /**
+     * Combines the per-sender/receiver reports of one poll into a single report stamped with
+     * the latest of their timestamps. Stats shared by the reports (transport, candidate pair,
+     * codecs) keep the entry of the later report.
+     */
+    public static RTCStatsReport merge(RTCStatsReport... reports) {
+        if (reports.length == 1) {
+            return reports[0];
+        }
+        long timestampUs = 0;
+        int size = 0;
+        for (RTCStatsReport report : reports) {
+            timestampUs = Math.max(timestampUs, report.getTimestampUs());
+            size += report.getStatsMap().size();
+        }
+        Map<String, RTCStats> stats = new HashMap<>(size * 2);
+        for (RTCStatsReport report : reports) {
+            stats.putAll(report.getStatsMap());
+        }
+        return new RTCStatsReport(timestampUs, stats);
+    }
+
+    public synchronized void reset() {
+        new StatsSnapshot().copyTo(current);
+        outVideoUs = outAudioUs = remoteInUs = inVideoUs = inAudioUs = 0;
+        history.clear();
+    }
+
+    /**
+     * Per-second rate of a cumulative counter. The first sample and counter resets give 0.
+     */
+    private static long rate(long now, long previous, long dtUs, long previousUs) {
+        if (previousUs == 0 || dtUs <= 0 || now < previous) {
+            return 0;
+        }
+        return (now - previous) * 1_000_000L / dtUs;
+    }
+
+    private static double lossRate(long lost, long received) {
+        if (lost <= 0) {
+            return 0;
+        }
+        long expected = lost + Math.max(received, 0);
+        return expected == 0 ? 0 : (double) lost / expected;
+    }
+
+    private static boolean isVideo(Map<String, Object> members) {
+        Object kind = members.get("kind");
+        if (kind == null) {
+            kind = members.get("mediaType");
+        }
+        return "video".equals(kind);
+    }
+
+    private static long getLong(Map<String, Object> members, String key) {
+        Object value = members.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static double getDouble(Map<String, Object> members, String key, double fallback) {
+        Object value = members.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : fallback;
+    }
+}
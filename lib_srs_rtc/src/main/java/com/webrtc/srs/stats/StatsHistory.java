@@ -0,0 +1,115 @@
+package com.webrtc.srs.stats;
+
+/**
+ * Fixed-size history of digested stats, one primitive ring per {@link Metric}. Appends and
+ * reads never allocate; index 0 is the newest sample.
+ */
+public final class StatsHistory {
+
+    public enum Metric {
+        OUT_VIDEO_BITRATE,
+        OUT_AUDIO_BITRATE,
+        OUT_VIDEO_FPS,
+        OUT_LOSS_RATE,
+        IN_VIDEO_BITRATE,
+        IN_AUDIO_BITRATE,
+        IN_VIDEO_FPS,
+        IN_VIDEO_LOSS_RATE,
+        IN_AUDIO_LOSS_RATE,
+        IN_VIDEO_JITTER_MS,
+        RTT_MS,
+        AVAILABLE_OUTGOING_BITRATE
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private final int capacity;
+    private final long[] timestampsUs;
+    private final double[][] values;
+    private int head;
+    private int size;
+
+    public StatsHistory(int capacity) {
+        this.capacity = capacity;
+        this.timestampsUs = new long[capacity];
+        this.values = new double[METRICS.length][capacity];
+    }
+
+    public synchronized void append(StatsSnapshot snapshot) {
+        head = (head + 1) % capacity;
+        timestampsUs[head] = snapshot.timestampUs;
+        values[Metric.OUT_VIDEO_BITRATE.ordinal()][head] = snapshot.outVideoBitrateBps;
+        values[Metric.OUT_AUDIO_BITRATE.ordinal()][head] = snapshot.outAudioBitrateBps;
+        values[Metric.OUT_VIDEO_FPS.ordinal()][head] = snapshot.outVideoFps;
+        values[Metric.OUT_LOSS_RATE.ordinal()][head] = snapshot.outLossRate;
+        values[Metric.IN_VIDEO_BITRATE.ordinal()][head] = snapshot.inVideoBitrateBps;
+        values[Metric.IN_AUDIO_BITRATE.ordinal()][head] = snapshot.inAudioBitrateBps;
+        values[Metric.IN_VIDEO_FPS.ordinal()][head] = snapshot.inVideoFps;
+        values[Metric.IN_VIDEO_LOSS_RATE.ordinal()][head] = snapshot.inVideoLossRate;
+        values[Metric.IN_AUDIO_LOSS_RATE.ordinal()][head] = snapshot.inAudioLossRate;
+        values[Metric.IN_VIDEO_JITTER_MS.ordinal()][head] = snapshot.inVideoJitterMs;
+        values[Metric.RTT_MS.ordinal()][head] = snapshot.rttMs;
+        values[Metric.AVAILABLE_OUTGOING_BITRATE.ordinal()][head] = snapshot.availableOutgoingBitrateBps;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @param ago 0 for the newest sample, size() - 1 for the oldest
+     */
+    public synchronized double get(Metric metric, int ago) {
+        return values[metric.ordinal()][indexOf(ago)];
+    }
+
+    public synchronized long getTimestampUs(int ago) {
+        return timestampsUs[indexOf(ago)];
+    }
+
+    /**
+     * Mean of the newest `count` samples, 0 when the history is empty.
+     */
+    public synchronized double average(Metric metric, int count) {
+        int n = Math.min(count, size);
+        if (n == 0) {
+            return 0;
+        }
+        double[] series = values[metric.ordinal()];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += series[indexOf(i)];
+        }
+        return sum / n;
+    }
+
+    public synchronized double max(Metric metric, int count) {
+        int n = Math.min(count, size);
+        double[] series = values[metric.ordinal()];
+        double max = 0;
+        for (int i = 0; i < n; i++) {
+            max = Math.max(max, series[indexOf(i)]);
+        }
+        return max;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private int indexOf(int ago) {
+        if (ago < 0 || ago >= size) {
+            throw new IndexOutOfBoundsException("ago " + ago + ", size " + size);
+        }
+        int index = head - ago;
+        return index < 0 ? index + capacity : index;
+    }
+}
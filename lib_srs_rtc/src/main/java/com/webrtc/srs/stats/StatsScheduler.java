@@ -0,0 +1,135 @@
+package com.webrtc.srs.stats;
+
+import android.util.Log;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Engine-wide stats poller. Every peer connection registers a {@link StatsSource} and all of
+ * them are driven from one scheduled thread; each registration re-arms itself with its own
+ * effective period, which grows while the stream is hidden or reported stable.
+ */
+public final class StatsScheduler {
+    private static final String TAG = "StatsScheduler";
+    private static volatile StatsScheduler instance;
+
+    public static final int HIDDEN_FACTOR = 5;
+    public static final int MAX_STABLE_FACTOR = 4;
+
+    private final ScheduledExecutorService executor;
+    private final AtomicInteger registrations = new AtomicInteger();
+
+    public interface StatsSource {
+        /**
+         * Called on the scheduler thread when the source is due for a stats walk.
+         */
+        void collectStats();
+    }
+
+    private StatsScheduler() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "StatsScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static StatsScheduler getInstance() {
+        if (instance == null) {
+            synchronized (StatsScheduler.class) {
+                if (instance == null) {
+                    instance = new StatsScheduler();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public Registration register(StatsSource source, int periodMs) {
+        Registration registration = new Registration(source, periodMs);
+        registrations.incrementAndGet();
+        // Spread first runs over one period so peers started together don't poll in lockstep.
+        registration.arm(ThreadLocalRandom.current().nextInt(Math.max(1, periodMs)));
+        return registration;
+    }
+
+    public int getRegistrationCount() {
+        return registrations.get();
+    }
+
+    public final class Registration {
+        private final StatsSource source;
+        private volatile int periodMs;
+        private volatile boolean hidden;
+        private volatile int stableFactor = 1;
+        private volatile boolean cancelled;
+        @Nullable
+        private ScheduledFuture<?> future;
+
+        private Registration(StatsSource source, int periodMs) {
+            this.source = source;
+            this.periodMs = periodMs;
+        }
+
+        public void setPeriodMs(int periodMs) {
+            this.periodMs = periodMs;
+        }
+
+        /**
+         * Hidden streams are polled {@link #HIDDEN_FACTOR} times less often.
+         */
+        public void setHidden(boolean hidden) {
+            this.hidden = hidden;
+        }
+
+        /**
+         * While stable the period doubles on each call up to {@link #MAX_STABLE_FACTOR}, and
+         * snaps back to the base period as soon as the stream is reported unstable.
+         */
+        public void setStable(boolean stable) {
+            stableFactor = stable ? Math.min(stableFactor * 2, MAX_STABLE_FACTOR) : 1;
+        }
+
+        public int getEffectivePeriodMs() {
+            return periodMs * stableFactor * (hidden ? HIDDEN_FACTOR : 1);
+        }
+
+        public synchronized void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            registrations.decrementAndGet();
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+        }
+
+        private synchronized void arm(long delayMs) {
+            if (cancelled) {
+                return;
+            }
+            future = executor.schedule(this::run, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void run() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                source.collectStats();
+            } catch (Exception e) {
+                Log.e(TAG, "collectStats exception", e);
+            }
+            arm(getEffectivePeriodMs());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.webrtc.srs.stats;
+
+/**
+ * Flat, typed view of one stats poll. Counters are cumulative as reported by WebRTC, rates
+ * (bitrate, fps, loss, jitter) are computed by {@link StatsDigester} against the previous poll.
+ * Instances are reused between polls; use {@link #copyTo(StatsSnapshot)} to keep one.
+ */
+public final class StatsSnapshot {
+    public long timestampUs;
+
+    // outbound-rtp, video
+    public long outVideoBytes;
+    public long outVideoPackets;
+    public long outVideoFrames;
+    public int outVideoWidth;
+    public int outVideoHeight;
+    public double outVideoFps;
+    public long outVideoBitrateBps;
+    public String qualityLimitationReason = "none";
+
+    // outbound-rtp, audio
+    public long outAudioBytes;
+    public long outAudioPackets;
+    public long outAudioBitrateBps;
+
+    // remote-inbound-rtp: what the far end reports about what we send
+    public long outPacketsLost;
+    public double outLossRate;
+    public double remoteRttMs;
+
+    // inbound-rtp, video
+    public long inVideoBytes;
+    public long inVideoPackets;
+    public long inVideoPacketsLost;
+    public long inVideoFramesDecoded;
+    public long inVideoFramesDropped;
+    public int inVideoWidth;
+    public int inVideoHeight;
+    public double inVideoFps;
+    public long inVideoBitrateBps;
+    public double inVideoLossRate;
+    public double inVideoJitterMs;
+
+    // inbound-rtp, audio
+    public long inAudioBytes;
+    public long inAudioPackets;
+    public long inAudioPacketsLost;
+    public long inAudioBitrateBps;
+    public double inAudioLossRate;
+    public double inAudioJitterMs;
+
+    // nominated candidate-pair
+    public double rttMs;
+    public long availableOutgoingBitrateBps;
+    public long availableIncomingBitrateBps;
+
+    public void copyTo(StatsSnapshot other) {
+        other.timestampUs = timestampUs;
+        other.outVideoBytes = outVideoBytes;
+        other.outVideoPackets = outVideoPackets;
+        other.outVideoFrames = outVideoFrames;
+        other.outVideoWidth = outVideoWidth;
+        other.outVideoHeight = outVideoHeight;
+        other.outVideoFps = outVideoFps;
+        other.outVideoBitrateBps = outVideoBitrateBps;
+        other.qualityLimitationReason = qualityLimitationReason;
+        other.outAudioBytes = outAudioBytes;
+        other.outAudioPackets = outAudioPackets;
+        other.outAudioBitrateBps = outAudioBitrateBps;
+        other.outPacketsLost = outPacketsLost;
+        other.outLossRate = outLossRate;
+        other.remoteRttMs = remoteRttMs;
+        other.inVideoBytes = inVideoBytes;
+        other.inVideoPackets = inVideoPackets;
+        other.inVideoPacketsLost = inVideoPacketsLost;
+        other.inVideoFramesDecoded = inVideoFramesDecoded;
+        other.inVideoFramesDropped = inVideoFramesDropped;
+        other.inVideoWidth = inVideoWidth;
+        other.inVideoHeight = inVideoHeight;
+        other.inVideoFps = inVideoFps;
+        other.inVideoBitrateBps = inVideoBitrateBps;
+        other.inVideoLossRate = inVideoLossRate;
+        other.inVideoJitterMs = inVideoJitterMs;
+        other.inAudioBytes = inAudioBytes;
+        other.inAudioPackets = inAudioPackets;
+        other.inAudioPacketsLost = inAudioPacketsLost;
+        other.inAudioBitrateBps = inAudioBitrateBps;
+        other.inAudioLossRate = inAudioLossRate;
+        other.inAudioJitterMs = inAudioJitterMs;
+        other.rttMs = rttMs;
+        other.availableOutgoingBitrateBps = availableOutgoingBitrateBps;
+        other.availableIncomingBitrateBps = availableIncomingBitrateBps;
+    }
+
+    @Override
+    public String toString() {
+        return "StatsSnapshot{" +
+                "out=" + outVideoWidth + "x" + outVideoHeight + "@" + outVideoFps +
+                " " + outVideoBitrateBps / 1000 + "kbps" +
+                ", limit=" + qualityLimitationReason +
+                ", outLoss=" + outLossRate +
+                ", in=" + inVideoWidth + "x" + inVideoHeight + "@" + inVideoFps +
+                " " + inVideoBitrateBps / 1000 + "kbps" +
+                ", inLoss=" + inVideoLossRate +
+                ", jitter=" + inVideoJitterMs + "ms" +
+                ", rtt=" + rttMs + "ms" +
+                ", availableOut=" + availableOutgoingBitrateBps / 1000 + "kbps" +
+                '}';
+    }
+}
@@ -0,0 +1,46 @@
+package com.webrtc.srs.sync;
+
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Publisher side of frame-synchronized metadata. Added as a sink of the local video track, it
+ * remembers the capture timestamp of the newest frame; {@link #stamp} prefixes a metadata
+ * payload with that timestamp and the send time, both on the local monotonic clock.
+ */
+public final class FrameStamper implements VideoSink {
+    /**
+     * {@code [captureNs i64][sentNs i64]} in front of the payload.
+     */
+    public static final int HEADER = 8 + 8;
+
+    private volatile long lastCaptureNs;
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        lastCaptureNs = frame.getTimestampNs();
+    }
+
+    /**
+     * Capture timestamp of the newest local frame, 0 before the first one.
+     */
+    public long getLastCaptureNs() {
+        return lastCaptureNs;
+    }
+
+    public ByteBuffer stamp(ByteBuffer payload) {
+        return stamp(lastCaptureNs, payload);
+    }
+
+    /**
+     * For metadata computed from an older frame, e.g. by a detector that lags the camera.
+     */
+    public ByteBuffer stamp(long captureNs, ByteBuffer payload) {
+        ByteBuffer message = ByteBuffer.allocate(HEADER + payload.remaining());
+        message.putLong(captureNs).putLong(System.nanoTime()).put(payload.duplicate());
+        message.flip();
+        return message;
+    }
+}
@@ -0,0 +1,246 @@
+package com.webrtc.srs.sync;
+
+import com.webrtc.srs.api.LatencyTracker;
+import com.webrtc.srs.datachannel.ByteBufferPool;
+import com.webrtc.srs.datachannel.DataChannelReceiver;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscriber side of frame-synchronized metadata. Sits between the remote video track and the
+ * renderer, buffers metadata stamped by {@link FrameStamper} ordered by the local time its frame
+ * is expected to render, and hands each entry to the listener right before the first frame at
+ * or past that time is forwarded.
+ * <p>
+ * The Java API exposes neither the RTP timestamp nor the sender's capture time of a decoded
+ * frame, only its local render time, so sender capture time is mapped onto the local clock:
+ * {@code due = captureNs + offset + videoDelay}. The offset is the windowed minimum of
+ * arrival minus send time of the metadata itself (clock offset plus the fastest network path);
+ * the video delay covers encode, jitter buffer and decode and is configurable.
+ * <p>
+ * Nothing here observes when the frame an entry belongs to is actually rendered, so the true
+ * alignment error is not measured. {@link Metrics} reports the release skew instead: the
+ * distance between an entry's due time and the frame that released it. That is the frame
+ * quantization of the release and stays small even when the video delay, and with it every
+ * due time, is wrong.
+ */
+public final class FrameSyncedMetadata implements VideoSink, DataChannelReceiver.MessageHandler {
+    /**
+     * A starting guess, not a calibrated value: the real delay depends on the codec, the
+     * jitter buffer target and the device. Measure it for a deployment (e.g. by stamping a
+     * visible test pattern) and pass it to {@link #setVideoDelayMs(long)}.
+     */
+    public static final long DEFAULT_VIDEO_DELAY_MS = 80;
+    public static final long DEFAULT_MAX_AGE_MS = 1_000;
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    private static final long DEFAULT_FRAME_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(33);
+
+    public interface Listener {
+        /**
+         * Called on the render thread before the matching frame reaches the renderer; the
+         * payload is only valid during the call.
+         */
+        void onMetadata(String label, long captureNs, ByteBuffer payload);
+    }
+
+    public static final class Metrics {
+        public final long received;
+        public final long released;
+        public final long late;
+        public final long evicted;
+        public final int buffered;
+        public final long offsetMs;
+        /**
+         * Due time to releasing frame distance; see the class comment for what it does not cover.
+         */
+        public final long releaseSkewMeanUs;
+        public final long releaseSkewP90Us;
+
+        Metrics(long received, long released, long late, long evicted, int buffered, long offsetMs,
+                long releaseSkewMeanUs, long releaseSkewP90Us) {
+            this.received = received;
+            this.released = released;
+            this.late = late;
+            this.evicted = evicted;
+            this.buffered = buffered;
+            this.offsetMs = offsetMs;
+            this.releaseSkewMeanUs = releaseSkewMeanUs;
+            this.releaseSkewP90Us = releaseSkewP90Us;
+        }
+
+        @Override
+        public String toString() {
+            return "received " + received + ", released " + released + ", late " + late + ", evicted " + evicted
+                    + ", buffered " + buffered + ", offset " + offsetMs + "ms, release skew mean "
+                    + releaseSkewMeanUs + "us p90 " + releaseSkewP90Us + "us";
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final long seq;
+        final long dueNs;
+        final long captureNs;
+        final String label;
+        final ByteBuffer payload;
+
+        Entry(long seq, long dueNs, long captureNs, String label, ByteBuffer payload) {
+            this.seq = seq;
+            this.dueNs = dueNs;
+            this.captureNs = captureNs;
+            this.label = label;
+            this.payload = payload;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int order = Long.compare(dueNs, other.dueNs);
+            return order != 0 ? order : Long.compare(seq, other.seq);
+        }
+    }
+
+    @Nullable
+    private final VideoSink downstream;
+    private final Listener listener;
+    private final ByteBufferPool bufferPool = new ByteBufferPool(16);
+    // Guarded by this.
+    private final PriorityQueue<Entry> pending = new PriorityQueue<>();
+    // Arrival minus send time in ns; the minimum is the offset estimate.
+    private final LatencyTracker offsets = new LatencyTracker(64);
+    private final LatencyTracker releaseSkewUs = new LatencyTracker(256);
+    private long seq;
+    private long offsetNs;
+    private long received;
+    private long released;
+    private long late;
+    private long evicted;
+
+    // Render thread only.
+    private long lastFrameNs;
+    private long frameIntervalNs = DEFAULT_FRAME_INTERVAL_NS;
+
+    private volatile long videoDelayNs = TimeUnit.MILLISECONDS.toNanos(DEFAULT_VIDEO_DELAY_MS);
+    private volatile long maxAgeNs = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_AGE_MS);
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * @param downstream the renderer frames are forwarded to, may be null
+     */
+    public FrameSyncedMetadata(@Nullable VideoSink downstream, Listener listener) {
+        this.downstream = downstream;
+        this.listener = listener;
+    }
+
+    /**
+     * How much longer the video path takes than the data channel, usually the jitter buffer
+     * plus decode time. Defaults to {@link #DEFAULT_VIDEO_DELAY_MS}.
+     */
+    public void setVideoDelayMs(long videoDelayMs) {
+        this.videoDelayNs = TimeUnit.MILLISECONDS.toNanos(videoDelayMs);
+    }
+
+    /**
+     * Entries whose frame is older than this are dropped instead of released.
+     */
+    public void setMaxAgeMs(long maxAgeMs) {
+        this.maxAgeNs = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Register inline: the payload is copied into a pooled buffer right away.
+     */
+    @Override
+    public void onMessage(String label, ByteBuffer data, boolean binary) {
+        if (!binary || data.remaining() < FrameStamper.HEADER) {
+            return;
+        }
+        final long arrivalNs = System.nanoTime();
+        final long captureNs = data.getLong();
+        final long sentNs = data.getLong();
+        synchronized (this) {
+            received++;
+            offsets.record(arrivalNs - sentNs);
+            offsetNs = offsets.percentile(0, arrivalNs - sentNs);
+            long dueNs = captureNs + offsetNs + videoDelayNs;
+            long horizonNs = arrivalNs - maxAgeNs;
+            if (dueNs < horizonNs) {
+                late++;
+                return;
+            }
+            Entry oldest;
+            while ((oldest = pending.peek()) != null && (oldest.dueNs < horizonNs || pending.size() >= maxEntries)) {
+                pending.poll();
+                evicted++;
+                bufferPool.release(oldest.payload);
+            }
+            ByteBuffer payload = bufferPool.acquire(data.remaining());
+            payload.put(data);
+            payload.flip();
+            pending.add(new Entry(seq++, dueNs, captureNs, label, payload));
+        }
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        final long frameNs = frame.getTimestampNs();
+        if (lastFrameNs != 0 && frameNs > lastFrameNs) {
+            frameIntervalNs += (frameNs - lastFrameNs - frameIntervalNs) / 8;
+        }
+        lastFrameNs = frameNs;
+        final long releaseNs = frameNs + frameIntervalNs / 2;
+        final long horizonNs = frameNs - maxAgeNs;
+
+        Entry entry;
+        while ((entry = poll(frameNs, releaseNs, horizonNs)) != null) {
+            try {
+                listener.onMetadata(entry.label, entry.captureNs, entry.payload.asReadOnlyBuffer());
+            } finally {
+                bufferPool.release(entry.payload);
+            }
+        }
+        if (downstream != null) {
+            downstream.onFrame(frame);
+        }
+    }
+
+    /**
+     * Next entry due by {@code releaseNs}; entries already older than the horizon are evicted.
+     */
+    @Nullable
+    private synchronized Entry poll(long frameNs, long releaseNs, long horizonNs) {
+        Entry entry;
+        while ((entry = pending.peek()) != null && entry.dueNs <= releaseNs) {
+            pending.poll();
+            if (entry.dueNs < horizonNs) {
+                evicted++;
+                bufferPool.release(entry.payload);
+                continue;
+            }
+            released++;
+            releaseSkewUs.record(Math.abs(frameNs - entry.dueNs) / 1000);
+            return entry;
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            bufferPool.release(entry.payload);
+        }
+    }
+
+    public synchronized Metrics getMetrics() {
+        return new Metrics(received, released, late, evicted, pending.size(), offsetNs / 1_000_000,
+                releaseSkewUs.mean(0), releaseSkewUs.percentile(0.9, 0));
+    }
+}
@@ -0,0 +1,274 @@
+package com.webrtc.srs.transfer;
+
+import android.util.Log;
+
+import com.webrtc.srs.datachannel.DataChannelReceiver;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Receives files sent by {@link BulkTransferSender}. Chunks are CRC-checked and written
+ * straight into a memory-mapped output file, and which chunks are stored is kept per transfer
+ * id, so an OFFER repeated after a reconnect resumes where the previous connection stopped.
+ * Feed it the messages of the control channel and of every stripe channel; chunks of different
+ * stripes may arrive on different threads.
+ */
+public final class BulkTransferReceiver implements DataChannelReceiver.MessageHandler {
+    private static final String TAG = "BulkTransferReceiver";
+
+    public interface Listener {
+        /**
+         * @return the file to write to, or null to reject the transfer
+         */
+        @Nullable
+        File onOffer(long transferId, String name, long size);
+
+        void onComplete(File file, TransferMetrics metrics);
+
+        void onFailed(long transferId, String name, Exception e);
+    }
+
+    private static final class Incoming {
+        final long id;
+        final String name;
+        final File target;
+        final long size;
+        final int chunkSize;
+        final int chunkCount;
+        final byte[] stored;
+        final long startNs = System.nanoTime();
+        @Nullable
+        FileChannel file;
+        @Nullable
+        MappedByteBuffer map;
+        int storedCount;
+        long bytes;
+        long duplicates;
+        long crcFailures;
+        long doneNs;
+
+        Incoming(long id, String name, File target, long size, int chunkSize) {
+            this.id = id;
+            this.name = name;
+            this.target = target;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = TransferProtocol.chunkCount(size, chunkSize);
+            this.stored = new byte[(chunkCount + 7) / 8];
+        }
+
+        int chunkLength(int index) {
+            return (int) Math.min(chunkSize, size - (long) index * chunkSize);
+        }
+
+        synchronized TransferMetrics metrics() {
+            long end = doneNs != 0 ? doneNs : System.nanoTime();
+            return new TransferMetrics(id, name, size, bytes, chunkCount, storedCount, duplicates, crcFailures,
+                    (end - startNs) / 1_000_000, doneNs != 0 ? (doneNs - startNs) / 1_000_000 : -1);
+        }
+    }
+
+    /**
+     * Per-thread copy target for the CRC; dispatched chunk views are read-only and have no array.
+     */
+    private static final class Scratch {
+        final CRC32 crc = new CRC32();
+        byte[] bytes = new byte[BulkTransferSender.DEFAULT_CHUNK_SIZE];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private final ConcurrentHashMap<Long, Incoming> transfers = new ConcurrentHashMap<>();
+    private final Listener listener;
+    private volatile TransferChannel control;
+
+    public BulkTransferReceiver(TransferChannel control, Listener listener) {
+        this.control = control;
+        this.listener = listener;
+    }
+
+    /**
+     * Replies go here after a reconnect.
+     */
+    public void setControlChannel(TransferChannel control) {
+        this.control = control;
+    }
+
+    /**
+     * Forgets a finished or abandoned transfer; a later OFFER with its id starts over.
+     */
+    public void forget(long transferId) {
+        Incoming incoming = transfers.remove(transferId);
+        if (incoming != null) {
+            synchronized (incoming) {
+                closeFile(incoming);
+            }
+        }
+    }
+
+    public List<TransferMetrics> getMetrics() {
+        List<TransferMetrics> metrics = new ArrayList<>(transfers.size());
+        for (Incoming incoming : transfers.values()) {
+            metrics.add(incoming.metrics());
+        }
+        return metrics;
+    }
+
+    @Override
+    public void onMessage(String label, ByteBuffer data, boolean binary) {
+        if (!binary || data.remaining() < TransferProtocol.HEADER) {
+            return;
+        }
+        byte type = data.get();
+        long id = data.getLong();
+        if (type == TransferProtocol.OFFER) {
+            onOffer(id, data);
+        } else if (type == TransferProtocol.CHUNK) {
+            Incoming incoming = transfers.get(id);
+            if (incoming != null) {
+                onChunk(incoming, data);
+            }
+        }
+    }
+
+    private void onOffer(long id, ByteBuffer data) {
+        long size = data.getLong();
+        int chunkSize = data.getInt();
+        String name = TransferProtocol.readName(data);
+        Incoming incoming = transfers.get(id);
+        if (incoming == null) {
+            File target = size >= 0 && size <= Integer.MAX_VALUE && chunkSize > 0
+                    ? listener.onOffer(id, name, size) : null;
+            if (target == null) {
+                control.send(TransferProtocol.reject(id));
+                return;
+            }
+            incoming = new Incoming(id, name, target, size, chunkSize);
+            try {
+                FileChannel file = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                incoming.file = file;
+                // A new transfer: drop whatever a longer file left past the end, map() only grows it.
+                file.truncate(size);
+                incoming.map = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                closeFile(incoming);
+                listener.onFailed(id, name, e);
+                control.send(TransferProtocol.reject(id));
+                return;
+            }
+            Incoming previous = transfers.putIfAbsent(id, incoming);
+            if (previous != null) {
+                closeFile(incoming);
+                incoming = previous;
+            }
+        }
+        byte[] bitmap;
+        synchronized (incoming) {
+            bitmap = incoming.stored.clone();
+        }
+        control.send(TransferProtocol.state(id, incoming.chunkCount, bitmap));
+        if (incoming.chunkCount == 0) {
+            finish(incoming);
+        }
+    }
+
+    private void onChunk(Incoming incoming, ByteBuffer data) {
+        int index = data.getInt();
+        int crc = data.getInt();
+        int length = data.remaining();
+        if (index < 0 || index >= incoming.chunkCount || length != incoming.chunkLength(index)) {
+            Log.w(TAG, incoming.name + ": bad chunk " + index + " of " + length + " B");
+            return;
+        }
+        synchronized (incoming) {
+            if (TransferProtocol.isSet(incoming.stored, index)) {
+                incoming.duplicates++;
+                control.send(TransferProtocol.ack(TransferProtocol.ACK, incoming.id, index));
+                return;
+            }
+        }
+
+        Scratch scratch = SCRATCH.get();
+        if (scratch.bytes.length < length) {
+            scratch.bytes = new byte[length];
+        }
+        data.get(scratch.bytes, 0, length);
+        scratch.crc.reset();
+        scratch.crc.update(scratch.bytes, 0, length);
+        if ((int) scratch.crc.getValue() != crc) {
+            synchronized (incoming) {
+                incoming.crcFailures++;
+            }
+            control.send(TransferProtocol.ack(TransferProtocol.NACK, incoming.id, index));
+            return;
+        }
+
+        boolean done;
+        synchronized (incoming) {
+            MappedByteBuffer map = incoming.map;
+            if (map == null || TransferProtocol.isSet(incoming.stored, index)) {
+                return;
+            }
+            ByteBuffer region = map.duplicate();
+            region.position((int) ((long) index * incoming.chunkSize));
+            region.put(scratch.bytes, 0, length);
+            TransferProtocol.set(incoming.stored, index);
+            incoming.storedCount++;
+            incoming.bytes += length;
+            done = incoming.storedCount == incoming.chunkCount;
+        }
+        control.send(TransferProtocol.ack(TransferProtocol.ACK, incoming.id, index));
+        if (done) {
+            finish(incoming);
+        }
+    }
+
+    /**
+     * Flushes and closes the output; the transfer stays known so a late OFFER is answered with a
+     * full bitmap instead of starting over.
+     */
+    private void finish(Incoming incoming) {
+        synchronized (incoming) {
+            if (incoming.doneNs != 0) {
+                return;
+            }
+            incoming.doneNs = System.nanoTime();
+            if (incoming.map != null) {
+                incoming.map.force();
+            }
+            closeFile(incoming);
+        }
+        TransferMetrics metrics = incoming.metrics();
+        Log.d(TAG, "received " + metrics);
+        listener.onComplete(incoming.target, metrics);
+    }
+
+    private static void closeFile(Incoming incoming) {
+        incoming.map = null;
+        if (incoming.file != null) {
+            try {
+                incoming.file.close();
+            } catch (IOException e) {
+                Log.w(TAG, incoming.name + ": close failed", e);
+            }
+            incoming.file = null;
+        }
+    }
+}
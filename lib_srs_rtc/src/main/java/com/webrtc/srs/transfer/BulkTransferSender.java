@@ -0,0 +1,456 @@
+package com.webrtc.srs.transfer;
+
+import android.util.Log;
+
+import com.webrtc.srs.datachannel.ByteBufferPool;
+import com.webrtc.srs.datachannel.DataChannelReceiver;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Sends files as CRC-checked chunks with a sliding window of unacknowledged chunks. Chunks can
+ * be striped round-robin over several channels; acknowledgements come back on the control
+ * channel and must be fed to {@link #onMessage}. After a reconnect call {@link #setChannels} and
+ * {@link #resume()}: every unfinished transfer is offered again and only the chunks the
+ * receiver is missing are sent.
+ */
+public final class BulkTransferSender implements DataChannelReceiver.MessageHandler {
+    private static final String TAG = "BulkTransferSender";
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    public static final int DEFAULT_WINDOW = 32;
+    public static final long DEFAULT_ACK_TIMEOUT_MS = 5_000;
+
+    private static volatile ScheduledExecutorService timer;
+    private static final ThreadLocal<CRC32> CRCS = new ThreadLocal<CRC32>() {
+        @Override
+        protected CRC32 initialValue() {
+            return new CRC32();
+        }
+    };
+
+    private final ConcurrentHashMap<Long, Transfer> transfers = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong(System.nanoTime());
+    private final ByteBufferPool bufferPool = new ByteBufferPool(DEFAULT_WINDOW);
+    private volatile TransferChannel control;
+    private volatile List<TransferChannel> stripes;
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile int window = DEFAULT_WINDOW;
+    private volatile long ackTimeoutMs = DEFAULT_ACK_TIMEOUT_MS;
+    @Nullable
+    private ScheduledFuture<?> tick;
+
+    private static final class Transfer {
+        final long id;
+        final String name;
+        final FileChannel file;
+        final long size;
+        final int chunkSize;
+        final int chunkCount;
+        final byte[] acked;
+        // Send time of chunks in flight, 0 for chunks not in flight.
+        final long[] sentAtNs;
+        final CompletableFuture<TransferMetrics> future = new CompletableFuture<>();
+        final long startNs = System.nanoTime();
+        int ackedCount;
+        int inFlight;
+        // Every chunk below this is acked or in flight.
+        int nextIndex;
+        boolean accepted;
+        long offeredAtNs;
+        long retransmits;
+        long crcFailures;
+        long doneNs;
+
+        Transfer(long id, String name, FileChannel file, long size, int chunkSize) {
+            this.id = id;
+            this.name = name;
+            this.file = file;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = TransferProtocol.chunkCount(size, chunkSize);
+            this.acked = new byte[(chunkCount + 7) / 8];
+            this.sentAtNs = new long[chunkCount];
+        }
+
+        int chunkLength(int index) {
+            return (int) Math.min(chunkSize, size - (long) index * chunkSize);
+        }
+
+        synchronized void requeue(int index) {
+            if (sentAtNs[index] != 0) {
+                sentAtNs[index] = 0;
+                inFlight--;
+                nextIndex = Math.min(nextIndex, index);
+            }
+        }
+
+        synchronized TransferMetrics metrics() {
+            long end = doneNs != 0 ? doneNs : System.nanoTime();
+            long bytes = 0;
+            for (int i = 0; i < chunkCount; i++) {
+                if (TransferProtocol.isSet(acked, i)) {
+                    bytes += chunkLength(i);
+                }
+            }
+            return new TransferMetrics(id, name, size, bytes, chunkCount, ackedCount, retransmits, crcFailures,
+                    (end - startNs) / 1_000_000, doneNs != 0 ? (doneNs - startNs) / 1_000_000 : -1);
+        }
+    }
+
+    /**
+     * @param control channel for offers, usually a reliable control lane
+     * @param stripes channels the chunks are spread over, at least one
+     */
+    public BulkTransferSender(TransferChannel control, List<TransferChannel> stripes) {
+        setChannels(control, stripes);
+    }
+
+    public void setChannels(TransferChannel control, List<TransferChannel> stripes) {
+        if (stripes.isEmpty()) {
+            throw new IllegalArgumentException("no stripe channels");
+        }
+        this.control = control;
+        this.stripes = Collections.unmodifiableList(new ArrayList<>(stripes));
+    }
+
+    /**
+     * Applies to transfers started afterwards; keep chunks plus header below the SCTP message
+     * limit of the peer.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Maximum chunks sent and not yet acknowledged, per transfer.
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    public void setAckTimeoutMs(long ackTimeoutMs) {
+        this.ackTimeoutMs = ackTimeoutMs;
+    }
+
+    /**
+     * Starts sending a file; the future completes once every chunk was acknowledged.
+     */
+    public CompletableFuture<TransferMetrics> send(File source, String name) {
+        final FileChannel file;
+        final long size;
+        try {
+            file = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+            size = file.size();
+        } catch (IOException e) {
+            CompletableFuture<TransferMetrics> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        Transfer transfer = new Transfer(ids.incrementAndGet(), name, file, size, chunkSize);
+        transfers.put(transfer.id, transfer);
+        armTick();
+        offer(transfer);
+        return transfer.future;
+    }
+
+    /**
+     * Offers every unfinished transfer again, after {@link #setChannels} on a new connection.
+     */
+    public void resume() {
+        for (Transfer transfer : transfers.values()) {
+            synchronized (transfer) {
+                transfer.accepted = false;
+            }
+            offer(transfer);
+        }
+    }
+
+    public void cancel(long transferId) {
+        Transfer transfer = transfers.remove(transferId);
+        if (transfer != null) {
+            close(transfer);
+            transfer.future.cancel(false);
+        }
+    }
+
+    public List<TransferMetrics> getMetrics() {
+        List<TransferMetrics> metrics = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers.values()) {
+            metrics.add(transfer.metrics());
+        }
+        return metrics;
+    }
+
+    @Override
+    public void onMessage(String label, ByteBuffer data, boolean binary) {
+        if (!binary || data.remaining() < TransferProtocol.HEADER) {
+            return;
+        }
+        byte type = data.get();
+        Transfer transfer = transfers.get(data.getLong());
+        if (transfer == null) {
+            return;
+        }
+        switch (type) {
+            case TransferProtocol.STATE:
+                onState(transfer, data);
+                break;
+            case TransferProtocol.REJECT:
+                transfers.remove(transfer.id);
+                close(transfer);
+                transfer.future.completeExceptionally(new IOException(transfer.name + " rejected by peer"));
+                break;
+            case TransferProtocol.ACK:
+                onAck(transfer, data.getInt());
+                break;
+            case TransferProtocol.NACK:
+                onNack(transfer, data.getInt());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void offer(Transfer transfer) {
+        synchronized (transfer) {
+            transfer.offeredAtNs = System.nanoTime();
+        }
+        control.send(TransferProtocol.offer(transfer.id, transfer.size, transfer.chunkSize, transfer.name));
+    }
+
+    private void onState(Transfer transfer, ByteBuffer data) {
+        if (data.getInt() != transfer.chunkCount) {
+            Log.w(TAG, transfer.name + ": peer disagrees on chunk count");
+            return;
+        }
+        synchronized (transfer) {
+            data.get(transfer.acked);
+            transfer.ackedCount = 0;
+            for (int i = 0; i < transfer.chunkCount; i++) {
+                if (TransferProtocol.isSet(transfer.acked, i)) {
+                    transfer.ackedCount++;
+                }
+            }
+            // Chunks in flight on a previous connection may be lost; send them again.
+            Arrays.fill(transfer.sentAtNs, 0);
+            transfer.inFlight = 0;
+            transfer.nextIndex = 0;
+            transfer.accepted = true;
+        }
+        if (!finishIfDone(transfer)) {
+            pump(transfer);
+        }
+    }
+
+    private void onAck(Transfer transfer, int index) {
+        if (index < 0 || index >= transfer.chunkCount) {
+            return;
+        }
+        synchronized (transfer) {
+            if (TransferProtocol.isSet(transfer.acked, index)) {
+                return;
+            }
+            TransferProtocol.set(transfer.acked, index);
+            transfer.ackedCount++;
+            if (transfer.sentAtNs[index] != 0) {
+                transfer.sentAtNs[index] = 0;
+                transfer.inFlight--;
+            }
+        }
+        if (!finishIfDone(transfer)) {
+            pump(transfer);
+        }
+    }
+
+    private void onNack(Transfer transfer, int index) {
+        if (index < 0 || index >= transfer.chunkCount) {
+            return;
+        }
+        synchronized (transfer) {
+            transfer.crcFailures++;
+            transfer.retransmits++;
+            transfer.requeue(index);
+        }
+        pump(transfer);
+    }
+
+    /**
+     * Fills the window with chunks that are neither acked nor in flight.
+     */
+    private void pump(Transfer transfer) {
+        int[] picked;
+        int count = 0;
+        synchronized (transfer) {
+            int room = window - transfer.inFlight;
+            if (!transfer.accepted || room <= 0) {
+                return;
+            }
+            picked = new int[room];
+            long now = System.nanoTime();
+            int index = transfer.nextIndex;
+            while (index < transfer.chunkCount && count < room) {
+                if (!TransferProtocol.isSet(transfer.acked, index) && transfer.sentAtNs[index] == 0) {
+                    transfer.sentAtNs[index] = now;
+                    transfer.inFlight++;
+                    picked[count++] = index;
+                }
+                index++;
+            }
+            transfer.nextIndex = index;
+        }
+        for (int i = 0; i < count; i++) {
+            sendChunk(transfer, picked[i]);
+        }
+    }
+
+    private void sendChunk(final Transfer transfer, final int index) {
+        final int length = transfer.chunkLength(index);
+        final ByteBuffer buffer = bufferPool.acquire(TransferProtocol.CHUNK_HEADER + length);
+        try {
+            buffer.position(TransferProtocol.CHUNK_HEADER);
+            long position = (long) index * transfer.chunkSize;
+            while (buffer.hasRemaining()) {
+                int read = transfer.file.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("unexpected end of " + transfer.name);
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            bufferPool.release(buffer);
+            fail(transfer, e);
+            return;
+        }
+        CRC32 crc = CRCS.get();
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + TransferProtocol.CHUNK_HEADER, length);
+        buffer.put(0, TransferProtocol.CHUNK)
+                .putLong(1, transfer.id)
+                .putInt(TransferProtocol.HEADER, index)
+                .putInt(TransferProtocol.HEADER + 4, (int) crc.getValue());
+        buffer.position(0);
+
+        List<TransferChannel> stripes = this.stripes;
+        stripes.get(index % stripes.size()).send(buffer).whenComplete((ok, error) -> {
+            bufferPool.release(buffer);
+            if (!Boolean.TRUE.equals(ok)) {
+                // The tick retries it; retrying here would spin on a dead channel.
+                synchronized (transfer) {
+                    if (transfer.sentAtNs[index] != 0) {
+                        transfer.sentAtNs[index] = 1;
+                    }
+                }
+            }
+        });
+    }
+
+    private boolean finishIfDone(Transfer transfer) {
+        synchronized (transfer) {
+            if (transfer.ackedCount < transfer.chunkCount || transfer.doneNs != 0) {
+                return transfer.doneNs != 0;
+            }
+            transfer.doneNs = System.nanoTime();
+        }
+        transfers.remove(transfer.id);
+        close(transfer);
+        TransferMetrics metrics = transfer.metrics();
+        Log.d(TAG, "sent " + metrics);
+        transfer.future.complete(metrics);
+        return true;
+    }
+
+    private void fail(Transfer transfer, Exception e) {
+        Log.e(TAG, transfer.name + " failed", e);
+        transfers.remove(transfer.id);
+        close(transfer);
+        transfer.future.completeExceptionally(e);
+    }
+
+    private static void close(Transfer transfer) {
+        try {
+            transfer.file.close();
+        } catch (IOException e) {
+            Log.w(TAG, transfer.name + ": close failed", e);
+        }
+    }
+
+    /**
+     * Re-offers transfers the peer never answered and retransmits chunks whose ack timed out.
+     */
+    private void onTick() {
+        if (transfers.isEmpty()) {
+            synchronized (this) {
+                if (transfers.isEmpty() && tick != null) {
+                    tick.cancel(false);
+                    tick = null;
+                }
+            }
+            return;
+        }
+        long now = System.nanoTime();
+        long timeoutNs = TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+        for (Transfer transfer : transfers.values()) {
+            boolean reoffer;
+            synchronized (transfer) {
+                reoffer = !transfer.accepted && now - transfer.offeredAtNs > timeoutNs;
+                if (transfer.accepted) {
+                    for (int i = 0; i < transfer.chunkCount; i++) {
+                        long sentAt = transfer.sentAtNs[i];
+                        if (sentAt != 0 && now - sentAt > timeoutNs) {
+                            transfer.retransmits++;
+                            transfer.requeue(i);
+                        }
+                    }
+                }
+            }
+            if (reoffer) {
+                offer(transfer);
+            } else {
+                pump(transfer);
+            }
+        }
+    }
+
+    private synchronized void armTick() {
+        if (tick == null) {
+            long period = Math.max(100, ackTimeoutMs / 2);
+            tick = getTimer().scheduleWithFixedDelay(this::onTick, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            synchronized (BulkTransferSender.class) {
+                if (timer == null) {
+                    timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "BulkTransfer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return timer;
+    }
+}
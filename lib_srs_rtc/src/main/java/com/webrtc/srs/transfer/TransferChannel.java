@@ -0,0 +1,12 @@
+package com.webrtc.srs.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where transfer messages go, usually a data channel lane. The buffer must stay untouched until
+ * the returned future completes.
+ */
+public interface TransferChannel {
+    CompletableFuture<Boolean> send(ByteBuffer data);
+}
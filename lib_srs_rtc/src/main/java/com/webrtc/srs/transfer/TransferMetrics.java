@@ -0,0 +1,49 @@
+package com.webrtc.srs.transfer;
+
+/**
+ * Progress of one transfer as seen by its sender or receiver.
+ */
+public final class TransferMetrics {
+    public final long transferId;
+    public final String name;
+    public final long size;
+    public final long bytesDone;
+    public final int chunks;
+    public final int chunksDone;
+    public final long retransmits;
+    public final long crcFailures;
+    public final long elapsedMs;
+    /**
+     * Time from the first OFFER to the last chunk, or -1 while running.
+     */
+    public final long completionMs;
+
+    TransferMetrics(long transferId, String name, long size, long bytesDone, int chunks, int chunksDone,
+                    long retransmits, long crcFailures, long elapsedMs, long completionMs) {
+        this.transferId = transferId;
+        this.name = name;
+        this.size = size;
+        this.bytesDone = bytesDone;
+        this.chunks = chunks;
+        this.chunksDone = chunksDone;
+        this.retransmits = retransmits;
+        this.crcFailures = crcFailures;
+        this.elapsedMs = elapsedMs;
+        this.completionMs = completionMs;
+    }
+
+    public boolean isComplete() {
+        return completionMs >= 0;
+    }
+
+    public double getBytesPerSecond() {
+        return elapsedMs > 0 ? bytesDone * 1000.0 / elapsedMs : 0;
+    }
+
+    @Override
+    public String toString() {
+        return name + "#" + Long.toHexString(transferId) + ": " + bytesDone + "/" + size + " B, " + chunksDone + "/"
+                + chunks + " chunks, " + Math.round(getBytesPerSecond()) + " B/s, " + retransmits + " retransmits, "
+                + crcFailures + " crc failures" + (isComplete() ? ", done in " + completionMs + " ms" : "");
+    }
+}
@@ -0,0 +1,82 @@
+package com.webrtc.srs.transfer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format of bulk transfers. Every message is binary and starts with
+ * {@code [type u8][transferId i64]}:
+ * <pre>
+ * OFFER   sender -> receiver  [size i64][chunkSize i32][nameLength u16][name utf-8]
+ * STATE   receiver -> sender  [chunkCount i32][bitmap of chunks already stored]
+ * REJECT  receiver -> sender
+ * CHUNK   sender -> receiver  [index i32][crc32 i32][payload]
+ * ACK     receiver -> sender  [index i32]
+ * NACK    receiver -> sender  [index i32], chunk failed its CRC
+ * </pre>
+ * A sender that reconnects re-sends OFFER with the same id and the STATE answer tells it which
+ * chunks are still missing.
+ */
+final class TransferProtocol {
+    static final byte OFFER = 1;
+    static final byte STATE = 2;
+    static final byte REJECT = 3;
+    static final byte CHUNK = 4;
+    static final byte ACK = 5;
+    static final byte NACK = 6;
+
+    static final int HEADER = 1 + 8;
+    static final int CHUNK_HEADER = HEADER + 4 + 4;
+
+    private TransferProtocol() {
+    }
+
+    static ByteBuffer offer(long id, long size, int chunkSize, String name) {
+        byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(utf8.length, 0xffff);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + 8 + 4 + 2 + length);
+        buffer.put(OFFER).putLong(id).putLong(size).putInt(chunkSize).putShort((short) length).put(utf8, 0, length);
+        buffer.flip();
+        return buffer;
+    }
+
+    static ByteBuffer state(long id, int chunkCount, byte[] bitmap) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + 4 + bitmap.length);
+        buffer.put(STATE).putLong(id).putInt(chunkCount).put(bitmap);
+        buffer.flip();
+        return buffer;
+    }
+
+    static ByteBuffer reject(long id) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER);
+        buffer.put(REJECT).putLong(id);
+        buffer.flip();
+        return buffer;
+    }
+
+    static ByteBuffer ack(byte type, long id, int index) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + 4);
+        buffer.put(type).putLong(id).putInt(index);
+        buffer.flip();
+        return buffer;
+    }
+
+    static String readName(ByteBuffer data) {
+        int length = data.getShort() & 0xffff;
+        byte[] utf8 = new byte[length];
+        data.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    static int chunkCount(long size, int chunkSize) {
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    static boolean isSet(byte[] bitmap, int index) {
+        return (bitmap[index >>> 3] & (1 << (index & 7))) != 0;
+    }
+
+    static void set(byte[] bitmap, int index) {
+        bitmap[index >>> 3] |= (byte) (1 << (index & 7));
+    }
+}
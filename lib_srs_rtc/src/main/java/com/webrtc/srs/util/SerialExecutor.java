@@ -0,0 +1,84 @@
+package com.webrtc.srs.util;
+
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A mailbox over a shared thread pool: tasks submitted here run one at a time and in order,
+ * while different SerialExecutors sharing the pool run in parallel. The drain task gives the
+ * pool thread back after {@link #BATCH} tasks so one busy session cannot starve the others.
+ */
+public final class SerialExecutor implements Executor {
+    private static final String TAG = "SerialExecutor";
+    private static final int BATCH = 16;
+
+    private final String name;
+    private final Executor pool;
+    private final ConcurrentLinkedQueue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    // Pending task count; the submitter that moves it from 0 to 1 schedules the drain.
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Runnable drain = this::drain;
+    private volatile Thread runner;
+
+    public SerialExecutor(String name, Executor pool) {
+        this.name = name;
+        this.pool = pool;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        mailbox.offer(task);
+        if (pending.getAndIncrement() == 0) {
+            pool.execute(drain);
+        }
+    }
+
+    /**
+     * True when called from the task currently running on this executor.
+     */
+    public boolean isCurrent() {
+        return runner == Thread.currentThread();
+    }
+
+    /**
+     * True when tasks are waiting behind the one currently running.
+     */
+    public boolean hasQueued() {
+        return !mailbox.isEmpty();
+    }
+
+    /**
+     * Runs the task inline when already on this executor, otherwise enqueues it.
+     */
+    public void executeOrRun(Runnable task) {
+        if (isCurrent()) {
+            task.run();
+        } else {
+            execute(task);
+        }
+    }
+
+    private void drain() {
+        runner = Thread.currentThread();
+        int ran = 0;
+        try {
+            Runnable task;
+            while (ran < BATCH && (task = mailbox.poll()) != null) {
+                ran++;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, name + " task failed", e);
+                }
+            }
+        } finally {
+            runner = null;
+            if (pending.addAndGet(-ran) > 0) {
+                pool.execute(drain);
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.webrtc.srs.util
+
+import org.webrtc.SdpObserver
+import org.webrtc.SessionDescription
+
+/**
+ * 空实现的 SdpObserver，只覆写需要的回调
+ */
+internal open class SimpleSdpObserver : SdpObserver {
+    override fun onCreateSuccess(sessionDescription: SessionDescription) {}
+    override fun onSetSuccess() {}
+    override fun onCreateFailure(s: String) {}
+    override fun onSetFailure(s: String) {}
+}
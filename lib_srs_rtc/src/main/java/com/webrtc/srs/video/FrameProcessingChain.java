@@ -0,0 +1,255 @@
+package com.webrtc.srs.video;
+
+import android.util.Log;
+
+import com.webrtc.srs.api.LatencyTracker;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.CapturerObserver;
+import org.webrtc.VideoFrame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sits between a capturer and the {@link CapturerObserver} of its VideoSource and runs the
+ * registered {@link FrameStage}s on a dedicated thread. The capture thread only retains the
+ * frame and puts it into a one-frame slot; if the previous frame is still waiting there, the
+ * stages fell behind and the older frame is dropped. Without stages frames go straight through
+ * on the capture thread.
+ * <p>
+ * Texture frames stay retained while queued and processed, which also holds the camera's
+ * texture, so a slow chain throttles the capturer itself instead of piling up frames.
+ */
+public final class FrameProcessingChain implements CapturerObserver {
+    private static final String TAG = "FrameProcessingChain";
+
+    public static final class StageStats {
+        public final String name;
+        public final long processed;
+        public final long dropped;
+        public final long meanUs;
+        public final long p90Us;
+
+        StageStats(String name, long processed, long dropped, long meanUs, long p90Us) {
+            this.name = name;
+            this.processed = processed;
+            this.dropped = dropped;
+            this.meanUs = meanUs;
+            this.p90Us = p90Us;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + processed + " frames, " + dropped + " dropped, mean " + meanUs + "us p90 " + p90Us + "us";
+        }
+    }
+
+    public static final class Stats {
+        public final long captured;
+        public final long droppedBehind;
+        public final long delivered;
+        public final List<StageStats> stages;
+
+        Stats(long captured, long droppedBehind, long delivered, List<StageStats> stages) {
+            this.captured = captured;
+            this.droppedBehind = droppedBehind;
+            this.delivered = delivered;
+            this.stages = stages;
+        }
+
+        @Override
+        public String toString() {
+            return "captured " + captured + ", dropped behind " + droppedBehind + ", delivered " + delivered + ", " + stages;
+        }
+    }
+
+    private static final class Stage {
+        final FrameStage stage;
+        final LatencyTracker latencyUs = new LatencyTracker(128);
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+
+        Stage(FrameStage stage) {
+            this.stage = stage;
+        }
+    }
+
+    private final CapturerObserver downstream;
+    private final I420BufferPool pool;
+    private final CopyOnWriteArrayList<Stage> stages = new CopyOnWriteArrayList<>();
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong droppedBehind = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+
+    // Guarded by this.
+    @Nullable
+    private VideoFrame pending;
+    @Nullable
+    private Thread thread;
+    private boolean released;
+
+    public FrameProcessingChain(CapturerObserver downstream) {
+        this(downstream, new I420BufferPool(4));
+    }
+
+    public FrameProcessingChain(CapturerObserver downstream, I420BufferPool pool) {
+        this.downstream = downstream;
+        this.pool = pool;
+    }
+
+    public void addStage(FrameStage stage) {
+        stages.add(new Stage(stage));
+        startThread();
+    }
+
+    public void removeStage(FrameStage stage) {
+        for (Stage entry : stages) {
+            if (entry.stage == stage) {
+                stages.remove(entry);
+            }
+        }
+    }
+
+    public I420BufferPool getPool() {
+        return pool;
+    }
+
+    @Override
+    public void onCapturerStarted(boolean success) {
+        downstream.onCapturerStarted(success);
+    }
+
+    @Override
+    public void onCapturerStopped() {
+        downstream.onCapturerStopped();
+    }
+
+    @Override
+    public void onFrameCaptured(VideoFrame frame) {
+        captured.incrementAndGet();
+        if (stages.isEmpty()) {
+            delivered.incrementAndGet();
+            downstream.onFrameCaptured(frame);
+            return;
+        }
+        frame.retain();
+        VideoFrame stale;
+        synchronized (this) {
+            if (released) {
+                stale = frame;
+            } else {
+                stale = pending;
+                pending = frame;
+                notifyAll();
+            }
+        }
+        if (stale != null) {
+            droppedBehind.incrementAndGet();
+            stale.release();
+        }
+    }
+
+    private synchronized void startThread() {
+        if (thread != null || released) {
+            return;
+        }
+        thread = new Thread(this::loop, "FrameProcessing");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void loop() {
+        while (true) {
+            VideoFrame frame;
+            synchronized (this) {
+                while (pending == null && !released) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (released) {
+                    return;
+                }
+                frame = pending;
+                pending = null;
+            }
+            process(frame);
+        }
+    }
+
+    /**
+     * Runs every stage over the frame and hands the result to the VideoSource; consumes the
+     * caller's reference.
+     */
+    private void process(VideoFrame frame) {
+        VideoFrame current = frame;
+        try {
+            for (Stage stage : stages) {
+                long start = System.nanoTime();
+                VideoFrame out;
+                try {
+                    out = stage.stage.process(current, pool);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, stage.stage.getName() + " failed, passing the frame through", e);
+                    out = current;
+                }
+                stage.latencyUs.record((System.nanoTime() - start) / 1000);
+                if (out == null) {
+                    stage.dropped.incrementAndGet();
+                    return;
+                }
+                stage.processed.incrementAndGet();
+                if (out != current) {
+                    current.release();
+                    current = out;
+                }
+            }
+            delivered.incrementAndGet();
+            downstream.onFrameCaptured(current);
+        } finally {
+            current.release();
+        }
+    }
+
+    /**
+     * Stops the processing thread and releases a frame still waiting; later frames are dropped.
+     * Waits for a frame in progress, so the VideoSource can be disposed afterwards.
+     */
+    public void release() {
+        VideoFrame stale;
+        Thread worker;
+        synchronized (this) {
+            released = true;
+            stale = pending;
+            pending = null;
+            worker = thread;
+            notifyAll();
+        }
+        if (stale != null) {
+            stale.release();
+        }
+        if (worker != null && worker != Thread.currentThread()) {
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        pool.clear();
+    }
+
+    public Stats getStats() {
+        List<StageStats> stageStats = new ArrayList<>(stages.size());
+        for (Stage stage : stages) {
+            stageStats.add(new StageStats(stage.stage.getName(), stage.processed.get(), stage.dropped.get(),
+                    stage.latencyUs.mean(0), stage.latencyUs.percentile(0.9, 0)));
+        }
+        return new Stats(captured.get(), droppedBehind.get(), delivered.get(), stageStats);
+    }
+}
@@ -0,0 +1,18 @@
+package com.webrtc.srs.video;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.VideoFrame;
+
+/**
+ * One step of a {@link FrameProcessingChain}, called on the chain's processing thread.
+ */
+public interface FrameStage {
+    String getName();
+
+    /**
+     * Returns the frame to pass on: the input itself, a new frame (the chain releases the
+     * input), or null to drop the frame. New frames should take their pixels from {@code pool}.
+     */
+    @Nullable
+    VideoFrame process(VideoFrame frame, I420BufferPool pool);
+}
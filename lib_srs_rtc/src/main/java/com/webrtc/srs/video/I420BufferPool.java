@@ -0,0 +1,84 @@
+package com.webrtc.srs.video;
+
+import org.webrtc.JavaI420Buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Pool of direct I420 pixel memory per frame size. {@link #allocate} wraps a pooled block in a
+ * {@link JavaI420Buffer} whose release callback returns the block, so pixel memory is reused
+ * once every holder released the buffer; only the small wrapper objects are new per frame.
+ */
+public final class I420BufferPool {
+    private final int maxIdlePerSize;
+    // Guarded by this.
+    private final HashMap<Long, ArrayDeque<ByteBuffer>> idle = new HashMap<>();
+    private long allocations;
+    private long reuses;
+
+    public I420BufferPool(int maxIdlePerSize) {
+        this.maxIdlePerSize = maxIdlePerSize;
+    }
+
+    public JavaI420Buffer allocate(int width, int height) {
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        final int ySize = width * height;
+        final int chromaSize = chromaWidth * chromaHeight;
+        final long key = ((long) width << 32) | height;
+
+        ByteBuffer block = null;
+        synchronized (this) {
+            ArrayDeque<ByteBuffer> blocks = idle.get(key);
+            if (blocks != null) {
+                block = blocks.poll();
+            }
+            if (block != null) {
+                reuses++;
+            } else {
+                allocations++;
+            }
+        }
+        if (block == null) {
+            block = ByteBuffer.allocateDirect(ySize + 2 * chromaSize);
+        }
+
+        final ByteBuffer backing = block;
+        ByteBuffer dataY = slice(backing, 0, ySize);
+        ByteBuffer dataU = slice(backing, ySize, chromaSize);
+        ByteBuffer dataV = slice(backing, ySize + chromaSize, chromaSize);
+        return JavaI420Buffer.wrap(width, height, dataY, width, dataU, chromaWidth, dataV, chromaWidth,
+                () -> recycle(key, backing));
+    }
+
+    private synchronized void recycle(long key, ByteBuffer block) {
+        ArrayDeque<ByteBuffer> blocks = idle.get(key);
+        if (blocks == null) {
+            blocks = new ArrayDeque<>();
+            idle.put(key, blocks);
+        }
+        if (blocks.size() < maxIdlePerSize) {
+            blocks.add(block);
+        }
+    }
+
+    public synchronized void clear() {
+        idle.clear();
+    }
+
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+
+    public synchronized long getReuses() {
+        return reuses;
+    }
+
+    private static ByteBuffer slice(ByteBuffer block, int offset, int length) {
+        ByteBuffer view = block.duplicate();
+        view.limit(offset + length).position(offset);
+        return view.slice();
+    }
+}
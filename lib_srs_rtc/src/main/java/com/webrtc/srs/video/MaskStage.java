@@ -0,0 +1,96 @@
+package com.webrtc.srs.video;
+
+import android.graphics.Rect;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.JavaI420Buffer;
+import org.webrtc.VideoFrame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Privacy mask: copies the frame into a pooled I420 buffer and paints the given regions black.
+ * Regions are in buffer coordinates, before rotation. Without regions the frame passes through
+ * untouched.
+ */
+public final class MaskStage implements FrameStage {
+    private static final byte BLACK_Y = 16;
+    private static final byte NEUTRAL_CHROMA = (byte) 128;
+
+    private volatile Rect[] regions = new Rect[0];
+
+    @Override
+    public String getName() {
+        return "mask";
+    }
+
+    public void setRegions(Rect... regions) {
+        Rect[] copy = new Rect[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            copy[i] = new Rect(regions[i]);
+        }
+        this.regions = copy;
+    }
+
+    @Nullable
+    @Override
+    public VideoFrame process(VideoFrame frame, I420BufferPool pool) {
+        final Rect[] masks = regions;
+        if (masks.length == 0) {
+            return frame;
+        }
+        VideoFrame.I420Buffer source = frame.getBuffer().toI420();
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        JavaI420Buffer target = pool.allocate(width, height);
+        try {
+            copyPlane(source.getDataY(), source.getStrideY(), target.getDataY(), target.getStrideY(), width, height);
+            final int chromaWidth = (width + 1) / 2;
+            final int chromaHeight = (height + 1) / 2;
+            copyPlane(source.getDataU(), source.getStrideU(), target.getDataU(), target.getStrideU(), chromaWidth, chromaHeight);
+            copyPlane(source.getDataV(), source.getStrideV(), target.getDataV(), target.getStrideV(), chromaWidth, chromaHeight);
+        } finally {
+            source.release();
+        }
+        for (Rect mask : masks) {
+            final int left = clamp(mask.left, width);
+            final int top = clamp(mask.top, height);
+            final int right = clamp(mask.right, width);
+            final int bottom = clamp(mask.bottom, height);
+            fill(target.getDataY(), target.getStrideY(), left, top, right, bottom, BLACK_Y);
+            fill(target.getDataU(), target.getStrideU(), left / 2, top / 2, (right + 1) / 2, (bottom + 1) / 2, NEUTRAL_CHROMA);
+            fill(target.getDataV(), target.getStrideV(), left / 2, top / 2, (right + 1) / 2, (bottom + 1) / 2, NEUTRAL_CHROMA);
+        }
+        return new VideoFrame(target, frame.getRotation(), frame.getTimestampNs());
+    }
+
+    private static void copyPlane(ByteBuffer src, int srcStride, ByteBuffer dst, int dstStride, int width, int height) {
+        ByteBuffer from = src.duplicate();
+        ByteBuffer to = dst.duplicate();
+        if (srcStride == dstStride) {
+            from.limit(from.position() + srcStride * (height - 1) + width);
+            to.put(from);
+            return;
+        }
+        final int fromBase = from.position();
+        final int toBase = to.position();
+        for (int row = 0; row < height; row++) {
+            from.limit(fromBase + row * srcStride + width).position(fromBase + row * srcStride);
+            to.position(toBase + row * dstStride);
+            to.put(from);
+        }
+    }
+
+    private static void fill(ByteBuffer plane, int stride, int left, int top, int right, int bottom, byte value) {
+        for (int row = top; row < bottom; row++) {
+            final int base = row * stride;
+            for (int col = left; col < right; col++) {
+                plane.put(base + col, value);
+            }
+        }
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
@@ -0,0 +1,393 @@
+package com.webrtc.srs.video;
+
+import android.util.Log;
+
+import org.jetbrains.annotations.Nullable;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The only sink on a remote video track, forwarding to the on-screen renderer and any number
+ * of secondary consumers. The primary sink (usually a SurfaceViewRenderer, which just hands the
+ * frame to its own render thread) is called inline on the decoder thread. Each secondary
+ * consumer gets its own one-frame slot and delivery thread: a slow consumer only loses frames
+ * itself and never delays the renderer or the other consumers.
+ * <p>
+ * Consumers never hold the decoder's frame. A texture frame ties up the SurfaceTextureHelper,
+ * which delivers nothing else until it is released, so holding it while a slow sink runs
+ * would stall the decoder and the renderer with it. One converter thread per fan-out copies
+ * each accepted frame to I420 (a GPU readback for texture frames) and releases the original
+ * before any consumer sees it. The original is therefore held for at most two conversions,
+ * the one in progress and its own, however slow the consumers are.
+ */
+public final class VideoFanOut implements VideoSink {
+    private static final String TAG = "VideoFanOut";
+
+    public static final class ConsumerStats {
+        public final String name;
+        public final long delivered;
+        public final long dropped;
+        public final long throttled;
+
+        ConsumerStats(String name, long delivered, long dropped, long throttled) {
+            this.name = name;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.throttled = throttled;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + delivered + " delivered, " + dropped + " dropped, " + throttled + " throttled";
+        }
+    }
+
+    /**
+     * A secondary consumer; frames older than the one in its slot are dropped.
+     */
+    public static final class Consumer {
+        private final String name;
+        private final VideoSink sink;
+        private final long minIntervalNs;
+        private final Thread thread;
+
+        // Only touched on the decoder thread.
+        private long lastAcceptedNs = Long.MIN_VALUE;
+
+        // Guarded by this.
+        @Nullable
+        private VideoFrame pending;
+        private boolean closed;
+
+        private volatile long delivered;
+        // Written under this: frames are dropped on both the decoder and the converter thread.
+        private volatile long dropped;
+        private volatile long throttled;
+
+        Consumer(String name, VideoSink sink, int maxFps) {
+            this.name = name;
+            this.sink = sink;
+            this.minIntervalNs = maxFps > 0 ? 1_000_000_000L / maxFps : 0;
+            this.thread = new Thread(this::loop, "VideoFanOut-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        public VideoSink getSink() {
+            return sink;
+        }
+
+        /**
+         * Called on the decoder thread; false when the frame comes too soon for maxFps.
+         */
+        boolean accept(long timestampNs) {
+            if (minIntervalNs > 0 && lastAcceptedNs != Long.MIN_VALUE
+                    && timestampNs - lastAcceptedNs < minIntervalNs) {
+                throttled++;
+                return false;
+            }
+            lastAcceptedNs = timestampNs;
+            return true;
+        }
+
+        /**
+         * Takes a converted frame on the converter thread; the caller keeps its own reference.
+         */
+        void offer(VideoFrame frame) {
+            frame.retain();
+            VideoFrame stale;
+            synchronized (this) {
+                if (closed) {
+                    stale = frame;
+                } else {
+                    stale = pending;
+                    pending = frame;
+                    if (stale != null) {
+                        dropped++;
+                    }
+                    notifyAll();
+                }
+            }
+            if (stale != null) {
+                stale.release();
+            }
+        }
+
+        /**
+         * An accepted frame was replaced before it was converted.
+         */
+        synchronized void countDrop() {
+            dropped++;
+        }
+
+        private void loop() {
+            while (true) {
+                VideoFrame frame;
+                synchronized (this) {
+                    while (pending == null && !closed) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    frame = pending;
+                    pending = null;
+                }
+                try {
+                    sink.onFrame(frame);
+                    delivered++;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, name + " failed to take a frame", e);
+                } finally {
+                    frame.release();
+                }
+            }
+        }
+
+        void close() {
+            VideoFrame stale;
+            synchronized (this) {
+                closed = true;
+                stale = pending;
+                pending = null;
+                notifyAll();
+            }
+            if (stale != null) {
+                stale.release();
+            }
+        }
+
+        public ConsumerStats getStats() {
+            return new ConsumerStats(name, delivered, dropped, throttled);
+        }
+    }
+
+    @Nullable
+    private volatile VideoSink primary;
+    // More inline sinks, e.g. the renderers of subscribers sharing this track.
+    private final CopyOnWriteArrayList<VideoSink> renderers = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Consumer> consumers = new CopyOnWriteArrayList<>();
+    private volatile boolean released;
+
+    // The converter's one-frame slot and the consumers that accepted the frame in it.
+    private final Object convertLock = new Object();
+    @Nullable
+    private VideoFrame converting;
+    @Nullable
+    private List<Consumer> convertTargets;
+    // Started with the first consumer; guarded by convertLock.
+    @Nullable
+    private Thread converter;
+
+    public VideoFanOut(@Nullable VideoSink primary) {
+        this.primary = primary;
+    }
+
+    /**
+     * Replaces the sink called inline, e.g. to put a wrapper in front of the renderer.
+     */
+    public void setPrimary(@Nullable VideoSink primary) {
+        this.primary = primary;
+    }
+
+    @Nullable
+    public VideoSink getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Adds another sink called inline on the decoder thread. Only for sinks that never block,
+     * like SurfaceViewRenderer; anything else belongs in {@link #addConsumer}.
+     */
+    public void addRenderer(VideoSink renderer) {
+        renderers.addIfAbsent(renderer);
+    }
+
+    /**
+     * Removes an inline sink, the primary one included.
+     */
+    public boolean removeRenderer(VideoSink renderer) {
+        if (primary == renderer) {
+            primary = null;
+            return true;
+        }
+        return renderers.remove(renderer);
+    }
+
+    public int getRendererCount() {
+        return (primary != null ? 1 : 0) + renderers.size();
+    }
+
+    /**
+     * @param maxFps frames per second handed to this consumer, 0 for every frame
+     */
+    public Consumer addConsumer(String name, VideoSink sink, int maxFps) {
+        Consumer consumer = new Consumer(name, sink, maxFps);
+        synchronized (convertLock) {
+            if (released) {
+                consumer.close();
+                return consumer;
+            }
+            if (converter == null) {
+                converter = new Thread(this::convertLoop, "VideoFanOut-convert");
+                converter.setDaemon(true);
+                converter.start();
+            }
+        }
+        consumers.add(consumer);
+        consumer.thread.start();
+        return consumer;
+    }
+
+    public void removeConsumer(Consumer consumer) {
+        if (consumers.remove(consumer)) {
+            consumer.close();
+        }
+    }
+
+    public boolean removeConsumer(VideoSink sink) {
+        for (Consumer consumer : consumers) {
+            if (consumer.sink == sink) {
+                removeConsumer(consumer);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getConsumerCount() {
+        return consumers.size();
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        if (released) {
+            return;
+        }
+        VideoSink sink = primary;
+        if (sink != null) {
+            sink.onFrame(frame);
+        }
+        for (VideoSink renderer : renderers) {
+            renderer.onFrame(frame);
+        }
+        List<Consumer> targets = null;
+        for (Consumer consumer : consumers) {
+            if (consumer.accept(frame.getTimestampNs())) {
+                if (targets == null) {
+                    targets = new ArrayList<>(consumers.size());
+                }
+                targets.add(consumer);
+            }
+        }
+        if (targets == null) {
+            return;
+        }
+        frame.retain();
+        VideoFrame stale;
+        List<Consumer> staleTargets = null;
+        synchronized (convertLock) {
+            if (released) {
+                stale = frame;
+            } else {
+                stale = converting;
+                staleTargets = convertTargets;
+                converting = frame;
+                convertTargets = targets;
+                convertLock.notifyAll();
+            }
+        }
+        if (stale != null) {
+            stale.release();
+        }
+        if (staleTargets != null) {
+            for (Consumer consumer : staleTargets) {
+                consumer.countDrop();
+            }
+        }
+    }
+
+    private void convertLoop() {
+        while (true) {
+            VideoFrame source;
+            List<Consumer> targets;
+            synchronized (convertLock) {
+                while (converting == null && !released) {
+                    try {
+                        convertLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (released) {
+                    return;
+                }
+                source = converting;
+                targets = convertTargets;
+                converting = null;
+                convertTargets = null;
+            }
+            final int rotation = source.getRotation();
+            final long timestampNs = source.getTimestampNs();
+            VideoFrame.I420Buffer i420 = null;
+            try {
+                i420 = source.getBuffer().toI420();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "failed to convert a frame to I420", e);
+            } finally {
+                source.release();
+            }
+            if (i420 == null) {
+                for (Consumer consumer : targets) {
+                    consumer.countDrop();
+                }
+                continue;
+            }
+            VideoFrame copy = new VideoFrame(i420, rotation, timestampNs);
+            for (Consumer consumer : targets) {
+                consumer.offer(copy);
+            }
+            copy.release();
+        }
+    }
+
+    /**
+     * Stops every delivery thread and releases the frames still queued. Detach from the track
+     * first; frames arriving afterwards are ignored.
+     */
+    public void release() {
+        VideoFrame stale;
+        synchronized (convertLock) {
+            released = true;
+            stale = converting;
+            converting = null;
+            convertTargets = null;
+            convertLock.notifyAll();
+        }
+        if (stale != null) {
+            stale.release();
+        }
+        for (Consumer consumer : consumers) {
+            consumer.close();
+        }
+        consumers.clear();
+        renderers.clear();
+    }
+
+    public List<ConsumerStats> getStats() {
+        List<ConsumerStats> stats = new ArrayList<>(consumers.size());
+        for (Consumer consumer : consumers) {
+            stats.add(consumer.getStats());
+        }
+        return stats;
+    }
+}
@@ -3,6 +3,8 @@ package com.webrtc.srs.wrap;
 import android.content.Context;
 import android.util.Log;
 
+import com.webrtc.srs.video.FrameProcessingChain;
+
 import org.jetbrains.annotations.Nullable;
 import org.webrtc.AudioSource;
 import org.webrtc.AudioTrack;
@@ -34,6 +36,8 @@ public class WebRtcMediaStreamStack {
     private VideoSource videoSource;
     @Nullable
     private SurfaceTextureHelper surfaceTextureHelper;
+    @Nullable
+    private FrameProcessingChain processingChain;
 
     @Nullable
     private VideoTrack localVideoTrack;
@@ -144,7 +148,8 @@ public class WebRtcMediaStreamStack {
         surfaceTextureHelper =
                 SurfaceTextureHelper.create("CaptureThread", this.appEglBase.getEglBaseContext());
         videoSource = factory.createVideoSource(videoCapturer.isScreencast());
-        videoCapturer.initialize(surfaceTextureHelper, this.appContext, videoSource.getCapturerObserver());
+        processingChain = new FrameProcessingChain(videoSource.getCapturerObserver());
+        videoCapturer.initialize(surfaceTextureHelper, this.appContext, processingChain);
         videoCapturer.startCapture(mediaStreamParameters.videoWidth, mediaStreamParameters.videoHeight, mediaStreamParameters.videoFps);
 
         localVideoTrack = factory.createVideoTrack(mediaStreamParameters.userId, videoSource);
@@ -174,6 +179,14 @@ public class WebRtcMediaStreamStack {
         return videoCapturer;
     }
 
+    /**
+     * Stages added here process every captured frame before it reaches the video source.
+     */
+    @Nullable
+    public FrameProcessingChain getProcessingChain() {
+        return processingChain;
+    }
+
     public void muteAudio(final boolean mute) {
         if (localAudioTrack != null) {
             localAudioTrack.setEnabled(!mute);
@@ -233,6 +246,11 @@ public class WebRtcMediaStreamStack {
             videoCapturer = null;
         }
 
+        if (processingChain != null) {
+            processingChain.release();
+            processingChain = null;
+        }
+
         Log.d(TAG, "closing video source");
         if (videoSource != null) {
             videoSource.dispose();
@@ -15,6 +15,9 @@ import org.webrtc.audio.JavaAudioDeviceModule.AudioRecordErrorCallback;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioRecordStateCallback;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackErrorCallback;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStateCallback;
+import org.webrtc.audio.JavaAudioDeviceModule.SamplesReadyCallback;
+
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class WebRtcPeerConnectionFactoryStack {
   final static String TAG = "WebRtcPeerConnectionFactoryStack";
@@ -25,6 +28,11 @@ public class WebRtcPeerConnectionFactoryStack {
 
   private static PeerConnectionFactory factory;
 
+  // Microphone PCM listeners, called on the audio record thread for every 10 ms chunk.
+  private static final CopyOnWriteArrayList<SamplesReadyCallback> samplesCallbacks = new CopyOnWriteArrayList<>();
+  // Read when the ADM is built; without it the ADM makes no per-chunk Java callback at all.
+  private static volatile boolean samplesCallbackEnabled;
+
   private WebRtcPeerConnectionFactoryStack() {
     createPeerConnectionFactory();
   }
@@ -119,7 +127,17 @@ public class WebRtcPeerConnectionFactoryStack {
       }
     };
 
-    return JavaAudioDeviceModule.builder(this.appContext)
+    SamplesReadyCallback samplesReadyCallback = samples -> {
+      for (SamplesReadyCallback callback : samplesCallbacks) {
+        callback.onWebRtcAudioRecordSamplesReady(samples);
+      }
+    };
+
+    JavaAudioDeviceModule.Builder builder = JavaAudioDeviceModule.builder(this.appContext);
+    if (samplesCallbackEnabled) {
+      builder.setSamplesReadyCallback(samplesReadyCallback);
+    }
+    return builder
         .setAudioRecordErrorCallback(audioRecordErrorCallback)
         .setAudioTrackErrorCallback(audioTrackErrorCallback)
         .setAudioRecordStateCallback(audioRecordStateCallback)
@@ -129,7 +147,16 @@ public class WebRtcPeerConnectionFactoryStack {
   }
 
   public static void init(Context context/*, EglBase eglBase*/) {
+    init(context, false);
+  }
+
+  /**
+   * @param samplesCallback whether the ADM hands microphone PCM to {@link #addSamplesReadyCallback}
+   *     listeners; applies to the factory created next.
+   */
+  public static void init(Context context, boolean samplesCallback) {
     appContext = context;
+    samplesCallbackEnabled = samplesCallback;
 	// appEglBase = eglBase;
 
     String fieldTrials = getFieldTrials();
@@ -142,6 +169,22 @@ public class WebRtcPeerConnectionFactoryStack {
 
   }
 
+  /**
+   * Registers a listener for recorded microphone samples. It runs on the audio record thread
+   * and must return quickly.
+   */
+  public static void addSamplesReadyCallback(SamplesReadyCallback callback) {
+    samplesCallbacks.addIfAbsent(callback);
+  }
+
+  public static void removeSamplesReadyCallback(SamplesReadyCallback callback) {
+    samplesCallbacks.remove(callback);
+  }
+
+  public static boolean isSamplesCallbackEnabled() {
+    return samplesCallbackEnabled;
+  }
+
   public static void dispose() {
     Log.d(TAG,"factory dispose");
     if (factory != null) {
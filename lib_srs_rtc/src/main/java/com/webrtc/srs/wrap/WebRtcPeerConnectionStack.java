@@ -2,6 +2,24 @@ package com.webrtc.srs.wrap;
 
 import android.util.Log;
 
+import com.webrtc.srs.abr.BitrateLadder;
+import com.webrtc.srs.abr.PublishAbrController;
+import com.webrtc.srs.datachannel.ChannelCounters;
+import com.webrtc.srs.datachannel.DataChannelLane;
+import com.webrtc.srs.datachannel.DataChannelReceiver;
+import com.webrtc.srs.datachannel.DataChannelSender;
+import com.webrtc.srs.datachannel.LaneScheduler;
+import com.webrtc.srs.sdp.SdpMediaSection;
+import com.webrtc.srs.sdp.SdpSession;
+import com.webrtc.srs.stats.StatsDigester;
+import com.webrtc.srs.stats.StatsHistory;
+import com.webrtc.srs.stats.StatsScheduler;
+import com.webrtc.srs.stats.StatsSnapshot;
+import com.webrtc.srs.sync.FrameStamper;
+import com.webrtc.srs.sync.FrameSyncedMetadata;
+import com.webrtc.srs.transfer.TransferChannel;
+import com.webrtc.srs.video.VideoFanOut;
+
 import org.jetbrains.annotations.Nullable;
 import org.webrtc.AudioTrack;
 import org.webrtc.CandidatePairChangeEvent;
@@ -28,25 +46,39 @@ import org.webrtc.VideoSink;
 import org.webrtc.VideoTrack;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
 
 public class WebRtcPeerConnectionStack {
     private static final String TAG = "WebRtcPeerConnectionStack";
+    private static final int STATS_HISTORY_SIZE = 60;
     private PeerConnectionFactory factory;
     private PeerConnection peerConnection;
 
-    private final Timer statsTimer = new Timer();
+    @Nullable
+    private StatsScheduler.Registration statsRegistration;
+    private StatsSelector statsSelector = StatsSelector.ALL;
+    private final StatsDigester statsDigester = new StatsDigester(STATS_HISTORY_SIZE);
+    @Nullable
+    private PublishAbrController abrController;
 
     private boolean dataChannelEnabled;
     @Nullable
     private DataChannel dataChannel;
     @Nullable
+    private DataChannelSender dataChannelSender;
+    private final DataChannelReceiver dataChannelReceiver = new DataChannelReceiver();
+    private final LaneScheduler laneScheduler = new LaneScheduler();
+    private final List<DataChannel> laneChannels = new ArrayList<>();
+    @Nullable
+    private FrameStamper frameStamper;
+    @Nullable
+    private FrameSyncedMetadata frameSync;
+    @Nullable
+    private VideoFanOut remoteFanOut;
+    @Nullable
     private VideoTrack remoteVideoTrack;
     @Nullable
     private AudioTrack remoteAudioTrack;
@@ -65,6 +97,18 @@ public class WebRtcPeerConnectionStack {
 
     private final PCObserver pcObserver = new PCObserver();
 
+    /**
+     * Which part of the connection a stats poll walks. Anything but ALL uses the per
+     * sender/receiver getStats overloads so only the selected tracks are visited.
+     */
+    public enum StatsSelector {
+        ALL,
+        LOCAL_VIDEO,
+        REMOTE_VIDEO,
+        LOCAL_MEDIA,
+        REMOTE_MEDIA
+    }
+
     public static class DataChannelParameters {
         public final boolean ordered;
         public final int maxRetransmitTimeMs;
@@ -82,6 +126,17 @@ public class WebRtcPeerConnectionStack {
             this.negotiated = negotiated;
             this.id = id;
         }
+
+        public DataChannel.Init toInit() {
+            DataChannel.Init init = new DataChannel.Init();
+            init.ordered = ordered;
+            init.maxRetransmitTimeMs = maxRetransmitTimeMs;
+            init.maxRetransmits = maxRetransmits;
+            init.protocol = protocol;
+            init.negotiated = negotiated;
+            init.id = id;
+            return init;
+        }
     }
 
     public static class PeerConnectionParameters {
@@ -90,13 +145,25 @@ public class WebRtcPeerConnectionStack {
         private final VideoSink remoteVideoRender;
         private boolean invite; // createOffer
         private final DataChannelParameters dataChannelParameters;
+        // Capture format the initial bitrate range is looked up for.
+        private final int videoWidth;
+        private final int videoHeight;
+        private final int videoFps;
 
         public PeerConnectionParameters(AudioTrack audioTrack, VideoTrack videoTrack, VideoSink remoteVideoRender, boolean invite, DataChannelParameters dataChannelParameters) {
+            this(audioTrack, videoTrack, remoteVideoRender, invite, dataChannelParameters, 1080, 720, 25);
+        }
+
+        public PeerConnectionParameters(AudioTrack audioTrack, VideoTrack videoTrack, VideoSink remoteVideoRender, boolean invite, DataChannelParameters dataChannelParameters,
+                                        int videoWidth, int videoHeight, int videoFps) {
             this.audioTrack = audioTrack;
             this.videoTrack = videoTrack;
             this.remoteVideoRender = remoteVideoRender;
             this.invite = invite;
             this.dataChannelParameters = dataChannelParameters;
+            this.videoWidth = videoWidth;
+            this.videoHeight = videoHeight;
+            this.videoFps = videoFps;
         }
     }
 
@@ -126,6 +193,12 @@ public class WebRtcPeerConnectionStack {
         default void onPeerConnectionStatsReady(final RTCStatsReport report) {
         }
 
+        /**
+         * Typed view of the same report with rates precomputed, valid until the next poll.
+         */
+        default void onPeerConnectionStatsDigested(final StatsSnapshot snapshot) {
+        }
+
         default void onPeerConnectionError(final String description) {
         }
 
@@ -168,12 +241,17 @@ public class WebRtcPeerConnectionStack {
         }
         initRemoteVideoAndAudioTrack();
         if (remoteVideoTrack != null) {
-            remoteVideoTrack.addSink(peerConnectionParameters.remoteVideoRender);
+            remoteFanOut = new VideoFanOut(peerConnectionParameters.remoteVideoRender);
+            remoteVideoTrack.addSink(remoteFanOut);
         }
 
         if (dataChannelEnabled) {
-            DataChannel.Init init = new DataChannel.Init();
+            DataChannel.Init init = peerConnectionParameters.dataChannelParameters.toInit();
             dataChannel = peerConnection.createDataChannel("data-channel", init);
+            if (dataChannel != null) {
+                dataChannelSender = new DataChannelSender(dataChannel);
+                dataChannel.registerObserver(new ChannelObserver(dataChannel, dataChannelSender));
+            }
         }
 
         findAudioVideoSender();
@@ -181,21 +259,39 @@ public class WebRtcPeerConnectionStack {
         if (peerConnectionParameters.invite) {
             createOffer();
         }
-        peerConnection.setBitrate(300 * 1000, 700 * 1000, 1000 * 1000);
+        BitrateLadder.Range range = BitrateLadder.getDefault().lookup(BitrateLadder.Codec.H264_HW, BitrateLadder.Content.CAMERA,
+                peerConnectionParameters.videoWidth, peerConnectionParameters.videoHeight, peerConnectionParameters.videoFps);
+        peerConnection.setBitrate(range.minKbps * 1000, range.startKbps * 1000, range.maxKbps * 1000);
         enableStatsEvents(true, 1000);
     }
 
+    /**
+     * Adds secondary consumers of the remote video, each on its own delivery thread so it
+     * cannot hold up the renderer.
+     */
     public boolean addRemoteVideoRender(final List<VideoSink> sinks) {
-        if (remoteVideoTrack == null) {
+        return addRemoteVideoRender(sinks, 0);
+    }
+
+    public boolean addRemoteVideoRender(final List<VideoSink> sinks, int maxFps) {
+        if (remoteFanOut == null) {
             return false;
         }
         for (VideoSink remoteSink : sinks) {
-            remoteVideoTrack.addSink(remoteSink);
+            remoteFanOut.addConsumer(remoteSink.getClass().getSimpleName(), remoteSink, maxFps);
         }
 
         return true;
     }
 
+    public boolean removeRemoteVideoRender(VideoSink sink) {
+        return remoteFanOut != null && remoteFanOut.removeConsumer(sink);
+    }
+
+    public List<VideoFanOut.ConsumerStats> getRemoteVideoConsumerStats() {
+        return remoteFanOut != null ? remoteFanOut.getStats() : Collections.emptyList();
+    }
+
     private void initRemoteVideoAndAudioTrack() {
         for (RtpTransceiver transceiver : peerConnection.getTransceivers()) {
             RtpReceiver receiver = transceiver.getReceiver();
@@ -276,42 +372,234 @@ public class WebRtcPeerConnectionStack {
         if (remoteAudioReceiver != null) remoteAudioReceiver.setFrameDecryptor(frameDecryptor);
     }
 
+    /**
+     * Queues the message on the data channel; false if it was rejected right away.
+     */
     public boolean send(ByteBuffer byteBuffer, boolean binary) {
-        if (dataChannel != null) {
-            DataChannel.Buffer buffer = new DataChannel.Buffer(byteBuffer, binary);
-            return dataChannel.send(buffer);
+        if (dataChannelSender != null) {
+            return !offer(byteBuffer, binary).isCompletedExceptionally();
         }
 
         return false;
     }
 
+    /**
+     * Queues the message without blocking, see {@link DataChannelSender#offer}.
+     */
+    public CompletableFuture<Boolean> offer(ByteBuffer byteBuffer, boolean binary) {
+        if (dataChannelSender == null) {
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("data channel disabled"));
+            return future;
+        }
+        return dataChannelSender.offer(byteBuffer, binary);
+    }
+
+    @Nullable
+    public DataChannelSender getDataChannelSender() {
+        return dataChannelSender;
+    }
+
+    /**
+     * Opens negotiated lanes next to the default channel. The remote peer has to open the same
+     * lanes with the same ids; messages arrive through {@link #getDataChannelReceiver()} under
+     * the lane label.
+     */
+    public void openLanes(DataChannelLane... lanes) {
+        if (peerConnection == null) {
+            throw new IllegalStateException("peer connection not created");
+        }
+        for (DataChannelLane lane : lanes) {
+            DataChannel channel = peerConnection.createDataChannel(lane.label, lane.toInit());
+            if (channel == null) {
+                Log.w(TAG, "Failed to open lane " + lane.label + " id " + lane.id);
+                continue;
+            }
+            DataChannelSender sender = laneScheduler.add(lane, channel);
+            channel.registerObserver(new ChannelObserver(channel, sender));
+            laneChannels.add(channel);
+        }
+    }
+
+    /**
+     * Queues the message on a lane opened by {@link #openLanes}; more urgent lanes go first.
+     */
+    public CompletableFuture<Boolean> offer(String lane, ByteBuffer byteBuffer, boolean binary) {
+        return laneScheduler.offer(lane, byteBuffer, binary);
+    }
+
+    /**
+     * Binary sends on a lane, or on the default channel when {@code lane} is null, for the bulk
+     * transfer classes.
+     */
+    public TransferChannel transferChannel(@Nullable String lane) {
+        if (lane == null) {
+            return data -> offer(data, true);
+        }
+        return data -> offer(lane, data, true);
+    }
+
+    /**
+     * Publisher side: starts tracking the capture time of local frames for
+     * {@link #sendFrameMetadata}.
+     */
+    public FrameStamper enableFrameStamping() {
+        if (frameStamper == null) {
+            frameStamper = new FrameStamper();
+            if (peerConnectionParameters.videoTrack != null) {
+                peerConnectionParameters.videoTrack.addSink(frameStamper);
+            }
+        }
+        return frameStamper;
+    }
+
+    /**
+     * Sends metadata on a lane, stamped with the capture time of the newest local frame.
+     */
+    public CompletableFuture<Boolean> sendFrameMetadata(String lane, ByteBuffer payload) {
+        return offer(lane, enableFrameStamping().stamp(payload), true);
+    }
+
+    /**
+     * Subscriber side: puts a {@link FrameSyncedMetadata} between the remote video track and
+     * the renderer, fed by the metadata arriving on {@code lane}.
+     */
+    public FrameSyncedMetadata enableFrameSync(String lane, FrameSyncedMetadata.Listener listener) {
+        if (frameSync == null) {
+            frameSync = new FrameSyncedMetadata(peerConnectionParameters.remoteVideoRender, listener);
+            if (remoteFanOut != null) {
+                remoteFanOut.setPrimary(frameSync);
+            }
+            dataChannelReceiver.addHandler(lane, frameSync, true);
+        }
+        return frameSync;
+    }
+
+    public List<DataChannelSender.Metrics> getLaneMetrics() {
+        return laneScheduler.getMetrics();
+    }
+
+    /**
+     * Receive side of every data channel of this connection, local and remote.
+     */
+    public DataChannelReceiver getDataChannelReceiver() {
+        return dataChannelReceiver;
+    }
+
+    public List<ChannelCounters.Sample> sampleDataChannelCounters() {
+        return dataChannelReceiver.sampleCounters();
+    }
+
     public void enableStatsEvents(boolean enable, int periodMs) {
+        if (statsRegistration != null) {
+            statsRegistration.cancel();
+            statsRegistration = null;
+        }
         if (enable) {
-            try {
-                statsTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        getStats();
-                    }
-                }, 0, periodMs);
-            } catch (Exception e) {
-                Log.e(TAG, "enableStatsEvents exception", e);
-            }
-        } else {
-            statsTimer.cancel();
+            statsRegistration = StatsScheduler.getInstance().register(this::getStats, periodMs);
+        }
+    }
+
+    public void setStatsSelector(StatsSelector selector) {
+        statsSelector = selector;
+    }
+
+    /**
+     * Polls less often while the remote/local view is not on screen.
+     */
+    public void setStatsHidden(boolean hidden) {
+        if (statsRegistration != null) {
+            statsRegistration.setHidden(hidden);
+        }
+    }
+
+    /**
+     * Stretches the poll period while the stream is reported stable, resets it otherwise.
+     */
+    public void setStatsStable(boolean stable) {
+        if (statsRegistration != null) {
+            statsRegistration.setStable(stable);
         }
     }
 
     private void getStats() {
-        if (peerConnection == null) {
+        final PeerConnection pc = peerConnection;
+        if (pc == null) {
             return;
         }
-        peerConnection.getStats(new RTCStatsCollectorCallback() {
-            @Override
-            public void onStatsDelivered(RTCStatsReport report) {
-                events.onPeerConnectionStatsReady(report);
+        switch (statsSelector) {
+            case LOCAL_VIDEO:
+                getStats(pc, localVideoSender, this::onStatsDelivered);
+                break;
+            case REMOTE_VIDEO:
+                getStats(pc, remoteVideoReceiver, this::onStatsDelivered);
+                break;
+            case LOCAL_MEDIA: {
+                // One digest per poll: the per-sender reports are merged before delivery.
+                final RtpSender audio = localAudioSender;
+                final RtpSender video = localVideoSender;
+                final StatsTick tick = new StatsTick(count(audio) + count(video));
+                getStats(pc, audio, tick);
+                getStats(pc, video, tick);
+                break;
+            }
+            case REMOTE_MEDIA: {
+                final RtpReceiver audio = remoteAudioReceiver;
+                final RtpReceiver video = remoteVideoReceiver;
+                final StatsTick tick = new StatsTick(count(audio) + count(video));
+                getStats(pc, audio, tick);
+                getStats(pc, video, tick);
+                break;
             }
-        });
+            default:
+                pc.getStats(this::onStatsDelivered);
+                break;
+        }
+    }
+
+    private static int count(@Nullable Object senderOrReceiver) {
+        return senderOrReceiver != null ? 1 : 0;
+    }
+
+    private void onStatsDelivered(RTCStatsReport report) {
+        events.onPeerConnectionStatsReady(report);
+        StatsSnapshot snapshot = statsDigester.digest(report);
+        PublishAbrController controller = abrController;
+        if (controller != null) {
+            controller.onStats(snapshot);
+        }
+        events.onPeerConnectionStatsDigested(snapshot);
+    }
+
+    /**
+     * Lets the controller drive capture format and bitrate from this connection's stats; the
+     * fixed bitrate set at creation is replaced by the controller's first rung.
+     */
+    public void setAbrController(@Nullable PublishAbrController controller) {
+        abrController = controller;
+        if (controller != null) {
+            controller.start();
+        }
+    }
+
+    public StatsSnapshot getStatsSnapshot() {
+        return statsDigester.getSnapshot();
+    }
+
+    public StatsHistory getStatsHistory() {
+        return statsDigester.getHistory();
+    }
+
+    private static void getStats(PeerConnection pc, @Nullable RtpSender sender, RTCStatsCollectorCallback callback) {
+        if (sender != null) {
+            pc.getStats(sender, callback);
+        }
+    }
+
+    private static void getStats(PeerConnection pc, @Nullable RtpReceiver receiver, RTCStatsCollectorCallback callback) {
+        if (receiver != null) {
+            pc.getStats(receiver, callback);
+        }
     }
 
     // send side
@@ -321,71 +609,13 @@ public class WebRtcPeerConnectionStack {
         peerConnection.setBitrate(min * 1000, cur * 1000, max * 1000);
     }
 
-    public int[] getBitrate(int videoWidth, int videoHeight, int frameRate) {
-        int pixel_count = videoWidth * videoHeight * frameRate;
-        int maxBitrate = 200;
-        int minBitrate = 100;
-        if (frameRate > 15) {
-            if (pixel_count >= 1920 * 1080 * 25) {
-                maxBitrate = 2000;
-                minBitrate = 600;
-            } else if (pixel_count >= 1440 * 1080 * 25) {
-                maxBitrate = 1750;
-                minBitrate = 600;
-            } else if (pixel_count >= 1280 * 720 * 25) {
-                maxBitrate = 1450;
-                minBitrate = 600;
-            } else if (pixel_count >= 960 * 720 * 25) {
-                maxBitrate = 1300;
-                minBitrate = 500;
-            } else if (pixel_count >= 960 * 540 * 25) {
-                maxBitrate = 950;
-                minBitrate = 400;
-            } else if (pixel_count >= 720 * 540 * 25) {
-                maxBitrate = 900;
-                minBitrate = 400;
-            } else if (pixel_count >= 640 * 480 * 25) {
-                maxBitrate = 800;
-                minBitrate = 300;
-            } else if (pixel_count >= 640 * 360 * 25) {
-                maxBitrate = 500;
-                minBitrate = 200;
-            } else if (pixel_count >= 480 * 360 * 25) {
-                maxBitrate = 450;
-                minBitrate = 200;
-            } else if (pixel_count >= 320 * 240 * 25) {
-                maxBitrate = 350;
-            } else if (pixel_count >= 320 * 180 * 25) {
-                maxBitrate = 300;
-            }
-        } else {
-            if (pixel_count >= 1920 * 1080 * 15) {
-                maxBitrate = 1700;
-            } else if (pixel_count >= 1440 * 1080 * 15) {
-                maxBitrate = 1500;
-            } else if (pixel_count >= 1280 * 720 * 15) {
-                maxBitrate = 1200;
-            } else if (pixel_count >= 960 * 720 * 15) {
-                maxBitrate = 1050;
-            } else if (pixel_count >= 960 * 540 * 15) {
-                maxBitrate = 800;
-                minBitrate = 300;
-            } else if (pixel_count >= 720 * 540 * 15) {
-                maxBitrate = 700;
-                minBitrate = 300;
-            } else if (pixel_count >= 640 * 480 * 15) {
-                maxBitrate = 600;
-                minBitrate = 300;
-            } else if (pixel_count >= 570 * 432 * 15) {
-                maxBitrate = 400;
-                minBitrate = 200;
-            } else if (pixel_count >= 480 * 360 * 15) {
-                maxBitrate = 350;
-            } else if (pixel_count >= 320 * 240 * 15) {
-                maxBitrate = 200;
-            }
-        }
-        return new int[]{minBitrate, maxBitrate};
+    /**
+     * Returns {minKbps, maxKbps} for the format from the default {@link BitrateLadder}.
+     */
+    public static int[] getBitrate(int videoWidth, int videoHeight, int frameRate) {
+        BitrateLadder.Range range = BitrateLadder.getDefault()
+                .lookup(BitrateLadder.Codec.H264_HW, BitrateLadder.Content.CAMERA, videoWidth, videoHeight, frameRate);
+        return new int[]{range.minKbps, range.maxKbps};
     }
 
     private boolean createOffer() {
@@ -535,6 +765,29 @@ public class WebRtcPeerConnectionStack {
         return true;
     }
 
+    /**
+     * Collects the per-track reports of one poll and delivers them as one merged report.
+     */
+    private class StatsTick implements RTCStatsCollectorCallback {
+        private final RTCStatsReport[] reports;
+        private int received;
+
+        StatsTick(int expected) {
+            reports = new RTCStatsReport[expected];
+        }
+
+        @Override
+        public void onStatsDelivered(RTCStatsReport report) {
+            synchronized (this) {
+                reports[received++] = report;
+                if (received < reports.length) {
+                    return;
+                }
+            }
+            WebRtcPeerConnectionStack.this.onStatsDelivered(StatsDigester.merge(reports));
+        }
+    }
+
     // Implementation detail: observe ICE & stream changes and react accordingly.
     private class PCObserver implements PeerConnection.Observer {
         @Override
@@ -606,30 +859,7 @@ public class WebRtcPeerConnectionStack {
             if (!dataChannelEnabled)
                 return;
 
-            dc.registerObserver(new DataChannel.Observer() {
-                @Override
-                public void onBufferedAmountChange(long previousAmount) {
-                    Log.d(TAG, "Data channel buffered amount changed: " + dc.label() + ": " + dc.state());
-                }
-
-                @Override
-                public void onStateChange() {
-                    Log.d(TAG, "Data channel state changed: " + dc.label() + ": " + dc.state());
-                }
-
-                @Override
-                public void onMessage(final DataChannel.Buffer buffer) {
-                    if (buffer.binary) {
-                        Log.d(TAG, "Received binary msg over " + dc);
-                        return;
-                    }
-                    ByteBuffer data = buffer.data;
-                    final byte[] bytes = new byte[data.capacity()];
-                    data.get(bytes);
-                    String strData = new String(bytes, Charset.forName("UTF-8"));
-                    Log.d(TAG, "Got msg: " + strData + " over " + dc);
-                }
-            });
+            dc.registerObserver(new ChannelObserver(dc, null));
         }
 
         @Override
@@ -643,94 +873,87 @@ public class WebRtcPeerConnectionStack {
         }
     }
 
-    private static String preferCodec(String sdp, String codec, boolean isAudio) {
-        return sdp;
-//        final String[] lines = sdp.split("\r\n");
-//        final int mLineIndex = findMediaDescriptionLine(isAudio, lines);
-//        if (mLineIndex == -1) {
-//            Log.w(TAG, "No mediaDescription line, so can't prefer " + codec);
-//            return sdp;
-//        }
-//        // A list with all the payload types with name `codec`. The payload types are integers in the
-//        // range 96-127, but they are stored as strings here.
-//        final List<String> codecPayloadTypes = new ArrayList<>();
-//        // a=rtpmap:<payload type> <encoding name>/<clock rate> [/<encoding parameters>]
-//        final Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
-//        for (String line : lines) {
-//            Matcher codecMatcher = codecPattern.matcher(line);
-//            if (codecMatcher.matches()) {
-//                codecPayloadTypes.add(codecMatcher.group(1));
-//            }
-//        }
-//        if (codecPayloadTypes.isEmpty()) {
-//            Log.w(TAG, "No payload types with name " + codec);
-//            return sdp;
-//        }
-//
-//        final String newMLine = movePayloadTypesToFront(codecPayloadTypes, lines[mLineIndex]);
-//        if (newMLine == null) {
-//            return sdp;
-//        }
-//        Log.d(TAG, "Change media description from: " + lines[mLineIndex] + " to " + newMLine);
-//        lines[mLineIndex] = newMLine;
-//        return joinString(Arrays.asList(lines), "\r\n", true /* delimiterAtEnd */);
-    }
-
-    private static @Nullable String movePayloadTypesToFront(
-            List<String> preferredPayloadTypes, String mLine) {
-        // The format of the media description line should be: m=<media> <port> <proto> <fmt> ...
-        final List<String> origLineParts = Arrays.asList(mLine.split(" "));
-        if (origLineParts.size() <= 3) {
-            Log.e(TAG, "Wrong SDP media description format: " + mLine);
-            return null;
-        }
-        final List<String> header = origLineParts.subList(0, 3);
-        final List<String> unpreferredPayloadTypes =
-                new ArrayList<>(origLineParts.subList(3, origLineParts.size()));
-        unpreferredPayloadTypes.removeAll(preferredPayloadTypes);
-        // Reconstruct the line with `preferredPayloadTypes` moved to the beginning of the payload
-        // types.
-        final List<String> newLineParts = new ArrayList<>();
-        newLineParts.addAll(header);
-        newLineParts.addAll(preferredPayloadTypes);
-        newLineParts.addAll(unpreferredPayloadTypes);
-        return joinString(newLineParts, " ", false /* delimiterAtEnd */);
-    }
+    private class ChannelObserver implements DataChannel.Observer {
+        private final DataChannel dc;
+        private final String label;
+        @Nullable
+        private final DataChannelSender sender;
 
-    /**
-     * Returns the line number containing "m=audio|video", or -1 if no such line exists.
-     */
-    private static int findMediaDescriptionLine(boolean isAudio, String[] sdpLines) {
-        final String mediaDescription = isAudio ? "m=audio " : "m=video ";
-        for (int i = 0; i < sdpLines.length; ++i) {
-            if (sdpLines[i].startsWith(mediaDescription)) {
-                return i;
+        ChannelObserver(DataChannel dc, @Nullable DataChannelSender sender) {
+            this.dc = dc;
+            this.label = dc.label();
+            this.sender = sender;
+        }
+
+        @Override
+        public void onBufferedAmountChange(long previousAmount) {
+            if (sender != null) {
+                sender.onBufferedAmountChange();
+            }
+        }
+
+        @Override
+        public void onStateChange() {
+            DataChannel.State state = dc.state();
+            Log.d(TAG, "Data channel state changed: " + label + ": " + state);
+            if (sender != null) {
+                sender.onStateChange();
+            }
+            if (state == DataChannel.State.CLOSED) {
+                dataChannelReceiver.removeChannel(label);
             }
         }
-        return -1;
-    }
 
-    private static String joinString(
-            Iterable<? extends CharSequence> s, String delimiter, boolean delimiterAtEnd) {
-        Iterator<? extends CharSequence> iter = s.iterator();
-        if (!iter.hasNext()) {
-            return "";
+        @Override
+        public void onMessage(final DataChannel.Buffer buffer) {
+            dataChannelReceiver.onMessage(label, buffer);
         }
-        StringBuilder buffer = new StringBuilder(iter.next());
-        while (iter.hasNext()) {
-            buffer.append(delimiter).append(iter.next());
+    }
+
+    private static String preferCodec(String sdp, String codec, boolean isAudio) {
+        final SdpSession session = SdpSession.parse(sdp);
+        final SdpMediaSection media = session.findMedia(isAudio ? "audio" : "video");
+        if (media == null) {
+            Log.w(TAG, "No mediaDescription line, so can't prefer " + codec);
+            return sdp;
         }
-        if (delimiterAtEnd) {
-            buffer.append(delimiter);
+        if (!media.preferCodec(codec)) {
+            Log.w(TAG, "No payload types with name " + codec);
+            return sdp;
         }
-        return buffer.toString();
+        return session.toSdp();
     }
 
     public void dispose() {
         Log.d(TAG, "closing peer connection.");
 
-        statsTimer.cancel();
+        enableStatsEvents(false, 0);
+
+        if (frameStamper != null && peerConnectionParameters != null && peerConnectionParameters.videoTrack != null) {
+            peerConnectionParameters.videoTrack.removeSink(frameStamper);
+        }
+        frameStamper = null;
+        if (remoteFanOut != null) {
+            if (remoteVideoTrack != null) {
+                remoteVideoTrack.removeSink(remoteFanOut);
+            }
+            remoteFanOut.release();
+            remoteFanOut = null;
+        }
+        if (frameSync != null) {
+            frameSync.clear();
+            frameSync = null;
+        }
 
+        if (dataChannelSender != null) {
+            dataChannelSender.close();
+            dataChannelSender = null;
+        }
+        laneScheduler.close();
+        for (DataChannel channel : laneChannels) {
+            channel.dispose();
+        }
+        laneChannels.clear();
         if (dataChannel != null) {
             dataChannel.dispose();
             dataChannel = null;
@@ -0,0 +1,164 @@
+package com.webrtc.srs.abr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+public class BitrateLadderTest {
+
+    /**
+     * The if-chain WebRtcPeerConnectionStack.getBitrate used before the ladder, {min, max} kbps.
+     */
+    private static int[] legacyBitrate(int videoWidth, int videoHeight, int frameRate) {
+        int pixelCount = videoWidth * videoHeight * frameRate;
+        int maxBitrate = 200;
+        int minBitrate = 100;
+        if (frameRate > 15) {
+            if (pixelCount >= 1920 * 1080 * 25) {
+                maxBitrate = 2000;
+                minBitrate = 600;
+            } else if (pixelCount >= 1440 * 1080 * 25) {
+                maxBitrate = 1750;
+                minBitrate = 600;
+            } else if (pixelCount >= 1280 * 720 * 25) {
+                maxBitrate = 1450;
+                minBitrate = 600;
+            } else if (pixelCount >= 960 * 720 * 25) {
+                maxBitrate = 1300;
+                minBitrate = 500;
+            } else if (pixelCount >= 960 * 540 * 25) {
+                maxBitrate = 950;
+                minBitrate = 400;
+            } else if (pixelCount >= 720 * 540 * 25) {
+                maxBitrate = 900;
+                minBitrate = 400;
+            } else if (pixelCount >= 640 * 480 * 25) {
+                maxBitrate = 800;
+                minBitrate = 300;
+            } else if (pixelCount >= 640 * 360 * 25) {
+                maxBitrate = 500;
+                minBitrate = 200;
+            } else if (pixelCount >= 480 * 360 * 25) {
+                maxBitrate = 450;
+                minBitrate = 200;
+            } else if (pixelCount >= 320 * 240 * 25) {
+                maxBitrate = 350;
+            } else if (pixelCount >= 320 * 180 * 25) {
+                maxBitrate = 300;
+            }
+        } else {
+            if (pixelCount >= 1920 * 1080 * 15) {
+                maxBitrate = 1700;
+            } else if (pixelCount >= 1440 * 1080 * 15) {
+                maxBitrate = 1500;
+            } else if (pixelCount >= 1280 * 720 * 15) {
+                maxBitrate = 1200;
+            } else if (pixelCount >= 960 * 720 * 15) {
+                maxBitrate = 1050;
+            } else if (pixelCount >= 960 * 540 * 15) {
+                maxBitrate = 800;
+                minBitrate = 300;
+            } else if (pixelCount >= 720 * 540 * 15) {
+                maxBitrate = 700;
+                minBitrate = 300;
+            } else if (pixelCount >= 640 * 480 * 15) {
+                maxBitrate = 600;
+                minBitrate = 300;
+            } else if (pixelCount >= 570 * 432 * 15) {
+                maxBitrate = 400;
+                minBitrate = 200;
+            } else if (pixelCount >= 480 * 360 * 15) {
+                maxBitrate = 350;
+            } else if (pixelCount >= 320 * 240 * 15) {
+                maxBitrate = 200;
+            }
+        }
+        return new int[]{minBitrate, maxBitrate};
+    }
+
+    @Test
+    public void defaultLadderMatchesLegacyTable() {
+        BitrateLadder ladder = BitrateLadder.parse(BitrateLadder.DEFAULT_CONFIG);
+        for (int fps = 1; fps <= 60; fps++) {
+            for (int height = 2; height <= 1600; height += 6) {
+                for (int width = 2; width <= 2600; width += 6) {
+                    int[] expected = legacyBitrate(width, height, fps);
+                    BitrateLadder.Range range = ladder.lookup(BitrateLadder.Codec.H264_HW,
+                            BitrateLadder.Content.CAMERA, width, height, fps);
+                    if (range.minKbps != expected[0] || range.maxKbps != expected[1]) {
+                        assertEquals(width + "x" + height + "@" + fps,
+                                expected[0] + "-" + expected[1], range.minKbps + "-" + range.maxKbps);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void defaultLadderMatchesLegacyTableAtThresholds() {
+        BitrateLadder ladder = BitrateLadder.parse(BitrateLadder.DEFAULT_CONFIG);
+        int[][] formats = {
+                {320, 180}, {320, 240}, {480, 360}, {570, 432}, {640, 360}, {640, 480}, {720, 540},
+                {960, 540}, {960, 720}, {1280, 720}, {1440, 1080}, {1920, 1080}};
+        for (int[] format : formats) {
+            for (int fps : new int[]{15, 25}) {
+                for (int delta = -2; delta <= 0; delta += 2) {
+                    int width = format[0] + delta;
+                    int[] expected = legacyBitrate(width, format[1], fps);
+                    BitrateLadder.Range range = ladder.lookup(BitrateLadder.Codec.H264_HW,
+                            BitrateLadder.Content.CAMERA, width, format[1], fps);
+                    assertEquals(width + "x" + format[1] + "@" + fps, expected[0], range.minKbps);
+                    assertEquals(width + "x" + format[1] + "@" + fps, expected[1], range.maxKbps);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void startIsMidpoint() {
+        BitrateLadder.Range range = BitrateLadder.getDefault()
+                .lookup(BitrateLadder.Codec.VP8, BitrateLadder.Content.SCREEN, 1280, 720, 30);
+        assertEquals(600, range.minKbps);
+        assertEquals(1025, range.startKbps);
+        assertEquals(1450, range.maxKbps);
+    }
+
+    @Test
+    public void specificTableWinsOverWildcard() {
+        BitrateLadder ladder = BitrateLadder.parse(""
+                + "* * HIGH 0x0x0 100 200\n"
+                + "* * LOW 0x0x0 100 200\n"
+                + "# screen content needs fewer bits per pixel\n"
+                + "VP8 SCREEN HIGH 640x480x30 50 300\n"
+                + "VP8 CAMERA HIGH 640x480x30 300 900\n");
+        assertEquals(300, ladder.lookup(BitrateLadder.Codec.VP8, BitrateLadder.Content.SCREEN, 640, 480, 30).maxKbps);
+        assertEquals(900, ladder.lookup(BitrateLadder.Codec.VP8, BitrateLadder.Content.CAMERA, 640, 480, 30).maxKbps);
+        assertEquals(200, ladder.lookup(BitrateLadder.Codec.H264_HW, BitrateLadder.Content.SCREEN, 640, 480, 30).maxKbps);
+        // Below the first rung of a table without an explicit floor.
+        assertEquals(50, ladder.lookup(BitrateLadder.Codec.VP8, BitrateLadder.Content.SCREEN, 320, 240, 30).minKbps);
+    }
+
+    @Test
+    public void lookupsShareRanges() {
+        BitrateLadder ladder = BitrateLadder.getDefault();
+        assertSame(ladder.lookup(BitrateLadder.Codec.H264_HW, BitrateLadder.Content.CAMERA, 1280, 720, 25),
+                ladder.lookup(BitrateLadder.Codec.H264_SW, BitrateLadder.Content.CAMERA, 1280, 720, 30));
+    }
+
+    @Test
+    public void interpolatesBetweenRungs() {
+        BitrateLadder ladder = BitrateLadder.parse("* * HIGH 0x0x0 100 200\n* * HIGH 100x100x20 300 400\n"
+                + "* * LOW 0x0x0 100 200\n");
+        BitrateLadder.Range range = ladder.interpolate(BitrateLadder.Codec.VP8, BitrateLadder.Content.CAMERA, 50, 100, 20);
+        assertEquals(200, range.minKbps);
+        assertEquals(300, range.maxKbps);
+    }
+
+    @Test
+    public void rejectsMalformedLines() {
+        assertThrows(IllegalArgumentException.class, () -> BitrateLadder.parse("* * HIGH 640x480 100 200"));
+        assertThrows(IllegalArgumentException.class, () -> BitrateLadder.parse("* * HIGH 640x480x30 100"));
+    }
+}
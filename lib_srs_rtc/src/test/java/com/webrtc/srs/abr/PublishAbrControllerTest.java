@@ -0,0 +1,82 @@
+package com.webrtc.srs.abr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.webrtc.srs.stats.StatsSnapshot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PublishAbrControllerTest {
+
+    private static final class RecordingActuator implements PublishAbrController.Actuator {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void changeCaptureFormat(int width, int height, int fps) {
+            calls.add("format " + width + "x" + height + "@" + fps);
+        }
+
+        @Override
+        public void setBitrate(int minBps, int startBps, int maxBps) {
+            calls.add("bitrate " + minBps + "/" + startBps + "/" + maxBps);
+        }
+    }
+
+    private static StatsSnapshot congested(long timestampMs) {
+        StatsSnapshot snapshot = new StatsSnapshot();
+        snapshot.timestampUs = timestampMs * 1000;
+        snapshot.outLossRate = 0.2;
+        snapshot.rttMs = 100;
+        return snapshot;
+    }
+
+    private static PublishAbrController controller(RecordingActuator actuator) {
+        return new PublishAbrController(PublishAbrController.defaultRungs(1280, 720, 30), 0,
+                new PublishAbrController.Parameters(), actuator);
+    }
+
+    @Test
+    public void stepsDownOnCongestion() {
+        RecordingActuator actuator = new RecordingActuator();
+        PublishAbrController controller = controller(actuator);
+        controller.start();
+        controller.onStats(congested(10_000));
+        controller.onStats(congested(11_000));
+
+        assertEquals(1, controller.getCurrentIndex());
+        assertEquals(4, actuator.calls.size());
+        assertEquals("format 960x540@25", actuator.calls.get(2));
+    }
+
+    @Test
+    public void closedControllerNeverActuates() {
+        RecordingActuator actuator = new RecordingActuator();
+        PublishAbrController controller = controller(actuator);
+        controller.start();
+        controller.close();
+        actuator.calls.clear();
+
+        controller.onStats(congested(10_000));
+        controller.onStats(congested(11_000));
+        controller.start();
+
+        assertTrue(controller.isClosed());
+        assertEquals(0, controller.getCurrentIndex());
+        assertTrue(actuator.calls.isEmpty());
+    }
+
+    @Test
+    public void closedControllerSkipsStatsRequests() {
+        PublishAbrController controller = controller(new RecordingActuator());
+        boolean[] requested = new boolean[1];
+        controller.close();
+        controller.requestStats(() -> requested[0] = true);
+
+        assertFalse(requested[0]);
+    }
+}
@@ -0,0 +1,179 @@
+package com.webrtc.srs.api
+
+import com.sun.net.httpserver.HttpServer
+import com.webrtc.srs.iinterface.SignalPolicy
+import okhttp3.ResponseBody
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import retrofit2.Call
+import retrofit2.Response
+import retrofit2.Retrofit
+import retrofit2.http.POST
+import java.net.InetSocketAddress
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 用本地 http 桩服务跑 [SignalRequest]：第 n 个请求的状态码和延迟由 [replies] 决定
+ */
+class SignalRequestTest {
+
+    interface StubApi {
+        @POST("offer")
+        fun offer(): Call<ResponseBody>
+    }
+
+    private class Reply(val code: Int, val delayMs: Long = 0)
+
+    private lateinit var server: HttpServer
+    private lateinit var api: StubApi
+    private lateinit var scheduler: ScheduledExecutorService
+    private val requests = AtomicInteger()
+    private var replies: List<Reply> = emptyList()
+
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.executor = Executors.newCachedThreadPool()
+        server.createContext("/offer") { exchange ->
+            val index = requests.getAndIncrement()
+            val reply = replies[index.coerceAtMost(replies.size - 1)]
+            Thread.sleep(reply.delayMs)
+            val body = "answer-$index".toByteArray()
+            exchange.sendResponseHeaders(reply.code, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.start()
+        api = Retrofit.Builder()
+            .baseUrl("http://127.0.0.1:${server.address.port}/")
+            .build()
+            .create(StubApi::class.java)
+        scheduler = Executors.newSingleThreadScheduledExecutor()
+    }
+
+    @After
+    fun tearDown() {
+        server.stop(0)
+        scheduler.shutdownNow()
+    }
+
+    private class Result : SignalRequest.Listener<ResponseBody> {
+        val done = CountDownLatch(1)
+
+        @Volatile
+        var answer: String? = null
+
+        @Volatile
+        var error: Throwable? = null
+
+        override fun onSuccess(response: Response<ResponseBody>) {
+            answer = response.body()?.use { it.string() }
+            done.countDown()
+        }
+
+        override fun onFailure(throwable: Throwable) {
+            error = throwable
+            done.countDown()
+        }
+    }
+
+    private fun policy(hedge: Boolean = false, deadlineMs: Long = 5_000) = SignalPolicy().apply {
+        setupDeadlineMs = deadlineMs
+        maxAttempts = 3
+        initialBackoffMs = 10
+        maxBackoffMs = 50
+        jitterRatio = 0.0
+        hedgeEnabled = hedge
+        minHedgeDelayMs = 100
+    }
+
+    private fun request(
+        policy: SignalPolicy,
+        result: Result,
+        discard: ((Response<ResponseBody>) -> Unit)? = null
+    ) = SignalRequest(scheduler, policy, LatencyTracker(), { api.offer() }, { false }, result, discard)
+
+    @Test
+    fun retriesServerErrorsWithBackoff() {
+        replies = listOf(Reply(500), Reply(503), Reply(201))
+        val result = Result()
+        request(policy(), result).start()
+
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        assertEquals("answer-2", result.answer)
+        assertEquals(3, requests.get())
+    }
+
+    @Test
+    fun failsAfterMaxAttempts() {
+        replies = listOf(Reply(500))
+        val result = Result()
+        request(policy(), result).start()
+
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        assertNull(result.answer)
+        assertEquals(3, requests.get())
+    }
+
+    @Test
+    fun failsAtDeadline() {
+        replies = listOf(Reply(201, delayMs = 1_000))
+        val result = Result()
+        request(policy(deadlineMs = 200), result).start()
+
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        assertTrue(result.error is TimeoutException)
+    }
+
+    @Test
+    fun doesNotHedgeWithoutDiscard() {
+        replies = listOf(Reply(201, delayMs = 400))
+        val result = Result()
+        request(policy(hedge = true), result).start()
+
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        assertEquals("answer-0", result.answer)
+        Thread.sleep(200)
+        assertEquals(1, requests.get())
+    }
+
+    @Test
+    fun hedgeLoserIsDiscarded() {
+        replies = listOf(Reply(201, delayMs = 600), Reply(201))
+        val result = Result()
+        val discarded = CountDownLatch(1)
+        val loser = AtomicInteger(-1)
+        request(policy(hedge = true), result) { response ->
+            loser.set(response.body()?.use { it.string() }?.removePrefix("answer-")?.toInt() ?: -1)
+            discarded.countDown()
+        }.start()
+
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        assertEquals("answer-1", result.answer)
+        assertTrue(discarded.await(5, TimeUnit.SECONDS))
+        assertEquals(0, loser.get())
+        assertEquals(2, requests.get())
+    }
+
+    @Test
+    fun answerAfterCancelIsDiscarded() {
+        replies = listOf(Reply(201, delayMs = 300))
+        val result = Result()
+        val discarded = CountDownLatch(1)
+        val request = request(policy(), result) { discarded.countDown() }
+        request.start()
+        Thread.sleep(50)
+        request.cancel()
+
+        assertTrue(discarded.await(5, TimeUnit.SECONDS))
+        assertEquals(1L, result.done.count)
+    }
+}
@@ -0,0 +1,395 @@
+package com.webrtc.srs.api
+
+import com.sun.net.httpserver.HttpServer
+import com.webrtc.srs.bean.ChannelType
+import com.webrtc.srs.bean.VideoPeer
+import com.webrtc.srs.iinterface.SignalPolicy
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.webrtc.IceCandidate
+import java.net.InetSocketAddress
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * 用本地 http 桩服务检查 [WhipSignalBackend] 发出的 WHIP/WHEP 请求：方法、Content-Type、
+ * Location 解析、trickle 和 ICE restart 的 PATCH（If-Match、ETag）以及拆除时的 DELETE
+ */
+class WhipSignalBackendTest {
+
+    private class Recorded(
+        val method: String,
+        val uri: String,
+        val contentType: String?,
+        val accept: String?,
+        val ifMatch: String?,
+        val body: String
+    )
+
+    private class Reply(
+        val code: Int,
+        val body: String = "",
+        val contentType: String? = null,
+        val location: String? = null,
+        val etag: String? = null,
+        val delayMs: Long = 0
+    )
+
+    private class Result : SignalBackend.Listener {
+        val done = CountDownLatch(1)
+
+        @Volatile
+        var answer: String? = null
+
+        @Volatile
+        var error: Throwable? = null
+
+        override fun onAnswer(sdp: String) {
+            answer = sdp
+            done.countDown()
+        }
+
+        override fun onFailure(throwable: Throwable) {
+            error = throwable
+            done.countDown()
+        }
+    }
+
+    private lateinit var server: HttpServer
+    private lateinit var client: SignalClient
+    private lateinit var backend: WhipSignalBackend
+    private lateinit var base: String
+    private val requests = LinkedBlockingQueue<Recorded>()
+
+    @Volatile
+    private var replyTo: (Recorded) -> Reply = { Reply(404) }
+
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.executor = Executors.newCachedThreadPool()
+        server.createContext("/") { exchange ->
+            val headers = exchange.requestHeaders
+            val recorded = Recorded(
+                exchange.requestMethod,
+                exchange.requestURI.toString(),
+                headers.getFirst("Content-Type"),
+                headers.getFirst("Accept"),
+                headers.getFirst("If-Match"),
+                exchange.requestBody.use { String(it.readBytes()) }
+            )
+            requests.add(recorded)
+            val reply = replyTo(recorded)
+            Thread.sleep(reply.delayMs)
+            reply.contentType?.let { exchange.responseHeaders.add("Content-Type", it) }
+            reply.location?.let { exchange.responseHeaders.add("Location", it) }
+            reply.etag?.let { exchange.responseHeaders.add("ETag", it) }
+            val body = reply.body.toByteArray()
+            exchange.sendResponseHeaders(reply.code, if (body.isEmpty()) -1 else body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.start()
+        base = "http://127.0.0.1:${server.address.port}"
+        client = SignalClient(false)
+        backend = WhipSignalBackend(client) {
+            SignalPolicy().apply {
+                setupDeadlineMs = 5_000
+                maxAttempts = 2
+                initialBackoffMs = 10
+                jitterRatio = 0.0
+            }
+        }
+    }
+
+    @After
+    fun tearDown() {
+        client.evictConnections()
+        client.scheduler.shutdownNow()
+        server.stop(0)
+    }
+
+    private fun peer(channel: ChannelType = ChannelType.PUBLISH) = VideoPeer().apply {
+        channelType = channel
+        pushUrl = "$base/whip/endpoint"
+        playUrl = "$base/whep/endpoint"
+        streamUrl = "webrtc://127.0.0.1/live/livestream"
+    }
+
+    private fun next(): Recorded {
+        val recorded = requests.poll(5, TimeUnit.SECONDS)
+        assertNotNull("no request", recorded)
+        return recorded!!
+    }
+
+    /**
+     * 服务端建好资源：201、answer、相对 Location 和 ETag
+     */
+    private fun created(delayMs: Long = 0) =
+        Reply(201, ANSWER, "application/sdp", location = "sessions/abc", etag = "\"e1\"", delayMs = delayMs)
+
+    /**
+     * 完成一次 offer，返回消耗掉 POST 之后的 peer
+     */
+    private fun connected(): VideoPeer {
+        replyTo = { created() }
+        val peer = peer()
+        val result = Result()
+        backend.offer(peer, OFFER, result).start()
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        assertNotNull(result.answer)
+        next()
+        return peer
+    }
+
+    @Test
+    fun offerPostsRawSdpAndResolvesLocation() {
+        replyTo = { created() }
+        val peer = peer()
+        val result = Result()
+        backend.offer(peer, OFFER, result).start()
+
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        val post = next()
+        assertEquals("POST", post.method)
+        assertEquals("/whip/endpoint", post.uri)
+        // RFC 9725：offer 的 Content-Type 就是 application/sdp，不带 charset
+        assertEquals("application/sdp", post.contentType)
+        assertEquals("application/sdp", post.accept)
+        assertEquals(OFFER, post.body)
+
+        assertEquals(ANSWER, result.answer)
+        assertEquals(ANSWER, peer.remoteSdp)
+        // 相对 Location 按请求地址解析
+        assertEquals("$base/whip/sessions/abc", peer.resourceUrl)
+        assertEquals("\"e1\"", peer.etag)
+    }
+
+    @Test
+    fun srsApiUrlsAreMappedToWhipAndWhep() {
+        replyTo = { created() }
+        val publish = peer().apply { pushUrl = "$base/rtc/v1/publish/" }
+        val publishResult = Result()
+        backend.offer(publish, OFFER, publishResult).start()
+        assertTrue(publishResult.done.await(5, TimeUnit.SECONDS))
+        assertEquals("/rtc/v1/whip/?app=live&stream=livestream", next().uri)
+
+        val play = peer(ChannelType.SUBSCRIBE).apply { playUrl = "$base/rtc/v1/play/" }
+        val playResult = Result()
+        backend.offer(play, OFFER, playResult).start()
+        assertTrue(playResult.done.await(5, TimeUnit.SECONDS))
+        assertEquals("/rtc/v1/whep/?app=live&stream=livestream", next().uri)
+    }
+
+    @Test
+    fun rejectedOfferFailsWithoutResource() {
+        replyTo = { Reply(400, "bad offer", "text/plain") }
+        val peer = peer()
+        val result = Result()
+        backend.offer(peer, OFFER, result).start()
+
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        assertNull(result.answer)
+        assertNotNull(result.error)
+        assertNull(peer.resourceUrl)
+        backend.teardown(peer)
+        next()
+        next()
+        // 没有资源就不发 DELETE
+        assertNull(requests.poll(200, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun candidatesBeforeLocationGoOutInOnePatch() {
+        replyTo = { if (it.method == "POST") created(delayMs = 200) else Reply(204) }
+        val peer = peer()
+        val result = Result()
+        backend.offer(peer, OFFER, result).start()
+        backend.trickle(peer, IceCandidate("0", 0, AUDIO_CANDIDATE))
+        backend.trickle(peer, IceCandidate("1", 1, VIDEO_CANDIDATE))
+
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        assertEquals("POST", next().method)
+        val patch = next()
+        assertEquals("PATCH", patch.method)
+        assertEquals("/whip/sessions/abc", patch.uri)
+        assertEquals("application/trickle-ice-sdpfrag", patch.contentType)
+        assertEquals("\"e1\"", patch.ifMatch)
+        assertEquals(
+            "a=ice-ufrag:loc1\r\na=ice-pwd:localpassword1\r\n" +
+                "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\na=mid:0\r\na=$AUDIO_CANDIDATE\r\n" +
+                "m=video 9 UDP/TLS/RTP/SAVPF 96\r\na=mid:1\r\na=$VIDEO_CANDIDATE\r\n",
+            patch.body
+        )
+        assertNull(requests.poll(200, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun trickleAfterLocationOnlyCarriesItsMedia() {
+        val peer = connected()
+        replyTo = { Reply(204) }
+        backend.trickle(peer, IceCandidate("1", 1, VIDEO_CANDIDATE))
+
+        val patch = next()
+        assertEquals("PATCH", patch.method)
+        assertEquals("\"e1\"", patch.ifMatch)
+        assertEquals(
+            "a=ice-ufrag:loc1\r\na=ice-pwd:localpassword1\r\n" +
+                "m=video 9 UDP/TLS/RTP/SAVPF 96\r\na=mid:1\r\na=$VIDEO_CANDIDATE\r\n",
+            patch.body
+        )
+    }
+
+    @Test
+    fun trickleStopsWhenServerDoesNotSupportPatch() {
+        val peer = connected()
+        replyTo = { Reply(405) }
+        backend.trickle(peer, IceCandidate("0", 0, AUDIO_CANDIDATE))
+        assertEquals("PATCH", next().method)
+        // 等 405 处理完
+        Thread.sleep(200)
+
+        backend.trickle(peer, IceCandidate("1", 1, VIDEO_CANDIDATE))
+        assertNull(requests.poll(300, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun iceRestartPatchesWithWildcardAndAppliesFragment() {
+        val peer = connected()
+        replyTo = {
+            if (it.ifMatch == "*") {
+                Reply(200, RESTART_FRAGMENT, "application/trickle-ice-sdpfrag", etag = "\"e2\"")
+            } else {
+                Reply(204)
+            }
+        }
+        val result = Result()
+        backend.restartIce(peer, OFFER.replace("loc1", "loc2").replace("localpassword1", "localpassword2"), result)
+            .start()
+
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        val patch = next()
+        assertEquals("PATCH", patch.method)
+        assertEquals("/whip/sessions/abc", patch.uri)
+        assertEquals("application/trickle-ice-sdpfrag", patch.contentType)
+        assertEquals("*", patch.ifMatch)
+        assertEquals(
+            "a=ice-ufrag:loc2\r\na=ice-pwd:localpassword2\r\n" +
+                "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\na=mid:0\r\n" +
+                "m=video 9 UDP/TLS/RTP/SAVPF 96\r\na=mid:1\r\n",
+            patch.body
+        )
+
+        val answer = result.answer!!
+        assertTrue(answer.contains("a=ice-ufrag:srv2\r\n"))
+        assertTrue(answer.contains("a=ice-pwd:serverpassword2\r\n"))
+        assertTrue(answer.contains("a=candidate:2 1 udp 2130706431 127.0.0.1 8001 typ host\r\n"))
+        assertFalse(answer.contains("srv1"))
+        assertFalse(answer.contains(" 8000 typ host"))
+        assertEquals(answer, peer.remoteSdp)
+        assertEquals("\"e2\"", peer.etag)
+
+        // 之后的 trickle 带新的 ETag 和新的本地 ufrag
+        backend.trickle(peer, IceCandidate("0", 0, AUDIO_CANDIDATE))
+        val trickle = next()
+        assertEquals("\"e2\"", trickle.ifMatch)
+        assertTrue(trickle.body.startsWith("a=ice-ufrag:loc2\r\n"))
+    }
+
+    @Test
+    fun failedIceRestartKeepsTheOldAnswer() {
+        val peer = connected()
+        replyTo = { Reply(412) }
+        val result = Result()
+        backend.restartIce(peer, OFFER, result).start()
+
+        assertTrue(result.done.await(5, TimeUnit.SECONDS))
+        assertNotNull(result.error)
+        assertEquals(ANSWER, peer.remoteSdp)
+        assertEquals("\"e1\"", peer.etag)
+    }
+
+    @Test
+    fun teardownDeletesTheResource() {
+        val peer = connected()
+        replyTo = { Reply(200) }
+        backend.teardown(peer)
+
+        val delete = next()
+        assertEquals("DELETE", delete.method)
+        assertEquals("/whip/sessions/abc", delete.uri)
+        assertNull(peer.resourceUrl)
+        assertNull(peer.etag)
+
+        // 拆除后的候选不再发出
+        backend.trickle(peer, IceCandidate("0", 0, AUDIO_CANDIDATE))
+        assertNull(requests.poll(200, TimeUnit.MILLISECONDS))
+    }
+
+    companion object {
+        private const val AUDIO_CANDIDATE = "candidate:1 1 udp 2130706431 192.168.1.2 50000 typ host"
+        private const val VIDEO_CANDIDATE = "candidate:1 1 udp 2130706431 192.168.1.2 50001 typ host"
+
+        private val OFFER = listOf(
+            "v=0",
+            "o=- 1 2 IN IP4 127.0.0.1",
+            "s=-",
+            "t=0 0",
+            "a=group:BUNDLE 0 1",
+            "m=audio 9 UDP/TLS/RTP/SAVPF 111",
+            "c=IN IP4 0.0.0.0",
+            "a=ice-ufrag:loc1",
+            "a=ice-pwd:localpassword1",
+            "a=mid:0",
+            "a=sendonly",
+            "a=rtpmap:111 opus/48000/2",
+            "m=video 9 UDP/TLS/RTP/SAVPF 96",
+            "c=IN IP4 0.0.0.0",
+            "a=ice-ufrag:loc1",
+            "a=ice-pwd:localpassword1",
+            "a=mid:1",
+            "a=sendonly",
+            "a=rtpmap:96 H264/90000"
+        ).joinToString("\r\n", postfix = "\r\n")
+
+        private val ANSWER = listOf(
+            "v=0",
+            "o=- 3 2 IN IP4 127.0.0.1",
+            "s=-",
+            "t=0 0",
+            "a=ice-lite",
+            "a=group:BUNDLE 0 1",
+            "m=audio 9 UDP/TLS/RTP/SAVPF 111",
+            "c=IN IP4 0.0.0.0",
+            "a=ice-ufrag:srv1",
+            "a=ice-pwd:serverpassword1",
+            "a=mid:0",
+            "a=recvonly",
+            "a=rtpmap:111 opus/48000/2",
+            "a=candidate:1 1 udp 2130706431 127.0.0.1 8000 typ host",
+            "m=video 9 UDP/TLS/RTP/SAVPF 96",
+            "c=IN IP4 0.0.0.0",
+            "a=ice-ufrag:srv1",
+            "a=ice-pwd:serverpassword1",
+            "a=mid:1",
+            "a=recvonly",
+            "a=rtpmap:96 H264/90000",
+            "a=candidate:1 1 udp 2130706431 127.0.0.1 8000 typ host"
+        ).joinToString("\r\n", postfix = "\r\n")
+
+        private val RESTART_FRAGMENT = listOf(
+            "a=ice-ufrag:srv2",
+            "a=ice-pwd:serverpassword2",
+            "m=audio 9 UDP/TLS/RTP/SAVPF 111",
+            "a=mid:0",
+            "a=candidate:2 1 udp 2130706431 127.0.0.1 8001 typ host"
+        ).joinToString("\r\n", postfix = "\r\n")
+    }
+}
@@ -0,0 +1,242 @@
+package com.webrtc.srs.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class AudioLevelMeterTest {
+    private static final int RATE = 48000;
+    private static final int CHUNK = RATE / 100;
+    private static final float DB = 0.1f;
+
+    /**
+     * Deterministic 16-bit little-endian PCM chunks of 10 ms at 48 kHz.
+     */
+    private static final class Pcm {
+        static byte[] silence(int channels) {
+            return new byte[CHUNK * channels * 2];
+        }
+
+        /**
+         * A sine of the given peak level on channel 0, the other channels silent.
+         */
+        static byte[] sine(double peakDbfs, double hz, int channels, int chunkIndex) {
+            double amplitude = 32768 * Math.pow(10, peakDbfs / 20);
+            short[] samples = new short[CHUNK * channels];
+            for (int i = 0; i < CHUNK; i++) {
+                double t = (double) (chunkIndex * CHUNK + i) / RATE;
+                samples[i * channels] = clip(amplitude * Math.sin(2 * Math.PI * hz * t));
+            }
+            return encode(samples);
+        }
+
+        /**
+         * Voiced speech stand-in: a 150 Hz fundamental with two falling harmonics.
+         */
+        static byte[] voiced(double peakDbfs, int chunkIndex) {
+            double amplitude = 32768 * Math.pow(10, peakDbfs / 20) / 1.75;
+            short[] samples = new short[CHUNK];
+            for (int i = 0; i < CHUNK; i++) {
+                double phase = 2 * Math.PI * 150 * (chunkIndex * CHUNK + i) / RATE;
+                samples[i] = clip(amplitude * (Math.sin(phase) + 0.5 * Math.sin(2 * phase)
+                        + 0.25 * Math.sin(3 * phase)));
+            }
+            return encode(samples);
+        }
+
+        /**
+         * Uniform white noise of the given RMS level.
+         */
+        static byte[] noise(double rmsDbfs, Random random) {
+            // A uniform distribution on [-a, a] has an RMS of a / sqrt(3).
+            double amplitude = 32768 * Math.pow(10, rmsDbfs / 20) * Math.sqrt(3);
+            short[] samples = new short[CHUNK];
+            for (int i = 0; i < CHUNK; i++) {
+                samples[i] = clip(amplitude * (2 * random.nextDouble() - 1));
+            }
+            return encode(samples);
+        }
+
+        private static short clip(double value) {
+            return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+        }
+
+        private static byte[] encode(short[] samples) {
+            byte[] pcm = new byte[samples.length * 2];
+            for (int i = 0; i < samples.length; i++) {
+                pcm[2 * i] = (byte) samples[i];
+                pcm[2 * i + 1] = (byte) (samples[i] >> 8);
+            }
+            return pcm;
+        }
+    }
+
+    private static boolean process(AudioLevelMeter meter, byte[] pcm, int channels) {
+        return meter.process(pcm, 0, pcm.length, channels);
+    }
+
+    @Test
+    public void silenceIsFloorLevel() {
+        AudioLevelMeter meter = new AudioLevelMeter();
+        for (int i = 0; i < 100; i++) {
+            assertFalse(process(meter, Pcm.silence(1), 1));
+        }
+        assertEquals(AudioLevelMeter.SILENCE_DBFS, meter.getRmsDbfs(), 0f);
+        assertEquals(AudioLevelMeter.SILENCE_DBFS, meter.getPeakDbfs(), 0f);
+        assertEquals(0f, meter.getZeroCrossingRate(), 0f);
+        assertEquals(100, meter.getFrames());
+    }
+
+    @Test
+    public void fullScaleSine() {
+        AudioLevelMeter meter = new AudioLevelMeter();
+        process(meter, Pcm.sine(0, 1000, 1, 0), 1);
+
+        assertEquals(-3.01f, meter.getRmsDbfs(), DB);
+        assertEquals(0f, meter.getPeakDbfs(), DB);
+        // 1 kHz crosses zero 2000 times a second; the chunk edges may cut one off.
+        assertEquals(2000f / RATE, meter.getZeroCrossingRate(), 1.5f / CHUNK);
+    }
+
+    @Test
+    public void minus20DbfsSine() {
+        AudioLevelMeter meter = new AudioLevelMeter();
+        process(meter, Pcm.sine(-20, 440, 1, 0), 1);
+
+        assertEquals(-23.01f, meter.getRmsDbfs(), DB);
+        assertEquals(-20f, meter.getPeakDbfs(), DB);
+    }
+
+    @Test
+    public void stereoLevelsOverAllChannelsCrossingsOnFirst() {
+        AudioLevelMeter meter = new AudioLevelMeter();
+        process(meter, Pcm.sine(0, 1000, 2, 0), 2);
+
+        // Half the samples are silent, so the energy halves.
+        assertEquals(-6.02f, meter.getRmsDbfs(), DB);
+        assertEquals(0f, meter.getPeakDbfs(), DB);
+        assertEquals(2000f / RATE, meter.getZeroCrossingRate(), 1.5f / CHUNK);
+    }
+
+    @Test
+    public void offsetAndLengthAreRespected() {
+        byte[] loud = Pcm.sine(0, 1000, 1, 0);
+        byte[] framed = new byte[loud.length + 64];
+        System.arraycopy(loud, 0, framed, 32, loud.length);
+        // Full-scale bytes outside the window must not count.
+        for (int i = 0; i < 32; i++) {
+            framed[i] = (byte) 0x7f;
+            framed[framed.length - 1 - i] = (byte) 0x7f;
+        }
+        AudioLevelMeter meter = new AudioLevelMeter();
+        meter.process(framed, 32, loud.length, 1);
+
+        assertEquals(-3.01f, meter.getRmsDbfs(), DB);
+    }
+
+    @Test
+    public void whiteNoiseIsNotSpeech() {
+        AudioLevelMeter meter = new AudioLevelMeter();
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            assertFalse("chunk " + i, process(meter, Pcm.noise(-30, random), 1));
+        }
+        assertEquals(-30f, meter.getRmsDbfs(), 0.5f);
+        assertTrue(meter.getZeroCrossingRate() > 0.4f);
+    }
+
+    @Test
+    public void voicedSpeechStartsAfterOnsetAndEndsAfterHangover() {
+        AudioLevelMeter.Parameters parameters = new AudioLevelMeter.Parameters();
+        AudioLevelMeter meter = new AudioLevelMeter(parameters);
+        Random random = new Random(11);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(process(meter, Pcm.noise(-70, random), 1));
+        }
+        assertTrue(meter.getNoiseFloorDbfs() < -65f);
+
+        int chunk = 0;
+        for (; chunk < parameters.onsetFrames - 1; chunk++) {
+            assertFalse(process(meter, Pcm.voiced(-20, chunk), 1));
+        }
+        for (; chunk < 100; chunk++) {
+            assertTrue("chunk " + chunk, process(meter, Pcm.voiced(-20, chunk), 1));
+        }
+
+        for (int i = 0; i < parameters.hangoverFrames - 1; i++) {
+            assertTrue("hangover " + i, process(meter, Pcm.noise(-70, random), 1));
+        }
+        assertFalse(process(meter, Pcm.noise(-70, random), 1));
+    }
+
+    @Test
+    public void floorDoesNotLearnFromSpeechWithPauses() {
+        AudioLevelMeter meter = new AudioLevelMeter();
+        Random random = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            process(meter, Pcm.noise(-70, random), 1);
+        }
+        float floor = meter.getNoiseFloorDbfs();
+        // Five seconds of 200 ms syllables with 100 ms pauses, shorter than the hangover.
+        for (int i = 0; i < 500; i++) {
+            if (i % 30 < 20) {
+                process(meter, Pcm.voiced(-20, i), 1);
+            } else {
+                process(meter, Pcm.noise(-70, random), 1);
+            }
+            if (i > 2) {
+                assertTrue("chunk " + i, meter.isSpeech());
+            }
+        }
+        assertEquals(floor, meter.getNoiseFloorDbfs(), 1f);
+    }
+
+    @Test
+    public void stationaryHumStopsBeingSpeech() {
+        AudioLevelMeter meter = new AudioLevelMeter();
+        // A -40 dBFS 100 Hz tone: loud enough and with few enough crossings to pass as voiced.
+        int speechChunks = 0;
+        for (int i = 0; i < 3000; i++) {
+            if (process(meter, Pcm.sine(-40, 100, 1, i), 1)) {
+                speechChunks++;
+            }
+        }
+        assertFalse(meter.isSpeech());
+        // History fill, the climb to the hum and the hangover take a few seconds at most.
+        assertTrue("speech chunks " + speechChunks, speechChunks < 500);
+        assertEquals(-43f, meter.getNoiseFloorDbfs(), 1f);
+
+        // Speech over the learned floor is still detected.
+        boolean detected = false;
+        for (int i = 0; i < 10; i++) {
+            detected = process(meter, Pcm.voiced(-20, i), 1);
+        }
+        assertTrue(detected);
+    }
+
+    @Test
+    public void resetForgetsState() {
+        AudioLevelMeter meter = new AudioLevelMeter();
+        for (int i = 0; i < 10; i++) {
+            process(meter, Pcm.voiced(-20, i), 1);
+        }
+        meter.reset();
+
+        assertFalse(meter.isSpeech());
+        assertEquals(0, meter.getFrames());
+        assertEquals(AudioLevelMeter.SILENCE_DBFS, meter.getRmsDbfs(), 0f);
+        assertEquals(new AudioLevelMeter.Parameters().initialFloorDbfs, meter.getNoiseFloorDbfs(), 0f);
+    }
+
+    @Test
+    public void emptyChunkKeepsState() {
+        AudioLevelMeter meter = new AudioLevelMeter();
+        assertFalse(meter.process(new byte[0], 0, 0, 1));
+        assertFalse(meter.process(new byte[4], 0, 4, 0));
+        assertEquals(0, meter.getFrames());
+    }
+}
@@ -0,0 +1,321 @@
+package com.webrtc.srs.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.AEADBadTagException;
+
+public class FrameCryptorTest {
+    private FrameKeyRing senderRing;
+    private FrameKeyRing receiverRing;
+    private FrameCryptor sender;
+    private FrameCryptor receiver;
+
+    @Before
+    public void setUp() throws GeneralSecurityException {
+        senderRing = new FrameKeyRing();
+        receiverRing = new FrameKeyRing();
+        byte[] key = key(1);
+        senderRing.setKey(0, key);
+        senderRing.setCurrentEpoch(0);
+        receiverRing.setKey(0, key);
+        sender = new FrameCryptor(senderRing, FrameCryptor.Codec.VP8);
+        receiver = new FrameCryptor(receiverRing, FrameCryptor.Codec.VP8);
+    }
+
+    @Test
+    public void roundTripKeepsHeaderInTheClear() throws GeneralSecurityException {
+        byte[] frame = frame(1200, true);
+        byte[] sealed = encrypt(sender, frame);
+
+        assertEquals(frame.length + FrameCryptor.TRAILER_BYTES, sealed.length);
+        assertArrayEquals(Arrays.copyOf(frame, 10), Arrays.copyOf(sealed, 10));
+        assertEquals(0, sealed[sealed.length - 1]);
+        assertArrayEquals(frame, decrypt(receiver, sealed));
+    }
+
+    @Test
+    public void roundTripDeltaFrameAndOpus() throws GeneralSecurityException {
+        byte[] delta = frame(300, false);
+        assertArrayEquals(delta, decrypt(receiver, encrypt(sender, delta)));
+
+        FrameCryptor opusSender = new FrameCryptor(senderRing, FrameCryptor.Codec.OPUS);
+        FrameCryptor opusReceiver = new FrameCryptor(receiverRing, FrameCryptor.Codec.OPUS);
+        byte[] opus = frame(60, false);
+        assertArrayEquals(opus, decrypt(opusReceiver, encrypt(opusSender, opus)));
+    }
+
+    @Test
+    public void tamperedBytesAreRejected() throws GeneralSecurityException {
+        byte[] sealed = encrypt(sender, frame(500, true));
+        // Clear header, ciphertext, tag and IV are all covered.
+        for (int index : new int[]{2, 100, sealed.length - 20, sealed.length - 5}) {
+            byte[] copy = sealed.clone();
+            copy[index] ^= 0x01;
+            assertThrows(AEADBadTagException.class, () -> decrypt(receiver, copy));
+        }
+        assertEquals(4, receiver.getStats().failures);
+        assertEquals(0, receiver.getStats().decrypted);
+    }
+
+    @Test
+    public void rotationKeepsPreviousEpochUntilRetired() throws GeneralSecurityException {
+        byte[] old = encrypt(sender, frame(200, true));
+        receiverRing.setKey(1, key(2));
+        senderRing.rotate(key(2));
+        byte[] current = encrypt(sender, frame(200, true));
+
+        assertEquals(1, current[current.length - 1]);
+        decrypt(receiver, current);
+        decrypt(receiver, old);
+
+        receiverRing.retire(0);
+        assertThrows(GeneralSecurityException.class, () -> decrypt(receiver, old));
+        assertEquals(1, receiver.getStats().unknownKeys);
+    }
+
+    @Test
+    public void receiverFollowsRatchet() throws GeneralSecurityException {
+        senderRing.ratchet();
+        senderRing.ratchet();
+        byte[] frame = frame(400, true);
+        byte[] sealed = encrypt(sender, frame);
+
+        assertNull(receiverRing.key(2));
+        assertArrayEquals(frame, decrypt(receiver, sealed));
+        assertNotNull(receiverRing.key(1));
+        assertNotNull(receiverRing.key(2));
+    }
+
+    @Test
+    public void ratchetBeyondWindowIsUnknown() throws GeneralSecurityException {
+        for (int i = 0; i <= FrameKeyRing.DEFAULT_RATCHET_WINDOW; i++) {
+            senderRing.ratchet();
+        }
+        byte[] sealed = encrypt(sender, frame(100, true));
+
+        assertThrows(GeneralSecurityException.class, () -> decrypt(receiver, sealed));
+        assertEquals(1, receiver.getStats().unknownKeys);
+    }
+
+    @Test
+    public void forgedEpochInstallsNothing() throws GeneralSecurityException {
+        FrameKeyRing ring = new FrameKeyRing(2, FrameKeyRing.DEFAULT_RATCHET_WINDOW);
+        ring.setKey(0, key(1));
+        FrameCryptor victim = new FrameCryptor(ring, FrameCryptor.Codec.VP8);
+        byte[] sealed = encrypt(sender, frame(300, true));
+
+        // Every epoch inside the ratchet window would have derived and installed keys,
+        // pushing epoch 0 out of a two-key ring.
+        for (int epoch = 1; epoch <= FrameKeyRing.DEFAULT_RATCHET_WINDOW; epoch++) {
+            byte[] forged = sealed.clone();
+            forged[forged.length - 1] = (byte) epoch;
+            try {
+                decrypt(victim, forged);
+                fail("forged epoch " + epoch + " decrypted");
+            } catch (AEADBadTagException expected) {
+                // The epoch is authenticated, so the derived key never gets a chance.
+            }
+            assertNull(ring.key(epoch));
+        }
+        assertNotNull(ring.key(0));
+        decrypt(victim, sealed);
+    }
+
+    @Test
+    public void epochIsAuthenticatedEvenWithSameKey() throws GeneralSecurityException {
+        receiverRing.setKey(5, key(1));
+        byte[] sealed = encrypt(sender, frame(300, true));
+        sealed[sealed.length - 1] = 5;
+
+        assertThrows(AEADBadTagException.class, () -> decrypt(receiver, sealed));
+    }
+
+    @Test
+    public void h264RoundTripKeepsNalHeadersInTheClear() throws GeneralSecurityException {
+        FrameCryptor h264Sender = new FrameCryptor(senderRing, FrameCryptor.Codec.H264);
+        FrameCryptor h264Receiver = new FrameCryptor(receiverRing, FrameCryptor.Codec.H264);
+        byte[] sps = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f, (byte) 0xda};
+        byte[] pps = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+        byte[] frame = concat(sps, pps, nal(0x65, 900, 1), nal(0x65, 700, 2));
+
+        byte[] sealed = encrypt(h264Sender, frame);
+
+        // Parameter sets untouched, then the same NAL units with the same headers.
+        assertArrayEquals(concat(sps, pps), Arrays.copyOf(sealed, sps.length + pps.length));
+        assertEquals(headers(frame), headers(sealed));
+        assertArrayEquals(frame, decrypt(h264Receiver, sealed));
+    }
+
+    @Test
+    public void h264CiphertextNeverEmulatesStartCodes() throws GeneralSecurityException {
+        FrameCryptor h264Sender = new FrameCryptor(senderRing, FrameCryptor.Codec.H264);
+        FrameCryptor h264Receiver = new FrameCryptor(receiverRing, FrameCryptor.Codec.H264);
+        for (int seed = 0; seed < 200; seed++) {
+            byte[] frame = concat(nal(0x41, 2000, seed), nal(0x41, 500 + seed, -seed));
+            byte[] sealed = encrypt(h264Sender, frame);
+            // Escaping leaves 00 00 00, 00 00 01 and 00 00 02 only where start codes were.
+            for (int i = 0; i + 2 < sealed.length; i++) {
+                if (sealed[i] == 0 && sealed[i + 1] == 0 && sealed[i + 2] <= 2 && sealed[i + 2] >= 0) {
+                    assertEquals("seed " + seed + " at " + i, 1, sealed[i + 2]);
+                }
+            }
+            assertEquals(headers(frame), headers(sealed));
+            assertEquals(sealed.length - 1, lastIndexOf(sealed, AnnexB.STOP));
+            assertArrayEquals(frame, decrypt(h264Receiver, sealed));
+        }
+    }
+
+    @Test
+    public void escapingRoundTripsZeroRuns() {
+        byte[][] inputs = {
+                new byte[64],
+                {0, 0, 1, 0, 0, 2, 0, 0, 3, 0, 0, 4},
+                {0, 0, 3, 3, 0, 0, 0, 3},
+                {1, 0},
+                {},
+        };
+        for (byte[] input : inputs) {
+            ByteBuffer escaped = ByteBuffer.allocate(input.length * 2 + 1);
+            AnnexB.escape(ByteBuffer.wrap(input), 0, input.length, escaped);
+            escaped.flip();
+            for (int i = 0; i + 2 < escaped.limit(); i++) {
+                boolean emulates = escaped.get(i) == 0 && escaped.get(i + 1) == 0 && (escaped.get(i + 2) & 0xff) <= 3;
+                if (emulates) {
+                    assertEquals(3, escaped.get(i + 2));
+                }
+            }
+            ByteBuffer out = ByteBuffer.allocate(escaped.limit());
+            assertEquals(input.length, AnnexB.unescape(escaped, 0, escaped.limit(), out, 0));
+            assertArrayEquals(input, Arrays.copyOf(out.array(), input.length));
+        }
+    }
+
+    @Test
+    public void h264TamperedHeadersAndLayoutAreRejected() throws GeneralSecurityException {
+        FrameCryptor h264Sender = new FrameCryptor(senderRing, FrameCryptor.Codec.H264);
+        FrameCryptor h264Receiver = new FrameCryptor(receiverRing, FrameCryptor.Codec.H264);
+        byte[] sps = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f};
+        byte[] sealed = encrypt(h264Sender, concat(sps, nal(0x65, 300, 3), nal(0x65, 300, 4)));
+        int second = indexOf(sealed, new byte[]{0, 0, 1, 0x65}, sps.length + 4);
+
+        byte[] spsTampered = sealed.clone();
+        spsTampered[6] ^= 0x01;
+        byte[] headerTampered = sealed.clone();
+        headerTampered[second + 3] = 0x61;
+        // Moving the last ciphertext byte of the first slice into the second keeps the
+        // ciphertext stream and every clear byte intact; only the bound lengths catch it.
+        byte[] moved = concat(Arrays.copyOf(sealed, second - 2), new byte[]{AnnexB.STOP, 0, 0, 1, 0x65,
+                sealed[second - 2]}, Arrays.copyOfRange(sealed, second + 4, sealed.length));
+        for (byte[] copy : new byte[][]{spsTampered, headerTampered, moved}) {
+            assertThrows(GeneralSecurityException.class, () -> decrypt(h264Receiver, copy));
+        }
+        assertEquals(0, h264Receiver.getStats().decrypted);
+    }
+
+    @Test
+    public void h264FrameWithoutSliceIsNotSentInTheClear() throws GeneralSecurityException {
+        FrameCryptor h264Sender = new FrameCryptor(senderRing, FrameCryptor.Codec.H264);
+        byte[] spsOnly = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f};
+
+        assertThrows(GeneralSecurityException.class, () -> encrypt(h264Sender, spsOnly));
+        assertThrows(GeneralSecurityException.class, () -> encrypt(h264Sender, frame(100, true)));
+        assertEquals(2, h264Sender.getStats().failures);
+    }
+
+    private static byte[] key(int seed) {
+        byte[] key = new byte[16];
+        new Random(seed).nextBytes(key);
+        return key;
+    }
+
+    private static byte[] frame(int size, boolean keyFrame) {
+        byte[] frame = new byte[size];
+        new Random(size).nextBytes(frame);
+        frame[0] = (byte) (keyFrame ? frame[0] & ~1 : frame[0] | 1);
+        return frame;
+    }
+
+    /**
+     * A 3-byte start code, the NAL header and a random payload free of start code emulation.
+     */
+    private static byte[] nal(int header, int payloadBytes, int seed) {
+        byte[] payload = new byte[payloadBytes];
+        new Random(seed).nextBytes(payload);
+        for (int i = 0; i < payload.length; i++) {
+            if (payload[i] == 0) {
+                payload[i] = 0x11;
+            }
+        }
+        return concat(new byte[]{0, 0, 1, (byte) header}, payload);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] joined = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, joined, offset, part.length);
+            offset += part.length;
+        }
+        return joined;
+    }
+
+    /**
+     * The NAL header byte after every start code.
+     */
+    private static String headers(byte[] frame) {
+        StringBuilder headers = new StringBuilder();
+        for (int i = 0; i + 3 < frame.length; i++) {
+            if (frame[i] == 0 && frame[i + 1] == 0 && frame[i + 2] == 1) {
+                headers.append(Integer.toHexString(frame[i + 3] & 0xff)).append(' ');
+            }
+        }
+        return headers.toString();
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        for (int i = from; i + pattern.length <= data.length; i++) {
+            if (Arrays.equals(pattern, Arrays.copyOfRange(data, i, i + pattern.length))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] data, byte value) {
+        for (int i = data.length - 1; i >= 0; i--) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] encrypt(FrameCryptor cryptor, byte[] frame) throws GeneralSecurityException {
+        ByteBuffer out = ByteBuffer.allocate(cryptor.getMaxCiphertextByteSize(frame.length));
+        int written = cryptor.encrypt(ByteBuffer.wrap(frame), out);
+        return Arrays.copyOf(out.array(), written);
+    }
+
+    private static byte[] decrypt(FrameCryptor cryptor, byte[] sealed) throws GeneralSecurityException {
+        ByteBuffer out = ByteBuffer.allocate(cryptor.getMaxPlaintextByteSize(sealed.length));
+        int written = cryptor.decrypt(ByteBuffer.wrap(sealed), out);
+        return Arrays.copyOf(out.array(), written);
+    }
+}
@@ -0,0 +1,175 @@
+package com.webrtc.srs.datachannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+import org.webrtc.DataChannel;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DataChannelSenderTest {
+
+    /**
+     * An open channel that never touches native code; send can be held to simulate a call
+     * waiting on the signaling thread.
+     */
+    private static final class FakeChannel extends DataChannel {
+        volatile State state = State.OPEN;
+        volatile CountDownLatch sendEntered = new CountDownLatch(1);
+        volatile CountDownLatch releaseSend;
+        final AtomicBoolean disposed = new AtomicBoolean();
+        final AtomicInteger callsAfterDispose = new AtomicInteger();
+        final AtomicInteger sent = new AtomicInteger();
+        volatile ByteBuffer lastSent;
+
+        FakeChannel() {
+            super(0);
+        }
+
+        @Override
+        public String label() {
+            return "test";
+        }
+
+        @Override
+        public State state() {
+            touch();
+            return state;
+        }
+
+        @Override
+        public long bufferedAmount() {
+            touch();
+            return 0;
+        }
+
+        @Override
+        public boolean send(Buffer buffer) {
+            touch();
+            sendEntered.countDown();
+            CountDownLatch latch = releaseSend;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // Consumes the buffer the way a native copy loop would.
+            lastSent = buffer.data;
+            buffer.data.position(buffer.data.limit());
+            sent.incrementAndGet();
+            touch();
+            return true;
+        }
+
+        @Override
+        public void dispose() {
+            disposed.set(true);
+        }
+
+        private void touch() {
+            if (disposed.get()) {
+                callsAfterDispose.incrementAndGet();
+            }
+        }
+    }
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void sendLeavesCallerBufferUntouched() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        DataChannelSender sender = new DataChannelSender(channel, pool, new ByteBufferPool(2));
+        ByteBuffer data = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        data.position(1);
+
+        assertTrue(sender.offer(data, true).get(5, TimeUnit.SECONDS));
+        assertEquals(1, data.position());
+        assertEquals(3, data.remaining());
+        assertEquals(1, channel.sent.get());
+    }
+
+    @Test
+    public void closeWaitsForSendInFlight() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        channel.releaseSend = new CountDownLatch(1);
+        DataChannelSender sender = new DataChannelSender(channel, pool, new ByteBufferPool(2));
+
+        CompletableFuture<Boolean> first = sender.offer(ByteBuffer.wrap(new byte[16]), true);
+        assertTrue(channel.sendEntered.await(5, TimeUnit.SECONDS));
+
+        // What WebRtcPeerConnectionStack.dispose does: close the sender, then dispose the channel.
+        CountDownLatch closed = new CountDownLatch(1);
+        Thread disposer = new Thread(() -> {
+            sender.close();
+            channel.dispose();
+            closed.countDown();
+        });
+        disposer.start();
+        assertFalse("close returned while send was in flight", closed.await(200, TimeUnit.MILLISECONDS));
+
+        channel.releaseSend.countDown();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertEquals(0, channel.callsAfterDispose.get());
+    }
+
+    @Test
+    public void noChannelCallsAfterClose() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        DataChannelSender sender = new DataChannelSender(channel, pool, new ByteBufferPool(2));
+        for (int round = 0; round < 200; round++) {
+            sender.offer(ByteBuffer.wrap(new byte[8]), true);
+        }
+        sender.close();
+        channel.dispose();
+        sender.kick();
+        sender.onBufferedAmountChange();
+        sender.onStateChange();
+
+        CompletableFuture<Boolean> late = sender.offer(ByteBuffer.wrap(new byte[8]), true);
+        try {
+            late.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, channel.callsAfterDispose.get());
+    }
+
+    @Test
+    public void channelClosedCallbackDoesNotWaitForDrain() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        channel.releaseSend = new CountDownLatch(1);
+        DataChannelSender sender = new DataChannelSender(channel, pool, new ByteBufferPool(2));
+        CompletableFuture<Boolean> first = sender.offer(ByteBuffer.wrap(new byte[16]), true);
+        CompletableFuture<Boolean> queued = sender.offer(ByteBuffer.wrap(new byte[16]), true);
+        assertTrue(channel.sendEntered.await(5, TimeUnit.SECONDS));
+
+        // Runs on the signaling thread, which the blocked send is waiting for.
+        channel.state = DataChannel.State.CLOSED;
+        sender.onStateChange();
+        assertTrue(queued.isCompletedExceptionally());
+
+        channel.releaseSend.countDown();
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,53 @@
+package com.webrtc.srs.metrics
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class SessionTimelineTest {
+
+    @Test
+    fun completesOnEndPhaseOnce() {
+        val aggregate = SessionTimeline.Aggregate()
+        val phases = ArrayList<SessionTimeline.Phase>()
+        val timeline = SessionTimeline("u", SessionTimeline.Phase.DTLS_CONNECTED, { _, phase, _ -> phases.add(phase) }, aggregate)
+
+        timeline.mark(SessionTimeline.Phase.CREATE_OFFER)
+        timeline.mark(SessionTimeline.Phase.ICE_CONNECTED)
+        assertEquals(0, aggregate.sessions)
+        timeline.mark(SessionTimeline.Phase.DTLS_CONNECTED)
+        timeline.mark(SessionTimeline.Phase.DTLS_CONNECTED)
+
+        assertEquals(1, aggregate.sessions)
+        assertEquals(3, phases.size)
+        assertEquals(-1L, timeline.sinceStartMs(SessionTimeline.Phase.FIRST_RENDERED_FRAME))
+        assertTrue(aggregate.percentileMs(SessionTimeline.Phase.ICE_CONNECTED, 0.5) >= 0)
+        assertEquals(-1L, aggregate.percentileMs(SessionTimeline.Phase.FIRST_DECODED_FRAME, 0.5))
+    }
+
+    @Test
+    fun countsSessionsCompletedConcurrently() {
+        val aggregate = SessionTimeline.Aggregate()
+        val threads = 8
+        val perThread = 500
+        val pool = Executors.newFixedThreadPool(threads)
+        val start = CountDownLatch(1)
+        repeat(threads) { t ->
+            pool.execute {
+                start.await()
+                repeat(perThread) { i ->
+                    SessionTimeline("$t-$i", SessionTimeline.Phase.DTLS_CONNECTED, null, aggregate)
+                        .mark(SessionTimeline.Phase.DTLS_CONNECTED)
+                }
+            }
+        }
+        start.countDown()
+        pool.shutdown()
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS))
+
+        assertEquals(threads * perThread, aggregate.sessions)
+    }
+}
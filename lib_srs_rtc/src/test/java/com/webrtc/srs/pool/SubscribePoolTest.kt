@@ -0,0 +1,113 @@
+package com.webrtc.srs.pool
+
+import com.webrtc.srs.bean.StreamType
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.webrtc.MediaConstraints
+import org.webrtc.NativePeerConnectionFactory
+import org.webrtc.PeerConnection
+import org.webrtc.SdpObserver
+import org.webrtc.SessionDescription
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class SubscribePoolTest {
+
+    /**
+     * createOffer 不立即回调，由测试在另一个线程上模拟 signaling 线程的回调
+     */
+    private class FakePeer : PeerConnection(NativePeerConnectionFactory { 0L }) {
+        @Volatile
+        var offerObserver: SdpObserver? = null
+
+        @Volatile
+        var disposed = false
+
+        override fun createOffer(observer: SdpObserver, constraints: MediaConstraints) {
+            offerObserver = observer
+        }
+
+        override fun setLocalDescription(observer: SdpObserver, sdp: SessionDescription) {
+            observer.onSetSuccess()
+        }
+
+        override fun dispose() {
+            disposed = true
+        }
+
+        fun completeOffer() {
+            offerObserver!!.onCreateSuccess(SessionDescription(SessionDescription.Type.OFFER, "v=0"))
+        }
+    }
+
+    private val peers = CopyOnWriteArrayList<FakePeer>()
+
+    private fun pool(): SubscribePool = SubscribePool { type ->
+        val peer = FakePeer()
+        peers.add(peer)
+        SubscribePool.PooledPeer(peer, type) {}
+    }
+
+    private fun awaitPreparing(count: Int) {
+        val deadline = System.currentTimeMillis() + 5_000
+        while (peers.count { it.offerObserver != null } < count) {
+            assertTrue("pool never created $count peers", System.currentTimeMillis() < deadline)
+            Thread.sleep(5)
+        }
+    }
+
+    @Test
+    fun shutdownWaitsForPreparingPeers() {
+        val pool = pool()
+        pool.configure(1, 60_000L)
+        val types = StreamType.values().size
+        awaitPreparing(types)
+
+        val done = CountDownLatch(1)
+        val disposedAtReturn = ArrayList<Boolean>()
+        Thread {
+            pool.shutdown()
+            peers.mapTo(disposedAtReturn) { it.disposed }
+            done.countDown()
+        }.start()
+        assertFalse("shutdown returned with offers in flight", done.await(200, TimeUnit.MILLISECONDS))
+
+        // signaling 线程上的回调在 shutdown 之后到达，连接应被丢弃并释放
+        Thread { peers.forEach { it.completeOffer() } }.start()
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(List(types) { true }, disposedAtReturn)
+        assertEquals(0, pool.getMetrics().idle)
+    }
+
+    @Test
+    fun shutdownReleasesIdlePeersAndPoolCanBeReconfigured() {
+        val pool = pool()
+        pool.configure(1, 60_000L)
+        awaitPreparing(StreamType.values().size)
+        peers.forEach { it.completeOffer() }
+        assertEquals(StreamType.values().size, pool.getMetrics().idle)
+
+        pool.shutdown()
+        assertTrue(peers.all { it.disposed })
+
+        // unInit 后再 init 会重新 configure，池线程要重建
+        pool.configure(1, 60_000L)
+        awaitPreparing(StreamType.values().size * 2)
+        pool.shutdown()
+    }
+
+    @Test
+    fun ttlTooShortForTheSweepIsRejected() {
+        val pool = pool()
+        assertThrows(IllegalArgumentException::class.java) { pool.configure(1, 1L) }
+        assertThrows(IllegalArgumentException::class.java) { pool.configure(1, 0L) }
+        // 关闭预热时 ttl 不参与调度
+        pool.configure(0, 0L)
+        pool.configure(1, SubscribePool.MIN_TTL_MS)
+        pool.shutdown()
+    }
+}
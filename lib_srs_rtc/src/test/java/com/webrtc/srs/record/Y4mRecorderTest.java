@@ -0,0 +1,218 @@
+package com.webrtc.srs.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.VideoFrame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Y4mRecorderTest {
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 2;
+    private static final long SECOND_NS = 1_000_000_000L;
+
+    /**
+     * A frame whose luma bytes all hold {@code id}, so the file shows which frame filled a slot.
+     */
+    private static final class FakeI420 implements VideoFrame.I420Buffer {
+        final AtomicInteger refs = new AtomicInteger(1);
+        final int width;
+        final byte id;
+
+        FakeI420(int width, int id) {
+            this.width = width;
+            this.id = (byte) id;
+        }
+
+        @Override
+        public ByteBuffer getDataY() {
+            byte[] y = new byte[width * HEIGHT];
+            Arrays.fill(y, id);
+            return ByteBuffer.wrap(y);
+        }
+
+        @Override
+        public ByteBuffer getDataU() {
+            return ByteBuffer.allocate((width + 1) / 2);
+        }
+
+        @Override
+        public ByteBuffer getDataV() {
+            return ByteBuffer.allocate((width + 1) / 2);
+        }
+
+        @Override
+        public int getStrideY() {
+            return width;
+        }
+
+        @Override
+        public int getStrideU() {
+            return (width + 1) / 2;
+        }
+
+        @Override
+        public int getStrideV() {
+            return (width + 1) / 2;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return HEIGHT;
+        }
+
+        @Override
+        public VideoFrame.I420Buffer toI420() {
+            retain();
+            return this;
+        }
+
+        @Override
+        public VideoFrame.Buffer cropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
+                int scaleWidth, int scaleHeight) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void retain() {
+            refs.incrementAndGet();
+        }
+
+        @Override
+        public void release() {
+            refs.decrementAndGet();
+        }
+    }
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("recorder", ".y4m");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static FakeI420 send(Y4mRecorder recorder, int id, long timestampNs) {
+        FakeI420 buffer = new FakeI420(WIDTH, id);
+        VideoFrame frame = new VideoFrame(buffer, 0, timestampNs);
+        recorder.onFrame(frame);
+        frame.release();
+        return buffer;
+    }
+
+    private String header() throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int end = 0;
+        while (bytes[end] != '\n') {
+            end++;
+        }
+        return new String(bytes, 0, end, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The id of every frame in the file, in order.
+     */
+    private List<Integer> frames() throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        final int frameHeader = "FRAME\n".length();
+        final int frameBytes = frameHeader + WIDTH * HEIGHT + 2 * ((WIDTH + 1) / 2) * ((HEIGHT + 1) / 2);
+        int offset = header().length() + 1;
+        List<Integer> ids = new ArrayList<>();
+        for (; offset < bytes.length; offset += frameBytes) {
+            ids.add((int) bytes[offset + frameHeader]);
+        }
+        assertEquals(bytes.length, offset);
+        return ids;
+    }
+
+    @Test
+    public void slowerStreamRepeatsFramesToKeepTheRate() throws IOException {
+        Y4mRecorder recorder = new Y4mRecorder(file, 30);
+        for (int i = 1; i <= 5; i++) {
+            // 15 fps into a 30 fps file.
+            send(recorder, i, 1_000 * SECOND_NS + (i - 1) * SECOND_NS / 15);
+        }
+        recorder.close(5000);
+
+        assertTrue(header(), header().contains(" F30:1 "));
+        assertEquals(Arrays.asList(1, 1, 2, 2, 3, 3, 4, 4, 5), frames());
+        assertEquals(4, recorder.getRepeated());
+        assertEquals(0, recorder.getSkippedEarly());
+    }
+
+    @Test
+    public void gapIsFilledWithThePreviousFrame() throws IOException {
+        Y4mRecorder recorder = new Y4mRecorder(file, 10);
+        send(recorder, 1, 0);
+        send(recorder, 2, SECOND_NS / 10);
+        // Half a second without frames, e.g. a stall upstream.
+        send(recorder, 3, 7 * SECOND_NS / 10);
+        recorder.close(5000);
+
+        assertEquals(Arrays.asList(1, 2, 2, 2, 2, 2, 2, 3), frames());
+        assertEquals(5, recorder.getRepeated());
+    }
+
+    @Test
+    public void fasterStreamSkipsFramesForWrittenSlots() throws IOException {
+        Y4mRecorder recorder = new Y4mRecorder(file, 10);
+        for (int i = 0; i <= 8; i++) {
+            send(recorder, i, i * SECOND_NS / 30);
+        }
+        recorder.close(5000);
+
+        assertEquals(Arrays.asList(0, 2, 5, 8), frames());
+        assertEquals(5, recorder.getSkippedEarly());
+        assertEquals(0, recorder.getRepeated());
+    }
+
+    @Test
+    public void clockGoingBackRestartsTheGrid() throws IOException {
+        Y4mRecorder recorder = new Y4mRecorder(file, 10);
+        send(recorder, 1, 100 * SECOND_NS);
+        send(recorder, 2, 100 * SECOND_NS + SECOND_NS / 10);
+        send(recorder, 3, 5 * SECOND_NS);
+        send(recorder, 4, 5 * SECOND_NS + SECOND_NS / 10);
+        recorder.close(5000);
+
+        assertEquals(Arrays.asList(1, 2, 3, 4), frames());
+    }
+
+    @Test
+    public void otherSizesAreSkippedAndTheLastFrameIsReleased() throws IOException {
+        Y4mRecorder recorder = new Y4mRecorder(file, 10);
+        FakeI420 first = send(recorder, 1, 0);
+        FakeI420 resized = new FakeI420(2 * WIDTH, 2);
+        recorder.onFrame(new VideoFrame(resized, 0, SECOND_NS / 10));
+        FakeI420 third = send(recorder, 3, 2 * SECOND_NS / 10);
+        // The recorder keeps one reference to the newest frame until close.
+        assertEquals(0, first.refs.get());
+        assertEquals(1, third.refs.get());
+        recorder.close(5000);
+
+        assertEquals(0, third.refs.get());
+        assertEquals(1, recorder.getSkippedSize());
+        assertEquals(Arrays.asList(1, 1, 3), frames());
+    }
+}
@@ -0,0 +1,114 @@
+package com.webrtc.srs.recovery
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.webrtc.PeerConnection.IceConnectionState
+import org.webrtc.PeerConnection.PeerConnectionState
+import java.util.concurrent.TimeUnit
+
+class SessionRecoveryTest {
+
+    private class Recorder(private val iceRestart: Boolean) : SessionRecovery.Actions, SessionRecovery.Listener {
+        val states = ArrayList<SessionRecovery.State>()
+        var restarts = 0
+        var rebuilds = 0
+        var recovered = 0
+        var rebuilt = false
+
+        override fun canRestartIce(): Boolean = iceRestart
+
+        override fun restartIce(onResult: (Boolean) -> Unit) {
+            restarts++
+            onResult(true)
+        }
+
+        override fun rebuild() {
+            rebuilds++
+        }
+
+        override fun onRecoveryStateChanged(uid: String, state: SessionRecovery.State) {
+            states.add(state)
+        }
+
+        override fun onRecovered(uid: String, downtimeMs: Long, rebuilt: Boolean) {
+            recovered++
+            this.rebuilt = rebuilt
+        }
+
+        override fun onRecoveryFailed(uid: String) {}
+    }
+
+    /**
+     * 等共用的恢复线程把已排队的事件处理完
+     */
+    private fun drain() {
+        SessionRecovery.executor.submit {}.get(5, TimeUnit.SECONDS)
+    }
+
+    private fun recovery(recorder: Recorder, metrics: RecoveryMetrics = RecoveryMetrics()): SessionRecovery {
+        val policy = SessionRecovery.Policy().apply {
+            // 测试内不让超时和退避定时器触发
+            attemptTimeoutMs = 60_000L
+            disconnectGraceMs = 60_000L
+        }
+        return SessionRecovery("u", policy, recorder, metrics, recorder)
+    }
+
+    @Test
+    fun iceConnectedAloneIsNotRecovered() {
+        val recorder = Recorder(iceRestart = true)
+        val recovery = recovery(recorder)
+        recovery.onConnectionChange(PeerConnectionState.CONNECTED)
+        recovery.onConnectionChange(PeerConnectionState.FAILED)
+        drain()
+        assertEquals(1, recorder.restarts)
+        assertEquals(SessionRecovery.State.RESTARTING, recorder.states.last())
+
+        // ICE 连上了新的 ufrag，但 DTLS 还没有
+        recovery.onIceConnectionChange(IceConnectionState.CONNECTED)
+        drain()
+        assertEquals(0, recorder.recovered)
+        assertEquals(SessionRecovery.State.RESTARTING, recorder.states.last())
+
+        recovery.onConnectionChange(PeerConnectionState.CONNECTED)
+        drain()
+        assertEquals(1, recorder.recovered)
+        assertEquals(SessionRecovery.State.CONNECTED, recorder.states.last())
+        recovery.stop()
+    }
+
+    @Test
+    fun withoutIceRestartGoesStraightToRebuild() {
+        val recorder = Recorder(iceRestart = false)
+        val metrics = RecoveryMetrics()
+        val recovery = recovery(recorder, metrics)
+        recovery.onConnectionChange(PeerConnectionState.CONNECTED)
+        recovery.onIceConnectionChange(IceConnectionState.FAILED)
+        drain()
+
+        assertEquals(0, recorder.restarts)
+        assertEquals(1, recorder.rebuilds)
+        assertEquals(SessionRecovery.State.REBUILDING, recorder.states.last())
+
+        recovery.onConnectionChange(PeerConnectionState.CONNECTED)
+        drain()
+        assertEquals(1, recorder.recovered)
+        assertTrue(recorder.rebuilt)
+        assertEquals(1L, metrics.snapshot().rebuildRecoveries)
+        recovery.stop()
+    }
+
+    @Test
+    fun firstConnectIsNotARecovery() {
+        val recorder = Recorder(iceRestart = true)
+        val recovery = recovery(recorder)
+        recovery.onIceConnectionChange(IceConnectionState.CONNECTED)
+        recovery.onConnectionChange(PeerConnectionState.CONNECTED)
+        drain()
+
+        assertEquals(0, recorder.recovered)
+        assertEquals(listOf(SessionRecovery.State.CONNECTED), recorder.states)
+        recovery.stop()
+    }
+}
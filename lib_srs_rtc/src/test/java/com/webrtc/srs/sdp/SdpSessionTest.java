@@ -0,0 +1,86 @@
+package com.webrtc.srs.sdp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class SdpSessionTest {
+    private static final String SDP = "v=0\r\n"
+            + "o=SRS/4.0.89(Leo) 54934496 2 IN IP4 0.0.0.0\r\n"
+            + "s=SRSPlaySession\r\n"
+            + "t=0 0\r\n"
+            + "a=group:BUNDLE 0 1\r\n"
+            + "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\n"
+            + "a=mid:0\r\n"
+            + "a=rtpmap:111 opus/48000/2\r\n"
+            + "m=video 9 UDP/TLS/RTP/SAVPF 96 97 125 126\r\n"
+            + "a=mid:1\r\n"
+            + "a=extmap:2/recvonly urn:ietf:params:rtp-hdrext:toffset\r\n"
+            + "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+            + "a=extmap:4 urn:ietf:params:rtp-hdrext:encrypt urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+            + "a=rtpmap:96 VP8/90000\r\n"
+            + "a=rtpmap:97 rtx/90000\r\n"
+            + "a=fmtp:97 apt=96\r\n"
+            + "a=rtpmap:125 H264/90000\r\n"
+            + "a=fmtp:125 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n"
+            + "a=rtpmap:126 rtx/90000\r\n"
+            + "a=fmtp:126 apt=125\r\n";
+
+    @Test
+    public void unchangedSessionIsWrittenBackVerbatim() {
+        assertEquals(SDP, SdpSession.parse(SDP).toSdp());
+    }
+
+    @Test
+    public void preferCodecMovesPayloadTypesToFront() {
+        SdpSession session = SdpSession.parse(SDP);
+        SdpMediaSection video = session.findMedia("video");
+        assertNotNull(video);
+        assertTrue(video.preferCodec("H264"));
+        assertEquals(Arrays.asList("125", "96", "97", "126"), video.getPayloadTypes());
+        assertTrue(session.toSdp().contains("m=video 9 UDP/TLS/RTP/SAVPF 125 96 97 126\r\n"));
+    }
+
+    @Test
+    public void retainCodecsKeepsTheirRtx() {
+        SdpMediaSection video = SdpSession.parse(SDP).findMedia("video");
+        assertNotNull(video);
+        video.retainCodecs(Arrays.asList("H264"));
+        assertEquals(Arrays.asList("125", "126"), video.getPayloadTypes());
+    }
+
+    @Test
+    public void extmapMatchesUriWithDirection() {
+        SdpMediaSection video = SdpSession.parse(SDP).findMedia("video");
+        assertNotNull(video);
+        assertFalse(video.addExtmap(9, "urn:ietf:params:rtp-hdrext:toffset"));
+        assertTrue(video.removeExtmap("urn:ietf:params:rtp-hdrext:toffset"));
+        assertEquals(2, video.getExtmaps().size());
+    }
+
+    @Test
+    public void extmapMatchesUriWithTrailingAttributes() {
+        SdpMediaSection video = SdpSession.parse(SDP).findMedia("video");
+        assertNotNull(video);
+        // The encrypted extension carries the wrapped uri after its own.
+        assertFalse(video.addExtmap(9, "urn:ietf:params:rtp-hdrext:encrypt"));
+        assertTrue(video.addExtmap(9, "urn:ietf:params:rtp-hdrext:ssrc-audio-level"));
+        assertTrue(video.removeExtmap("urn:ietf:params:rtp-hdrext:encrypt"));
+        assertFalse(video.hasLine(
+                "a=extmap:4 urn:ietf:params:rtp-hdrext:encrypt urn:ietf:params:rtp-hdrext:ssrc-audio-level"));
+    }
+
+    @Test
+    public void extmapRejectsTakenId() {
+        SdpMediaSection video = SdpSession.parse(SDP).findMedia("video");
+        assertNotNull(video);
+        assertFalse(video.addExtmap(3, "urn:3gpp:video-orientation"));
+        assertTrue(video.addExtmap(5, "urn:3gpp:video-orientation"));
+        assertTrue(video.getExtmaps().contains("5 urn:3gpp:video-orientation"));
+    }
+}
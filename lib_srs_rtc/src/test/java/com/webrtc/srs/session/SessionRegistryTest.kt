@@ -0,0 +1,267 @@
+package com.webrtc.srs.session
+
+import com.webrtc.srs.bean.VideoPeer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class SessionRegistryTest {
+
+    private val evicted = Collections.synchronizedList(ArrayList<String>())
+    private val pool = Executors.newFixedThreadPool(4)
+
+    @After
+    fun tearDown() {
+        pool.shutdownNow()
+    }
+
+    /**
+     * 在调用线程上直接执行，close 之后的移除也同步完成
+     */
+    private fun directRegistry() = SessionRegistry(Executor { it.run() }) { evicted.add(it) }
+
+    @Test
+    fun refCountClosesOnLastRelease() {
+        val registry = directRegistry()
+        val peer = VideoPeer()
+        val session = registry.open("a", peer)
+        assertEquals(1, session.refCount)
+        assertSame(peer, registry["a"])
+
+        assertTrue(registry.retain("a"))
+        assertEquals(2, session.refCount)
+        assertFalse(registry.release("a"))
+        assertTrue(registry.release("a"))
+
+        assertSame(peer, registry.close("a"))
+        assertNull(registry["a"])
+        assertFalse(registry.retain("a"))
+        assertNull(registry.close("a"))
+        assertTrue(registry.uids().isEmpty())
+        val stats = registry.stats()
+        assertEquals(1L, stats.opened)
+        assertEquals(1L, stats.closed)
+    }
+
+    @Test
+    fun executorPlaceholderIsNotASession() {
+        val registry = directRegistry()
+        var retained = true
+        registry.execute("a") {
+            retained = registry.retain("a") || registry.release("a")
+        }
+        assertFalse(retained)
+        assertTrue(registry.stats().sessions.isEmpty())
+        // 没有 open 的占位在任务执行完后移除
+        assertTrue(registry.uids().isEmpty())
+    }
+
+    @Test
+    fun stoppingAbsentUidsLeavesNoPlaceholder() {
+        val registry = SessionRegistry(pool) { evicted.add(it) }
+        val done = CountDownLatch(100)
+        for (i in 0 until 100) {
+            // 和 stopSubscribe 一样：会话不存在时任务什么也不做
+            registry.execute("absent$i") {
+                registry.close("absent$i")
+                done.countDown()
+            }
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        waitUntil { registry.uids().isEmpty() }
+    }
+
+    @Test
+    fun placeholderOpenedByItsTaskIsKept() {
+        val registry = directRegistry()
+        registry.execute("a") { registry.open("a", VideoPeer()) }
+        assertEquals(setOf("a"), registry.uids())
+        registry.execute("a") { registry.close("a") }
+        assertTrue(registry.uids().isEmpty())
+    }
+
+    @Test
+    fun evictsIdleSessionsOverTheCap() {
+        val registry = directRegistry()
+        registry.maxSessions = 2
+        registry.idleTimeoutMs = 0
+        registry.open("connected", VideoPeer())
+        registry.setState("connected", SessionRegistry.State.CONNECTED)
+        Thread.sleep(5)
+        registry.open("idle", VideoPeer())
+        Thread.sleep(5)
+        assertTrue(evicted.isEmpty())
+
+        registry.open("new", VideoPeer())
+
+        assertEquals(listOf("idle"), evicted)
+        assertEquals(1L, registry.stats().evicted)
+    }
+
+    @Test
+    fun keepsSessionsThatAreNotIdleLongEnough() {
+        val registry = directRegistry()
+        registry.maxSessions = 1
+        registry.idleTimeoutMs = 60_000
+        registry.open("a", VideoPeer())
+        registry.open("b", VideoPeer())
+        assertTrue(evicted.isEmpty())
+        assertEquals(2, registry.stats().sessions.size)
+    }
+
+    @Test
+    fun membersShareOneSession() {
+        val registry = directRegistry()
+        registry.open("owner", VideoPeer())
+        assertNull(registry.claimShare("url#VIDEO", "owner"))
+        assertEquals("owner", registry.claimShare("url#VIDEO", "second"))
+
+        val member = registry.addMember("second", "owner", VideoPeer())
+        val pending = registry.addMember("third", "owner", VideoPeer())
+        assertTrue(registry.join(member))
+        assertEquals(2, registry.stats().sessions[0].refCount)
+        assertEquals(1, registry.stats().sharedSubscribers)
+        assertEquals(1L, registry.stats().dedupJoins)
+
+        registry.close("owner")
+        // 已加入的成员随会话移除，还没加入的留着，加入时失败后自己建连
+        assertNull(registry.member("second"))
+        assertSame(pending, registry.member("third"))
+        assertFalse(registry.join(pending))
+        assertNull(registry.member("third"))
+        assertNull(registry.claimShare("url#VIDEO", "fourth"))
+    }
+
+    @Test
+    fun ownerLeavesOnceWhileMembersStay() {
+        val registry = directRegistry()
+        registry.open("owner", VideoPeer())
+        val member = registry.addMember("second", "owner", VideoPeer())
+        assertTrue(registry.join(member))
+        assertTrue(registry.isOwnerJoined("owner"))
+
+        assertFalse(registry.leaveOwner("owner"))
+        // 重复停止不能把成员的引用也释放掉
+        assertFalse(registry.leaveOwner("owner"))
+        assertFalse(registry.isOwnerJoined("owner"))
+        assertEquals(1, registry.stats().sessions[0].refCount)
+
+        assertTrue(registry.release("owner"))
+    }
+
+    @Test
+    fun ownerRejoinsSessionKeptForMembers() {
+        val registry = directRegistry()
+        registry.open("owner", VideoPeer())
+        assertTrue(registry.join(registry.addMember("second", "owner", VideoPeer())))
+        assertFalse(registry.rejoinOwner("owner"))
+
+        registry.leaveOwner("owner")
+        assertTrue(registry.rejoinOwner("owner"))
+        assertTrue(registry.isOwnerJoined("owner"))
+        assertEquals(2, registry.stats().sessions[0].refCount)
+
+        // 成员先走，最后一个引用是重新加入的创建者
+        assertFalse(registry.release("owner"))
+        assertTrue(registry.leaveOwner("owner"))
+        registry.close("owner")
+        assertFalse(registry.rejoinOwner("owner"))
+        assertFalse(registry.isOwnerJoined("owner"))
+    }
+
+    @Test
+    fun closeWaitsForQueuedTasksBeforeRemoving() {
+        val registry = SessionRegistry(pool) { evicted.add(it) }
+        val done = CountDownLatch(1)
+        val gate = CountDownLatch(1)
+        val order = Collections.synchronizedList(ArrayList<Int>())
+        registry.execute("a") {
+            registry.open("a", VideoPeer())
+            registry.close("a")
+            order.add(1)
+        }
+        registry.execute("a") { gate.await() }
+        registry.execute("a") {
+            order.add(2)
+            // close 之后排队的任务还在原来的执行器上，按顺序执行
+            registry.open("a", VideoPeer())
+            registry.close("a")
+        }
+        registry.execute("a") {
+            order.add(3)
+            done.countDown()
+        }
+        assertEquals(setOf("a"), registry.uids())
+        gate.countDown()
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf(1, 2, 3), order)
+        waitUntil { registry.uids().isEmpty() }
+    }
+
+    /**
+     * 多个线程并发对少量 uid 开始、停止，按引擎的方式在会话执行器上操作：
+     * 会话已存在时加引用，否则新建；引用归零时关闭。结束后不应留下会话
+     */
+    @Test
+    fun concurrentStartStopLeavesNoSession() {
+        val registry = SessionRegistry(pool) { evicted.add(it) }
+        val uids = listOf("a", "b", "c")
+        val threads = 8
+        val rounds = 500
+        val opened = AtomicInteger()
+        val closed = AtomicInteger()
+        val refErrors = AtomicInteger()
+        val done = CountDownLatch(threads * rounds * 2)
+        val callers = Executors.newFixedThreadPool(threads)
+        repeat(threads) {
+            callers.execute {
+                repeat(rounds) {
+                    val uid = uids[ThreadLocalRandom.current().nextInt(uids.size)]
+                    registry.executor(uid).execute {
+                        if (!registry.retain(uid)) {
+                            registry.open(uid, VideoPeer())
+                            opened.incrementAndGet()
+                        }
+                        done.countDown()
+                    }
+                    registry.executor(uid).execute {
+                        if (registry.release(uid)) {
+                            if (registry.close(uid) != null) {
+                                closed.incrementAndGet()
+                            } else {
+                                refErrors.incrementAndGet()
+                            }
+                        }
+                        done.countDown()
+                    }
+                }
+            }
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS))
+        callers.shutdown()
+
+        assertEquals(0, refErrors.get())
+        assertEquals(opened.get(), closed.get())
+        assertTrue(registry.peers().isEmpty())
+        waitUntil { registry.uids().isEmpty() }
+    }
+
+    private fun waitUntil(condition: () -> Boolean) {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (!condition()) {
+            assertTrue(System.nanoTime() < deadline)
+            Thread.sleep(5)
+        }
+    }
+}
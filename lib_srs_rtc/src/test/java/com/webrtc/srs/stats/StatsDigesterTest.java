@@ -0,0 +1,144 @@
+package com.webrtc.srs.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class StatsDigesterTest {
+    private static final long SECOND_US = 1_000_000L;
+
+    private static RTCStats stats(long timestampUs, String type, String id, Object... members) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < members.length; i += 2) {
+            map.put((String) members[i], members[i + 1]);
+        }
+        return new RTCStats(timestampUs, type, id, map);
+    }
+
+    private static RTCStatsReport report(long timestampUs, RTCStats... stats) {
+        Map<String, RTCStats> map = new HashMap<>();
+        for (RTCStats s : stats) {
+            map.put(s.getId(), s);
+        }
+        return new RTCStatsReport(timestampUs, map);
+    }
+
+    private static RTCStats outVideo(long timestampUs, long bytes, long frames) {
+        return stats(timestampUs, "outbound-rtp", "OV", "kind", "video", "bytesSent", bytes,
+                "packetsSent", bytes / 1000, "framesEncoded", frames, "frameWidth", 1280L, "frameHeight", 720L);
+    }
+
+    private static RTCStats outAudio(long timestampUs, long bytes) {
+        return stats(timestampUs, "outbound-rtp", "OA", "kind", "audio", "bytesSent", bytes, "packetsSent", bytes / 100);
+    }
+
+    private static RTCStats inVideo(long timestampUs, long packets, long lost) {
+        return stats(timestampUs, "inbound-rtp", "IV", "kind", "video", "bytesReceived", packets * 1000,
+                "packetsReceived", packets, "packetsLost", lost, "framesDecoded", packets / 10);
+    }
+
+    private static RTCStats pair(long timestampUs, double rttSeconds) {
+        return stats(timestampUs, "candidate-pair", "CP", "nominated", true, "state", "succeeded",
+                "currentRoundTripTime", rttSeconds, "availableOutgoingBitrate", 2_000_000.0);
+    }
+
+    @Test
+    public void ratesComeFromTheDeltaToThePreviousReport() {
+        StatsDigester digester = new StatsDigester(8);
+        StatsSnapshot first = digester.digest(report(SECOND_US, outVideo(SECOND_US, 100_000, 30)));
+        // The first report has nothing to compare with.
+        assertEquals(0, first.outVideoBitrateBps);
+        assertEquals(0, first.outVideoFps, 0);
+
+        StatsSnapshot second = digester.digest(report(3 * SECOND_US, outVideo(3 * SECOND_US, 350_000, 90)));
+        assertEquals(1_000_000, second.outVideoBitrateBps);
+        assertEquals(30, second.outVideoFps, 0);
+        assertEquals(350_000, second.outVideoBytes);
+        assertEquals(1280, second.outVideoWidth);
+    }
+
+    @Test
+    public void counterResetGivesZeroRate() {
+        StatsDigester digester = new StatsDigester(8);
+        digester.digest(report(SECOND_US, outAudio(SECOND_US, 50_000)));
+        StatsSnapshot snapshot = digester.digest(report(2 * SECOND_US, outAudio(2 * SECOND_US, 1_000)));
+        assertEquals(0, snapshot.outAudioBitrateBps);
+        assertEquals(1_000, snapshot.outAudioBytes);
+    }
+
+    @Test
+    public void lossRateIsOverTheInterval() {
+        StatsDigester digester = new StatsDigester(8);
+        digester.digest(report(SECOND_US, inVideo(SECOND_US, 1000, 500)));
+        // 90 received and 10 lost since the previous report; the cumulative 500 lost don't count.
+        StatsSnapshot snapshot = digester.digest(report(2 * SECOND_US, inVideo(2 * SECOND_US, 1090, 510)));
+        assertEquals(0.1, snapshot.inVideoLossRate, 1e-9);
+        assertEquals(720_000, snapshot.inVideoBitrateBps);
+    }
+
+    @Test
+    public void partialReportLeavesOtherSectionsUntouched() {
+        StatsDigester digester = new StatsDigester(8);
+        digester.digest(report(SECOND_US, outVideo(SECOND_US, 0, 0), outAudio(SECOND_US, 0), pair(SECOND_US, 0.05)));
+        digester.digest(report(2 * SECOND_US, outVideo(2 * SECOND_US, 125_000, 25), outAudio(2 * SECOND_US, 4_000)));
+
+        // An audio-only report: the video rates and the pair stay as last digested.
+        StatsSnapshot snapshot = digester.digest(report(3 * SECOND_US, outAudio(3 * SECOND_US, 12_000)));
+        assertEquals(64_000, snapshot.outAudioBitrateBps);
+        assertEquals(1_000_000, snapshot.outVideoBitrateBps);
+        assertEquals(25, snapshot.outVideoFps, 0);
+        assertEquals(125_000, snapshot.outVideoBytes);
+        assertEquals(50, snapshot.rttMs, 1e-9);
+
+        // The video rate is measured from the video section's own last report, two seconds ago.
+        snapshot = digester.digest(report(4 * SECOND_US, outVideo(4 * SECOND_US, 625_000, 85)));
+        assertEquals(2_000_000, snapshot.outVideoBitrateBps);
+        assertEquals(30, snapshot.outVideoFps, 0);
+    }
+
+    @Test
+    public void mergedPollIsOneHistorySample() {
+        StatsDigester digester = new StatsDigester(8);
+        for (int i = 1; i <= 3; i++) {
+            long nowUs = i * SECOND_US;
+            // Per-sender reports both carry the shared candidate pair.
+            RTCStatsReport audio = report(nowUs, outAudio(nowUs, i * 4_000L), pair(nowUs, 0.02));
+            RTCStatsReport video = report(nowUs + 200, outVideo(nowUs + 200, i * 125_000L, i * 30L), pair(nowUs + 200, 0.03));
+            digester.digest(StatsDigester.merge(audio, video));
+        }
+
+        StatsHistory history = digester.getHistory();
+        assertEquals(3, history.size());
+        assertEquals(3 * SECOND_US + 200, history.getTimestampUs(0));
+        assertEquals(32_000, history.get(StatsHistory.Metric.OUT_AUDIO_BITRATE, 0), 0);
+        assertEquals(1_000_000, history.get(StatsHistory.Metric.OUT_VIDEO_BITRATE, 0), 0);
+        assertEquals(1_000_000, history.get(StatsHistory.Metric.OUT_VIDEO_BITRATE, 1), 0);
+    }
+
+    @Test
+    public void mergeKeepsEveryStatAndTheLatestTimestamp() {
+        RTCStatsReport audio = report(5 * SECOND_US, outAudio(5 * SECOND_US, 1), pair(5 * SECOND_US, 0.02));
+        RTCStatsReport video = report(4 * SECOND_US, outVideo(4 * SECOND_US, 1, 1), pair(4 * SECOND_US, 0.03));
+
+        RTCStatsReport merged = StatsDigester.merge(audio, video);
+        assertEquals(5 * SECOND_US, merged.getTimestampUs());
+        assertEquals(3, merged.getStatsMap().size());
+        assertEquals(0.03, merged.getStatsMap().get("CP").getMembers().get("currentRoundTripTime"));
+    }
+
+    @Test
+    public void resetForgetsPreviousCounters() {
+        StatsDigester digester = new StatsDigester(8);
+        digester.digest(report(SECOND_US, outVideo(SECOND_US, 100_000, 30)));
+        digester.reset();
+
+        StatsSnapshot snapshot = digester.digest(report(2 * SECOND_US, outVideo(2 * SECOND_US, 200_000, 60)));
+        assertEquals(0, snapshot.outVideoBitrateBps);
+        assertEquals(1, digester.getHistory().size());
+    }
+}
@@ -0,0 +1,91 @@
+package com.webrtc.srs.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StatsSchedulerTest {
+    // Long enough that the source never runs during the period tests.
+    private static final int IDLE_PERIOD_MS = 600_000;
+
+    @Test
+    public void hiddenMultipliesThePeriod() {
+        StatsScheduler.Registration registration = StatsScheduler.getInstance().register(() -> { }, IDLE_PERIOD_MS);
+        try {
+            registration.setPeriodMs(1000);
+            assertEquals(1000, registration.getEffectivePeriodMs());
+            registration.setHidden(true);
+            assertEquals(1000 * StatsScheduler.HIDDEN_FACTOR, registration.getEffectivePeriodMs());
+            registration.setHidden(false);
+            assertEquals(1000, registration.getEffectivePeriodMs());
+        } finally {
+            registration.cancel();
+        }
+    }
+
+    @Test
+    public void stableDoublesUpToTheCapAndResets() {
+        StatsScheduler.Registration registration = StatsScheduler.getInstance().register(() -> { }, IDLE_PERIOD_MS);
+        try {
+            registration.setPeriodMs(1000);
+            registration.setStable(true);
+            assertEquals(2000, registration.getEffectivePeriodMs());
+            registration.setStable(true);
+            assertEquals(4000, registration.getEffectivePeriodMs());
+            registration.setStable(true);
+            assertEquals(1000 * StatsScheduler.MAX_STABLE_FACTOR, registration.getEffectivePeriodMs());
+
+            // Hidden and stable compound.
+            registration.setHidden(true);
+            assertEquals(1000 * StatsScheduler.MAX_STABLE_FACTOR * StatsScheduler.HIDDEN_FACTOR,
+                    registration.getEffectivePeriodMs());
+
+            registration.setStable(false);
+            assertEquals(1000 * StatsScheduler.HIDDEN_FACTOR, registration.getEffectivePeriodMs());
+        } finally {
+            registration.cancel();
+        }
+    }
+
+    @Test
+    public void pollsRepeatedlyUntilCancelled() throws InterruptedException {
+        StatsScheduler scheduler = StatsScheduler.getInstance();
+        int before = scheduler.getRegistrationCount();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch three = new CountDownLatch(3);
+        StatsScheduler.Registration registration = scheduler.register(() -> {
+            runs.incrementAndGet();
+            three.countDown();
+        }, 10);
+        assertEquals(before + 1, scheduler.getRegistrationCount());
+        assertTrue(three.await(5, TimeUnit.SECONDS));
+
+        registration.cancel();
+        registration.cancel();
+        assertEquals(before, scheduler.getRegistrationCount());
+        // A run already in progress may still finish; nothing is scheduled after it.
+        Thread.sleep(30);
+        int afterCancel = runs.get();
+        Thread.sleep(100);
+        assertEquals(afterCancel, runs.get());
+    }
+
+    @Test
+    public void failingSourceKeepsBeingPolled() throws InterruptedException {
+        CountDownLatch twice = new CountDownLatch(2);
+        StatsScheduler.Registration registration = StatsScheduler.getInstance().register(() -> {
+            twice.countDown();
+            throw new IllegalStateException("boom");
+        }, 10);
+        try {
+            assertTrue(twice.await(5, TimeUnit.SECONDS));
+        } finally {
+            registration.cancel();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.webrtc.srs.transfer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+
+public class BulkTransferReceiverTest {
+    private File target;
+    private BulkTransferReceiver receiver;
+
+    @Before
+    public void setUp() throws IOException {
+        target = File.createTempFile("bulk", ".bin");
+        receiver = new BulkTransferReceiver(data -> CompletableFuture.completedFuture(true),
+                new BulkTransferReceiver.Listener() {
+                    @Override
+                    public File onOffer(long transferId, String name, long size) {
+                        return target;
+                    }
+
+                    @Override
+                    public void onComplete(File file, TransferMetrics metrics) {
+                    }
+
+                    @Override
+                    public void onFailed(long transferId, String name, Exception e) {
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        receiver.forget(1);
+        target.delete();
+    }
+
+    @Test
+    public void newTransferTruncatesLongerFile() throws IOException {
+        Files.write(target.toPath(), new byte[4096]);
+
+        receiver.onMessage("ctrl", TransferProtocol.offer(1, 100, 64, "a.bin"), true);
+
+        assertEquals(100, target.length());
+    }
+
+    @Test
+    public void newTransferGrowsShorterFile() throws IOException {
+        Files.write(target.toPath(), new byte[10]);
+
+        receiver.onMessage("ctrl", TransferProtocol.offer(1, 100, 64, "a.bin"), true);
+
+        assertEquals(100, target.length());
+    }
+
+    @Test
+    public void emptyTransferLeavesEmptyFile() throws IOException {
+        Files.write(target.toPath(), new byte[4096]);
+
+        receiver.onMessage("ctrl", TransferProtocol.offer(1, 0, 64, "a.bin"), true);
+
+        assertEquals(0, target.length());
+    }
+}
@@ -0,0 +1,178 @@
+package com.webrtc.srs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SerialExecutorTest {
+
+    /**
+     * A pool that only queues; the test runs the drain tasks by hand.
+     */
+    private static final class ManualPool implements java.util.concurrent.Executor {
+        final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        int submitted;
+
+        @Override
+        public void execute(Runnable command) {
+            submitted++;
+            queue.add(command);
+        }
+
+        boolean runNext() {
+            Runnable next = queue.poll();
+            if (next == null) {
+                return false;
+            }
+            next.run();
+            return true;
+        }
+    }
+
+    @Test
+    public void runsTasksInSubmissionOrder() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SerialExecutor executor = new SerialExecutor("order", pool);
+            List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(1);
+            final int count = 10_000;
+            for (int i = 0; i < count; i++) {
+                final int index = i;
+                executor.execute(() -> seen.add(index));
+            }
+            executor.execute(done::countDown);
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(count, seen.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, (int) seen.get(i));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void neverRunsTwoTasksAtOnce() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        ExecutorService submitters = Executors.newFixedThreadPool(4);
+        try {
+            SerialExecutor executor = new SerialExecutor("serial", pool);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger overlaps = new AtomicInteger();
+            AtomicInteger ran = new AtomicInteger();
+            final int perSubmitter = 2_000;
+            CountDownLatch done = new CountDownLatch(4 * perSubmitter);
+            for (int s = 0; s < 4; s++) {
+                submitters.execute(() -> {
+                    for (int i = 0; i < perSubmitter; i++) {
+                        executor.execute(() -> {
+                            if (running.incrementAndGet() != 1) {
+                                overlaps.incrementAndGet();
+                            }
+                            ran.incrementAndGet();
+                            running.decrementAndGet();
+                            done.countDown();
+                        });
+                    }
+                });
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(0, overlaps.get());
+            assertEquals(4 * perSubmitter, ran.get());
+        } finally {
+            submitters.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void drainsInBatches() {
+        ManualPool pool = new ManualPool();
+        SerialExecutor executor = new SerialExecutor("batch", pool);
+        AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 40; i++) {
+            executor.execute(ran::incrementAndGet);
+        }
+        assertEquals(1, pool.submitted);
+
+        assertTrue(pool.runNext());
+        assertEquals(16, ran.get());
+        assertTrue(pool.runNext());
+        assertEquals(32, ran.get());
+        assertTrue(pool.runNext());
+        assertEquals(40, ran.get());
+        assertFalse(pool.runNext());
+        assertEquals(3, pool.submitted);
+    }
+
+    @Test
+    public void busyExecutorYieldsThePoolThread() {
+        ManualPool pool = new ManualPool();
+        SerialExecutor busy = new SerialExecutor("busy", pool);
+        SerialExecutor other = new SerialExecutor("other", pool);
+        AtomicInteger busyRan = new AtomicInteger();
+        int[] busyRanBeforeOther = {-1};
+        for (int i = 0; i < 100; i++) {
+            busy.execute(busyRan::incrementAndGet);
+        }
+        other.execute(() -> busyRanBeforeOther[0] = busyRan.get());
+
+        while (pool.runNext()) {
+            // Single pool thread, run to completion.
+        }
+        assertEquals(16, busyRanBeforeOther[0]);
+        assertEquals(100, busyRan.get());
+    }
+
+    @Test
+    public void failingTaskDoesNotStopTheQueue() {
+        ManualPool pool = new ManualPool();
+        SerialExecutor executor = new SerialExecutor("failing", pool);
+        AtomicInteger ran = new AtomicInteger();
+        executor.execute(() -> {
+            throw new IllegalStateException("boom");
+        });
+        executor.execute(ran::incrementAndGet);
+        while (pool.runNext()) {
+            // drain
+        }
+        assertEquals(1, ran.get());
+    }
+
+    @Test
+    public void executeOrRunIsInlineOnlyOnTheExecutor() {
+        ManualPool pool = new ManualPool();
+        SerialExecutor executor = new SerialExecutor("inline", pool);
+        List<String> order = new ArrayList<>();
+        executor.execute(() -> {
+            assertTrue(executor.isCurrent());
+            executor.executeOrRun(() -> order.add("inline"));
+            order.add("after");
+        });
+        executor.executeOrRun(() -> order.add("queued"));
+        assertFalse(executor.isCurrent());
+        assertTrue(executor.hasQueued());
+
+        while (pool.runNext()) {
+            // drain
+        }
+        assertEquals(Arrays.asList("inline", "after", "queued"), order);
+        assertFalse(executor.hasQueued());
+    }
+}
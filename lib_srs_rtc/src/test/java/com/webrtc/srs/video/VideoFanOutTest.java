@@ -0,0 +1,198 @@
+package com.webrtc.srs.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VideoFanOutTest {
+    private static final long WAIT_MS = 5000;
+
+    /**
+     * Counts references like a SurfaceTextureHelper frame; toI420 stands in for the readback.
+     */
+    private static class FakeBuffer implements VideoFrame.Buffer {
+        final AtomicInteger refs = new AtomicInteger(1);
+        final List<FakeI420> copies = new ArrayList<>();
+
+        @Override
+        public int getWidth() {
+            return 4;
+        }
+
+        @Override
+        public int getHeight() {
+            return 4;
+        }
+
+        @Override
+        public synchronized VideoFrame.I420Buffer toI420() {
+            FakeI420 copy = new FakeI420();
+            copies.add(copy);
+            return copy;
+        }
+
+        @Override
+        public VideoFrame.Buffer cropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
+                int scaleWidth, int scaleHeight) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void retain() {
+            refs.incrementAndGet();
+        }
+
+        @Override
+        public void release() {
+            refs.decrementAndGet();
+        }
+    }
+
+    private static final class FakeI420 extends FakeBuffer implements VideoFrame.I420Buffer {
+        @Override
+        public ByteBuffer getDataY() {
+            return ByteBuffer.allocate(16);
+        }
+
+        @Override
+        public ByteBuffer getDataU() {
+            return ByteBuffer.allocate(4);
+        }
+
+        @Override
+        public ByteBuffer getDataV() {
+            return ByteBuffer.allocate(4);
+        }
+
+        @Override
+        public int getStrideY() {
+            return 4;
+        }
+
+        @Override
+        public int getStrideU() {
+            return 2;
+        }
+
+        @Override
+        public int getStrideV() {
+            return 2;
+        }
+
+        @Override
+        public VideoFrame.I420Buffer toI420() {
+            retain();
+            return this;
+        }
+    }
+
+    /**
+     * Blocks in onFrame until opened, like a recorder stuck behind a slow disk.
+     */
+    private static final class SlowSink implements VideoSink {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch open = new CountDownLatch(1);
+        final List<VideoFrame.Buffer> seen = new ArrayList<>();
+
+        @Override
+        public void onFrame(VideoFrame frame) {
+            synchronized (this) {
+                seen.add(frame.getBuffer());
+            }
+            entered.countDown();
+            try {
+                open.await(WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Delivers a frame the way the decoder does: its own reference is dropped after onFrame.
+     */
+    private static FakeBuffer deliver(VideoFanOut fanOut, long timestampNs) {
+        FakeBuffer buffer = new FakeBuffer();
+        VideoFrame frame = new VideoFrame(buffer, 0, timestampNs);
+        fanOut.onFrame(frame);
+        frame.release();
+        return buffer;
+    }
+
+    private static void awaitReleased(FakeBuffer buffer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (buffer.refs.get() != 0) {
+            assertTrue("frame still held: " + buffer.refs.get(), System.currentTimeMillis() < deadline);
+            Thread.sleep(2);
+        }
+    }
+
+    @Test
+    public void slowConsumerDoesNotHoldSourceFrames() throws InterruptedException {
+        VideoFanOut fanOut = new VideoFanOut(null);
+        SlowSink sink = new SlowSink();
+        fanOut.addConsumer("slow", sink, 0);
+
+        FakeBuffer first = deliver(fanOut, 1);
+        assertTrue(sink.entered.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        FakeBuffer second = deliver(fanOut, 2);
+        FakeBuffer third = deliver(fanOut, 3);
+
+        // The sink is still blocked on the first frame, yet no source frame is held.
+        awaitReleased(first);
+        awaitReleased(second);
+        awaitReleased(third);
+        synchronized (sink) {
+            assertEquals(1, sink.seen.size());
+            assertTrue(sink.seen.get(0) instanceof VideoFrame.I420Buffer);
+        }
+
+        sink.open.countDown();
+        fanOut.release();
+    }
+
+    @Test
+    public void copiesAreReleasedAfterDeliveryAndRelease() throws InterruptedException {
+        VideoFanOut fanOut = new VideoFanOut(null);
+        SlowSink sink = new SlowSink();
+        sink.open.countDown();
+        VideoFanOut.Consumer consumer = fanOut.addConsumer("fast", sink, 0);
+
+        FakeBuffer source = deliver(fanOut, 1);
+        awaitReleased(source);
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (consumer.getStats().delivered == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(2);
+        }
+        fanOut.release();
+
+        assertEquals(1, source.copies.size());
+        awaitReleased(source.copies.get(0));
+    }
+
+    @Test
+    public void throttledFramesAreNeverRetained() {
+        VideoFanOut fanOut = new VideoFanOut(null);
+        SlowSink sink = new SlowSink();
+        sink.open.countDown();
+        VideoFanOut.Consumer consumer = fanOut.addConsumer("throttled", sink, 10);
+
+        deliver(fanOut, 0);
+        FakeBuffer early = deliver(fanOut, 50_000_000L);
+
+        assertEquals(0, early.refs.get());
+        assertEquals(1, consumer.getStats().throttled);
+        fanOut.release();
+    }
+}